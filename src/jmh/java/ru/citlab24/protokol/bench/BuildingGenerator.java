@@ -0,0 +1,244 @@
+package ru.citlab24.protokol.bench;
+
+import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Section;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Синтетические здания для бенчмарков.
+ * <p>
+ * Одинаковые аргументы и {@code seed} дают одинаковый граф: номера, имена и объёмы комнат
+ * детерминированы, поэтому замеры «до» и «после» изменения сравнимы между запусками.
+ * Имена помещений и комнат — как в реальных проектах, чтобы предикаты по названиям
+ * (вентиляция, санузлы, «Шумы») отрабатывали свои настоящие ветки.
+ */
+public final class BuildingGenerator {
+    private static final int APARTMENTS_PER_FLOOR = 4;
+    private static final int FLOORS_PER_SECTION = 25;
+    private static final int OFFICES_PER_FLOOR = 3;
+
+    private static final List<String> LIVING_ROOMS = List.of("Жилая комната", "Спальня", "Гостиная", "Детская");
+    private static final List<String> OFFICE_ROOMS = List.of("Кабинет", "Переговорная", "Ресепшн", "Архив");
+    private static final List<String> TECHNICAL_ROOMS = List.of(
+            "Электрощитовая", "ИТП", "Венткамера", "Насосная", "Мусорокамера", "Колясочная");
+    private static final List<String> OUTDOOR_ROOMS = List.of(
+            "Детская площадка", "Гостевая парковка", "Въезд в паркинг", "Спортивная площадка");
+
+    private BuildingGenerator() {
+    }
+
+    /** Жилой дом на {@code apartments} квартир: только жилые этажи, по 4 квартиры, до 25 этажей в секции. */
+    public static Building residential(int apartments, long seed) {
+        Generator g = new Generator(seed);
+        Building building = new Building();
+        building.setName("Жилой дом на " + apartments + " кв.");
+
+        int floors = Math.max(1, (apartments + APARTMENTS_PER_FLOOR - 1) / APARTMENTS_PER_FLOOR);
+        int sections = (floors + FLOORS_PER_SECTION - 1) / FLOORS_PER_SECTION;
+        for (int s = 0; s < sections; s++) {
+            building.addSection(new Section("Секция " + (s + 1), s));
+        }
+        for (int f = 0; f < floors; f++) {
+            Floor floor = g.floor(Floor.FloorType.RESIDENTIAL, String.valueOf(f % FLOORS_PER_SECTION + 2),
+                    f / FLOORS_PER_SECTION, f % FLOORS_PER_SECTION);
+            g.addApartments(floor, Math.min(APARTMENTS_PER_FLOOR, apartments - g.apartments));
+            building.addFloor(floor);
+        }
+        return building;
+    }
+
+    /**
+     * Жилой комплекс примерно на {@code apartments} квартир со всеми типами этажей.
+     * В каждой секции: подвал (общественный: техпомещения и МОП), первый этаж с офисами,
+     * второй смешанный (квартиры и МОП) и жилые этажи выше, до 25 этажей в секции.
+     * У первой секции есть «улица» с уличными зонами.
+     */
+    public static Building complex(int apartments, long seed) {
+        Generator g = new Generator(seed);
+        Building building = new Building();
+        building.setName("ЖК на " + apartments + " кв.");
+
+        int residentialPerSection = FLOORS_PER_SECTION - 3;
+        int perSection = APARTMENTS_PER_FLOOR - 1 + residentialPerSection * APARTMENTS_PER_FLOOR;
+        int sections = Math.max(1, (apartments + perSection - 1) / perSection);
+        for (int s = 0; s < sections; s++) {
+            building.addSection(new Section("Секция " + (s + 1), s));
+            int position = 0;
+            if (s == 0) {
+                Floor street = g.floor(Floor.FloorType.STREET, "улица", s, position++);
+                g.addOutdoor(street);
+                building.addFloor(street);
+            }
+            Floor basement = g.floor(Floor.FloorType.PUBLIC, "-1", s, position++);
+            g.addTechnical(basement);
+            g.addCommonArea(basement);
+            building.addFloor(basement);
+
+            Floor offices = g.floor(Floor.FloorType.OFFICE, "1", s, position++);
+            g.addOffices(offices, OFFICES_PER_FLOOR);
+            building.addFloor(offices);
+
+            Floor mixed = g.floor(Floor.FloorType.MIXED, "2", s, position++);
+            g.addApartments(mixed, Math.min(APARTMENTS_PER_FLOOR - 1, apartments - g.apartments));
+            g.addCommonArea(mixed);
+            building.addFloor(mixed);
+
+            for (int number = 3; number < 3 + residentialPerSection && g.apartments < apartments; number++) {
+                Floor floor = g.floor(Floor.FloorType.RESIDENTIAL, String.valueOf(number), s, position++);
+                g.addApartments(floor, Math.min(APARTMENTS_PER_FLOOR, apartments - g.apartments));
+                building.addFloor(floor);
+            }
+        }
+        return building;
+    }
+
+    /**
+     * Отметки «Шумов» примерно для половины комнат. Ключ — «секция|этаж|помещение|комната»,
+     * как у DatabaseManager и вкладки «Шумы».
+     */
+    public static Map<String, DatabaseManager.NoiseValue> noiseSelections(Building building, long seed) {
+        Random random = new Random(seed);
+        Map<String, DatabaseManager.NoiseValue> byKey = new HashMap<>();
+        for (Floor floor : building.getFloors()) {
+            for (Space space : floor.getSpaces()) {
+                for (Room room : space.getRooms()) {
+                    if (!random.nextBoolean()) {
+                        continue;
+                    }
+                    DatabaseManager.NoiseValue value = new DatabaseManager.NoiseValue();
+                    value.measure = true;
+                    value.lift = random.nextBoolean();
+                    value.vent = random.nextBoolean();
+                    value.heatCurtain = random.nextInt(16) == 0;
+                    value.itp = random.nextInt(8) == 0;
+                    value.pns = random.nextInt(8) == 0;
+                    value.electrical = random.nextInt(8) == 0;
+                    value.autoSrc = random.nextInt(4) == 0;
+                    value.zum = random.nextInt(8) == 0;
+                    byKey.put(key(floor, space, room), value);
+                }
+            }
+        }
+        return byKey;
+    }
+
+    private static String key(Floor floor, Space space, Room room) {
+        return Math.max(0, floor.getSectionIndex()) + "|" + trim(floor.getNumber()) + "|"
+                + trim(space.getIdentifier()) + "|" + trim(room.getName());
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    /** Счётчики номеров и общий генератор случайных чисел одного здания. */
+    private static final class Generator {
+        private final Random random;
+        private int apartments;
+        private int offices;
+        private int commonAreas;
+
+        private Generator(long seed) {
+            this.random = new Random(seed);
+        }
+
+        private Floor floor(Floor.FloorType type, String number, int sectionIndex, int position) {
+            Floor floor = new Floor();
+            floor.setType(type);
+            floor.setNumber(number);
+            floor.setName(type.title + " " + number);
+            floor.setSectionIndex(sectionIndex);
+            floor.setPosition(position);
+            return floor;
+        }
+
+        private void addApartments(Floor floor, int count) {
+            for (int i = 0; i < count; i++) {
+                Space space = space(floor, "кв. " + (++apartments), Space.SpaceType.APARTMENT);
+                int livingRooms = random.nextInt(4);
+                if (livingRooms == 0) {
+                    room(space, "Кухня-гостиная");
+                    room(space, "Коридор");
+                    room(space, "Совмещённый санузел");
+                    continue;
+                }
+                room(space, "Кухня");
+                for (int r = 0; r < livingRooms; r++) {
+                    room(space, LIVING_ROOMS.get(r));
+                }
+                room(space, "Коридор");
+                if (random.nextBoolean()) {
+                    room(space, "Совмещённый санузел");
+                } else {
+                    room(space, "Ванная");
+                    room(space, "Туалет");
+                }
+                if (livingRooms > 1) {
+                    room(space, "Гардероб");
+                }
+            }
+        }
+
+        private void addOffices(Floor floor, int count) {
+            for (int i = 0; i < count; i++) {
+                Space space = space(floor, "оф. " + (++offices), Space.SpaceType.OFFICE);
+                int rooms = 1 + random.nextInt(OFFICE_ROOMS.size());
+                for (int r = 0; r < rooms; r++) {
+                    room(space, OFFICE_ROOMS.get(r));
+                }
+                room(space, "Санузел");
+                room(space, "Кладовая");
+            }
+        }
+
+        private void addCommonArea(Floor floor) {
+            Space space = space(floor, "МОП " + (++commonAreas), Space.SpaceType.PUBLIC_SPACE);
+            room(space, "Лифтовой холл");
+            room(space, "Коридор");
+            room(space, "Лестничная клетка");
+            room(space, "Мусорокамера");
+        }
+
+        private void addTechnical(Floor floor) {
+            Space space = space(floor, "Техподполье", Space.SpaceType.PUBLIC_SPACE);
+            for (String name : TECHNICAL_ROOMS) {
+                room(space, name);
+            }
+        }
+
+        private void addOutdoor(Floor floor) {
+            Space space = space(floor, "Придомовая территория", Space.SpaceType.OUTDOOR);
+            for (String name : OUTDOOR_ROOMS) {
+                room(space, name);
+            }
+        }
+
+        private Space space(Floor floor, String identifier, Space.SpaceType type) {
+            Space space = new Space();
+            space.setIdentifier(identifier);
+            space.setType(type);
+            space.setPosition(floor.getSpaces().size());
+            floor.addSpace(space);
+            return space;
+        }
+
+        private void room(Space space, String name) {
+            Room room = new Room();
+            room.setName(name);
+            room.setPosition(space.getRooms().size());
+            room.setVolume(Math.round((15 + random.nextDouble() * 45) * 10) / 10.0);
+            room.setExternalWallsCount(random.nextInt(3));
+            room.setMicroclimateSelected(random.nextInt(4) == 0);
+            room.setRadiationSelected(random.nextInt(4) == 0);
+            space.addRoom(room);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.citlab24.protokol.db;
+
+/** Общее для бенчмарков БД: фикстуры пишут в базу только локальную. */
+final class BenchmarkDatabase {
+    /** Снимает проверку локальности: в jmh.args {@code -jvmArgsAppend -Dbench.db.allowRemote=true}. */
+    private static final String ALLOW_REMOTE = "bench.db.allowRemote";
+
+    private BenchmarkDatabase() {
+    }
+
+    /** Фикстуры пишут и удаляют данные, поэтому по умолчанию работаем только с локальной базой. */
+    static void requireLocal() throws Exception {
+        String url = DatabaseConfig.load().getProperty("db.url", "");
+        boolean local = url.contains("//localhost") || url.contains("//127.0.0.1") || url.contains("//[::1]");
+        if (!local && !Boolean.getBoolean(ALLOW_REMOTE)) {
+            throw new IllegalStateException("Бенчмарки запускаются только на локальной PostgreSQL, в db.properties: "
+                    + url + " (чтобы всё же запустить: -jvmArgsAppend -D" + ALLOW_REMOTE + "=true)");
+        }
+    }
+}
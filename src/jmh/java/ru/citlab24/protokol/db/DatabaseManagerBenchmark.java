@@ -0,0 +1,106 @@
+package ru.citlab24.protokol.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.citlab24.protokol.bench.BuildingGenerator;
+import ru.citlab24.protokol.tabs.models.Building;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Основные операции DatabaseManager над сгенерированным домом на 10, 100 и 1000 квартир.
+ * <p>
+ * Перед замерами дом сохраняется в локальную базу вместе с отметками «Шумов»; всё созданное
+ * удаляется после. Профиль аллокаций — {@code -prof gc} (включён в jmh.args по умолчанию).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseManagerBenchmark {
+    private static final long SEED = 24L;
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10", "100", "1000"})
+    public int apartments;
+
+    /** Дом фикстуры, сохранён один раз на прогон. */
+    private Building building;
+    private Map<String, DatabaseManager.NoiseValue> noiseByKey;
+    private String namePrefix;
+    /** Граф для saveBuildingVersion: каждое сохранение — новый проект, удаляется после итерации. */
+    private Building toSave;
+    private final List<Integer> savedIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void createFixture() throws Exception {
+        BenchmarkDatabase.requireLocal();
+        namePrefix = "JMH " + apartments + " кв. " + System.currentTimeMillis();
+        building = BuildingGenerator.residential(apartments, SEED);
+        building.setName(namePrefix);
+        noiseByKey = BuildingGenerator.noiseSelections(building, SEED);
+        DatabaseManager.saveBuilding(building);
+        DatabaseManager.updateNoiseSelections(building, noiseByKey);
+
+        toSave = BuildingGenerator.residential(apartments, SEED);
+        toSave.setName(namePrefix + " (сохранение)");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteSaved() throws Exception {
+        for (int id : savedIds) {
+            DatabaseManager.deleteBuilding(id);
+        }
+        savedIds.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws Exception {
+        DatabaseManager.deleteBuilding(building.getId());
+        DatabaseManager.shutdown();
+    }
+
+    @Benchmark
+    public Building loadBuilding() throws Exception {
+        return DatabaseManager.loadBuilding(building.getId());
+    }
+
+    @Benchmark
+    public int saveBuildingVersion() throws Exception {
+        DatabaseManager.saveBuildingVersion(toSave, 0, 0, null);
+        savedIds.add(toSave.getId());
+        return toSave.getId();
+    }
+
+    @Benchmark
+    public Map<String, DatabaseManager.NoiseValue> loadNoiseSelectionsByKey() throws Exception {
+        return DatabaseManager.loadNoiseSelectionsByKey(building.getId());
+    }
+
+    @Benchmark
+    public void updateNoiseSelections() throws Exception {
+        DatabaseManager.updateNoiseSelections(building, noiseByKey);
+    }
+
+    /** Первая страница списка проектов; замена прежнего getAllBuildings. */
+    @Benchmark
+    public DatabaseManager.ProjectPage<Building> getLatestBuildings() throws Exception {
+        return DatabaseManager.getLatestBuildings(namePrefix, 0, PAGE_SIZE);
+    }
+}
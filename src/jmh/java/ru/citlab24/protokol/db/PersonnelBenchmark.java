@@ -0,0 +1,79 @@
+package ru.citlab24.protokol.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка персонала с отсутствиями: целиком и за месяц календаря.
+ * Фикстура — сотрудники с несколькими периодами отсутствия за последний год, удаляются после прогона.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersonnelBenchmark {
+    private static final int ABSENCES_PER_PERSON = 6;
+
+    @Param({"10", "100"})
+    public int staff;
+
+    private final List<Integer> personnelIds = new ArrayList<>();
+    private LocalDate monthStart;
+    private LocalDate monthEnd;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws Exception {
+        BenchmarkDatabase.requireLocal();
+        Random random = new Random(24L);
+        LocalDate today = LocalDate.now();
+        monthStart = today.withDayOfMonth(1);
+        monthEnd = monthStart.plusMonths(1).minusDays(1);
+        for (int i = 0; i < staff; i++) {
+            PersonnelRecord person = DatabaseManager.addPersonnel("Сотрудник " + (i + 1), "JMH", "");
+            personnelIds.add(person.getId());
+            for (int a = 0; a < ABSENCES_PER_PERSON; a++) {
+                LocalDate from = today.minusDays(random.nextInt(365));
+                DatabaseManager.addPersonnelUnavailability(person.getId(), from,
+                        from.plusDays(random.nextInt(10)), "Отпуск");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws Exception {
+        for (int id : personnelIds) {
+            DatabaseManager.deletePersonnel(id);
+        }
+        DatabaseManager.shutdown();
+    }
+
+    @Benchmark
+    public List<PersonnelRecord> getAllPersonnel() throws Exception {
+        return DatabaseManager.getAllPersonnel();
+    }
+
+    /** Как при показе одного месяца в календаре. */
+    @Benchmark
+    public List<PersonnelRecord> getAllPersonnelForMonth() throws Exception {
+        return DatabaseManager.getAllPersonnel(monthStart, monthEnd);
+    }
+}
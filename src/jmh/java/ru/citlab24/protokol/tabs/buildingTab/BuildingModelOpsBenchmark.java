@@ -0,0 +1,61 @@
+package ru.citlab24.protokol.tabs.buildingTab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.citlab24.protokol.bench.BuildingGenerator;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+
+import java.util.concurrent.TimeUnit;
+
+/** Копирование здания и этажей (новая редакция, копия этажа) на жилом комплексе со всеми типами этажей. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildingModelOpsBenchmark {
+    @Param({"100", "1000", "5000"})
+    public int apartments;
+
+    private Building building;
+    private BuildingModelOps ops;
+
+    @Setup
+    public void generate() {
+        building = BuildingGenerator.complex(apartments, 24L);
+        ops = new BuildingModelOps(building);
+    }
+
+    @Benchmark
+    public Building createBuildingCopy() {
+        return ops.createBuildingCopy();
+    }
+
+    /** Копия каждого этажа с новыми id комнат. */
+    @Benchmark
+    public void createFloorCopy(Blackhole bh) {
+        for (Floor floor : building.getFloors()) {
+            bh.consume(ops.createFloorCopy(floor));
+        }
+    }
+
+    /** Копия каждого этажа с сохранением id и отметок. */
+    @Benchmark
+    public void createFloorCopyPreserve(Blackhole bh) {
+        for (Floor floor : building.getFloors()) {
+            bh.consume(ops.createFloorCopyPreserve(floor));
+        }
+    }
+}
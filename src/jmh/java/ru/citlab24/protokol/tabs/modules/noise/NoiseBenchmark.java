@@ -0,0 +1,68 @@
+package ru.citlab24.protokol.tabs.modules.noise;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.citlab24.protokol.bench.BuildingGenerator;
+import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Section;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Фильтр источников и подсчёт точек вкладки «Шумы» при включённом фильтре «Лифт» + «ИТП». */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoiseBenchmark {
+    @Param({"100", "1000", "5000"})
+    public int apartments;
+
+    private Building building;
+    private Map<String, DatabaseManager.NoiseValue> byKey;
+    private NoiseFilter filter;
+
+    @Setup
+    public void generate() {
+        building = BuildingGenerator.complex(apartments, 24L);
+        byKey = BuildingGenerator.noiseSelections(building, 24L);
+        filter = new NoiseFilter(building, byKey, Set.of("Лифт", "ИТП"));
+    }
+
+    @Benchmark
+    public List<Section> filterSections() {
+        return filter.filterSections();
+    }
+
+    /** Комнаты каждого помещения — как при проходе по всем спискам вкладки. */
+    @Benchmark
+    public void filterRooms(Blackhole bh) {
+        for (Floor floor : building.getFloors()) {
+            for (Space space : floor.getSpaces()) {
+                bh.consume(filter.filterRooms(floor.getSectionIndex(), floor, space));
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<NoiseTestKind, Integer> buildPointsCountByKind() {
+        return NoiseTab.buildPointsCountByKind(building, byKey);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.citlab24.protokol.tabs.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.citlab24.protokol.bench.BuildingGenerator;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.util.concurrent.TimeUnit;
+
+/** Отбор комнат вкладки «Вентиляция» по всему жилому комплексу. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomUtilsBenchmark {
+    @Param({"100", "1000", "5000"})
+    public int apartments;
+
+    private Building building;
+
+    @Setup
+    public void generate() {
+        building = BuildingGenerator.complex(apartments, 24L);
+    }
+
+    @Benchmark
+    public int isVentilationRelevant() {
+        int relevant = 0;
+        for (Floor floor : building.getFloors()) {
+            for (Space space : floor.getSpaces()) {
+                for (Room room : space.getRooms()) {
+                    if (RoomUtils.isVentilationRelevant(floor.getType(), room.getName())) {
+                        relevant++;
+                    }
+                }
+            }
+        }
+        return relevant;
+    }
+}
@@ -11,6 +11,8 @@ module ru.citlab24.protokol {
     requires com.formdev.flatlaf;
     requires org.kordamp.ikonli.swing;
     requires java.sql;
+    requires com.zaxxer.hikari;
+    requires org.postgresql.jdbc;
     requires java.prefs;
 //    requires org.apache.poi.poi;
     requires org.apache.poi.ooxml;
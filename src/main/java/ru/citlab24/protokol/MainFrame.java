@@ -22,6 +22,8 @@ import ru.citlab24.protokol.tabs.resourceTab.AppUsersTab;
 import ru.citlab24.protokol.tabs.resourceTab.SiteVisitsTab;
 import ru.citlab24.protokol.db.AppUserRecord;
 import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.db.ProjectLockService;
+import ru.citlab24.protokol.db.RevisionCompactionJob;
 import ru.citlab24.protokol.tabs.qms.ShewhartMapTab;
 import ru.citlab24.protokol.tabs.qms.VlkTab;
 
@@ -34,11 +36,9 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.sql.SQLException;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 public class MainFrame extends JFrame {
+    private static final long CLOSE_FLUSH_TIMEOUT_MS = 3_000;
 
     private final AppUserRecord currentUser;
     private final String projectEditSessionId = UUID.randomUUID().toString();
@@ -58,7 +58,7 @@ public class MainFrame extends JFrame {
     private Component lastSelectedMainTab;
     private JLabel projectEditingStatusLabel;
     private JMenuItem saveProjectMenuItem;
-    private ScheduledExecutorService projectLockHeartbeatExecutor;
+    private final RevisionCompactionJob revisionCompactionJob = RevisionCompactionJob.fromConfig();
 
     private static final String CARD_PROTOCOL_HOME = "protocol-home";
     private static final String CARD_PROTOCOL_AREA = "protocol-area";
@@ -83,7 +83,8 @@ public class MainFrame extends JFrame {
         setIconImage(Toolkit.getDefaultToolkit().getImage(
                 MainFrame.class.getResource("/icons/protokol.png")));
         setProjectTitle(building.getName());
-        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        // Выход — в windowClosing: закрытие можно отменить, если изменения не записаны
+        setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
         setMinimumSize(new Dimension(1100, 720));
         setLocationByPlatform(true);
 
@@ -94,11 +95,27 @@ public class MainFrame extends JFrame {
 
         configureTabbedPane();
         initUI();
-        startProjectLockHeartbeat();
+        ProjectLockService.start(projectEditSessionId);
+        revisionCompactionJob.start();
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
+                // Отложенные щелчки «Шумов» дописываем, пока блокировка проекта ещё наша
+                NoiseTab noise = getNoiseTab();
+                if (noise != null && !noise.flushPendingWrites(CLOSE_FLUSH_TIMEOUT_MS)) {
+                    int answer = JOptionPane.showConfirmDialog(MainFrame.this,
+                            "Не все отметки «Шумов» записаны в базу данных.\n"
+                                    + "Закрыть программу без них?",
+                            "Изменения не записаны", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                    if (answer != JOptionPane.YES_OPTION) {
+                        return;
+                    }
+                }
                 releaseProjectLocks();
+                revisionCompactionJob.stop();
+                DatabaseManager.shutdown();
+                dispose();
+                System.exit(0);
             }
         });
 
@@ -211,11 +228,11 @@ public class MainFrame extends JFrame {
         AppTheme.decorateWorkspace(siteVisitsTab);
         cardPanel.add(createScenePanel(siteVisitsTab), CARD_REQUEST_VISITS);
         calendarTab = new CalendarTab();
-        VlkTab vlkTab = new VlkTab(calendarTab::refreshEvents);
+        VlkTab vlkTab = new VlkTab(calendarTab::refreshVlkDates);
 
-        PersonnelTab personnelTab = new PersonnelTab();
+        PersonnelTab personnelTab = new PersonnelTab(calendarTab::refreshAbsences);
         appUsersTab = new AppUsersTab(currentUser);
-        equipmentTab = new EquipmentTab(currentUser);
+        equipmentTab = new EquipmentTab(currentUser, calendarTab::refreshEquipment);
         AppTheme.decorateWorkspace(personnelTab);
         AppTheme.decorateWorkspace(appUsersTab);
         AppTheme.decorateWorkspace(equipmentTab);
@@ -423,24 +440,8 @@ public class MainFrame extends JFrame {
         }
     }
 
-    private void startProjectLockHeartbeat() {
-        projectLockHeartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
-            Thread thread = new Thread(runnable, "project-lock-heartbeat");
-            thread.setDaemon(true);
-            return thread;
-        });
-        projectLockHeartbeatExecutor.scheduleAtFixedRate(() -> {
-            try {
-                DatabaseManager.refreshProjectLocks(projectEditSessionId);
-            } catch (SQLException ignored) {
-            }
-        }, 30, 30, TimeUnit.SECONDS);
-    }
-
     private void releaseProjectLocks() {
-        if (projectLockHeartbeatExecutor != null) {
-            projectLockHeartbeatExecutor.shutdownNow();
-        }
+        ProjectLockService.stop();
         try {
             DatabaseManager.releaseAllProjectLocks(projectEditSessionId);
         } catch (SQLException ignored) {
@@ -0,0 +1,134 @@
+package ru.citlab24.protokol.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Обращения к БД вне потока Swing (EDT).
+ * Работа выполняется на виртуальных потоках, колбэки результата и ошибки возвращаются в EDT.
+ */
+public final class AsyncDatabase {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncDatabase.class);
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("db-", 0).factory());
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private AsyncDatabase() {
+    }
+
+    /** Запускает запрос в фоне. */
+    public static <T> Task<T> supply(Call<T> call) {
+        Task<T> task = new Task<>();
+        task.worker = EXECUTOR.submit(() -> {
+            if (task.cancelled) {
+                return;
+            }
+            try {
+                task.future.complete(call.call());
+            } catch (Throwable error) {
+                task.future.completeExceptionally(error);
+            }
+        });
+        return task;
+    }
+
+    public static Task<Void> run(Action action) {
+        return supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable current = error;
+        while ((current instanceof CompletionException || current instanceof ExecutionException)
+                && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    /**
+     * Фоновая операция. Отмена не прерывает уже начатый запрос (чтобы не рвать соединение пула),
+     * но снимает его с очереди, если он ещё не начался, и гарантирует, что колбэки в EDT не вызовутся.
+     */
+    public static final class Task<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private volatile Future<?> worker;
+        private volatile boolean cancelled;
+
+        private Task() {
+        }
+
+        /** Колбэки вызываются в EDT; после cancel() не вызывается ни один. */
+        public Task<T> onEdt(Consumer<? super T> onSuccess, Consumer<? super Throwable> onError) {
+            future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+                if (cancelled) {
+                    return;
+                }
+                if (error == null) {
+                    if (onSuccess != null) {
+                        onSuccess.accept(value);
+                    }
+                    return;
+                }
+                Throwable cause = unwrap(error);
+                if (onError != null) {
+                    onError.accept(cause);
+                } else {
+                    logger.error("Ошибка фоновой операции с БД", cause);
+                }
+            }));
+            return this;
+        }
+
+        /** Выполняется в EDT после завершения (в том числе ошибки), если задача не отменена. */
+        public Task<T> finallyOnEdt(Runnable action) {
+            future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+                if (!cancelled) {
+                    action.run();
+                }
+            }));
+            return this;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Future<?> current = worker;
+            if (current != null) {
+                current.cancel(false);
+            }
+            future.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        public CompletableFuture<T> future() {
+            return future;
+        }
+    }
+}
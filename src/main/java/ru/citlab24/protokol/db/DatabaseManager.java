@@ -1,5 +1,7 @@
 package ru.citlab24.protokol.db;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.citlab24.protokol.tabs.models.*;
@@ -8,26 +10,74 @@ import javax.swing.*;
 import java.io.Serializable;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
     private static final long SCHEMA_LOCK_ID = 2407202601L;
+    /** Сжатие ревизий одновременно выполняет только один клиент. */
+    private static final long COMPACTION_LOCK_ID = 2407202602L;
+    /**
+     * Класс advisory-блокировок отдельных проектов (pg_advisory_xact_lock(класс, id)): её берут
+     * установка блокировки редактирования и сжатие ревизий, поэтому сжатие не ждёт всю таблицу
+     * project_edit_lock, а только проекты, которые удаляет.
+     */
+    private static final int PROJECT_LOCK_CLASS_BUILDING = 240720261;
+    private static final int PROJECT_LOCK_CLASS_AREA = 240720262;
+    /** Перевод документов оборудования на общий файл и проверка ссылок перед удалением файла. */
+    private static final long EQUIPMENT_FILE_LOCK_ID = 2407202603L;
     public static final String PROJECT_TYPE_BUILDING = "BUILDING";
     public static final String PROJECT_TYPE_AREA = "AREA";
-    private static Connection connection;
-    private static Properties databaseProperties;
-    private static AppUserRecord currentAppUser;
+    /** Канал NOTIFY об установке и снятии блокировок редактирования (см. ProjectLockService). */
+    static final String PROJECT_LOCK_CHANNEL = "project_lock";
+    private static HikariDataSource dataSource;
+    /** Параметры подключения — для выделенного соединения службы блокировок вне пула. */
+    private static Properties connectionProperties;
+    private static volatile AppUserRecord currentAppUser;
+    /** Соединение, выданное текущему потоку на время операции (см. withConnection). */
+    private static final ThreadLocal<Connection> boundConnection = new ThreadLocal<>();
+    /** Ключ комнаты → строка room для загруженных/сохранённых в этой сессии ревизий (id ревизии → индекс). */
+    private static final Map<Integer, RoomIdIndex> roomIdIndexes = new ConcurrentHashMap<>();
+    private static final String ROOM_DATA_COLUMNS = "name, volume, ventilation_channels, ventilation_section_area, " +
+            "ventilation_duct_shape, ventilation_width, is_selected, artificial_selected, external_walls_count, " +
+            "microclimate_selected, radiation_selected, street_left_max, street_center_min, street_right_max, " +
+            "street_bottom_min, position";
+    private static final String NOISE_COLUMNS = "measure, lift, vent, heat_curtain, itp, pns, electrical, auto_src, zum";
+
+    /** Изменение схемы; все миграции выполняются внутри транзакции. */
+    @FunctionalInterface
+    private interface SchemaChange {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private record SchemaMigration(int version, String description, SchemaChange change) {
+    }
+
+    /** Упорядоченный список миграций. Новые изменения схемы — только новой записью в конце. */
+    private static final List<SchemaMigration> SCHEMA_MIGRATIONS = List.of(
+            new SchemaMigration(1, "Базовая схема", DatabaseManager::createBaseSchema),
+            new SchemaMigration(2, "Общие этажи ревизий зданий", DatabaseManager::createSharedFloors),
+            new SchemaMigration(3, "Индексы внешних ключей иерархии здания",
+                    DatabaseManager::createHierarchyIndexes),
+            new SchemaMigration(4, "Индексы списка проектов", DatabaseManager::createProjectBrowserIndexes),
+            new SchemaMigration(5, "Эскизы участков отдельно от снимков", DatabaseManager::createAreaSketches),
+            new SchemaMigration(6, "Уведомления о блокировках проектов", DatabaseManager::createProjectLockNotify),
+            new SchemaMigration(7, "Даты отсутствий и ВЛК типа DATE", DatabaseManager::convertCalendarDates),
+            new SchemaMigration(8, "Триграммный поиск проектов по названию", DatabaseManager::createProjectNameSearch),
+            new SchemaMigration(9, "Текущие ревизии оборудования", DatabaseManager::createEquipmentCurrentRevision),
+            new SchemaMigration(10, "Поиск файлов документов оборудования по хешу",
+                    DatabaseManager::createEquipmentFileIndexes)
+    );
+    private static final int LATEST_SCHEMA_VERSION =
+            SCHEMA_MIGRATIONS.get(SCHEMA_MIGRATIONS.size() - 1).version();
 
     static {
         try {
             Properties prop = DatabaseConfig.load();
-            databaseProperties = prop;
-            connection = DriverManager.getConnection(
-                    prop.getProperty("db.url"),
-                    prop.getProperty("db.user"),
-                    prop.getProperty("db.password")
-            );
-            createTables();
+            connectionProperties = prop;
+            dataSource = createDataSource(prop);
+            migrateSchema();
+            ensureProjectNameSearch();
         } catch (Exception e) {
             logger.error("Не удалось инициализировать базу данных", e);
             throw new ExceptionInInitializerError(e);
@@ -37,576 +87,986 @@ public class DatabaseManager {
     public static void initialize() {
     }
 
-    private static void createTables() throws SQLException {
-        boolean autoCommit = connection.getAutoCommit();
-        connection.setAutoCommit(false);
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute("SELECT pg_advisory_xact_lock(" + SCHEMA_LOCK_ID + ")");
-            stmt.execute("CREATE TABLE IF NOT EXISTS building (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "name VARCHAR(255)," +
-                    "protocol_date VARCHAR(32)," +
-                    "customer_contacts VARCHAR(512)," +
-                    "customer_legal_address VARCHAR(512)," +
-                    "customer_actual_address VARCHAR(512)," +
-                    "object_name TEXT," +
-                    "object_address VARCHAR(512)," +
-                    "contract_number VARCHAR(128)," +
-                    "contract_date VARCHAR(32)," +
-                    "application_number VARCHAR(128)," +
-                    "application_date VARCHAR(32)," +
-                    "representative VARCHAR(512)," +
-                    "revision INT NOT NULL DEFAULT 1," +
-                    "source_project_id INT," +
-                    "created_by_user_id INT," +
-                    "updated_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS section (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "building_id INT," +
-                    "name VARCHAR(255)," +
-                    "position INT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS floor (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "building_id INT," +
-                    "number VARCHAR(50)," +
-                    "type VARCHAR(50)," +
-                    "section_index INT," +
-                    "position INT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS space (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "floor_id INT," +
-                    "identifier VARCHAR(255)," +
-                    "type VARCHAR(50)," +
-                    "position INT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS room (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "space_id INT," +
-                    "name VARCHAR(255)," +
-                    "volume DOUBLE PRECISION," +
-                    "ventilation_channels INT," +
-                    "ventilation_section_area DOUBLE PRECISION," +
-                    "is_selected BOOLEAN DEFAULT FALSE," +
-                    "artificial_selected BOOLEAN DEFAULT FALSE," +
-                    "external_walls_count INT," +
-                    "microclimate_selected BOOLEAN DEFAULT FALSE," +
-                    "radiation_selected  BOOLEAN DEFAULT FALSE," +
-                    "street_left_max   DOUBLE PRECISION," +
-                    "street_center_min DOUBLE PRECISION," +
-                    "street_right_max  DOUBLE PRECISION," +
-                    "street_bottom_min DOUBLE PRECISION," +
-                    "position INT)");
-
-            // НОВОЕ: отдельная таблица «Шумы» (без изменений моделей)
-            stmt.execute("CREATE TABLE IF NOT EXISTS noise_settings (" +
-                    "room_id INT PRIMARY KEY," +
-                    "measure BOOLEAN," +
-                    "lift BOOLEAN," +
-                    "vent BOOLEAN," +
-                    "heat_curtain BOOLEAN," +
-                    "itp BOOLEAN," +
-                    "pns BOOLEAN," +
-                    "electrical BOOLEAN," +
-                    "auto_src BOOLEAN," +
-                    "zum BOOLEAN)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS noise_thresholds (" +
-                    "building_id INT," +
-                    "threshold_key VARCHAR(64)," +
-                    "eq_min DOUBLE PRECISION," +
-                    "eq_max DOUBLE PRECISION," +
-                    "m_min DOUBLE PRECISION," +
-                    "m_max DOUBLE PRECISION," +
-                    "PRIMARY KEY (building_id, threshold_key))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS title_measurement (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "building_id INT," +
-                    "row_index INT," +
-                    "date VARCHAR(32)," +
-                    "temp_inside_start VARCHAR(32)," +
-                    "temp_inside_end VARCHAR(32)," +
-                    "temp_outside_start VARCHAR(32)," +
-                    "temp_outside_end VARCHAR(32))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS area_project (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "name VARCHAR(255)," +
-                    "snapshot BYTEA," +
-                    "revision INT NOT NULL DEFAULT 1," +
-                    "source_project_id INT," +
-                    "created_by_user_id INT," +
-                    "updated_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS personnel (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "first_name VARCHAR(255)," +
-                    "last_name VARCHAR(255)," +
-                    "middle_name VARCHAR(255))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS personnel_unavailability (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "personnel_id INT," +
-                    "unavailable_date VARCHAR(32)," +
-                    "reason VARCHAR(512))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS vlk_dates (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "vlk_date VARCHAR(32)," +
-                    "responsible VARCHAR(255)," +
-                    "event_name TEXT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS app_user (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "windows_login VARCHAR(255) UNIQUE NOT NULL," +
-                    "display_name VARCHAR(255) NOT NULL," +
-                    "role VARCHAR(32) NOT NULL," +
-                    "active BOOLEAN NOT NULL DEFAULT TRUE," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "last_login_at TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS equipment_asset (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "category VARCHAR(32) NOT NULL," +
-                    "identity_key TEXT NOT NULL," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "UNIQUE (category, identity_key))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS equipment_revision (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "equipment_id INT NOT NULL REFERENCES equipment_asset(id) ON DELETE CASCADE," +
-                    "effective_date DATE NOT NULL," +
-                    "active BOOLEAN NOT NULL DEFAULT TRUE," +
-                    "position INT NOT NULL DEFAULT 0," +
-                    "measured_characteristics TEXT," +
-                    "tested_object_groups TEXT," +
-                    "name_type TEXT NOT NULL," +
-                    "registry_number TEXT," +
-                    "completeness TEXT," +
-                    "manufacturer TEXT," +
-                    "commissioning_year INT," +
-                    "factory_number TEXT," +
-                    "inventory_number INT," +
-                    "identification TEXT," +
-                    "measurement_range TEXT," +
-                    "accuracy TEXT," +
-                    "technical_characteristics TEXT," +
-                    "purpose TEXT," +
-                    "control_number TEXT," +
-                    "control_date DATE," +
-                    "control_valid_until DATE," +
-                    "control_link TEXT," +
-                    "control_details TEXT," +
-                    "verification_place TEXT," +
-                    "ownership_document TEXT," +
-                    "storage_location TEXT," +
-                    "maintenance_required BOOLEAN NOT NULL DEFAULT FALSE," +
-                    "maintenance_period_months INT," +
-                    "maintenance_start_date DATE," +
-                    "maintenance_start_quarter INT NOT NULL DEFAULT 0," +
-                    "service_plan_required BOOLEAN NOT NULL DEFAULT FALSE," +
-                    "service_plan_details TEXT," +
-                    "service_plan_notes TEXT," +
-                    "notes TEXT," +
-                    "change_source VARCHAR(32) NOT NULL," +
-                    "source_file_name TEXT," +
-                    "source_row INT," +
-                    "changed_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS equipment_contract (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "equipment_id INT NOT NULL REFERENCES equipment_asset(id) ON DELETE CASCADE," +
-                    "document_type VARCHAR(32) NOT NULL DEFAULT 'CONTRACT'," +
-                    "original_file_name TEXT NOT NULL," +
-                    "relative_path TEXT NOT NULL," +
-                    "size_bytes BIGINT NOT NULL," +
-                    "sha256 VARCHAR(64)," +
-                    "uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS equipment_schedule_revision (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "schedule_type VARCHAR(32) NOT NULL," +
-                    "schedule_year INT NOT NULL," +
-                    "revision_no INT NOT NULL," +
-                    "approval_date DATE NOT NULL," +
-                    "document_file_name TEXT NOT NULL," +
-                    "document_relative_path TEXT NOT NULL," +
-                    "document_size_bytes BIGINT NOT NULL," +
-                    "document_sha256 VARCHAR(64)," +
-                    "pdf_file_name TEXT," +
-                    "pdf_relative_path TEXT," +
-                    "pdf_size_bytes BIGINT," +
-                    "pdf_sha256 VARCHAR(64)," +
-                    "created_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "pdf_uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "pdf_uploaded_at TIMESTAMP," +
-                    "UNIQUE (schedule_type, schedule_year, revision_no))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS project_edit_lock (" +
-                    "project_type VARCHAR(16) NOT NULL," +
-                    "project_id INT NOT NULL," +
-                    "user_id INT NOT NULL," +
-                    "session_id VARCHAR(64) NOT NULL," +
-                    "acquired_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "heartbeat_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (project_type, project_id))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "application_year INT NOT NULL," +
-                    "sequence_no INT NOT NULL," +
-                    "registration_date DATE NOT NULL," +
-                    "contract_number VARCHAR(255)," +
-                    "customer_name TEXT NOT NULL," +
-                    "contact_phone TEXT," +
-                    "object_name TEXT NOT NULL," +
-                    "contract_deadline DATE," +
-                    "under_accreditation BOOLEAN NOT NULL DEFAULT TRUE," +
-                    "status VARCHAR(32) NOT NULL," +
-                    "row_version INT NOT NULL DEFAULT 1," +
-                    "created_by_user_id INT," +
-                    "updated_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "UNIQUE (application_year, sequence_no))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_status_history (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "previous_status VARCHAR(32)," +
-                    "new_status VARCHAR(32) NOT NULL," +
-                    "comment TEXT," +
-                    "changed_by_user_id INT," +
-                    "changed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_invoice (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "invoice_number VARCHAR(255)," +
-                    "invoice_date DATE," +
-                    "amount NUMERIC(15,2)," +
-                    "payment_type VARCHAR(32) NOT NULL DEFAULT 'FULL'," +
-                    "advance_percent NUMERIC(5,2)," +
-                    "original_file_name TEXT," +
-                    "relative_path TEXT," +
-                    "size_bytes BIGINT," +
-                    "sha256 VARCHAR(64)," +
-                    "paid_at TIMESTAMP," +
-                    "paid_by_user_id INT," +
-                    "created_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_drawing (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "original_file_name TEXT NOT NULL," +
-                    "relative_path TEXT NOT NULL," +
-                    "size_bytes BIGINT NOT NULL," +
-                    "sha256 VARCHAR(64)," +
-                    "notes TEXT," +
-                    "uploaded_by_user_id INT," +
-                    "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_estimate (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "original_file_name TEXT NOT NULL," +
-                    "relative_path TEXT NOT NULL," +
-                    "size_bytes BIGINT NOT NULL," +
-                    "sha256 VARCHAR(64)," +
-                    "total_amount NUMERIC(18,2)," +
-                    "uploaded_by_user_id INT," +
-                    "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_act (" +
-                    "request_id INT PRIMARY KEY REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "original_file_name TEXT NOT NULL," +
-                    "relative_path TEXT NOT NULL," +
-                    "size_bytes BIGINT NOT NULL," +
-                    "sha256 VARCHAR(64)," +
-                    "uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_checklist (" +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "work_code VARCHAR(64) NOT NULL," +
-                    "work_name TEXT NOT NULL," +
-                    "position INT NOT NULL," +
-                    "active BOOLEAN NOT NULL DEFAULT TRUE," +
-                    "manual BOOLEAN NOT NULL DEFAULT FALSE," +
-                    "completed_at TIMESTAMP," +
-                    "completed_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "water_sent_date DATE," +
-                    "water_result_date DATE," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (request_id, work_code))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS site_visit (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "request_id INT REFERENCES work_request(id) ON DELETE SET NULL," +
-                    "request_number TEXT," +
-                    "customer_name TEXT NOT NULL," +
-                    "object_name TEXT NOT NULL," +
-                    "start_at TIMESTAMP NOT NULL," +
-                    "end_at TIMESTAMP NOT NULL," +
-                    "all_day BOOLEAN NOT NULL DEFAULT FALSE," +
-                    "status VARCHAR(32) NOT NULL DEFAULT 'PLANNED'," +
-                    "notes TEXT," +
-                    "row_version INT NOT NULL DEFAULT 1," +
-                    "created_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "updated_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS site_visit_work (" +
-                    "visit_id INT NOT NULL REFERENCES site_visit(id) ON DELETE CASCADE," +
-                    "work_code VARCHAR(96) NOT NULL," +
-                    "work_name TEXT NOT NULL," +
-                    "position INT NOT NULL DEFAULT 0," +
-                    "PRIMARY KEY (visit_id, work_code))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS site_visit_personnel (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "visit_id INT NOT NULL REFERENCES site_visit(id) ON DELETE CASCADE," +
-                    "personnel_id INT REFERENCES personnel(id) ON DELETE SET NULL," +
-                    "personnel_name TEXT NOT NULL," +
-                    "position INT NOT NULL DEFAULT 0)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_request_subcontract_settings (" +
-                    "request_id INT PRIMARY KEY REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "object_address TEXT," +
-                    "water_sample_count INT NOT NULL DEFAULT 2," +
-                    "single_water_sample_hot BOOLEAN NOT NULL DEFAULT FALSE," +
-                    "water_points TEXT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS customer_organization (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "full_name TEXT NOT NULL," +
-                    "short_name TEXT," +
-                    "inn VARCHAR(12)," +
-                    "kpp VARCHAR(9)," +
-                    "ogrn VARCHAR(15)," +
-                    "legal_address TEXT," +
-                    "postal_address TEXT," +
-                    "director_position TEXT," +
-                    "director_name TEXT," +
-                    "director_name_genitive TEXT," +
-                    "director_basis TEXT," +
-                    "email TEXT," +
-                    "phone TEXT," +
-                    "bank_name TEXT," +
-                    "bik VARCHAR(9)," +
-                    "correspondent_account VARCHAR(20)," +
-                    "settlement_account VARCHAR(20)," +
-                    "original_file_name TEXT," +
-                    "relative_path TEXT," +
-                    "size_bytes BIGINT," +
-                    "sha256 VARCHAR(64)," +
-                    "created_by_user_id INT," +
-                    "updated_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_contract (" +
-                    "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
-                    "contract_number VARCHAR(255)," +
-                    "contract_date DATE NOT NULL," +
-                    "template_type VARCHAR(32) NOT NULL," +
-                    "customer_name TEXT NOT NULL," +
-                    "organization_id INT REFERENCES customer_organization(id) ON DELETE SET NULL," +
-                    "original_file_name TEXT," +
-                    "relative_path TEXT," +
-                    "size_bytes BIGINT," +
-                    "sha256 VARCHAR(64)," +
-                    "signed_original_file_name TEXT," +
-                    "signed_relative_path TEXT," +
-                    "signed_size_bytes BIGINT," +
-                    "signed_sha256 VARCHAR(64)," +
-                    "signed_uploaded_at TIMESTAMP," +
-                    "signed_uploaded_by_user_id INT," +
-                    "row_version INT NOT NULL DEFAULT 1," +
-                    "created_by_user_id INT," +
-                    "updated_by_user_id INT," +
-                    "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "approved_at TIMESTAMP," +
-                    "approved_by_user_id INT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS work_contract_request (" +
-                    "contract_id INT NOT NULL REFERENCES work_contract(id) ON DELETE CASCADE," +
-                    "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
-                    "technical_task_no INT NOT NULL," +
-                    "linked_by_user_id INT," +
-                    "linked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
-                    "PRIMARY KEY (contract_id, request_id)," +
-                    "UNIQUE (request_id)," +
-                    "UNIQUE (contract_id, technical_task_no))");
-
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_year " +
-                    "ON work_request (application_year, sequence_no)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_status_history " +
-                    "ON work_request_status_history (request_id, changed_at)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_invoice " +
-                    "ON work_request_invoice (request_id, created_at)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_drawing " +
-                    "ON work_request_drawing (request_id, uploaded_at)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_checklist " +
-                    "ON work_request_checklist (request_id, active, position)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_period " +
-                    "ON site_visit (start_at, end_at)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_request " +
-                    "ON site_visit (request_id, start_at)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_personnel " +
-                    "ON site_visit_personnel (personnel_id, visit_id)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_contract_date " +
-                    "ON work_contract (contract_date, customer_name)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_contract_request " +
-                    "ON work_contract_request (contract_id, technical_task_no)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_revision_history " +
-                    "ON equipment_revision (equipment_id, effective_date DESC, id DESC)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_category " +
-                    "ON equipment_asset (category)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_contract " +
-                    "ON equipment_contract (equipment_id, uploaded_at DESC)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_schedule_revision " +
-                    "ON equipment_schedule_revision " +
-                    "(schedule_year DESC, schedule_type, revision_no DESC)");
-            // миграции
-
-            addColumnIfMissing(stmt, "equipment_contract", "document_type",
-                    "VARCHAR(32) NOT NULL DEFAULT 'CONTRACT'");
-            addColumnIfMissing(stmt, "equipment_revision", "maintenance_required",
-                    "BOOLEAN NOT NULL DEFAULT FALSE");
-            addColumnIfMissing(stmt, "equipment_revision", "maintenance_period_months",
-                    "INT");
-            addColumnIfMissing(stmt, "equipment_revision", "maintenance_start_date",
-                    "DATE");
-            addColumnIfMissing(stmt, "equipment_revision", "maintenance_start_quarter",
-                    "INT NOT NULL DEFAULT 0");
-            addColumnIfMissing(stmt, "equipment_revision", "service_plan_required",
-                    "BOOLEAN NOT NULL DEFAULT FALSE");
-            addColumnIfMissing(stmt, "equipment_revision", "service_plan_details",
-                    "TEXT");
-            addColumnIfMissing(stmt, "equipment_revision", "service_plan_notes",
-                    "TEXT");
-            addColumnIfMissing(stmt, "equipment_revision", "completeness",
-                    "TEXT");
-            addColumnIfMissing(stmt, "equipment_revision", "commissioning_year",
-                    "INT");
-            addColumnIfMissing(stmt, "equipment_revision", "factory_number",
-                    "TEXT");
-            addColumnIfMissing(stmt, "equipment_revision", "inventory_number",
-                    "INT");
-            addColumnIfMissing(stmt, "equipment_revision", "verification_place",
-                    "TEXT");
-            addColumnIfMissing(stmt, "work_request_checklist", "water_sent_date",
-                    "DATE");
-            addColumnIfMissing(stmt, "work_request_checklist", "water_result_date",
-                    "DATE");
-            stmt.execute("DROP INDEX IF EXISTS idx_customer_organization_inn");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_customer_organization_inn_lookup " +
-                    "ON customer_organization (inn)");
-
-            addColumnIfMissing(stmt, "floor", "section_index", "INT");
-            addColumnIfMissing(stmt, "floor", "position", "INT");
-            addColumnIfMissing(stmt, "space", "position", "INT");
-            addColumnIfMissing(stmt, "room",  "position", "INT");
-            addColumnIfMissing(stmt, "room",  "volume", "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room",  "ventilation_channels", "INT");
-            addColumnIfMissing(stmt, "room",  "ventilation_section_area", "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room",  "is_selected", "BOOLEAN DEFAULT FALSE");
-            addColumnIfMissing(stmt, "room",  "external_walls_count", "INT");
-            addColumnIfMissing(stmt, "room",  "microclimate_selected",  "BOOLEAN DEFAULT FALSE");
-            addColumnIfMissing(stmt, "room",  "radiation_selected",     "BOOLEAN DEFAULT FALSE");
-            addColumnIfMissing(stmt, "room",  "artificial_selected",    "BOOLEAN DEFAULT FALSE");
-            addColumnIfMissing(stmt, "room", "street_left_max",   "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room", "street_center_min", "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room", "street_right_max",  "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room", "street_bottom_min", "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "room",  "ventilation_duct_shape", "VARCHAR(16)");
-            addColumnIfMissing(stmt, "room",  "ventilation_width",      "DOUBLE PRECISION");
-            addColumnIfMissing(stmt, "building", "protocol_date", "VARCHAR(32)");
-            addColumnIfMissing(stmt, "building", "customer_contacts", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "building", "customer_legal_address", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "building", "customer_actual_address", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "building", "object_name", "TEXT");
-            addColumnIfMissing(stmt, "building", "object_address", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "building", "contract_number", "VARCHAR(128)");
-            addColumnIfMissing(stmt, "building", "contract_date", "VARCHAR(32)");
-            addColumnIfMissing(stmt, "building", "application_number", "VARCHAR(128)");
-            addColumnIfMissing(stmt, "building", "application_date", "VARCHAR(32)");
-            addColumnIfMissing(stmt, "building", "representative", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "building", "revision", "INT NOT NULL DEFAULT 1");
-            addColumnIfMissing(stmt, "building", "source_project_id", "INT");
-            addColumnIfMissing(stmt, "building", "created_by_user_id", "INT");
-            addColumnIfMissing(stmt, "building", "updated_by_user_id", "INT");
-            addColumnIfMissing(stmt, "building", "created_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
-            addColumnIfMissing(stmt, "building", "updated_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
-            addColumnIfMissing(stmt, "area_project", "name", "VARCHAR(255)");
-            addColumnIfMissing(stmt, "area_project", "snapshot", "BYTEA");
-            addColumnIfMissing(stmt, "area_project", "revision", "INT NOT NULL DEFAULT 1");
-            addColumnIfMissing(stmt, "area_project", "source_project_id", "INT");
-            addColumnIfMissing(stmt, "area_project", "created_by_user_id", "INT");
-            addColumnIfMissing(stmt, "area_project", "updated_by_user_id", "INT");
-            addColumnIfMissing(stmt, "area_project", "created_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
-            addColumnIfMissing(stmt, "area_project", "updated_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
-            addColumnIfMissing(stmt, "personnel", "first_name", "VARCHAR(255)");
-            addColumnIfMissing(stmt, "personnel", "last_name", "VARCHAR(255)");
-            addColumnIfMissing(stmt, "personnel", "middle_name", "VARCHAR(255)");
-            addColumnIfMissing(stmt, "personnel_unavailability", "personnel_id", "INT");
-            addColumnIfMissing(stmt, "personnel_unavailability", "unavailable_date", "VARCHAR(32)");
-            addColumnIfMissing(stmt, "personnel_unavailability", "reason", "VARCHAR(512)");
-            addColumnIfMissing(stmt, "vlk_dates", "vlk_date", "VARCHAR(32)");
-            addColumnIfMissing(stmt, "vlk_dates", "responsible", "VARCHAR(255)");
-            addColumnIfMissing(stmt, "vlk_dates", "event_name", "TEXT");
-            addColumnIfMissing(stmt, "work_contract", "organization_id",
-                    "INT REFERENCES customer_organization(id) ON DELETE SET NULL");
-            addColumnIfMissing(stmt, "work_contract", "approved_at", "TIMESTAMP");
-            addColumnIfMissing(stmt, "work_contract", "approved_by_user_id", "INT");
-            addColumnIfMissing(stmt, "work_contract", "signed_original_file_name", "TEXT");
-            addColumnIfMissing(stmt, "work_contract", "signed_relative_path", "TEXT");
-            addColumnIfMissing(stmt, "work_contract", "signed_size_bytes", "BIGINT");
-            addColumnIfMissing(stmt, "work_contract", "signed_sha256", "VARCHAR(64)");
-            addColumnIfMissing(stmt, "work_contract", "signed_uploaded_at", "TIMESTAMP");
-            addColumnIfMissing(stmt, "work_contract", "signed_uploaded_by_user_id", "INT");
-            addColumnIfMissing(stmt, "customer_organization", "director_name_genitive", "TEXT");
-            addColumnIfMissing(stmt, "work_request", "under_accreditation",
-                    "BOOLEAN NOT NULL DEFAULT TRUE");
-            addColumnIfMissing(stmt, "work_request", "contact_phone", "TEXT");
-            addColumnIfMissing(stmt, "work_request_invoice", "payment_type",
-                    "VARCHAR(32) NOT NULL DEFAULT 'FULL'");
-            addColumnIfMissing(stmt, "work_request_invoice", "advance_percent", "NUMERIC(5,2)");
-            addColumnIfMissing(stmt, "work_request_invoice", "paid_at", "TIMESTAMP");
-            addColumnIfMissing(stmt, "work_request_invoice", "paid_by_user_id", "INT");
-            addColumnIfMissing(stmt, "work_request_drawing", "notes", "TEXT");
-            addColumnIfMissing(stmt, "work_request_estimate", "total_amount", "NUMERIC(18,2)");
-            addColumnIfMissing(stmt, "work_request_checklist", "manual",
-                    "BOOLEAN NOT NULL DEFAULT FALSE");
-            addColumnIfMissing(stmt, "work_request_subcontract_settings",
-                    "single_water_sample_hot", "BOOLEAN NOT NULL DEFAULT FALSE");
-            connection.commit();
+    /** Закрывает пул соединений при завершении программы. */
+    public static void shutdown() {
+        HikariDataSource ds = dataSource;
+        if (ds != null && !ds.isClosed()) {
+            ds.close();
+        }
+    }
+
+    private static HikariDataSource createDataSource(Properties prop) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("protokol-db");
+        config.setJdbcUrl(prop.getProperty("db.url"));
+        config.setUsername(prop.getProperty("db.user"));
+        config.setPassword(prop.getProperty("db.password"));
+        config.setMaximumPoolSize(intProperty(prop, "db.pool.maxSize", 8));
+        config.setMinimumIdle(intProperty(prop, "db.pool.minIdle", 1));
+        config.setConnectionTimeout(intProperty(prop, "db.pool.connectionTimeoutMs", 15_000));
+        config.setIdleTimeout(600_000);
+        config.setKeepaliveTime(120_000);
+        return new HikariDataSource(config);
+    }
+
+    private static int intProperty(Properties prop, String name, int defaultValue) {
+        String value = prop.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Некорректное значение {}={}, используется {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Соединение текущей операции. Доступно только внутри withConnection/inTransaction:
+     * каждая публичная операция берёт своё соединение из пула, поэтому вкладки,
+     * работающие из разных потоков, не делят одно соединение и его транзакцию.
+     */
+    private static Connection connection() {
+        Connection bound = boundConnection.get();
+        if (bound == null) {
+            throw new IllegalStateException("Обращение к БД вне withConnection/inTransaction");
+        }
+        return bound;
+    }
+
+    /**
+     * Выполняет работу на соединении из пула в режиме autocommit.
+     * Вложенный вызов использует уже выданное потоку соединение (и его транзакцию, если она открыта).
+     */
+    private static <T> T withConnection(SqlWork<T> work) throws SQLException {
+        if (boundConnection.get() != null) {
+            return work.run();
+        }
+        try (Connection c = dataSource.getConnection()) {
+            boundConnection.set(c);
+            try {
+                return work.run();
+            } finally {
+                boundConnection.remove();
+            }
+        }
+    }
+
+    private static void withConnection(SqlAction work) throws SQLException {
+        withConnection(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Выполняет работу одной транзакцией: commit при успехе, rollback при любой ошибке.
+     * Внутри уже открытой транзакции просто участвует в ней.
+     */
+    private static <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        return withConnection(() -> {
+            Connection c = connection();
+            if (!c.getAutoCommit()) {
+                return work.run();
+            }
+            c.setAutoCommit(false);
+            try {
+                T result = work.run();
+                c.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+    }
+
+    private static void inTransaction(SqlAction work) throws SQLException {
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Приводит схему БД к последней версии.
+     * Быстрый путь — один запрос версии без блокировок; DDL выполняется только при отставании схемы,
+     * под advisory-lock, чтобы одновременно стартующие рабочие места не мигрировали параллельно.
+     */
+    private static void migrateSchema() throws SQLException {
+        withConnection(() -> {
+            int current = readSchemaVersion();
+            if (current >= LATEST_SCHEMA_VERSION) {
+                logger.info("Схема БД актуальна (версия {})", current);
+                return;
+            }
+            try (Statement stmt = connection().createStatement()) {
+                stmt.execute("SELECT pg_advisory_lock(" + SCHEMA_LOCK_ID + ")");
+            }
+            try {
+                try (Statement stmt = connection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                            "version INT PRIMARY KEY," +
+                            "description VARCHAR(255)," +
+                            "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                            "duration_ms BIGINT)");
+                }
+                // Пока ждали блокировку, схему мог обновить другой экземпляр программы
+                int version = readSchemaVersion();
+                for (SchemaMigration migration : SCHEMA_MIGRATIONS) {
+                    if (migration.version() > version) {
+                        applyMigration(migration);
+                    }
+                }
+            } finally {
+                try (Statement stmt = connection().createStatement()) {
+                    stmt.execute("SELECT pg_advisory_unlock(" + SCHEMA_LOCK_ID + ")");
+                }
+            }
+        });
+    }
+
+    private static int readSchemaVersion() throws SQLException {
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
         } catch (SQLException e) {
-            connection.rollback();
+            if ("42P01".equals(e.getSQLState())) {
+                return 0; // таблицы версий ещё нет — база до введения миграций или пустая
+            }
             throw e;
-        } finally {
-            connection.setAutoCommit(autoCommit);
         }
     }
 
+    private static void applyMigration(SchemaMigration migration) throws SQLException {
+        long started = System.nanoTime();
+        inTransaction(() -> {
+            try (Statement stmt = connection().createStatement()) {
+                migration.change().apply(stmt);
+            }
+            long durationMs = (System.nanoTime() - started) / 1_000_000;
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "INSERT INTO schema_version (version, description, duration_ms) VALUES (?, ?, ?)")) {
+                ps.setInt(1, migration.version());
+                ps.setString(2, migration.description());
+                ps.setLong(3, durationMs);
+                ps.executeUpdate();
+            }
+        });
+        logger.info("Миграция схемы {} «{}» применена за {} мс",
+                migration.version(), migration.description(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Версия 1 — схема, которую раньше при каждом запуске создавал createTables.
+     * Все операторы идемпотентны, поэтому на существующих базах миграция просто отмечает версию.
+     */
+    private static void createBaseSchema(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS building (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "name VARCHAR(255)," +
+                "protocol_date VARCHAR(32)," +
+                "customer_contacts VARCHAR(512)," +
+                "customer_legal_address VARCHAR(512)," +
+                "customer_actual_address VARCHAR(512)," +
+                "object_name TEXT," +
+                "object_address VARCHAR(512)," +
+                "contract_number VARCHAR(128)," +
+                "contract_date VARCHAR(32)," +
+                "application_number VARCHAR(128)," +
+                "application_date VARCHAR(32)," +
+                "representative VARCHAR(512)," +
+                "revision INT NOT NULL DEFAULT 1," +
+                "source_project_id INT," +
+                "created_by_user_id INT," +
+                "updated_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS section (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "building_id INT," +
+                "name VARCHAR(255)," +
+                "position INT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS floor (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "building_id INT," +
+                "number VARCHAR(50)," +
+                "type VARCHAR(50)," +
+                "section_index INT," +
+                "position INT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS space (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "floor_id INT," +
+                "identifier VARCHAR(255)," +
+                "type VARCHAR(50)," +
+                "position INT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS room (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "space_id INT," +
+                "name VARCHAR(255)," +
+                "volume DOUBLE PRECISION," +
+                "ventilation_channels INT," +
+                "ventilation_section_area DOUBLE PRECISION," +
+                "is_selected BOOLEAN DEFAULT FALSE," +
+                "artificial_selected BOOLEAN DEFAULT FALSE," +
+                "external_walls_count INT," +
+                "microclimate_selected BOOLEAN DEFAULT FALSE," +
+                "radiation_selected  BOOLEAN DEFAULT FALSE," +
+                "street_left_max   DOUBLE PRECISION," +
+                "street_center_min DOUBLE PRECISION," +
+                "street_right_max  DOUBLE PRECISION," +
+                "street_bottom_min DOUBLE PRECISION," +
+                "position INT)");
+
+        // НОВОЕ: отдельная таблица «Шумы» (без изменений моделей)
+        stmt.execute("CREATE TABLE IF NOT EXISTS noise_settings (" +
+                "room_id INT PRIMARY KEY," +
+                "measure BOOLEAN," +
+                "lift BOOLEAN," +
+                "vent BOOLEAN," +
+                "heat_curtain BOOLEAN," +
+                "itp BOOLEAN," +
+                "pns BOOLEAN," +
+                "electrical BOOLEAN," +
+                "auto_src BOOLEAN," +
+                "zum BOOLEAN)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS noise_thresholds (" +
+                "building_id INT," +
+                "threshold_key VARCHAR(64)," +
+                "eq_min DOUBLE PRECISION," +
+                "eq_max DOUBLE PRECISION," +
+                "m_min DOUBLE PRECISION," +
+                "m_max DOUBLE PRECISION," +
+                "PRIMARY KEY (building_id, threshold_key))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS title_measurement (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "building_id INT," +
+                "row_index INT," +
+                "date VARCHAR(32)," +
+                "temp_inside_start VARCHAR(32)," +
+                "temp_inside_end VARCHAR(32)," +
+                "temp_outside_start VARCHAR(32)," +
+                "temp_outside_end VARCHAR(32))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS area_project (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "name VARCHAR(255)," +
+                "snapshot BYTEA," +
+                "revision INT NOT NULL DEFAULT 1," +
+                "source_project_id INT," +
+                "created_by_user_id INT," +
+                "updated_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS personnel (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "first_name VARCHAR(255)," +
+                "last_name VARCHAR(255)," +
+                "middle_name VARCHAR(255))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS personnel_unavailability (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "personnel_id INT," +
+                "unavailable_date VARCHAR(32)," +
+                "reason VARCHAR(512))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS vlk_dates (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "vlk_date VARCHAR(32)," +
+                "responsible VARCHAR(255)," +
+                "event_name TEXT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS app_user (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "windows_login VARCHAR(255) UNIQUE NOT NULL," +
+                "display_name VARCHAR(255) NOT NULL," +
+                "role VARCHAR(32) NOT NULL," +
+                "active BOOLEAN NOT NULL DEFAULT TRUE," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "last_login_at TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS equipment_asset (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "category VARCHAR(32) NOT NULL," +
+                "identity_key TEXT NOT NULL," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "UNIQUE (category, identity_key))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS equipment_revision (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "equipment_id INT NOT NULL REFERENCES equipment_asset(id) ON DELETE CASCADE," +
+                "effective_date DATE NOT NULL," +
+                "active BOOLEAN NOT NULL DEFAULT TRUE," +
+                "position INT NOT NULL DEFAULT 0," +
+                "measured_characteristics TEXT," +
+                "tested_object_groups TEXT," +
+                "name_type TEXT NOT NULL," +
+                "registry_number TEXT," +
+                "completeness TEXT," +
+                "manufacturer TEXT," +
+                "commissioning_year INT," +
+                "factory_number TEXT," +
+                "inventory_number INT," +
+                "identification TEXT," +
+                "measurement_range TEXT," +
+                "accuracy TEXT," +
+                "technical_characteristics TEXT," +
+                "purpose TEXT," +
+                "control_number TEXT," +
+                "control_date DATE," +
+                "control_valid_until DATE," +
+                "control_link TEXT," +
+                "control_details TEXT," +
+                "verification_place TEXT," +
+                "ownership_document TEXT," +
+                "storage_location TEXT," +
+                "maintenance_required BOOLEAN NOT NULL DEFAULT FALSE," +
+                "maintenance_period_months INT," +
+                "maintenance_start_date DATE," +
+                "maintenance_start_quarter INT NOT NULL DEFAULT 0," +
+                "service_plan_required BOOLEAN NOT NULL DEFAULT FALSE," +
+                "service_plan_details TEXT," +
+                "service_plan_notes TEXT," +
+                "notes TEXT," +
+                "change_source VARCHAR(32) NOT NULL," +
+                "source_file_name TEXT," +
+                "source_row INT," +
+                "changed_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS equipment_contract (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "equipment_id INT NOT NULL REFERENCES equipment_asset(id) ON DELETE CASCADE," +
+                "document_type VARCHAR(32) NOT NULL DEFAULT 'CONTRACT'," +
+                "original_file_name TEXT NOT NULL," +
+                "relative_path TEXT NOT NULL," +
+                "size_bytes BIGINT NOT NULL," +
+                "sha256 VARCHAR(64)," +
+                "uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS equipment_schedule_revision (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "schedule_type VARCHAR(32) NOT NULL," +
+                "schedule_year INT NOT NULL," +
+                "revision_no INT NOT NULL," +
+                "approval_date DATE NOT NULL," +
+                "document_file_name TEXT NOT NULL," +
+                "document_relative_path TEXT NOT NULL," +
+                "document_size_bytes BIGINT NOT NULL," +
+                "document_sha256 VARCHAR(64)," +
+                "pdf_file_name TEXT," +
+                "pdf_relative_path TEXT," +
+                "pdf_size_bytes BIGINT," +
+                "pdf_sha256 VARCHAR(64)," +
+                "created_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "pdf_uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "pdf_uploaded_at TIMESTAMP," +
+                "UNIQUE (schedule_type, schedule_year, revision_no))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS project_edit_lock (" +
+                "project_type VARCHAR(16) NOT NULL," +
+                "project_id INT NOT NULL," +
+                "user_id INT NOT NULL," +
+                "session_id VARCHAR(64) NOT NULL," +
+                "acquired_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "heartbeat_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (project_type, project_id))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "application_year INT NOT NULL," +
+                "sequence_no INT NOT NULL," +
+                "registration_date DATE NOT NULL," +
+                "contract_number VARCHAR(255)," +
+                "customer_name TEXT NOT NULL," +
+                "contact_phone TEXT," +
+                "object_name TEXT NOT NULL," +
+                "contract_deadline DATE," +
+                "under_accreditation BOOLEAN NOT NULL DEFAULT TRUE," +
+                "status VARCHAR(32) NOT NULL," +
+                "row_version INT NOT NULL DEFAULT 1," +
+                "created_by_user_id INT," +
+                "updated_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "UNIQUE (application_year, sequence_no))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_status_history (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "previous_status VARCHAR(32)," +
+                "new_status VARCHAR(32) NOT NULL," +
+                "comment TEXT," +
+                "changed_by_user_id INT," +
+                "changed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_invoice (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "invoice_number VARCHAR(255)," +
+                "invoice_date DATE," +
+                "amount NUMERIC(15,2)," +
+                "payment_type VARCHAR(32) NOT NULL DEFAULT 'FULL'," +
+                "advance_percent NUMERIC(5,2)," +
+                "original_file_name TEXT," +
+                "relative_path TEXT," +
+                "size_bytes BIGINT," +
+                "sha256 VARCHAR(64)," +
+                "paid_at TIMESTAMP," +
+                "paid_by_user_id INT," +
+                "created_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_drawing (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "original_file_name TEXT NOT NULL," +
+                "relative_path TEXT NOT NULL," +
+                "size_bytes BIGINT NOT NULL," +
+                "sha256 VARCHAR(64)," +
+                "notes TEXT," +
+                "uploaded_by_user_id INT," +
+                "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_estimate (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "original_file_name TEXT NOT NULL," +
+                "relative_path TEXT NOT NULL," +
+                "size_bytes BIGINT NOT NULL," +
+                "sha256 VARCHAR(64)," +
+                "total_amount NUMERIC(18,2)," +
+                "uploaded_by_user_id INT," +
+                "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_act (" +
+                "request_id INT PRIMARY KEY REFERENCES work_request(id) ON DELETE CASCADE," +
+                "original_file_name TEXT NOT NULL," +
+                "relative_path TEXT NOT NULL," +
+                "size_bytes BIGINT NOT NULL," +
+                "sha256 VARCHAR(64)," +
+                "uploaded_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "uploaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_checklist (" +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "work_code VARCHAR(64) NOT NULL," +
+                "work_name TEXT NOT NULL," +
+                "position INT NOT NULL," +
+                "active BOOLEAN NOT NULL DEFAULT TRUE," +
+                "manual BOOLEAN NOT NULL DEFAULT FALSE," +
+                "completed_at TIMESTAMP," +
+                "completed_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "water_sent_date DATE," +
+                "water_result_date DATE," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (request_id, work_code))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS site_visit (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "request_id INT REFERENCES work_request(id) ON DELETE SET NULL," +
+                "request_number TEXT," +
+                "customer_name TEXT NOT NULL," +
+                "object_name TEXT NOT NULL," +
+                "start_at TIMESTAMP NOT NULL," +
+                "end_at TIMESTAMP NOT NULL," +
+                "all_day BOOLEAN NOT NULL DEFAULT FALSE," +
+                "status VARCHAR(32) NOT NULL DEFAULT 'PLANNED'," +
+                "notes TEXT," +
+                "row_version INT NOT NULL DEFAULT 1," +
+                "created_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "updated_by_user_id INT REFERENCES app_user(id) ON DELETE SET NULL," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS site_visit_work (" +
+                "visit_id INT NOT NULL REFERENCES site_visit(id) ON DELETE CASCADE," +
+                "work_code VARCHAR(96) NOT NULL," +
+                "work_name TEXT NOT NULL," +
+                "position INT NOT NULL DEFAULT 0," +
+                "PRIMARY KEY (visit_id, work_code))");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS site_visit_personnel (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "visit_id INT NOT NULL REFERENCES site_visit(id) ON DELETE CASCADE," +
+                "personnel_id INT REFERENCES personnel(id) ON DELETE SET NULL," +
+                "personnel_name TEXT NOT NULL," +
+                "position INT NOT NULL DEFAULT 0)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_request_subcontract_settings (" +
+                "request_id INT PRIMARY KEY REFERENCES work_request(id) ON DELETE CASCADE," +
+                "object_address TEXT," +
+                "water_sample_count INT NOT NULL DEFAULT 2," +
+                "single_water_sample_hot BOOLEAN NOT NULL DEFAULT FALSE," +
+                "water_points TEXT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS customer_organization (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "full_name TEXT NOT NULL," +
+                "short_name TEXT," +
+                "inn VARCHAR(12)," +
+                "kpp VARCHAR(9)," +
+                "ogrn VARCHAR(15)," +
+                "legal_address TEXT," +
+                "postal_address TEXT," +
+                "director_position TEXT," +
+                "director_name TEXT," +
+                "director_name_genitive TEXT," +
+                "director_basis TEXT," +
+                "email TEXT," +
+                "phone TEXT," +
+                "bank_name TEXT," +
+                "bik VARCHAR(9)," +
+                "correspondent_account VARCHAR(20)," +
+                "settlement_account VARCHAR(20)," +
+                "original_file_name TEXT," +
+                "relative_path TEXT," +
+                "size_bytes BIGINT," +
+                "sha256 VARCHAR(64)," +
+                "created_by_user_id INT," +
+                "updated_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_contract (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY," +
+                "contract_number VARCHAR(255)," +
+                "contract_date DATE NOT NULL," +
+                "template_type VARCHAR(32) NOT NULL," +
+                "customer_name TEXT NOT NULL," +
+                "organization_id INT REFERENCES customer_organization(id) ON DELETE SET NULL," +
+                "original_file_name TEXT," +
+                "relative_path TEXT," +
+                "size_bytes BIGINT," +
+                "sha256 VARCHAR(64)," +
+                "signed_original_file_name TEXT," +
+                "signed_relative_path TEXT," +
+                "signed_size_bytes BIGINT," +
+                "signed_sha256 VARCHAR(64)," +
+                "signed_uploaded_at TIMESTAMP," +
+                "signed_uploaded_by_user_id INT," +
+                "row_version INT NOT NULL DEFAULT 1," +
+                "created_by_user_id INT," +
+                "updated_by_user_id INT," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "approved_at TIMESTAMP," +
+                "approved_by_user_id INT)");
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS work_contract_request (" +
+                "contract_id INT NOT NULL REFERENCES work_contract(id) ON DELETE CASCADE," +
+                "request_id INT NOT NULL REFERENCES work_request(id) ON DELETE CASCADE," +
+                "technical_task_no INT NOT NULL," +
+                "linked_by_user_id INT," +
+                "linked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (contract_id, request_id)," +
+                "UNIQUE (request_id)," +
+                "UNIQUE (contract_id, technical_task_no))");
+
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_year " +
+                "ON work_request (application_year, sequence_no)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_status_history " +
+                "ON work_request_status_history (request_id, changed_at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_invoice " +
+                "ON work_request_invoice (request_id, created_at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_drawing " +
+                "ON work_request_drawing (request_id, uploaded_at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_request_checklist " +
+                "ON work_request_checklist (request_id, active, position)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_period " +
+                "ON site_visit (start_at, end_at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_request " +
+                "ON site_visit (request_id, start_at)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_site_visit_personnel " +
+                "ON site_visit_personnel (personnel_id, visit_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_contract_date " +
+                "ON work_contract (contract_date, customer_name)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_work_contract_request " +
+                "ON work_contract_request (contract_id, technical_task_no)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_revision_history " +
+                "ON equipment_revision (equipment_id, effective_date DESC, id DESC)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_category " +
+                "ON equipment_asset (category)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_contract " +
+                "ON equipment_contract (equipment_id, uploaded_at DESC)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_schedule_revision " +
+                "ON equipment_schedule_revision " +
+                "(schedule_year DESC, schedule_type, revision_no DESC)");
+        // миграции
+
+        addColumnIfMissing(stmt, "equipment_contract", "document_type",
+                "VARCHAR(32) NOT NULL DEFAULT 'CONTRACT'");
+        addColumnIfMissing(stmt, "equipment_revision", "maintenance_required",
+                "BOOLEAN NOT NULL DEFAULT FALSE");
+        addColumnIfMissing(stmt, "equipment_revision", "maintenance_period_months",
+                "INT");
+        addColumnIfMissing(stmt, "equipment_revision", "maintenance_start_date",
+                "DATE");
+        addColumnIfMissing(stmt, "equipment_revision", "maintenance_start_quarter",
+                "INT NOT NULL DEFAULT 0");
+        addColumnIfMissing(stmt, "equipment_revision", "service_plan_required",
+                "BOOLEAN NOT NULL DEFAULT FALSE");
+        addColumnIfMissing(stmt, "equipment_revision", "service_plan_details",
+                "TEXT");
+        addColumnIfMissing(stmt, "equipment_revision", "service_plan_notes",
+                "TEXT");
+        addColumnIfMissing(stmt, "equipment_revision", "completeness",
+                "TEXT");
+        addColumnIfMissing(stmt, "equipment_revision", "commissioning_year",
+                "INT");
+        addColumnIfMissing(stmt, "equipment_revision", "factory_number",
+                "TEXT");
+        addColumnIfMissing(stmt, "equipment_revision", "inventory_number",
+                "INT");
+        addColumnIfMissing(stmt, "equipment_revision", "verification_place",
+                "TEXT");
+        addColumnIfMissing(stmt, "work_request_checklist", "water_sent_date",
+                "DATE");
+        addColumnIfMissing(stmt, "work_request_checklist", "water_result_date",
+                "DATE");
+        stmt.execute("DROP INDEX IF EXISTS idx_customer_organization_inn");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_customer_organization_inn_lookup " +
+                "ON customer_organization (inn)");
+
+        addColumnIfMissing(stmt, "floor", "section_index", "INT");
+        addColumnIfMissing(stmt, "floor", "position", "INT");
+        addColumnIfMissing(stmt, "space", "position", "INT");
+        addColumnIfMissing(stmt, "room",  "position", "INT");
+        addColumnIfMissing(stmt, "room",  "volume", "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room",  "ventilation_channels", "INT");
+        addColumnIfMissing(stmt, "room",  "ventilation_section_area", "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room",  "is_selected", "BOOLEAN DEFAULT FALSE");
+        addColumnIfMissing(stmt, "room",  "external_walls_count", "INT");
+        addColumnIfMissing(stmt, "room",  "microclimate_selected",  "BOOLEAN DEFAULT FALSE");
+        addColumnIfMissing(stmt, "room",  "radiation_selected",     "BOOLEAN DEFAULT FALSE");
+        addColumnIfMissing(stmt, "room",  "artificial_selected",    "BOOLEAN DEFAULT FALSE");
+        addColumnIfMissing(stmt, "room", "street_left_max",   "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room", "street_center_min", "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room", "street_right_max",  "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room", "street_bottom_min", "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "room",  "ventilation_duct_shape", "VARCHAR(16)");
+        addColumnIfMissing(stmt, "room",  "ventilation_width",      "DOUBLE PRECISION");
+        addColumnIfMissing(stmt, "building", "protocol_date", "VARCHAR(32)");
+        addColumnIfMissing(stmt, "building", "customer_contacts", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "building", "customer_legal_address", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "building", "customer_actual_address", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "building", "object_name", "TEXT");
+        addColumnIfMissing(stmt, "building", "object_address", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "building", "contract_number", "VARCHAR(128)");
+        addColumnIfMissing(stmt, "building", "contract_date", "VARCHAR(32)");
+        addColumnIfMissing(stmt, "building", "application_number", "VARCHAR(128)");
+        addColumnIfMissing(stmt, "building", "application_date", "VARCHAR(32)");
+        addColumnIfMissing(stmt, "building", "representative", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "building", "revision", "INT NOT NULL DEFAULT 1");
+        addColumnIfMissing(stmt, "building", "source_project_id", "INT");
+        addColumnIfMissing(stmt, "building", "created_by_user_id", "INT");
+        addColumnIfMissing(stmt, "building", "updated_by_user_id", "INT");
+        addColumnIfMissing(stmt, "building", "created_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
+        addColumnIfMissing(stmt, "building", "updated_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
+        addColumnIfMissing(stmt, "area_project", "name", "VARCHAR(255)");
+        addColumnIfMissing(stmt, "area_project", "snapshot", "BYTEA");
+        addColumnIfMissing(stmt, "area_project", "revision", "INT NOT NULL DEFAULT 1");
+        addColumnIfMissing(stmt, "area_project", "source_project_id", "INT");
+        addColumnIfMissing(stmt, "area_project", "created_by_user_id", "INT");
+        addColumnIfMissing(stmt, "area_project", "updated_by_user_id", "INT");
+        addColumnIfMissing(stmt, "area_project", "created_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
+        addColumnIfMissing(stmt, "area_project", "updated_at", "TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP");
+        addColumnIfMissing(stmt, "personnel", "first_name", "VARCHAR(255)");
+        addColumnIfMissing(stmt, "personnel", "last_name", "VARCHAR(255)");
+        addColumnIfMissing(stmt, "personnel", "middle_name", "VARCHAR(255)");
+        addColumnIfMissing(stmt, "personnel_unavailability", "personnel_id", "INT");
+        addColumnIfMissing(stmt, "personnel_unavailability", "unavailable_date", "VARCHAR(32)");
+        addColumnIfMissing(stmt, "personnel_unavailability", "reason", "VARCHAR(512)");
+        addColumnIfMissing(stmt, "vlk_dates", "vlk_date", "VARCHAR(32)");
+        addColumnIfMissing(stmt, "vlk_dates", "responsible", "VARCHAR(255)");
+        addColumnIfMissing(stmt, "vlk_dates", "event_name", "TEXT");
+        addColumnIfMissing(stmt, "work_contract", "organization_id",
+                "INT REFERENCES customer_organization(id) ON DELETE SET NULL");
+        addColumnIfMissing(stmt, "work_contract", "approved_at", "TIMESTAMP");
+        addColumnIfMissing(stmt, "work_contract", "approved_by_user_id", "INT");
+        addColumnIfMissing(stmt, "work_contract", "signed_original_file_name", "TEXT");
+        addColumnIfMissing(stmt, "work_contract", "signed_relative_path", "TEXT");
+        addColumnIfMissing(stmt, "work_contract", "signed_size_bytes", "BIGINT");
+        addColumnIfMissing(stmt, "work_contract", "signed_sha256", "VARCHAR(64)");
+        addColumnIfMissing(stmt, "work_contract", "signed_uploaded_at", "TIMESTAMP");
+        addColumnIfMissing(stmt, "work_contract", "signed_uploaded_by_user_id", "INT");
+        addColumnIfMissing(stmt, "customer_organization", "director_name_genitive", "TEXT");
+        addColumnIfMissing(stmt, "work_request", "under_accreditation",
+                "BOOLEAN NOT NULL DEFAULT TRUE");
+        addColumnIfMissing(stmt, "work_request", "contact_phone", "TEXT");
+        addColumnIfMissing(stmt, "work_request_invoice", "payment_type",
+                "VARCHAR(32) NOT NULL DEFAULT 'FULL'");
+        addColumnIfMissing(stmt, "work_request_invoice", "advance_percent", "NUMERIC(5,2)");
+        addColumnIfMissing(stmt, "work_request_invoice", "paid_at", "TIMESTAMP");
+        addColumnIfMissing(stmt, "work_request_invoice", "paid_by_user_id", "INT");
+        addColumnIfMissing(stmt, "work_request_drawing", "notes", "TEXT");
+        addColumnIfMissing(stmt, "work_request_estimate", "total_amount", "NUMERIC(18,2)");
+        addColumnIfMissing(stmt, "work_request_checklist", "manual",
+                "BOOLEAN NOT NULL DEFAULT FALSE");
+        addColumnIfMissing(stmt, "work_request_subcontract_settings",
+                "single_water_sample_hot", "BOOLEAN NOT NULL DEFAULT FALSE");
+    }
+
+    /** Версия 2 — этажи, общие для нескольких ревизий здания, и отпечаток содержимого этажа. */
+    private static void createSharedFloors(Statement stmt) throws SQLException {
+        // Ревизии зданий: этажи общие для нескольких ревизий (copy-on-write).
+        // building_floor — полный список этажей каждой ревизии, floor.building_id — ревизия-владелец.
+        stmt.execute("CREATE TABLE IF NOT EXISTS building_floor (" +
+                "building_id INT NOT NULL," +
+                "floor_id INT NOT NULL," +
+                "ordinal INT NOT NULL DEFAULT 0," +
+                "PRIMARY KEY (building_id, floor_id))");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_building_floor_floor ON building_floor (floor_id)");
+        addColumnIfMissing(stmt, "floor", "content_hash", "VARCHAR(64)");
+        stmt.execute("INSERT INTO building_floor (building_id, floor_id, ordinal) " +
+                "SELECT f.building_id, f.id, f.id FROM floor f " +
+                "WHERE f.building_id IS NOT NULL " +
+                "AND NOT EXISTS (SELECT 1 FROM building_floor bf WHERE bf.floor_id = f.id)");
+    }
+
+    /**
+     * Версия 3 — индексы по ссылкам на родителя. Без них загрузка ревизии, ключевые выборки вкладок
+     * и удаление здания просматривают таблицы целиком, а те растут с каждой ревизией.
+     * noise_settings и noise_thresholds уже покрыты первичными ключами.
+     */
+    private static void createHierarchyIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_section_building ON section (building_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_floor_building ON floor (building_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_space_floor ON space (floor_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_room_space ON room (space_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_title_measurement_building " +
+                "ON title_measurement (building_id, row_index)");
+        stmt.execute("ANALYZE section, floor, space, room, title_measurement, building_floor, noise_settings");
+    }
+
+    /** Поиск последних ревизий (нет ревизии-потомка), подбор имени редакции и история ревизии. */
+    private static void createProjectBrowserIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_building_source ON building (source_project_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_area_project_source ON area_project (source_project_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_building_name_prefix " +
+                "ON building (name text_pattern_ops)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_area_project_name_prefix " +
+                "ON area_project (name text_pattern_ops)");
+        stmt.execute("ANALYZE building, area_project");
+    }
+
+    /**
+     * Версия 5 — картинки эскизов участков хранятся один раз по SHA-256, снимок ревизии ссылается на хеш.
+     * Старые снимки с картинкой внутри остаются как есть и читаются прежним способом.
+     */
+    private static void createAreaSketches(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS area_sketch (" +
+                "hash VARCHAR(64) PRIMARY KEY," +
+                "image BYTEA NOT NULL," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+        // Картинка уже сжата (PNG) — не тратим время TOAST на повторное сжатие
+        stmt.execute("ALTER TABLE area_sketch ALTER COLUMN image SET STORAGE EXTERNAL");
+        stmt.execute("ALTER TABLE area_project ADD COLUMN IF NOT EXISTS sketch_hash VARCHAR(64) " +
+                "REFERENCES area_sketch (hash)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_area_project_sketch ON area_project (sketch_hash)");
+    }
+
+    /**
+     * Триггер рассылает в канал project_lock каждую установку и снятие блокировки (в том числе удаление
+     * просроченных и удаление вместе с ревизией): «операция|тип|id|сеанс|владелец».
+     * Продление (UPDATE heartbeat_at) не рассылается.
+     */
+    private static void createProjectLockNotify(Statement stmt) throws SQLException {
+        stmt.execute("CREATE OR REPLACE FUNCTION notify_project_lock() RETURNS trigger AS $$ " +
+                "DECLARE r project_edit_lock; owner TEXT; " +
+                "BEGIN " +
+                "IF TG_OP = 'DELETE' THEN r := OLD; ELSE r := NEW; END IF; " +
+                "IF TG_OP = 'INSERT' THEN " +
+                "SELECT COALESCE(NULLIF(display_name, ''), windows_login) INTO owner " +
+                "FROM app_user WHERE id = r.user_id; " +
+                "END IF; " +
+                "PERFORM pg_notify('" + PROJECT_LOCK_CHANNEL + "', TG_OP || '|' || r.project_type || '|' || " +
+                "r.project_id || '|' || r.session_id || '|' || COALESCE(owner, '')); " +
+                "RETURN NULL; " +
+                "END $$ LANGUAGE plpgsql");
+        stmt.execute("DROP TRIGGER IF EXISTS project_edit_lock_notify ON project_edit_lock");
+        stmt.execute("CREATE TRIGGER project_edit_lock_notify AFTER INSERT OR DELETE ON project_edit_lock " +
+                "FOR EACH ROW EXECUTE PROCEDURE notify_project_lock()");
+    }
+
+    /**
+     * unavailable_date и vlk_date были строками (ISO, «дд.ММ.гггг» или «дд-ММ-гггг»).
+     * Нераспознанные значения становятся NULL и дальше пропускаются, как и раньше при разборе в UI.
+     */
+    private static void convertCalendarDates(Statement stmt) throws SQLException {
+        stmt.execute("CREATE FUNCTION pg_temp.protokol_parse_date(value TEXT) RETURNS DATE AS $$ " +
+                "BEGIN " +
+                "value := btrim(value); " +
+                "IF value ~ '^\\d{4}-\\d{2}-\\d{2}' THEN RETURN substr(value, 1, 10)::date; END IF; " +
+                "IF value ~ '^\\d{2}\\.\\d{2}\\.\\d{4}$' THEN RETURN to_date(value, 'DD.MM.YYYY'); END IF; " +
+                "IF value ~ '^\\d{2}-\\d{2}-\\d{4}$' THEN RETURN to_date(value, 'DD-MM-YYYY'); END IF; " +
+                "RETURN NULL; " +
+                "EXCEPTION WHEN OTHERS THEN RETURN NULL; " +
+                "END $$ LANGUAGE plpgsql");
+        stmt.execute("ALTER TABLE personnel_unavailability ALTER COLUMN unavailable_date TYPE DATE " +
+                "USING pg_temp.protokol_parse_date(unavailable_date)");
+        stmt.execute("ALTER TABLE vlk_dates ALTER COLUMN vlk_date TYPE DATE " +
+                "USING pg_temp.protokol_parse_date(vlk_date)");
+        stmt.execute("DROP FUNCTION pg_temp.protokol_parse_date(TEXT)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_personnel_unavailability_person " +
+                "ON personnel_unavailability (personnel_id, unavailable_date)");
+    }
+
+    /**
+     * Поиск в списке проектов — подстрока (ILIKE '%…%'), её индекс text_pattern_ops не ускоряет:
+     * он годится только для префикса (подбор имени редакции). GIN по триграммам работает и для подстроки.
+     * pg_trgm — доверенное расширение (PostgreSQL 13+), но роли программы может не хватить прав на
+     * CREATE EXTENSION: тогда миграция только предупреждает в журнале, поиск остаётся обычным ILIKE
+     * (по страницам списка в порядке первичного ключа), а индексы создаются при следующем запуске,
+     * когда расширение установит администратор базы (см. ensureProjectNameSearch).
+     */
+    private static void createProjectNameSearch(Statement stmt) throws SQLException {
+        if (createTrigramIndexes(stmt)) {
+            stmt.execute("ANALYZE building, area_project");
+        }
+    }
+
+    /** true — индексы триграмм созданы; false — pg_trgm недоступно, транзакция при этом не прерывается. */
+    private static boolean createTrigramIndexes(Statement stmt) throws SQLException {
+        Connection c = stmt.getConnection();
+        Savepoint savepoint = c.setSavepoint();
+        try {
+            stmt.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        } catch (SQLException e) {
+            c.rollback(savepoint);
+            logger.warn("Расширение pg_trgm недоступно ({}), поиск проектов по названию идёт без " +
+                    "триграммного индекса. Его включит команда CREATE EXTENSION pg_trgm от владельца базы", e.getMessage());
+            return false;
+        }
+        c.releaseSavepoint(savepoint);
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_building_name_trgm " +
+                "ON building USING gin (name gin_trgm_ops)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_area_project_name_trgm " +
+                "ON area_project USING gin (name gin_trgm_ops)");
+        return true;
+    }
+
+    /**
+     * Если миграция 8 прошла без pg_trgm, при каждом запуске проверяет, не появилось ли расширение,
+     * и досоздаёт индексы. Ошибка здесь не мешает запуску — поиск просто остаётся без индекса.
+     */
+    private static void ensureProjectNameSearch() {
+        try {
+            inTransaction(() -> {
+                try (Statement stmt = connection().createStatement()) {
+                    try (ResultSet rs = stmt.executeQuery(
+                            "SELECT to_regclass('idx_building_name_trgm') IS NOT NULL " +
+                                    "AND to_regclass('idx_area_project_name_trgm') IS NOT NULL")) {
+                        if (rs.next() && rs.getBoolean(1)) {
+                            return;
+                        }
+                    }
+                    if (createTrigramIndexes(stmt)) {
+                        logger.info("Созданы индексы триграмм для поиска проектов по названию");
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            logger.warn("Не удалось проверить индексы поиска проектов по названию", e);
+        }
+    }
+
+    /**
+     * Последняя ревизия каждой единицы оборудования (по effective_date, затем id) хранится отдельно
+     * и поддерживается триггером при любой записи в equipment_revision — реестр «на сегодня»
+     * читает по строке на единицу, не перебирая историю. Вид equipment_current отдаёт действующие
+     * ревизии: для редких записей, последняя ревизия которых датирована будущим числом,
+     * действующая ищется по индексу истории.
+     */
+    private static void createEquipmentCurrentRevision(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS equipment_current_revision (" +
+                "equipment_id INT PRIMARY KEY REFERENCES equipment_asset(id) ON DELETE CASCADE," +
+                "revision_id INT NOT NULL REFERENCES equipment_revision(id) ON DELETE CASCADE," +
+                "effective_date DATE NOT NULL)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_current_revision_revision " +
+                "ON equipment_current_revision (revision_id)");
+        stmt.execute("CREATE OR REPLACE FUNCTION refresh_equipment_current_revision(target INT) " +
+                "RETURNS void AS $$ " +
+                "DECLARE latest RECORD; " +
+                "BEGIN " +
+                "SELECT id, effective_date INTO latest FROM equipment_revision " +
+                "WHERE equipment_id = target ORDER BY effective_date DESC, id DESC LIMIT 1; " +
+                "IF NOT FOUND THEN " +
+                "DELETE FROM equipment_current_revision WHERE equipment_id = target; " +
+                "ELSIF EXISTS (SELECT 1 FROM equipment_asset WHERE id = target) THEN " +
+                "INSERT INTO equipment_current_revision (equipment_id, revision_id, effective_date) " +
+                "VALUES (target, latest.id, latest.effective_date) " +
+                "ON CONFLICT (equipment_id) DO UPDATE " +
+                "SET revision_id = EXCLUDED.revision_id, effective_date = EXCLUDED.effective_date; " +
+                "END IF; " +
+                "END $$ LANGUAGE plpgsql");
+        stmt.execute("CREATE OR REPLACE FUNCTION equipment_revision_track_current() RETURNS trigger AS $$ " +
+                "BEGIN " +
+                "IF TG_OP IN ('UPDATE', 'DELETE') THEN " +
+                "PERFORM refresh_equipment_current_revision(OLD.equipment_id); " +
+                "END IF; " +
+                "IF TG_OP IN ('INSERT', 'UPDATE') " +
+                "AND (TG_OP = 'INSERT' OR NEW.equipment_id <> OLD.equipment_id) THEN " +
+                "PERFORM refresh_equipment_current_revision(NEW.equipment_id); " +
+                "END IF; " +
+                "RETURN NULL; " +
+                "END $$ LANGUAGE plpgsql");
+        stmt.execute("DROP TRIGGER IF EXISTS equipment_revision_current ON equipment_revision");
+        stmt.execute("CREATE TRIGGER equipment_revision_current " +
+                "AFTER INSERT OR DELETE OR UPDATE OF equipment_id, effective_date ON equipment_revision " +
+                "FOR EACH ROW EXECUTE PROCEDURE equipment_revision_track_current()");
+        stmt.execute("INSERT INTO equipment_current_revision (equipment_id, revision_id, effective_date) " +
+                "SELECT DISTINCT ON (equipment_id) equipment_id, id, effective_date FROM equipment_revision " +
+                "ORDER BY equipment_id, effective_date DESC, id DESC " +
+                "ON CONFLICT (equipment_id) DO UPDATE " +
+                "SET revision_id = EXCLUDED.revision_id, effective_date = EXCLUDED.effective_date");
+        stmt.execute("CREATE OR REPLACE VIEW equipment_current AS " +
+                "SELECT r.* FROM equipment_current_revision c " +
+                "JOIN equipment_revision r ON r.id = c.revision_id " +
+                "WHERE c.effective_date <= CURRENT_DATE " +
+                "UNION ALL " +
+                "SELECT r.* FROM equipment_current_revision c " +
+                "CROSS JOIN LATERAL (SELECT * FROM equipment_revision h " +
+                "WHERE h.equipment_id = c.equipment_id AND h.effective_date <= CURRENT_DATE " +
+                "ORDER BY h.effective_date DESC, h.id DESC LIMIT 1) r " +
+                "WHERE c.effective_date > CURRENT_DATE");
+        stmt.execute("ANALYZE equipment_current_revision");
+    }
+
+    /** Поиск уже хранящегося файла по SHA-256 и размеру и подсчёт ссылок на файл перед удалением. */
+    private static void createEquipmentFileIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_contract_sha256 " +
+                "ON equipment_contract (sha256, size_bytes) WHERE sha256 IS NOT NULL");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_equipment_contract_path " +
+                "ON equipment_contract (relative_path)");
+    }
+
     private static void addColumnIfMissing(Statement stmt, String table, String column, String type)
             throws SQLException {
         stmt.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS " + column + " " + type);
@@ -618,13 +1078,26 @@ public class DatabaseManager {
 
     public static void saveBuildingVersion(Building building, int sourceProjectId,
                                            int expectedRevision, String sessionId) throws SQLException {
-        boolean autoCommit = connection.getAutoCommit();
-        connection.setAutoCommit(false);
-        try {
+        saveBuildingVersion(building, sourceProjectId, expectedRevision, sessionId,
+                Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), null);
+    }
+
+    /**
+     * Сохраняет новую ревизию здания вместе со значениями вкладок по комнатам одной транзакцией.
+     * Этажи, не изменившиеся относительно исходной ревизии sourceProjectId, не копируются:
+     * новая ревизия ссылается на уже сохранённые строки через building_floor.
+     */
+    public static void saveBuildingVersion(Building building, int sourceProjectId,
+                                           int expectedRevision, String sessionId,
+                                           Map<String, Boolean> artificialByKey,
+                                           Map<String, Double[]> streetByKey,
+                                           Map<String, NoiseValue> noiseByKey,
+                                           Map<String, double[]> noiseThresholds) throws SQLException {
+        inTransaction(() -> {
             int revision = prepareProjectVersion(
                     PROJECT_TYPE_BUILDING, "building", sourceProjectId, expectedRevision, sessionId);
             Integer userId = currentAppUser == null ? null : currentAppUser.getId();
-            try (PreparedStatement stmt = connection.prepareStatement(
+            try (PreparedStatement stmt = connection().prepareStatement(
                     "INSERT INTO building (name, protocol_date, customer_contacts, customer_legal_address, " +
                             "customer_actual_address, object_name, object_address, contract_number, contract_date, " +
                             "application_number, application_date, representative, revision, source_project_id, " +
@@ -660,108 +1133,99 @@ public class DatabaseManager {
                     building.setRevision(revision);
                     building.setSourceProjectId(sourceProjectId);
                     saveSections(buildingId, building.getSections());
-                    for (Floor floor : building.getFloors()) {
-                        saveFloor(buildingId, floor);
-                    }
+                    List<Floor> insertedFloors = saveFloorRevision(buildingId, sourceProjectId,
+                            building.getFloors(), artificialByKey, streetByKey, noiseByKey);
+                    RoomIdIndex insertedRooms = RoomIdIndex.of(insertedFloors);
+                    writeArtificialSelections(insertedRooms, artificialByKey);
+                    writeStreetLightingValues(insertedRooms, streetByKey);
+                    writeNoiseSelections(insertedRooms, noiseByKey);
+                    writeNoiseThresholds(buildingId, noiseThresholds);
                     saveTitleMeasurements(buildingId, tpd.getMeasurements());
                     createProjectLock(PROJECT_TYPE_BUILDING, buildingId, userId, sessionId);
                 }
             }
-            connection.commit();
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
-        } finally {
-            connection.setAutoCommit(autoCommit);
-        }
+        });
+        rememberRoomIds(building);
     }
     public static void deleteBuilding(int buildingId) throws SQLException {
         deleteBuilding(buildingId, null);
     }
 
     public static void deleteBuilding(int buildingId, String sessionId) throws SQLException {
-        ensureProjectCanBeDeleted(PROJECT_TYPE_BUILDING, buildingId, sessionId);
-        // Удаляем комнаты данного здания
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM room WHERE space_id IN (" +
-                        "  SELECT s.id FROM space s JOIN floor f ON s.floor_id = f.id WHERE f.building_id = ?" +
-                        ")")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        }
+        roomIdIndexes.remove(buildingId);
+        inTransaction(() -> {
+            ensureProjectCanBeDeleted(PROJECT_TYPE_BUILDING, buildingId, sessionId);
+            // Отвязываем этажи ревизии; удаляются только те, на которые не ссылается другая ревизия
+            List<Integer> floorIds = new ArrayList<>();
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "DELETE FROM building_floor WHERE building_id = ? RETURNING floor_id")) {
+                ps.setInt(1, buildingId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) floorIds.add(rs.getInt(1));
+                }
+            }
+            deleteUnreferencedFloors(floorIds);
 
-        // Удаляем помещения этого здания
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM space WHERE floor_id IN (" +
-                        "  SELECT id FROM floor WHERE building_id = ?" +
-                        ")")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        }
+            // Удаляем секции этого здания (таблица создаётся в createTables, ошибку не глушим:
+            // внутри транзакции она всё равно прервала бы удаление)
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "DELETE FROM section WHERE building_id = ?")) {
+                ps.setInt(1, buildingId);
+                ps.executeUpdate();
+            }
 
-        // Удаляем этажи этого здания
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM floor WHERE building_id = ?")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        }
+            // Удаляем сам объект здания
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "DELETE FROM building WHERE id = ?")) {
+                ps.setInt(1, buildingId);
+                ps.executeUpdate();
+            }
 
-        // Удаляем секции этого здания (если таблица section есть)
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM section WHERE building_id = ?")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        } catch (SQLException ignore) {
-            // на случай если таблицы секций нет в старой БД
-        }
+            // Удаляем строки измерений титульной страницы
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "DELETE FROM title_measurement WHERE building_id = ?")) {
+                ps.setInt(1, buildingId);
+                ps.executeUpdate();
+            }
+            releaseProjectLock(PROJECT_TYPE_BUILDING, buildingId, sessionId);
+        });
+    }
 
-        // Удаляем сам объект здания
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM building WHERE id = ?")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        }
 
-        // Удаляем строки измерений титульной страницы
-        try (PreparedStatement ps = connection.prepareStatement(
-                "DELETE FROM title_measurement WHERE building_id = ?")) {
-            ps.setInt(1, buildingId);
-            ps.executeUpdate();
-        }
-        releaseProjectLock(PROJECT_TYPE_BUILDING, buildingId, sessionId);
+    /**
+     * Страница списка проектов-зданий: только последние ревизии (у которых нет ревизии-потомка),
+     * по убыванию id, начиная строго после {@code beforeId} (0 — с начала).
+     * {@code search} — подстрока имени без учёта регистра, пустая — без фильтра.
+     */
+    public static ProjectPage<Building> getLatestBuildings(String search, int beforeId, int limit)
+            throws SQLException {
+        return loadProjectPage("building", search, beforeId, limit,
+                DatabaseManager::readBuildingHeader, Building::getId);
     }
 
+    /** История ревизии: она сама и все её предки по source_project_id, от новой к старой. */
+    public static List<Building> getBuildingHistory(int buildingId) throws SQLException {
+        return loadProjectHistory("building", buildingId,
+                DatabaseManager::readBuildingHeader);
+    }
 
-    public static List<Building> getAllBuildings() throws SQLException {
-        List<Building> buildings = new ArrayList<>();
-        String sql = "SELECT b.id, b.name, b.revision, b.source_project_id, b.created_at, b.updated_at, " +
-                "creator.display_name AS created_by, updater.display_name AS updated_by, " +
-                "lock_user.display_name AS lock_owner " +
-                "FROM building b " +
-                "LEFT JOIN app_user creator ON creator.id=b.created_by_user_id " +
-                "LEFT JOIN app_user updater ON updater.id=b.updated_by_user_id " +
-                "LEFT JOIN project_edit_lock project_lock ON project_lock.project_type='BUILDING' " +
-                "AND project_lock.project_id=b.id " +
-                "AND project_lock.heartbeat_at >= CURRENT_TIMESTAMP - INTERVAL '3 minutes' " +
-                "LEFT JOIN app_user lock_user ON lock_user.id=project_lock.user_id " +
-                "ORDER BY b.id DESC";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Building building = new Building();
-                building.setId(rs.getInt("id"));
-                building.setName(rs.getString("name"));
-                building.setRevision(rs.getInt("revision"));
-                building.setSourceProjectId(rs.getInt("source_project_id"));
-                building.setCreatedAt(timestampText(rs.getTimestamp("created_at")));
-                building.setUpdatedAt(timestampText(rs.getTimestamp("updated_at")));
-                building.setCreatedBy(rs.getString("created_by"));
-                building.setUpdatedBy(rs.getString("updated_by"));
-                building.setLockOwner(rs.getString("lock_owner"));
-                buildings.add(building);
-            }
-        }
-        return buildings;
+    /** Имена зданий, начинающиеся с {@code prefix} (для номера следующей редакции). */
+    public static List<String> findBuildingNames(String prefix) throws SQLException {
+        return findProjectNames("building", prefix);
+    }
+
+    private static Building readBuildingHeader(ResultSet rs) throws SQLException {
+        Building building = new Building();
+        building.setId(rs.getInt("id"));
+        building.setName(rs.getString("name"));
+        building.setRevision(rs.getInt("revision"));
+        building.setSourceProjectId(rs.getInt("source_project_id"));
+        building.setCreatedAt(timestampText(rs.getTimestamp("created_at")));
+        building.setUpdatedAt(timestampText(rs.getTimestamp("updated_at")));
+        building.setCreatedBy(rs.getString("created_by"));
+        building.setUpdatedBy(rs.getString("updated_by"));
+        building.setLockOwner(ProjectLockService.ownerLabel(PROJECT_TYPE_BUILDING, building.getId()));
+        return building;
     }
 
     public static int saveAreaProject(String name, byte[] snapshot) throws SQLException {
@@ -770,23 +1234,35 @@ public class DatabaseManager {
 
     public static int saveAreaProjectVersion(String name, byte[] snapshot, int sourceProjectId,
                                              int expectedRevision, String sessionId) throws SQLException {
-        boolean autoCommit = connection.getAutoCommit();
-        connection.setAutoCommit(false);
-        try {
+        return saveAreaProjectVersion(name, snapshot, null, null, sourceProjectId, expectedRevision, sessionId);
+    }
+
+    /**
+     * Сохраняет ревизию проекта участка со ссылкой на эскиз {@code sketchHash}.
+     * {@code sketchImage} передаётся, только если картинка новая; уже сохранённая по хешу не пересылается.
+     */
+    public static int saveAreaProjectVersion(String name, byte[] snapshot, String sketchHash, byte[] sketchImage,
+                                             int sourceProjectId, int expectedRevision,
+                                             String sessionId) throws SQLException {
+        return inTransaction(() -> {
+            if (sketchHash != null) {
+                storeAreaSketch(sketchHash, sketchImage);
+            }
             int revision = prepareProjectVersion(
                     PROJECT_TYPE_AREA, "area_project", sourceProjectId, expectedRevision, sessionId);
             Integer userId = currentAppUser == null ? null : currentAppUser.getId();
             String sql = "INSERT INTO area_project (name, snapshot, revision, source_project_id, " +
-                    "created_by_user_id, updated_by_user_id, created_at, updated_at) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
+                    "created_by_user_id, updated_by_user_id, sketch_hash, created_at, updated_at) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)";
             int projectId;
-            try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            try (PreparedStatement stmt = connection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 stmt.setString(1, name);
                 stmt.setBytes(2, snapshot);
                 stmt.setInt(3, revision);
                 setNullableInt(stmt, 4, sourceProjectId > 0 ? sourceProjectId : null);
                 setNullableInt(stmt, 5, userId);
                 setNullableInt(stmt, 6, userId);
+                stmt.setString(7, sketchHash);
                 stmt.executeUpdate();
                 try (ResultSet rs = stmt.getGeneratedKeys()) {
                     if (!rs.next()) {
@@ -796,70 +1272,464 @@ public class DatabaseManager {
                 }
                 createProjectLock(PROJECT_TYPE_AREA, projectId, userId, sessionId);
             }
-            connection.commit();
             return projectId;
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
-        } finally {
-            connection.setAutoCommit(autoCommit);
-        }
-    }
-
-    public static List<AreaProjectInfo> getAllAreaProjects() throws SQLException {
-        List<AreaProjectInfo> projects = new ArrayList<>();
-        String sql = "SELECT area.id, area.name, area.revision, area.source_project_id, " +
-                "area.created_at, area.updated_at, creator.display_name AS created_by, " +
-                "updater.display_name AS updated_by, lock_user.display_name AS lock_owner " +
-                "FROM area_project area " +
-                "LEFT JOIN app_user creator ON creator.id=area.created_by_user_id " +
-                "LEFT JOIN app_user updater ON updater.id=area.updated_by_user_id " +
-                "LEFT JOIN project_edit_lock project_lock ON project_lock.project_type='AREA' " +
-                "AND project_lock.project_id=area.id " +
-                "AND project_lock.heartbeat_at >= CURRENT_TIMESTAMP - INTERVAL '3 minutes' " +
-                "LEFT JOIN app_user lock_user ON lock_user.id=project_lock.user_id " +
-                "ORDER BY area.id DESC";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                projects.add(new AreaProjectInfo(
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getInt("revision"),
-                        rs.getInt("source_project_id"),
-                        timestampText(rs.getTimestamp("created_at")),
-                        timestampText(rs.getTimestamp("updated_at")),
-                        rs.getString("created_by"),
-                        rs.getString("updated_by"),
-                        rs.getString("lock_owner")
-                ));
+        });
+    }
+
+    /** Страница списка проектов участков: как {@link #getLatestBuildings}. */
+    public static ProjectPage<AreaProjectInfo> getLatestAreaProjects(String search, int beforeId, int limit)
+            throws SQLException {
+        return loadProjectPage("area_project", search, beforeId, limit,
+                DatabaseManager::readAreaProjectInfo, AreaProjectInfo::getId);
+    }
+
+    public static List<AreaProjectInfo> getAreaProjectHistory(int projectId) throws SQLException {
+        return loadProjectHistory("area_project", projectId,
+                DatabaseManager::readAreaProjectInfo);
+    }
+
+    public static List<String> findAreaProjectNames(String prefix) throws SQLException {
+        return findProjectNames("area_project", prefix);
+    }
+
+    private static AreaProjectInfo readAreaProjectInfo(ResultSet rs) throws SQLException {
+        return new AreaProjectInfo(
+                rs.getInt("id"),
+                rs.getString("name"),
+                rs.getInt("revision"),
+                rs.getInt("source_project_id"),
+                timestampText(rs.getTimestamp("created_at")),
+                timestampText(rs.getTimestamp("updated_at")),
+                rs.getString("created_by"),
+                rs.getString("updated_by"),
+                ProjectLockService.ownerLabel(PROJECT_TYPE_AREA, rs.getInt("id"))
+        );
+    }
+
+    /** Страница списка проектов. {@code nextBeforeId} — курсор следующей страницы, 0 — страниц больше нет. */
+    public record ProjectPage<T>(List<T> items, int nextBeforeId) {
+        public boolean hasMore() {
+            return nextBeforeId > 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Строки проектов с авторами. Соединения с app_user выполняются только для id из {@code idsSql} —
+     * то есть после LIMIT, а не для всей таблицы. Текущие блокировки берутся из таблицы
+     * ProjectLockService, а не соединением с project_edit_lock.
+     */
+    private static String projectListSql(String table, String idsSql) {
+        return "WITH ids AS (" + idsSql + ") " +
+                "SELECT p.id, p.name, p.revision, p.source_project_id, p.created_at, p.updated_at, " +
+                "creator.display_name AS created_by, updater.display_name AS updated_by " +
+                "FROM ids JOIN " + table + " p ON p.id = ids.id " +
+                "LEFT JOIN app_user creator ON creator.id=p.created_by_user_id " +
+                "LEFT JOIN app_user updater ON updater.id=p.updated_by_user_id";
+    }
+
+    private static <T> ProjectPage<T> loadProjectPage(String table, String search,
+                                                      int beforeId, int limit, RowReader<T> reader,
+                                                      java.util.function.ToIntFunction<T> idOf)
+            throws SQLException {
+        int pageSize = Math.max(1, limit);
+        String pattern = (search == null || search.isBlank()) ? null : "%" + escapeLike(search.trim()) + "%";
+        // ILIKE по подстроке идёт по GIN-индексу триграмм (миграция 8), если pg_trgm установлено
+        // Последняя ревизия линии — та, от которой ещё ничего не сохраняли (ветвления показываются все)
+        String idsSql = "SELECT t.id FROM " + table + " t " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + table + " child WHERE child.source_project_id = t.id) " +
+                (beforeId > 0 ? "AND t.id < ? " : "") +
+                (pattern != null ? "AND t.name ILIKE ? ESCAPE '\\' " : "") +
+                "ORDER BY t.id DESC LIMIT ?";
+        String sql = projectListSql(table, idsSql) + " ORDER BY p.id DESC";
+        return withConnection(() -> {
+            List<T> items = new ArrayList<>();
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                int idx = 1;
+                if (beforeId > 0) ps.setInt(idx++, beforeId);
+                if (pattern != null) ps.setString(idx++, pattern);
+                // Одна лишняя строка показывает, есть ли следующая страница
+                ps.setInt(idx, pageSize + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        items.add(reader.read(rs));
+                    }
+                }
+            }
+            if (items.size() <= pageSize) {
+                return new ProjectPage<>(items, 0);
+            }
+            List<T> page = new ArrayList<>(items.subList(0, pageSize));
+            return new ProjectPage<>(page, idOf.applyAsInt(page.get(pageSize - 1)));
+        });
+    }
+
+    private static <T> List<T> loadProjectHistory(String table, int projectId,
+                                                  RowReader<T> reader) throws SQLException {
+        if (projectId <= 0) {
+            return new ArrayList<>();
+        }
+        // Глубина ограничена на случай зацикленных ссылок в старых данных
+        String idsSql = "WITH RECURSIVE chain AS (" +
+                "SELECT id, source_project_id, 0 AS depth FROM " + table + " WHERE id = ? " +
+                "UNION ALL SELECT parent.id, parent.source_project_id, chain.depth + 1 " +
+                "FROM " + table + " parent JOIN chain ON parent.id = chain.source_project_id " +
+                "WHERE chain.depth < 10000) SELECT id, depth FROM chain";
+        String sql = projectListSql(table, idsSql) + " ORDER BY ids.depth";
+        return withConnection(() -> {
+            List<T> history = new ArrayList<>();
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                ps.setInt(1, projectId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        history.add(reader.read(rs));
+                    }
+                }
+            }
+            return history;
+        });
+    }
+
+    private static List<String> findProjectNames(String table, String prefix) throws SQLException {
+        String base = prefix == null ? "" : prefix;
+        return withConnection(() -> {
+            List<String> names = new ArrayList<>();
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT DISTINCT name FROM " + table + " WHERE name LIKE ? ESCAPE '\\'")) {
+                ps.setString(1, escapeLike(base) + "%");
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        names.add(rs.getString(1));
+                    }
+                }
+            }
+            return names;
+        });
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static void storeAreaSketch(String hash, byte[] image) throws SQLException {
+        if (image == null) {
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT 1 FROM area_sketch WHERE hash = ? FOR KEY SHARE")) {
+                ps.setString(1, hash);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Эскиз проекта участка не найден в базе. Выберите картинку заново.");
+                    }
+                }
             }
+            return;
+        }
+        try (PreparedStatement ps = connection().prepareStatement(
+                "INSERT INTO area_sketch (hash, image) VALUES (?, ?) ON CONFLICT (hash) DO NOTHING")) {
+            ps.setString(1, hash);
+            ps.setBytes(2, image);
+            ps.executeUpdate();
         }
-        return projects;
     }
 
-    public static byte[] loadAreaProjectSnapshot(int projectId) throws SQLException {
-        String sql = "SELECT snapshot FROM area_project WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, projectId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next() ? rs.getBytes("snapshot") : null;
+    /** PNG эскиза по хешу или null. */
+    public static byte[] loadAreaSketch(String hash) throws SQLException {
+        if (hash == null || hash.isBlank()) {
+            return null;
+        }
+        return withConnection(() -> {
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT image FROM area_sketch WHERE hash = ?")) {
+                ps.setString(1, hash);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getBytes(1) : null;
+                }
+            }
+        });
+    }
+
+    /** Удаляет эскизы, на которые не ссылается ни одна ревизия. */
+    private static void deleteUnreferencedSketches(DeleteTally tally) throws SQLException {
+        String sql = "DELETE FROM area_sketch s " +
+                "WHERE NOT EXISTS (SELECT 1 FROM area_project a WHERE a.sketch_hash = s.hash)";
+        if (tally == null) {
+            try (Statement stmt = connection().createStatement()) {
+                stmt.executeUpdate(sql);
+            }
+            return;
+        }
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("WITH d AS (" + sql + " RETURNING pg_column_size(s.*) AS sz) " +
+                     "SELECT COUNT(*), COALESCE(SUM(sz), 0) FROM d")) {
+            if (rs.next()) {
+                tally.rows += rs.getLong(1);
+                tally.bytes += rs.getLong(2);
             }
         }
     }
 
+    public static byte[] loadAreaProjectSnapshot(int projectId) throws SQLException {
+        return withConnection(() -> {
+            String sql = "SELECT snapshot FROM area_project WHERE id = ?";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setInt(1, projectId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getBytes("snapshot") : null;
+                }
+            }
+        });
+    }
+
     public static void deleteAreaProject(int projectId) throws SQLException {
         deleteAreaProject(projectId, null);
     }
 
     public static void deleteAreaProject(int projectId, String sessionId) throws SQLException {
-        ensureProjectCanBeDeleted(PROJECT_TYPE_AREA, projectId, sessionId);
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "DELETE FROM area_project WHERE id = ?")) {
-            stmt.setInt(1, projectId);
-            stmt.executeUpdate();
+        inTransaction(() -> {
+            ensureProjectCanBeDeleted(PROJECT_TYPE_AREA, projectId, sessionId);
+            String sketchHash = null;
+            try (PreparedStatement stmt = connection().prepareStatement(
+                    "DELETE FROM area_project WHERE id = ? RETURNING sketch_hash")) {
+                stmt.setInt(1, projectId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) sketchHash = rs.getString(1);
+                }
+            }
+            if (sketchHash != null) {
+                try (PreparedStatement stmt = connection().prepareStatement(
+                        "DELETE FROM area_sketch s WHERE s.hash = ? " +
+                                "AND NOT EXISTS (SELECT 1 FROM area_project a WHERE a.sketch_hash = s.hash)")) {
+                    stmt.setString(1, sketchHash);
+                    stmt.executeUpdate();
+                }
+            }
+            releaseProjectLock(PROJECT_TYPE_AREA, projectId, sessionId);
+        });
+    }
+
+    /**
+     * Политика хранения ревизий. В каждой линии проекта (цепочке по source_project_id) остаются
+     * последние {@code keepLast} ревизий и последняя ревизия каждого месяца за {@code milestoneMonths}
+     * месяцев (0 — вехи хранятся бессрочно). Ревизии моложе {@code minAgeDays} дней, последние ревизии
+     * веток и проекты, открытые на редактирование, не удаляются никогда.
+     */
+    public record RetentionPolicy(int keepLast, int milestoneMonths, int minAgeDays) {
+        public RetentionPolicy {
+            if (keepLast < 1) {
+                throw new IllegalArgumentException("Нужно хранить хотя бы одну последнюю ревизию");
+            }
+            milestoneMonths = Math.max(0, milestoneMonths);
+            minAgeDays = Math.max(0, minAgeDays);
+        }
+    }
+
+    /** Итог сжатия ревизий одного типа проектов. {@code bytesReclaimed} — размер удалённых строк. */
+    public record CompactionReport(String projectType, int revisionsDeleted, long rowsDeleted,
+                                   long bytesReclaimed, long elapsedMs, boolean skipped) {
+        static CompactionReport skipped(String projectType) {
+            return new CompactionReport(projectType, 0, 0, 0, 0, true);
+        }
+    }
+
+    /** Удаляет устаревшие ревизии зданий по политике хранения — одной транзакцией, пакетными операторами. */
+    public static CompactionReport compactBuildingRevisions(RetentionPolicy policy) throws SQLException {
+        return inTransaction(() -> {
+            long started = System.nanoTime();
+            List<Integer> victims = selectObsoleteRevisions("building", PROJECT_TYPE_BUILDING, policy);
+            if (victims == null) {
+                return CompactionReport.skipped(PROJECT_TYPE_BUILDING);
+            }
+            DeleteTally tally = new DeleteTally();
+            if (!victims.isEmpty()) {
+                Array ids = connection().createArrayOf("integer", victims.toArray());
+                relinkRevisionChildren("building", ids);
+
+                List<Integer> floorIds = new ArrayList<>();
+                try (PreparedStatement ps = connection().prepareStatement(
+                        "DELETE FROM building_floor WHERE building_id = ANY(?) RETURNING floor_id")) {
+                    ps.setArray(1, ids);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) floorIds.add(rs.getInt(1));
+                    }
+                }
+                tally.rows += floorIds.size();
+                deleteUnreferencedFloors(floorIds, tally);
+                deleteMeasured("section", "s", "s.building_id = ANY(?)", ids, tally);
+                deleteMeasured("title_measurement", "t", "t.building_id = ANY(?)", ids, tally);
+                deleteMeasured("noise_thresholds", "n", "n.building_id = ANY(?)", ids, tally);
+                deleteMeasured("project_edit_lock", "l", "l.project_type = '" + PROJECT_TYPE_BUILDING
+                        + "' AND l.project_id = ANY(?)", ids, null);
+                deleteMeasured("building", "b", "b.id = ANY(?)", ids, tally);
+                victims.forEach(roomIdIndexes::remove);
+            }
+            return new CompactionReport(PROJECT_TYPE_BUILDING, victims.size(), tally.rows, tally.bytes,
+                    (System.nanoTime() - started) / 1_000_000, false);
+        });
+    }
+
+    /** Удаляет устаревшие ревизии проектов участков (снимки целиком) по политике хранения. */
+    public static CompactionReport compactAreaProjectRevisions(RetentionPolicy policy) throws SQLException {
+        return inTransaction(() -> {
+            long started = System.nanoTime();
+            List<Integer> victims = selectObsoleteRevisions("area_project", PROJECT_TYPE_AREA, policy);
+            if (victims == null) {
+                return CompactionReport.skipped(PROJECT_TYPE_AREA);
+            }
+            DeleteTally tally = new DeleteTally();
+            if (!victims.isEmpty()) {
+                Array ids = connection().createArrayOf("integer", victims.toArray());
+                relinkRevisionChildren("area_project", ids);
+                deleteMeasured("project_edit_lock", "l", "l.project_type = '" + PROJECT_TYPE_AREA
+                        + "' AND l.project_id = ANY(?)", ids, null);
+                deleteMeasured("area_project", "a", "a.id = ANY(?)", ids, tally);
+                deleteUnreferencedSketches(tally);
+            }
+            return new CompactionReport(PROJECT_TYPE_AREA, victims.size(), tally.rows, tally.bytes,
+                    (System.nanoTime() - started) / 1_000_000, false);
+        });
+    }
+
+    /**
+     * Освобождает место удалённых строк для повторного использования (обычный VACUUM, без блокировки
+     * таблиц на запись). Выполняется вне транзакции.
+     */
+    public static void vacuumRevisionTables() throws SQLException {
+        withConnection(() -> {
+            try (Statement stmt = connection().createStatement()) {
+                stmt.execute("VACUUM (ANALYZE) building, building_floor, section, floor, space, room, " +
+                        "noise_settings, noise_thresholds, title_measurement, area_project, area_sketch");
+            }
+        });
+    }
+
+    /**
+     * id ревизий, подлежащих удалению, или null, если сжатие уже выполняет другой клиент.
+     * Каждая выбранная ревизия до конца транзакции закрывается своей advisory-блокировкой проекта:
+     * взять в редактирование её нельзя, остальные проекты не затрагиваются. Ревизии, которые
+     * как раз сейчас берут в редактирование, пропускаются до следующего запуска.
+     */
+    private static List<Integer> selectObsoleteRevisions(String table, String projectType,
+                                                         RetentionPolicy policy) throws SQLException {
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_xact_lock(" + COMPACTION_LOCK_ID + ")")) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return null;
+            }
+        }
+        // Корень линии — ревизия без (существующего) источника; строки в циклах ссылок корня не имеют и не трогаются
+        String sql = "WITH RECURSIVE lineage AS (" +
+                "SELECT t.id, t.id AS root, 0 AS depth FROM " + table + " t " +
+                "WHERE t.source_project_id IS NULL " +
+                "OR NOT EXISTS (SELECT 1 FROM " + table + " p WHERE p.id = t.source_project_id) " +
+                "UNION ALL SELECT c.id, l.root, l.depth + 1 FROM " + table + " c " +
+                "JOIN lineage l ON c.source_project_id = l.id WHERE l.depth < 10000), " +
+                "ranked AS (SELECT t.id, t.created_at, " +
+                "ROW_NUMBER() OVER (PARTITION BY l.root ORDER BY t.revision DESC, t.id DESC) AS rn, " +
+                "ROW_NUMBER() OVER (PARTITION BY l.root, date_trunc('month', t.created_at) " +
+                "ORDER BY t.revision DESC, t.id DESC) AS month_rn " +
+                "FROM lineage l JOIN " + table + " t ON t.id = l.id) " +
+                "SELECT r.id FROM ranked r " +
+                "WHERE r.rn > ? " +
+                "AND NOT (r.month_rn = 1 AND (? = 0 OR r.created_at >= " +
+                "date_trunc('month', CURRENT_TIMESTAMP) - make_interval(months => ?))) " +
+                "AND r.created_at < CURRENT_TIMESTAMP - make_interval(days => ?) " +
+                "AND EXISTS (SELECT 1 FROM " + table + " c WHERE c.source_project_id = r.id) " +
+                "AND NOT EXISTS (SELECT 1 FROM project_edit_lock pl " +
+                "WHERE pl.project_type = ? AND pl.project_id = r.id " +
+                "AND pl.heartbeat_at >= CURRENT_TIMESTAMP - INTERVAL '3 minutes') " +
+                "ORDER BY r.id";
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, policy.keepLast());
+            ps.setInt(2, policy.milestoneMonths());
+            ps.setInt(3, policy.milestoneMonths());
+            ps.setInt(4, policy.minAgeDays());
+            ps.setString(5, projectType);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        return lockRevisionsForDeletion(projectType, ids);
+    }
+
+    /**
+     * Берёт advisory-блокировки проектов candidates (без ожидания) и отбрасывает те, что заняты
+     * или уже открыты на редактирование: блокировку могли взять между выбором кандидатов и этим вызовом.
+     */
+    private static List<Integer> lockRevisionsForDeletion(String projectType, List<Integer> candidates)
+            throws SQLException {
+        if (candidates.isEmpty()) return candidates;
+        List<Integer> locked = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT id FROM unnest(?::integer[]) AS id WHERE pg_try_advisory_xact_lock(?, id) ORDER BY id")) {
+            ps.setArray(1, connection().createArrayOf("integer", candidates.toArray()));
+            ps.setInt(2, projectLockClass(projectType));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) locked.add(rs.getInt(1));
+            }
+        }
+        if (locked.isEmpty()) return locked;
+        Set<Integer> edited = new HashSet<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT project_id FROM project_edit_lock WHERE project_type = ? AND project_id = ANY(?) " +
+                        "AND heartbeat_at >= CURRENT_TIMESTAMP - INTERVAL '3 minutes'")) {
+            ps.setString(1, projectType);
+            ps.setArray(2, connection().createArrayOf("integer", locked.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) edited.add(rs.getInt(1));
+            }
+        }
+        locked.removeAll(edited);
+        return locked;
+    }
+
+    private static int projectLockClass(String projectType) {
+        return PROJECT_TYPE_AREA.equals(projectType) ? PROJECT_LOCK_CLASS_AREA : PROJECT_LOCK_CLASS_BUILDING;
+    }
+
+    /**
+     * Advisory-блокировка проекта до конца транзакции; проверяет, что ревизия ещё существует
+     * (её могло удалить сжатие, пока мы ждали).
+     */
+    private static void lockProjectRevision(String projectType, int projectId) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement("SELECT pg_advisory_xact_lock(?, ?)")) {
+            ps.setInt(1, projectLockClass(projectType));
+            ps.setInt(2, projectId);
+            ps.execute();
+        }
+        String table = PROJECT_TYPE_AREA.equals(projectType) ? "area_project" : "building";
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT 1 FROM " + table + " WHERE id = ?")) {
+            ps.setInt(1, projectId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Ревизия проекта удалена при сжатии истории, откройте проект заново");
+                }
+            }
+        }
+    }
+
+    /** Потомки удаляемых ревизий переводятся на ближайшего сохраняемого предка — история не рвётся. */
+    private static void relinkRevisionChildren(String table, Array victimIds) throws SQLException {
+        String sql = "WITH RECURSIVE up AS (" +
+                "SELECT t.id AS victim, t.source_project_id AS ancestor, 0 AS depth FROM " + table + " t " +
+                "WHERE t.id = ANY(?) " +
+                "UNION ALL SELECT up.victim, t.source_project_id, up.depth + 1 FROM up " +
+                "JOIN " + table + " t ON t.id = up.ancestor " +
+                "WHERE t.id = ANY(?) AND up.depth < 10000), " +
+                "resolved AS (SELECT DISTINCT ON (victim) victim, ancestor FROM up ORDER BY victim, depth DESC) " +
+                "UPDATE " + table + " c SET source_project_id = resolved.ancestor FROM resolved " +
+                "WHERE c.source_project_id = resolved.victim AND NOT (c.id = ANY(?))";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setArray(1, victimIds);
+            ps.setArray(2, victimIds);
+            ps.setArray(3, victimIds);
+            ps.executeUpdate();
         }
-        releaseProjectLock(PROJECT_TYPE_AREA, projectId, sessionId);
     }
 
     public static final class AreaProjectInfo {
@@ -887,252 +1757,571 @@ public class DatabaseManager {
             this.lockOwner = lockOwner;
         }
 
-        public int getId() {
-            return id;
-        }
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public int getSourceProjectId() {
+            return sourceProjectId;
+        }
+
+        public String getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public String getCreatedBy() {
+            return createdBy;
+        }
+
+        public String getUpdatedBy() {
+            return updatedBy;
+        }
+
+        public String getLockOwner() {
+            return lockOwner;
+        }
+
+        @Override
+        public String toString() {
+            return name == null || name.isBlank() ? "Проект участка " + id : name;
+        }
+    }
+
+    /**
+     * Сохраняет этажи ревизии: совпавшие по отпечатку с этажами исходной ревизии остаются общими,
+     * остальные вставляются заново. Возвращает этажи, для которых созданы новые строки.
+     */
+    private static List<Floor> saveFloorRevision(int buildingId, int sourceProjectId, List<Floor> floors,
+                                                 Map<String, Boolean> artificialByKey,
+                                                 Map<String, Double[]> streetByKey,
+                                                 Map<String, NoiseValue> noiseByKey) throws SQLException {
+        Map<Floor, String> hashes = new IdentityHashMap<>();
+        for (Floor floor : floors) {
+            hashes.put(floor, FloorFingerprint.of(floor, artificialByKey, streetByKey, noiseByKey));
+        }
+        Map<Floor, Integer> shared = matchSharedFloors(sourceProjectId, floors, hashes);
+        List<Floor> inserted = new ArrayList<>();
+        for (Floor floor : floors) {
+            if (!shared.containsKey(floor)) inserted.add(floor);
+        }
+        saveFloors(buildingId, inserted, hashes);
+        linkFloors(buildingId, floors);
+        logger.info("Ревизия здания {}: новых этажей {}, общих с ревизией {} — {}",
+                buildingId, inserted.size(), sourceProjectId, shared.size());
+        return inserted;
+    }
+
+    /** Подбирает этажам неизменённые этажи исходной ревизии и переносит на модель их идентификаторы. */
+    private static Map<Floor, Integer> matchSharedFloors(int sourceProjectId, List<Floor> floors,
+                                                         Map<Floor, String> hashes) throws SQLException {
+        Map<Floor, Integer> shared = new IdentityHashMap<>();
+        if (sourceProjectId <= 0 || floors.isEmpty()) return shared;
+
+        Map<String, Deque<Integer>> candidates = new HashMap<>();
+        String sql = "SELECT f.id, f.content_hash FROM building_floor bf " +
+                "JOIN floor f ON f.id = bf.floor_id " +
+                "WHERE bf.building_id = ? AND f.content_hash IS NOT NULL ORDER BY bf.ordinal";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, sourceProjectId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    candidates.computeIfAbsent(rs.getString(2), k -> new ArrayDeque<>()).add(rs.getInt(1));
+                }
+            }
+        }
+        for (Floor floor : floors) {
+            Deque<Integer> ids = candidates.get(hashes.get(floor));
+            if (ids != null && !ids.isEmpty()) shared.put(floor, ids.poll());
+        }
+        if (shared.isEmpty()) return shared;
+
+        Array floorIds = connection().createArrayOf("integer", shared.values().toArray());
+        Map<Integer, List<Integer>> spaceIdsByFloor = new HashMap<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT id, floor_id FROM space WHERE floor_id = ANY(?) ORDER BY COALESCE(position,0), id")) {
+            ps.setArray(1, floorIds);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    spaceIdsByFloor.computeIfAbsent(rs.getInt(2), k -> new ArrayList<>()).add(rs.getInt(1));
+                }
+            }
+        }
+        Map<Integer, List<Integer>> roomIdsBySpace = new HashMap<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT r.id, r.space_id FROM room r JOIN space s ON r.space_id = s.id " +
+                        "WHERE s.floor_id = ANY(?) ORDER BY COALESCE(r.position,0), r.id")) {
+            ps.setArray(1, floorIds);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    roomIdsBySpace.computeIfAbsent(rs.getInt(2), k -> new ArrayList<>()).add(rs.getInt(1));
+                }
+            }
+        }
+        shared.entrySet().removeIf(e ->
+                !adoptStoredIds(e.getKey(), e.getValue(), spaceIdsByFloor, roomIdsBySpace));
+        return shared;
+    }
+
+    private static boolean adoptStoredIds(Floor floor, int floorId,
+                                          Map<Integer, List<Integer>> spaceIdsByFloor,
+                                          Map<Integer, List<Integer>> roomIdsBySpace) {
+        List<Space> spaces = FloorFingerprint.orderedSpaces(floor);
+        List<Integer> spaceIds = spaceIdsByFloor.getOrDefault(floorId, List.of());
+        if (spaces.size() != spaceIds.size()) return false;
+        for (int i = 0; i < spaces.size(); i++) {
+            List<Integer> roomIds = roomIdsBySpace.getOrDefault(spaceIds.get(i), List.of());
+            if (spaces.get(i).getRooms().size() != roomIds.size()) return false;
+        }
+        floor.setId(floorId);
+        for (int i = 0; i < spaces.size(); i++) {
+            Space space = spaces.get(i);
+            int spaceId = spaceIds.get(i);
+            space.setId(spaceId);
+            List<Room> rooms = FloorFingerprint.orderedRooms(space);
+            List<Integer> roomIds = roomIdsBySpace.getOrDefault(spaceId, List.of());
+            for (int j = 0; j < rooms.size(); j++) {
+                rooms.get(j).setId(roomIds.get(j));
+            }
+        }
+        return true;
+    }
+
+    private static void linkFloors(int buildingId, List<Floor> floors) throws SQLException {
+        if (floors == null || floors.isEmpty()) return;
+        String sql = "INSERT INTO building_floor (building_id, floor_id, ordinal) VALUES (?, ?, ?)";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            int ordinal = 0;
+            for (Floor floor : floors) {
+                ps.setInt(1, buildingId);
+                ps.setInt(2, floor.getId());
+                ps.setInt(3, ordinal++);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /** Удаляет этажи (с помещениями и комнатами), на которые больше не ссылается ни одна ревизия. */
+    private static void deleteUnreferencedFloors(List<Integer> floorIds) throws SQLException {
+        deleteUnreferencedFloors(floorIds, null);
+    }
 
-        public String getName() {
-            return name;
-        }
+    private static final String UNREFERENCED = "NOT EXISTS (SELECT 1 FROM building_floor bf WHERE bf.floor_id = ";
 
-        public int getRevision() {
-            return revision;
+    /** DELETE FROM table alias WHERE condition; в condition один параметр — массив id этажей. */
+    record LevelDelete(String table, String alias, String condition) {
+    }
+
+    /**
+     * Удаление строк этажей без ссылок из ревизий, по уровням снизу вверх.
+     * Видно тестам планов выполнения.
+     */
+    static final List<LevelDelete> DELETE_UNREFERENCED_FLOORS = List.of(
+            new LevelDelete("noise_settings", "n", "n.room_id IN (SELECT r.id FROM room r " +
+                    "JOIN space s ON s.id = r.space_id WHERE s.floor_id = ANY(?) AND " + UNREFERENCED + "s.floor_id))"),
+            new LevelDelete("room", "r", "r.space_id IN (" +
+                    "SELECT s.id FROM space s WHERE s.floor_id = ANY(?) AND " + UNREFERENCED + "s.floor_id))"),
+            new LevelDelete("space", "s", "s.floor_id = ANY(?) AND " + UNREFERENCED + "s.floor_id)"),
+            new LevelDelete("floor", "f", "f.id = ANY(?) AND " + UNREFERENCED + "f.id)"));
+
+    /** Удаляет этажи из списка, на которые больше не ссылается ни одна ревизия, вместе с их строками. */
+    private static void deleteUnreferencedFloors(List<Integer> floorIds, DeleteTally tally) throws SQLException {
+        if (floorIds == null || floorIds.isEmpty()) return;
+        Array ids = connection().createArrayOf("integer", floorIds.toArray());
+        for (LevelDelete delete : DELETE_UNREFERENCED_FLOORS) {
+            deleteMeasured(delete.table(), delete.alias(), delete.condition(), ids, tally);
         }
+    }
 
-        public int getSourceProjectId() {
-            return sourceProjectId;
+    /** Счётчик удалённых строк и их размера (pg_column_size) для отчёта о сжатии. */
+    private static final class DeleteTally {
+        long rows;
+        long bytes;
+    }
+
+    /**
+     * DELETE FROM table alias WHERE condition с единственным параметром-массивом в condition.
+     * Если передан tally — считает удалённые строки и их размер.
+     */
+    private static void deleteMeasured(String table, String alias, String condition, Array ids,
+                                       DeleteTally tally) throws SQLException {
+        String delete = "DELETE FROM " + table + " " + alias + " WHERE " + condition;
+        String sql = tally == null ? delete
+                : "WITH d AS (" + delete + " RETURNING pg_column_size(" + alias + ".*) AS sz) " +
+                "SELECT COUNT(*), COALESCE(SUM(sz), 0) FROM d";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setArray(1, ids);
+            if (tally == null) {
+                ps.executeUpdate();
+                return;
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    tally.rows += rs.getLong(1);
+                    tally.bytes += rs.getLong(2);
+                }
+            }
         }
+    }
 
-        public String getCreatedAt() {
-            return createdAt;
+    /**
+     * Этаж, общий для нескольких ревизий, перед изменением «на месте» копируется в собственные строки
+     * ревизии buildingId. Модель не меняется: новые id возвращаются, и вызывающий переносит их
+     * на модель (IdRemap.applyTo) в потоке-владельце после commit.
+     */
+    private static IdRemap detachSharedFloor(int buildingId, int floorId) throws SQLException {
+        int newFloorId = reserveIds("floor", 1)[0];
+        try (PreparedStatement ps = connection().prepareStatement(
+                "INSERT INTO floor (id, building_id, number, type, section_index, position, content_hash) " +
+                        "SELECT ?, ?, number, type, section_index, position, NULL FROM floor WHERE id = ?")) {
+            ps.setInt(1, newFloorId);
+            ps.setInt(2, buildingId);
+            ps.setInt(3, floorId);
+            ps.executeUpdate();
         }
 
-        public String getUpdatedAt() {
-            return updatedAt;
+        Map<Integer, Integer> spaceIdMap = new HashMap<>();
+        List<Integer> oldSpaceIds = selectIds("SELECT id FROM space WHERE floor_id = ? ORDER BY id", floorId);
+        int[] newSpaceIds = reserveIds("space", oldSpaceIds.size());
+        try (PreparedStatement ps = connection().prepareStatement(
+                "INSERT INTO space (id, floor_id, identifier, type, position) " +
+                        "SELECT ?, ?, identifier, type, position FROM space WHERE id = ?")) {
+            for (int i = 0; i < newSpaceIds.length; i++) {
+                spaceIdMap.put(oldSpaceIds.get(i), newSpaceIds[i]);
+                ps.setInt(1, newSpaceIds[i]);
+                ps.setInt(2, newFloorId);
+                ps.setInt(3, oldSpaceIds.get(i));
+                ps.addBatch();
+            }
+            if (newSpaceIds.length > 0) ps.executeBatch();
         }
 
-        public String getCreatedBy() {
-            return createdBy;
+        Map<Integer, Integer> roomIdMap = new HashMap<>();
+        List<int[]> oldRooms = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT r.id, r.space_id FROM room r JOIN space s ON r.space_id = s.id " +
+                        "WHERE s.floor_id = ? ORDER BY r.id")) {
+            ps.setInt(1, floorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) oldRooms.add(new int[]{rs.getInt(1), rs.getInt(2)});
+            }
+        }
+        int[] newRoomIds = reserveIds("room", oldRooms.size());
+        try (PreparedStatement rooms = connection().prepareStatement(
+                "INSERT INTO room (id, space_id, " + ROOM_DATA_COLUMNS + ") " +
+                        "SELECT ?, ?, " + ROOM_DATA_COLUMNS + " FROM room WHERE id = ?");
+             PreparedStatement noise = connection().prepareStatement(
+                     "INSERT INTO noise_settings (room_id, " + NOISE_COLUMNS + ") " +
+                             "SELECT ?, " + NOISE_COLUMNS + " FROM noise_settings WHERE room_id = ?")) {
+            for (int i = 0; i < newRoomIds.length; i++) {
+                int oldRoomId = oldRooms.get(i)[0];
+                roomIdMap.put(oldRoomId, newRoomIds[i]);
+                rooms.setInt(1, newRoomIds[i]);
+                rooms.setInt(2, spaceIdMap.get(oldRooms.get(i)[1]));
+                rooms.setInt(3, oldRoomId);
+                rooms.addBatch();
+                noise.setInt(1, newRoomIds[i]);
+                noise.setInt(2, oldRoomId);
+                noise.addBatch();
+            }
+            if (newRoomIds.length > 0) {
+                rooms.executeBatch();
+                noise.executeBatch();
+            }
         }
 
-        public String getUpdatedBy() {
-            return updatedBy;
+        try (PreparedStatement ps = connection().prepareStatement(
+                "UPDATE building_floor SET floor_id = ? WHERE building_id = ? AND floor_id = ?")) {
+            ps.setInt(1, newFloorId);
+            ps.setInt(2, buildingId);
+            ps.setInt(3, floorId);
+            ps.executeUpdate();
         }
 
-        public String getLockOwner() {
-            return lockOwner;
+        logger.debug("Этаж {} отделён от общих ревизий как {} (ревизия {})", floorId, newFloorId, buildingId);
+        return new IdRemap(floorId, newFloorId, spaceIdMap, roomIdMap);
+    }
+
+    /** Отделяет от общих ревизий те из этажей floorIds, что используются не только ревизией buildingId. */
+    private static IdRemap detachSharedFloors(int buildingId, Set<Integer> floorIds) throws SQLException {
+        IdRemap remap = IdRemap.EMPTY;
+        if (buildingId <= 0 || floorIds.isEmpty()) return remap;
+        List<Integer> shared = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT floor_id FROM building_floor WHERE floor_id = ANY(?) " +
+                        "GROUP BY floor_id HAVING COUNT(*) > 1")) {
+            ps.setArray(1, connection().createArrayOf("integer", floorIds.toArray(Integer[]::new)));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) shared.add(rs.getInt(1));
+            }
         }
+        for (int floorId : shared) {
+            remap = remap.merge(detachSharedFloor(buildingId, floorId));
+        }
+        return remap;
+    }
 
-        @Override
-        public String toString() {
-            return name == null || name.isBlank() ? "Проект участка " + id : name;
+    /** Этажи комнат, которых касаются ключи keys. */
+    private static Set<Integer> floorsOf(Set<String> keys, java.util.function.Function<String, RoomIdIndex.RoomRef> lookup) {
+        Set<Integer> floorIds = new HashSet<>();
+        for (String key : keys) {
+            RoomIdIndex.RoomRef ref = lookup.apply(key);
+            if (ref != null) floorIds.add(ref.floorId());
         }
+        return floorIds;
     }
 
-    private static void saveFloor(int buildingId, Floor floor) throws SQLException {
-        String sql = "INSERT INTO floor (building_id, number, type, section_index, position) VALUES (?,?,?,?,?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, buildingId);
-            stmt.setString(2, floor.getNumber());
-            stmt.setString(3, floor.getType().name());
-            stmt.setInt(4, floor.getSectionIndex());
-            stmt.setInt(5, floor.getPosition());
-            stmt.executeUpdate();
+    /** После commit: переводит закэшированный индекс комнат ревизии на отделённые строки. */
+    private static void remapRoomIds(int buildingId, IdRemap remap) {
+        if (remap.isEmpty()) return;
+        roomIdIndexes.computeIfPresent(buildingId, (id, index) -> index.remap(remap));
+    }
 
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    int floorId = rs.getInt(1);
-                    floor.setId(floorId);
-                    for (Space space : floor.getSpaces()) {
-                        saveSpace(floorId, space);
-                    }
-                }
+    private static boolean isFloorShared(int floorId) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT COUNT(*) FROM building_floor WHERE floor_id = ?")) {
+            ps.setInt(1, floorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 1;
             }
         }
     }
 
-    private static void saveSections(int buildingId, List<Section> sections) throws SQLException {
-        if (sections == null) return;
-        String sql = "INSERT INTO section (building_id, name, position) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            for (Section s : sections) {
-                stmt.setInt(1, buildingId);
-                stmt.setString(2, s.getName());
-                stmt.setInt(3, s.getPosition());
-                stmt.executeUpdate();
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) s.setId(rs.getInt(1));
-                }
+    private static List<Integer> selectIds(String sql, int param) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, param);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
             }
         }
+        return ids;
     }
 
-    private static void saveSpace(int floorId, Space space) throws SQLException {
-        // Если этаж уличный — принудительно сохраняем помещения как OUTDOOR
-        Floor.FloorType parentType = getFloorType(floorId);
-        Space.SpaceType effectiveType = space.getType();
-        if (parentType == Floor.FloorType.STREET && effectiveType != Space.SpaceType.OUTDOOR) {
-            logger.warn("Этаж {} — STREET. Тип помещения '{}' переопределён на OUTDOOR.",
-                    floorId, effectiveType);
-            effectiveType = Space.SpaceType.OUTDOOR;
+    /** Сбрасывает отпечатки этажей, чьи строки изменены вне сохранения ревизии. */
+    private static void invalidateFloorHashes(Collection<Integer> floorIds) throws SQLException {
+        if (floorIds == null || floorIds.isEmpty()) return;
+        Integer[] ids = floorIds.toArray(Integer[]::new);
+        try (PreparedStatement ps = connection().prepareStatement(
+                "UPDATE floor SET content_hash = NULL WHERE id = ANY(?)")) {
+            ps.setArray(1, connection().createArrayOf("integer", ids));
+            ps.executeUpdate();
         }
+    }
 
-        String sql = "INSERT INTO space (floor_id, identifier, type, position) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, floorId);
-            stmt.setString(2, space.getIdentifier());
-            stmt.setString(3, effectiveType.name());
-            stmt.setInt(4, space.getPosition());
-            stmt.executeUpdate();
+    /**
+     * Сохраняет этажи, помещения и комнаты пакетами. Идентификаторы заранее резервируются
+     * в identity-последовательностях, поэтому связи родитель–потомок проставляются в памяти,
+     * без RETURN_GENERATED_KEYS на каждую строку.
+     */
+    private static void saveFloors(int buildingId, List<Floor> floors,
+                                   Map<Floor, String> hashes) throws SQLException {
+        if (floors == null || floors.isEmpty()) return;
+
+        int spaceCount = 0;
+        int roomCount = 0;
+        for (Floor floor : floors) {
+            spaceCount += floor.getSpaces().size();
+            for (Space space : floor.getSpaces()) {
+                roomCount += space.getRooms().size();
+            }
+        }
+        int[] floorIds = reserveIds("floor", floors.size());
+        int[] spaceIds = reserveIds("space", spaceCount);
+        int[] roomIds = reserveIds("room", roomCount);
 
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    int spaceId = rs.getInt(1);
+        String floorSql = "INSERT INTO floor (id, building_id, number, type, section_index, position, content_hash) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        String spaceSql = "INSERT INTO space (id, floor_id, identifier, type, position) VALUES (?, ?, ?, ?, ?)";
+        String roomSql = "INSERT INTO room (" +
+                "id, space_id, name, volume, " +
+                "ventilation_channels, ventilation_section_area, ventilation_duct_shape, ventilation_width, " +
+                "is_selected, external_walls_count, " +
+                "microclimate_selected, radiation_selected, position" +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement floorStmt = connection().prepareStatement(floorSql);
+             PreparedStatement spaceStmt = connection().prepareStatement(spaceSql);
+             PreparedStatement roomStmt = connection().prepareStatement(roomSql)) {
+            int floorIdx = 0;
+            int spaceIdx = 0;
+            int roomIdx = 0;
+            for (Floor floor : floors) {
+                int floorId = floorIds[floorIdx++];
+                floor.setId(floorId);
+                floorStmt.setInt(1, floorId);
+                floorStmt.setInt(2, buildingId);
+                floorStmt.setString(3, floor.getNumber());
+                floorStmt.setString(4, floor.getType().name());
+                floorStmt.setInt(5, floor.getSectionIndex());
+                floorStmt.setInt(6, floor.getPosition());
+                floorStmt.setString(7, hashes.get(floor));
+                floorStmt.addBatch();
+
+                for (Space space : floor.getSpaces()) {
+                    int spaceId = spaceIds[spaceIdx++];
                     space.setId(spaceId);
+                    addSpaceBatch(spaceStmt, floor, spaceId, space);
+
                     for (Room room : space.getRooms()) {
-                        saveRoom(spaceId, room);
+                        int roomId = roomIds[roomIdx++];
+                        room.setId(roomId);
+                        addRoomBatch(roomStmt, spaceId, roomId, room);
                     }
                 }
             }
-        }
-    }
-    private static Floor.FloorType getFloorType(int floorId) throws SQLException {
-        String sql = "SELECT type FROM floor WHERE id = ?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, floorId);
+            floorStmt.executeBatch();
+            if (spaceIdx > 0) spaceStmt.executeBatch();
+            if (roomIdx > 0) roomStmt.executeBatch();
+        }
+        logger.debug("Сохранено здание {}: этажей {}, помещений {}, комнат {}",
+                buildingId, floors.size(), spaceCount, roomCount);
+    }
+
+    /** Резервирует count идентификаторов в identity-последовательности таблицы одним запросом. */
+    private static int[] reserveIds(String table, int count) throws SQLException {
+        int[] ids = new int[count];
+        if (count == 0) return ids;
+        String sql = "SELECT nextval(pg_get_serial_sequence(?, 'id')) FROM generate_series(1, ?)";
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setString(1, table);
+            ps.setInt(2, count);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    String typeStr = rs.getString(1);
-                    try {
-                        return Floor.FloorType.valueOf(typeStr);
-                    } catch (IllegalArgumentException ignore) {
-                        logger.warn("Неизвестный тип этажа в БД: '{}', используем PUBLIC по умолчанию", typeStr);
-                    }
+                int i = 0;
+                while (rs.next() && i < count) {
+                    ids[i++] = rs.getInt(1);
+                }
+                if (i != count) {
+                    throw new SQLException("Не удалось зарезервировать идентификаторы для таблицы " + table);
                 }
             }
         }
-        return Floor.FloorType.PUBLIC;
+        return ids;
     }
 
-    // Стало
-    private static void saveRoom(int spaceId, Room room) throws SQLException {
-        logger.debug("Сохранение комнаты: {}", room.getName());
-        String sql = "INSERT INTO room (" +
-                "space_id, name, volume, " +
-                "ventilation_channels, ventilation_section_area, ventilation_duct_shape, ventilation_width, " +
-                "is_selected, artificial_selected, external_walls_count, " +
-                "microclimate_selected, radiation_selected, position" +
-                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setInt(1, spaceId);
-            stmt.setString(2, room.getName());
-
-            // volume (nullable)
-            if (room.getVolume() == null) stmt.setNull(3, Types.DOUBLE);
-            else stmt.setDouble(3, room.getVolume());
-
-            // вентиляция (каналы, сечение одного канала — как было)
-            stmt.setInt(4, room.getVentilationChannels());
-            stmt.setDouble(5, room.getVentilationSectionArea());
-
-            // НОВОЕ: форма и ширина (через рефлексию — совместимо со старыми Room)
-            String ductShape = null;
-            Double ductWidth = null;
-            try {
-                Object v = room.getClass().getMethod("getVentilationDuctShape").invoke(room);
-                if (v != null) ductShape = String.valueOf(v);
-            } catch (Throwable ignore) {}
-            try {
-                Object v = room.getClass().getMethod("getVentilationWidth").invoke(room);
-                if (v instanceof Number n) ductWidth = n.doubleValue();
-                else if (v != null) ductWidth = Double.valueOf(v.toString());
-            } catch (Throwable ignore) {}
+    private static void saveSections(int buildingId, List<Section> sections) throws SQLException {
+        if (sections == null || sections.isEmpty()) return;
+        int[] ids = reserveIds("section", sections.size());
+        String sql = "INSERT INTO section (id, building_id, name, position) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+            int idx = 0;
+            for (Section s : sections) {
+                int sectionId = ids[idx++];
+                s.setId(sectionId);
+                stmt.setInt(1, sectionId);
+                stmt.setInt(2, buildingId);
+                stmt.setString(3, s.getName());
+                stmt.setInt(4, s.getPosition());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
 
-            if (ductShape == null || ductShape.isBlank()) stmt.setNull(6, Types.VARCHAR);
-            else stmt.setString(6, ductShape);
+    private static void addSpaceBatch(PreparedStatement stmt, Floor floor, int spaceId, Space space)
+            throws SQLException {
+        // Если этаж уличный — принудительно сохраняем помещения как OUTDOOR
+        Space.SpaceType effectiveType = space.getType();
+        if (floor.getType() == Floor.FloorType.STREET && effectiveType != Space.SpaceType.OUTDOOR) {
+            logger.warn("Этаж {} — STREET. Тип помещения '{}' переопределён на OUTDOOR.",
+                    floor.getId(), effectiveType);
+            effectiveType = Space.SpaceType.OUTDOOR;
+        }
+        stmt.setInt(1, spaceId);
+        stmt.setInt(2, floor.getId());
+        stmt.setString(3, space.getIdentifier());
+        stmt.setString(4, effectiveType.name());
+        stmt.setInt(5, space.getPosition());
+        stmt.addBatch();
+    }
 
-            if (ductWidth == null) stmt.setNull(7, Types.DOUBLE);
-            else stmt.setDouble(7, ductWidth);
+    // Искусственное освещение и «Осв улица» дописываются отдельно по ключам
+    // (updateArtificialSelections / updateStreetLightingValues), здесь — значения по умолчанию.
+    private static void addRoomBatch(PreparedStatement stmt, int spaceId, int roomId, Room room)
+            throws SQLException {
+        stmt.setInt(1, roomId);
+        stmt.setInt(2, spaceId);
+        stmt.setString(3, room.getName());
 
-            // КЕО
-            stmt.setBoolean(8, room.isSelected());
+        // volume (nullable)
+        if (room.getVolume() == null) stmt.setNull(4, Types.DOUBLE);
+        else stmt.setDouble(4, room.getVolume());
 
-            // Искусственное освещение (рефлексия как было)
-            boolean artificial = false;
-            try {
-                Object v = room.getClass().getMethod("isArtificialSelected").invoke(room);
-                if (v instanceof Boolean) artificial = (Boolean) v;
-            } catch (Throwable ignore) {
-                try {
-                    Object v2 = room.getClass().getMethod("isArtificialLightingSelected").invoke(room);
-                    if (v2 instanceof Boolean) artificial = (Boolean) v2;
-                } catch (Throwable ignore2) {
-                    try {
-                        Object v3 = room.getClass().getMethod("getArtificialLightingSelected").invoke(room);
-                        if (v3 instanceof Boolean) artificial = (Boolean) v3;
-                    } catch (Throwable ignore3) {}
-                }
-            }
-            stmt.setBoolean(9, artificial);
+        // вентиляция
+        stmt.setInt(5, room.getVentilationChannels());
+        stmt.setDouble(6, room.getVentilationSectionArea());
+        stmt.setString(7, room.getVentilationDuctShape());
+        stmt.setDouble(8, room.getVentilationWidth());
 
-            // наружные стены (nullable)
-            Integer walls = room.getExternalWallsCount();
-            if (walls == null) stmt.setNull(10, Types.INTEGER); else stmt.setInt(10, walls);
+        // КЕО
+        stmt.setBoolean(9, room.isSelected());
 
-            // микроклимат / радиация
-            stmt.setBoolean(11, room.isMicroclimateSelected());
-            stmt.setBoolean(12, room.isRadiationSelected());
+        // наружные стены (nullable)
+        Integer walls = room.getExternalWallsCount();
+        if (walls == null) stmt.setNull(10, Types.INTEGER); else stmt.setInt(10, walls);
 
-            // порядок
-            stmt.setInt(13, room.getPosition());
+        // микроклимат / радиация
+        stmt.setBoolean(11, room.isMicroclimateSelected());
+        stmt.setBoolean(12, room.isRadiationSelected());
 
-            stmt.executeUpdate();
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) room.setId(rs.getInt(1));
-            }
-        }
+        // порядок
+        stmt.setInt(13, room.getPosition());
+        stmt.addBatch();
     }
 
     public static Building loadBuilding(int buildingId) throws SQLException {
-        Building building = new Building();
-        String sql = "SELECT b.*, creator.display_name AS created_by, updater.display_name AS updated_by " +
-                "FROM building b " +
-                "LEFT JOIN app_user creator ON creator.id=b.created_by_user_id " +
-                "LEFT JOIN app_user updater ON updater.id=b.updated_by_user_id " +
-                "WHERE b.id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, buildingId);
-            try (ResultSet rs = stmt.executeQuery()) {
-            if (rs.next()) {
-                building.setId(rs.getInt("id"));
-                building.setName(rs.getString("name"));
-                building.setRevision(rs.getInt("revision"));
-                building.setSourceProjectId(rs.getInt("source_project_id"));
-                building.setCreatedAt(timestampText(rs.getTimestamp("created_at")));
-                building.setUpdatedAt(timestampText(rs.getTimestamp("updated_at")));
-                building.setCreatedBy(rs.getString("created_by"));
-                building.setUpdatedBy(rs.getString("updated_by"));
-                TitlePageData data = new TitlePageData();
-                data.setProtocolDate(rs.getString("protocol_date"));
-                data.setCustomerNameAndContacts(rs.getString("customer_contacts"));
-                data.setCustomerLegalAddress(rs.getString("customer_legal_address"));
-                data.setCustomerActualAddress(rs.getString("customer_actual_address"));
-                data.setObjectName(rs.getString("object_name"));
-                data.setObjectAddress(rs.getString("object_address"));
-                data.setContractNumber(rs.getString("contract_number"));
-                data.setContractDate(rs.getString("contract_date"));
-                data.setApplicationNumber(rs.getString("application_number"));
-                data.setApplicationDate(rs.getString("application_date"));
-                data.setRepresentative(rs.getString("representative"));
-                data.setMeasurements(loadTitleMeasurements(buildingId));
-                building.setTitlePageData(data);
-                loadSections(building, buildingId);
-                loadFloors(building, buildingId);
-            }
+        return withConnection(() -> {
+            Building building = new Building();
+            String sql = "SELECT b.*, creator.display_name AS created_by, updater.display_name AS updated_by " +
+                    "FROM building b " +
+                    "LEFT JOIN app_user creator ON creator.id=b.created_by_user_id " +
+                    "LEFT JOIN app_user updater ON updater.id=b.updated_by_user_id " +
+                    "WHERE b.id = ?";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setInt(1, buildingId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    building.setId(rs.getInt("id"));
+                    building.setName(rs.getString("name"));
+                    building.setRevision(rs.getInt("revision"));
+                    building.setSourceProjectId(rs.getInt("source_project_id"));
+                    building.setCreatedAt(timestampText(rs.getTimestamp("created_at")));
+                    building.setUpdatedAt(timestampText(rs.getTimestamp("updated_at")));
+                    building.setCreatedBy(rs.getString("created_by"));
+                    building.setUpdatedBy(rs.getString("updated_by"));
+                    TitlePageData data = new TitlePageData();
+                    data.setProtocolDate(rs.getString("protocol_date"));
+                    data.setCustomerNameAndContacts(rs.getString("customer_contacts"));
+                    data.setCustomerLegalAddress(rs.getString("customer_legal_address"));
+                    data.setCustomerActualAddress(rs.getString("customer_actual_address"));
+                    data.setObjectName(rs.getString("object_name"));
+                    data.setObjectAddress(rs.getString("object_address"));
+                    data.setContractNumber(rs.getString("contract_number"));
+                    data.setContractDate(rs.getString("contract_date"));
+                    data.setApplicationNumber(rs.getString("application_number"));
+                    data.setApplicationDate(rs.getString("application_date"));
+                    data.setRepresentative(rs.getString("representative"));
+                    data.setMeasurements(loadTitleMeasurements(buildingId));
+                    building.setTitlePageData(data);
+                    loadSections(building, buildingId);
+                    loadFloors(building, buildingId);
+                    rememberRoomIds(building);
+                }
+                }
             }
-        }
-        return building;
+            return building;
+        });
     }
 
     private static void saveTitleMeasurements(int buildingId, List<TitlePageData.Measurement> measurements) throws SQLException {
@@ -1140,7 +2329,7 @@ public class DatabaseManager {
 
         String sql = "INSERT INTO title_measurement (building_id, row_index, date, temp_inside_start, temp_inside_end, " +
                 "temp_outside_start, temp_outside_end) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             int idx = 0;
             for (TitlePageData.Measurement m : measurements) {
                 if (m == null) continue;
@@ -1160,7 +2349,7 @@ public class DatabaseManager {
     private static List<TitlePageData.Measurement> loadTitleMeasurements(int buildingId) throws SQLException {
         List<TitlePageData.Measurement> measurements = new ArrayList<>();
         String sql = "SELECT * FROM title_measurement WHERE building_id = ? ORDER BY row_index, id";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             ps.setInt(1, buildingId);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -1177,129 +2366,128 @@ public class DatabaseManager {
         return measurements;
     }
 
+    // Запросы загрузки ревизии по уровням иерархии (пакетные, по одному на уровень).
+    // Видны тестам планов выполнения: каждый должен идти по индексам ссылок на родителя.
+    static final String LOAD_FLOORS_SQL = "SELECT f.id, f.number, f.type, f.section_index, f.position " +
+            "FROM building_floor bf JOIN floor f ON f.id = bf.floor_id " +
+            "WHERE bf.building_id = ? ORDER BY f.section_index, COALESCE(f.position,0), bf.ordinal";
+    static final String LOAD_SPACES_SQL = "SELECT s.id, s.floor_id, s.identifier, s.type, s.position " +
+            "FROM space s JOIN building_floor bf ON bf.floor_id = s.floor_id " +
+            "WHERE bf.building_id = ? ORDER BY COALESCE(s.position,0), s.id";
+    static final String LOAD_ROOMS_SQL = "SELECT r.* FROM room r " +
+            "JOIN space s ON r.space_id = s.id " +
+            "JOIN building_floor bf ON bf.floor_id = s.floor_id " +
+            "WHERE bf.building_id = ? ORDER BY COALESCE(r.position,0), r.id";
+
+    /**
+     * Загружает этажи, помещения и комнаты ревизии тремя запросами по building_floor.building_id
+     * и собирает иерархию в памяти (вместо отдельного запроса на каждый этаж/помещение).
+     */
     private static void loadFloors(Building building, int buildingId) throws SQLException {
-        String sql = "SELECT * FROM floor WHERE building_id = " + buildingId +
-                " ORDER BY section_index, COALESCE(position,0), id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Floor floor = new Floor();
-                floor.setId(rs.getInt("id"));
-                floor.setNumber(rs.getString("number"));
-                floor.setType(Floor.FloorType.valueOf(rs.getString("type")));
-                floor.setSectionIndex(Math.max(0, rs.getInt("section_index")));
-                floor.setPosition(rs.getInt("position"));
-
-                // Автоимя: для STREET — «Улица» (без номера, если он пуст),
-                // для остальных — "<название типа> <номер>" (номер добавляем только если он не пуст)
-                String num = floor.getNumber();
-                boolean hasNum = (num != null && !num.isBlank());
-                String autoName;
-                if (floor.getType() == Floor.FloorType.STREET) {
-                    autoName = hasNum ? ("Улица " + num) : "Улица";
-                } else {
-                    autoName = floor.getType().title + (hasNum ? (" " + num) : "");
-                }
-                if (floor.getName() == null || floor.getName().isBlank()) {
-                    floor.setName(autoName);
-                }
+        Map<Integer, Floor> floorsById = new HashMap<>();
+        try (PreparedStatement stmt = connection().prepareStatement(LOAD_FLOORS_SQL)) {
+            stmt.setInt(1, buildingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Floor floor = new Floor();
+                    floor.setId(rs.getInt("id"));
+                    floor.setNumber(rs.getString("number"));
+                    floor.setType(Floor.FloorType.valueOf(rs.getString("type")));
+                    floor.setSectionIndex(Math.max(0, rs.getInt("section_index")));
+                    floor.setPosition(rs.getInt("position"));
+
+                    // Автоимя: для STREET — «Улица» (без номера, если он пуст),
+                    // для остальных — "<название типа> <номер>" (номер добавляем только если он не пуст)
+                    String num = floor.getNumber();
+                    boolean hasNum = (num != null && !num.isBlank());
+                    String autoName;
+                    if (floor.getType() == Floor.FloorType.STREET) {
+                        autoName = hasNum ? ("Улица " + num) : "Улица";
+                    } else {
+                        autoName = floor.getType().title + (hasNum ? (" " + num) : "");
+                    }
+                    if (floor.getName() == null || floor.getName().isBlank()) {
+                        floor.setName(autoName);
+                    }
 
-                building.addFloor(floor);
-                loadSpaces(floor, floor.getId());
+                    building.addFloor(floor);
+                    floorsById.put(floor.getId(), floor);
+                }
             }
         }
-    }
+        if (floorsById.isEmpty()) return;
 
-    private static void loadSpaces(Floor floor, int floorId) throws SQLException {
-        String sql = "SELECT * FROM space WHERE floor_id = " + floorId + " ORDER BY COALESCE(position,0), id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Space space = new Space();
-                space.setId(rs.getInt("id"));
-                space.setIdentifier(rs.getString("identifier"));
-                space.setType(Space.SpaceType.valueOf(rs.getString("type")));
-                space.setPosition(rs.getInt("position"));
-                floor.addSpace(space);
-                loadRooms(space, space.getId());
+        Map<Integer, Space> spacesById = new HashMap<>();
+        try (PreparedStatement stmt = connection().prepareStatement(LOAD_SPACES_SQL)) {
+            stmt.setInt(1, buildingId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Floor floor = floorsById.get(rs.getInt("floor_id"));
+                    if (floor == null) continue;
+                    Space space = new Space();
+                    space.setId(rs.getInt("id"));
+                    space.setIdentifier(rs.getString("identifier"));
+                    space.setType(Space.SpaceType.valueOf(rs.getString("type")));
+                    space.setPosition(rs.getInt("position"));
+                    floor.addSpace(space);
+                    spacesById.put(space.getId(), space);
+                }
             }
         }
-    }
+        if (spacesById.isEmpty()) return;
 
-    // Стало
-    private static void loadRooms(Space space, int spaceId) throws SQLException {
-        logger.debug("Загрузка комнат для помещения ID: {}", spaceId);
-        String sql = "SELECT * FROM room WHERE space_id = ? ORDER BY COALESCE(position,0), id";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, spaceId);
+        try (PreparedStatement stmt = connection().prepareStatement(LOAD_ROOMS_SQL)) {
+            stmt.setInt(1, buildingId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Room room = new Room();
-                    room.setId(rs.getInt("id"));
-                    room.setOriginalRoomId(room.getId());
-                    room.setName(rs.getString("name"));
-
-                    // Объём (nullable)
-                    double volume = rs.getDouble("volume");
-                    room.setVolume(rs.wasNull() ? null : volume);
-
-                    // Вентиляция — каналы и сечение (как было)
-                    room.setVentilationChannels(rs.getInt("ventilation_channels"));
-                    room.setVentilationSectionArea(rs.getDouble("ventilation_section_area"));
-
-                    // НОВОЕ: форма и ширина (через сеттеры, если есть; иначе тихо пропускаем)
-                    try {
-                        String shape = null;
-                        try { shape = rs.getString("ventilation_duct_shape"); } catch (SQLException ignore) {}
-                        if (shape != null) {
-                            try { room.getClass().getMethod("setVentilationDuctShape", String.class).invoke(room, shape); }
-                            catch (Throwable ignore) {}
-                        }
-                        Double width = null;
-                        try {
-                            Object w = rs.getObject("ventilation_width");
-                            if (w instanceof Number n) width = n.doubleValue();
-                        } catch (SQLException ignore) {}
-                        if (width != null) {
-                            // сначала Double-версией, затем double-версией
-                            try { room.getClass().getMethod("setVentilationWidth", Double.class).invoke(room, width); }
-                            catch (NoSuchMethodException ex) {
-                                try { room.getClass().getMethod("setVentilationWidth", double.class).invoke(room, width.doubleValue()); }
-                                catch (Throwable ignore) {}
-                            } catch (Throwable ignore) {}
-                        }
-                    } catch (Throwable ignore) {}
+                    Space space = spacesById.get(rs.getInt("space_id"));
+                    if (space == null) continue;
+                    space.addRoom(readRoom(rs));
+                }
+            }
+        }
+        logger.debug("Загружено здание {}: этажей {}, помещений {}",
+                buildingId, floorsById.size(), spacesById.size());
+    }
 
-                    // КЕО
-                    try { room.setSelected(rs.getBoolean("is_selected")); } catch (SQLException ignore) {}
+    /** Читает комнату из текущей строки выборки по таблице room. */
+    private static Room readRoom(ResultSet rs) throws SQLException {
+        Room room = new Room();
+        room.setId(rs.getInt("id"));
+        room.setOriginalRoomId(room.getId());
+        room.setName(rs.getString("name"));
 
-                    // Искусственное
-                    try {
-                        boolean art = rs.getBoolean("artificial_selected");
-                        try { room.getClass().getMethod("setArtificialSelected", boolean.class).invoke(room, art); }
-                        catch (ReflectiveOperationException ignore) {}
-                    } catch (SQLException ignore) {}
+        // Объём (nullable)
+        double volume = rs.getDouble("volume");
+        room.setVolume(rs.wasNull() ? null : volume);
 
-                    // Наружные стены
-                    Object wallsObj = rs.getObject("external_walls_count");
-                    room.setExternalWallsCount(wallsObj == null ? null : ((Number) wallsObj).intValue());
+        // Вентиляция — каналы, сечение, форма и ширина
+        room.setVentilationChannels(rs.getInt("ventilation_channels"));
+        room.setVentilationSectionArea(rs.getDouble("ventilation_section_area"));
+        String shape = rs.getString("ventilation_duct_shape");
+        if (shape != null) room.setVentilationDuctShape(shape);
+        double width = rs.getDouble("ventilation_width");
+        if (!rs.wasNull()) room.setVentilationWidth(width);
 
-                    // МК / Радиация
-                    try { room.setMicroclimateSelected(rs.getBoolean("microclimate_selected")); } catch (SQLException ignore) {}
-                    try { room.setRadiationSelected(rs.getBoolean("radiation_selected")); } catch (SQLException ignore) {}
+        // КЕО
+        room.setSelected(rs.getBoolean("is_selected"));
 
-                    // Порядок
-                    room.setPosition(rs.getInt("position"));
+        // Наружные стены
+        int walls = rs.getInt("external_walls_count");
+        room.setExternalWallsCount(rs.wasNull() ? null : walls);
 
-                    space.addRoom(room);
-                }
-            }
-        }
+        // МК / Радиация
+        room.setMicroclimateSelected(rs.getBoolean("microclimate_selected"));
+        room.setRadiationSelected(rs.getBoolean("radiation_selected"));
+
+        // Порядок
+        room.setPosition(rs.getInt("position"));
+        return room;
     }
 
     private static void loadSections(Building building, int buildingId) throws SQLException {
         String sql = "SELECT * FROM section WHERE building_id = " + buildingId + " ORDER BY position";
-        try (Statement stmt = connection.createStatement();
+        try (Statement stmt = connection().createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             List<Section> sections = new ArrayList<>();
             while (rs.next()) {
@@ -1314,75 +2502,23 @@ public class DatabaseManager {
         }
     }
 
-    // Стало
     public static List<Room> getRooms(int floorId) {
         List<Room> rooms = new ArrayList<>();
         String sql = "SELECT r.* FROM room r " +
                 "JOIN space s ON r.space_id = s.id " +
                 "JOIN floor f ON s.floor_id = f.id " +
                 "WHERE f.id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, floorId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    Room room = new Room();
-                    room.setId(rs.getInt("id"));
-                    room.setOriginalRoomId(room.getId());
-                    room.setName(rs.getString("name"));
-
-                    // Объём
-                    double volume = rs.getDouble("volume");
-                    room.setVolume(rs.wasNull() ? null : volume);
-
-                    // Вентиляция
-                    room.setVentilationChannels(rs.getInt("ventilation_channels"));
-                    room.setVentilationSectionArea(rs.getDouble("ventilation_section_area"));
-
-                    // НОВОЕ: форма/ширина
-                    try {
-                        String shape = null;
-                        try { shape = rs.getString("ventilation_duct_shape"); } catch (SQLException ignore) {}
-                        if (shape != null) {
-                            try { room.getClass().getMethod("setVentilationDuctShape", String.class).invoke(room, shape); }
-                            catch (Throwable ignore) {}
-                        }
-                        Double width = null;
-                        try {
-                            Object w = rs.getObject("ventilation_width");
-                            if (w instanceof Number n) width = n.doubleValue();
-                        } catch (SQLException ignore) {}
-                        if (width != null) {
-                            try { room.getClass().getMethod("setVentilationWidth", Double.class).invoke(room, width); }
-                            catch (NoSuchMethodException ex) {
-                                try { room.getClass().getMethod("setVentilationWidth", double.class).invoke(room, width.doubleValue()); }
-                                catch (Throwable ignore) {}
-                            } catch (Throwable ignore) {}
+        try {
+            withConnection(() -> {
+                try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                    stmt.setInt(1, floorId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rooms.add(readRoom(rs));
                         }
-                    } catch (Throwable ignore) {}
-
-                    // КЕО
-                    try { room.setSelected(rs.getBoolean("is_selected")); } catch (SQLException ignore) {}
-
-                    // Искусственное
-                    try {
-                        boolean art = rs.getBoolean("artificial_selected");
-                        try { room.getClass().getMethod("setArtificialSelected", boolean.class).invoke(room, art); }
-                        catch (ReflectiveOperationException ignore) {}
-                    } catch (SQLException ignore) {}
-
-                    // Наружные стены
-                    try {
-                        Object wallsObj = rs.getObject("external_walls_count");
-                        room.setExternalWallsCount(wallsObj == null ? null : ((Number) wallsObj).intValue());
-                    } catch (SQLException ignore) {}
-
-                    // МК / Радиация
-                    try { room.setMicroclimateSelected(rs.getBoolean("microclimate_selected")); } catch (SQLException ignore) {}
-                    try { room.setRadiationSelected(rs.getBoolean("radiation_selected")); } catch (SQLException ignore) {}
-
-                    rooms.add(room);
+                    }
                 }
-            }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null,
@@ -1392,55 +2528,76 @@ public class DatabaseManager {
         return rooms;
     }
 
+    /**
+     * Записывает галочки искусственного освещения в строки комнат здания «на месте».
+     * При сохранении ревизии значения передаются в saveBuildingVersion.
+     * Этажи, общие с другими ревизиями, сначала отделяются; новые id переносятся на b
+     * в вызывающем потоке, поэтому вызывать там, где моделью владеют.
+     */
     public static void updateArtificialSelections(Building b, Map<String, Boolean> byKey) throws SQLException {
-        if (b == null || byKey == null || byKey.isEmpty()) return;
+        if (b == null || b.getId() <= 0 || byKey == null || byKey.isEmpty()) return;
+        RoomIdIndex rooms = roomIdIndex(b);
+        IdRemap remap = inTransaction(() -> {
+            IdRemap detached = detachSharedFloors(b.getId(), floorsOf(byKey.keySet(), rooms::byKey));
+            invalidateFloorHashes(writeArtificialSelections(rooms.remap(detached), byKey));
+            return detached;
+        });
+        remapRoomIds(b.getId(), remap);
+        remap.applyTo(b);
+    }
+
+    /** Возвращает id этажей, строки которых изменены. */
+    private static Set<Integer> writeArtificialSelections(RoomIdIndex rooms, Map<String, Boolean> byKey)
+            throws SQLException {
+        Set<Integer> touchedFloors = new HashSet<>();
+        if (byKey == null || byKey.isEmpty()) return touchedFloors;
         String sql = "UPDATE room SET artificial_selected=? WHERE id=?";
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            for (Floor f : b.getFloors()) {
-                for (Space s : f.getSpaces()) {
-                    for (Room r : s.getRooms()) {
-                        String key = makeKey(f, s, r);
-                        Boolean v = byKey.get(key);
-                        if (v == null) continue;
-                        ps.setBoolean(1, v);
-                        ps.setInt(2, r.getId());
-                        ps.addBatch();
-                    }
-                }
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            for (Map.Entry<String, Boolean> e : byKey.entrySet()) {
+                RoomIdIndex.RoomRef ref = rooms.byKey(e.getKey());
+                if (ref == null || e.getValue() == null) continue;
+                ps.setBoolean(1, e.getValue());
+                ps.setInt(2, ref.roomId());
+                ps.addBatch();
+                touchedFloors.add(ref.floorId());
             }
             ps.executeBatch();
         }
+        return touchedFloors;
     }
 
+    static final String ARTIFICIAL_BY_KEY_SQL =
+            "SELECT f.section_index, f.number, s.identifier, r.name, r.artificial_selected " +
+                    "FROM room r " +
+                    "JOIN space s ON r.space_id = s.id " +
+                    "JOIN floor f ON s.floor_id = f.id " +
+                    "JOIN building_floor bf ON bf.floor_id = f.id " +
+                    "WHERE bf.building_id = ?";
+
     public static Map<String, Boolean> loadArtificialSelectionsByKey(int buildingId) throws SQLException {
-        Map<String, Boolean> res = new HashMap<>();
-        String sql =
-                "SELECT f.section_index, f.number, s.identifier, r.name, r.artificial_selected " +
-                        "FROM room r " +
-                        "JOIN space s ON r.space_id = s.id " +
-                        "JOIN floor f ON s.floor_id = f.id " +
-                        "WHERE f.building_id = ?";
-
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, buildingId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String key = rs.getInt(1) + "|" +
-                            ns(rs.getString(2)) + "|" +
-                            ns(rs.getString(3)) + "|" +
-                            ns(rs.getString(4));
-                    res.put(key, rs.getBoolean(5));
+        return withConnection(() -> {
+            Map<String, Boolean> res = new HashMap<>();
+            try (PreparedStatement ps = connection().prepareStatement(ARTIFICIAL_BY_KEY_SQL)) {
+                ps.setInt(1, buildingId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String key = rs.getInt(1) + "|" +
+                                ns(rs.getString(2)) + "|" +
+                                ns(rs.getString(3)) + "|" +
+                                ns(rs.getString(4));
+                        res.put(key, rs.getBoolean(5));
+                    }
                 }
             }
-        }
-        return res;
+            return res;
+        });
     }
 
-    private static String makeKey(Floor f, Space s, Room r) {
+    static String makeKey(Floor f, Space s, Room r) {
         return f.getSectionIndex() + "|" + ns(f.getNumber()) + "|" + ns(s.getIdentifier()) + "|" + ns(r.getName());
     }
-    private static String makeStableRoomKey(Floor f, Space s, Room r) {
+    static String makeStableRoomKey(Floor f, Space s, Room r) {
         Integer stableId = resolveStableRoomId(r);
         return (stableId != null)
                 ? ("ID|" + stableId)
@@ -1454,53 +2611,70 @@ public class DatabaseManager {
         return (id > 0) ? id : null;
     }
     private static String ns(String s) { return (s == null) ? "" : s.trim(); }
+    /** Значения «Осв улица» по стабильным ключам «на месте»; общие этажи — как в updateArtificialSelections. */
     public static void updateStreetLightingValues(Building b, java.util.Map<String, Double[]> byKey) throws SQLException {
-        if (b == null || byKey == null || byKey.isEmpty()) return;
+        if (b == null || b.getId() <= 0 || byKey == null || byKey.isEmpty()) return;
+        RoomIdIndex rooms = roomIdIndex(b);
+        IdRemap remap = inTransaction(() -> {
+            IdRemap detached = detachSharedFloors(b.getId(), floorsOf(byKey.keySet(), rooms::byStableKey));
+            invalidateFloorHashes(writeStreetLightingValues(rooms.remap(detached), byKey));
+            return detached;
+        });
+        remapRoomIds(b.getId(), remap);
+        remap.applyTo(b);
+    }
+
+    private static Set<Integer> writeStreetLightingValues(RoomIdIndex rooms, Map<String, Double[]> byKey)
+            throws SQLException {
+        Set<Integer> touchedFloors = new HashSet<>();
+        if (byKey == null || byKey.isEmpty()) return touchedFloors;
         String sql = "UPDATE room SET street_left_max=?, street_center_min=?, street_right_max=?, street_bottom_min=? WHERE id=?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            for (Floor f : b.getFloors()) {
-                for (Space s : f.getSpaces()) {
-                    for (Room r : s.getRooms()) {
-                        String key = makeStableRoomKey(f, s, r);
-                        Double[] v = byKey.get(key);
-                        if (v == null) continue;
-
-                        if (v.length > 0 && v[0] != null) ps.setDouble(1, v[0]); else ps.setNull(1, Types.DOUBLE);
-                        if (v.length > 1 && v[1] != null) ps.setDouble(2, v[1]); else ps.setNull(2, Types.DOUBLE);
-                        if (v.length > 2 && v[2] != null) ps.setDouble(3, v[2]); else ps.setNull(3, Types.DOUBLE);
-                        if (v.length > 3 && v[3] != null) ps.setDouble(4, v[3]); else ps.setNull(4, Types.DOUBLE);
-
-                        ps.setInt(5, r.getId());
-                        ps.addBatch();
-                    }
-                }
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            for (Map.Entry<String, Double[]> e : byKey.entrySet()) {
+                RoomIdIndex.RoomRef ref = rooms.byStableKey(e.getKey());
+                Double[] v = e.getValue();
+                if (ref == null || v == null) continue;
+
+                if (v.length > 0 && v[0] != null) ps.setDouble(1, v[0]); else ps.setNull(1, Types.DOUBLE);
+                if (v.length > 1 && v[1] != null) ps.setDouble(2, v[1]); else ps.setNull(2, Types.DOUBLE);
+                if (v.length > 2 && v[2] != null) ps.setDouble(3, v[2]); else ps.setNull(3, Types.DOUBLE);
+                if (v.length > 3 && v[3] != null) ps.setDouble(4, v[3]); else ps.setNull(4, Types.DOUBLE);
+
+                ps.setInt(5, ref.roomId());
+                ps.addBatch();
+                touchedFloors.add(ref.floorId());
             }
             ps.executeBatch();
         }
+        return touchedFloors;
     }
+    static final String STREET_LIGHTING_BY_KEY_SQL =
+            "SELECT r.id, f.section_index, f.number, s.identifier, r.name, " +
+                    "       r.street_left_max, r.street_center_min, r.street_right_max, r.street_bottom_min " +
+                    "FROM room r " +
+                    "JOIN space s ON r.space_id = s.id " +
+                    "JOIN floor f ON s.floor_id = f.id " +
+                    "JOIN building_floor bf ON bf.floor_id = f.id " +
+                    "WHERE bf.building_id = ?";
+
     public static java.util.Map<String, Double[]> loadStreetLightingValuesByKey(int buildingId) throws SQLException {
-        java.util.Map<String, Double[]> res = new java.util.HashMap<>();
-        String sql =
-                "SELECT r.id, f.section_index, f.number, s.identifier, r.name, " +
-                        "       r.street_left_max, r.street_center_min, r.street_right_max, r.street_bottom_min " +
-                        "FROM room r " +
-                        "JOIN space s ON r.space_id = s.id " +
-                        "JOIN floor f ON s.floor_id = f.id " +
-                        "WHERE f.building_id = ?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, buildingId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String key = "ID|" + rs.getInt(1);
-                    Double v1 = rs.getObject(6) == null ? null : ((Number) rs.getObject(6)).doubleValue();
-                    Double v2 = rs.getObject(7) == null ? null : ((Number) rs.getObject(7)).doubleValue();
-                    Double v3 = rs.getObject(8) == null ? null : ((Number) rs.getObject(8)).doubleValue();
-                    Double v4 = rs.getObject(9) == null ? null : ((Number) rs.getObject(9)).doubleValue();
-                    res.put(key, new Double[]{v1, v2, v3, v4});
+        return withConnection(() -> {
+            java.util.Map<String, Double[]> res = new java.util.HashMap<>();
+            try (PreparedStatement ps = connection().prepareStatement(STREET_LIGHTING_BY_KEY_SQL)) {
+                ps.setInt(1, buildingId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String key = "ID|" + rs.getInt(1);
+                        Double v1 = rs.getObject(6) == null ? null : ((Number) rs.getObject(6)).doubleValue();
+                        Double v2 = rs.getObject(7) == null ? null : ((Number) rs.getObject(7)).doubleValue();
+                        Double v3 = rs.getObject(8) == null ? null : ((Number) rs.getObject(8)).doubleValue();
+                        Double v4 = rs.getObject(9) == null ? null : ((Number) rs.getObject(9)).doubleValue();
+                        res.put(key, new Double[]{v1, v2, v3, v4});
+                    }
                 }
             }
-        }
-        return res;
+            return res;
+        });
     }
 
     // ==== «Шумы»: DTO для обмена с вкладкой ====
@@ -1515,11 +2689,39 @@ public class DatabaseManager {
         public boolean electrical;
         public boolean autoSrc;
         public boolean zum;
+
+        public NoiseValue copy() {
+            NoiseValue copy = new NoiseValue();
+            copy.measure = measure;
+            copy.lift = lift;
+            copy.vent = vent;
+            copy.heatCurtain = heatCurtain;
+            copy.itp = itp;
+            copy.pns = pns;
+            copy.electrical = electrical;
+            copy.autoSrc = autoSrc;
+            copy.zum = zum;
+            return copy;
+        }
     }
 
-    // Обновить noise_settings по ключам (section|floor|space|room) → room.id нового проекта
+    // Обновить noise_settings по ключам (section|floor|space|room) → room.id; общие этажи — как в updateArtificialSelections
     public static void updateNoiseSelections(Building b, Map<String, NoiseValue> byKey) throws SQLException {
-        if (b == null || byKey == null || byKey.isEmpty()) return;
+        if (b == null || b.getId() <= 0 || byKey == null || byKey.isEmpty()) return;
+        RoomIdIndex rooms = roomIdIndex(b);
+        IdRemap remap = inTransaction(() -> {
+            IdRemap detached = detachSharedFloors(b.getId(), floorsOf(byKey.keySet(), rooms::byKey));
+            invalidateFloorHashes(writeNoiseSelections(rooms.remap(detached), byKey));
+            return detached;
+        });
+        remapRoomIds(b.getId(), remap);
+        remap.applyTo(b);
+    }
+
+    private static Set<Integer> writeNoiseSelections(RoomIdIndex rooms, Map<String, NoiseValue> byKey)
+            throws SQLException {
+        Set<Integer> touchedFloors = new HashSet<>();
+        if (byKey == null || byKey.isEmpty()) return touchedFloors;
 
         String mergeSql = "INSERT INTO noise_settings " +
                 "(room_id, measure, lift, vent, heat_curtain, itp, pns, electrical, auto_src, zum) " +
@@ -1528,165 +2730,280 @@ public class DatabaseManager {
                 "heat_curtain=EXCLUDED.heat_curtain, itp=EXCLUDED.itp, pns=EXCLUDED.pns, " +
                 "electrical=EXCLUDED.electrical, auto_src=EXCLUDED.auto_src, zum=EXCLUDED.zum";
 
-        try (PreparedStatement ps = connection.prepareStatement(mergeSql)) {
-            for (Floor f : b.getFloors()) {
-                for (Space s : f.getSpaces()) {
-                    for (Room r : s.getRooms()) {
-                        String key = f.getSectionIndex() + "|" + ns(f.getNumber()) + "|" + ns(s.getIdentifier()) + "|" + ns(r.getName());
-                        NoiseValue v = byKey.get(key);
-                        if (v == null) continue;
-
-                        ps.setInt(1, r.getId());
-                        ps.setBoolean(2, v.measure);
-                        ps.setBoolean(3, v.lift);
-                        ps.setBoolean(4, v.vent);
-                        ps.setBoolean(5, v.heatCurtain);
-                        ps.setBoolean(6, v.itp);
-                        ps.setBoolean(7, v.pns);
-                        ps.setBoolean(8, v.electrical);
-                        ps.setBoolean(9, v.autoSrc);
-                        ps.setBoolean(10, v.zum);
-                        ps.addBatch();
-                    }
-                }
+        try (PreparedStatement ps = connection().prepareStatement(mergeSql)) {
+            for (Map.Entry<String, NoiseValue> e : byKey.entrySet()) {
+                RoomIdIndex.RoomRef ref = rooms.byKey(e.getKey());
+                NoiseValue v = e.getValue();
+                if (ref == null || v == null) continue;
+
+                ps.setInt(1, ref.roomId());
+                setNoiseValue(ps, 2, v);
+                ps.addBatch();
+                touchedFloors.add(ref.floorId());
             }
             ps.executeBatch();
         }
+        return touchedFloors;
     }
 
+    private static void setNoiseValue(PreparedStatement ps, int firstIndex, NoiseValue v) throws SQLException {
+        ps.setBoolean(firstIndex, v.measure);
+        ps.setBoolean(firstIndex + 1, v.lift);
+        ps.setBoolean(firstIndex + 2, v.vent);
+        ps.setBoolean(firstIndex + 3, v.heatCurtain);
+        ps.setBoolean(firstIndex + 4, v.itp);
+        ps.setBoolean(firstIndex + 5, v.pns);
+        ps.setBoolean(firstIndex + 6, v.electrical);
+        ps.setBoolean(firstIndex + 7, v.autoSrc);
+        ps.setBoolean(firstIndex + 8, v.zum);
+    }
+
+    /**
+     * Точечная запись шумов по id из индекса — одним оператором. Срабатывает, только если этаж
+     * принадлежит одной этой ревизии; общий этаж (или устаревший индекс) — 0 строк, и вызывающий
+     * идёт медленным путём с поиском комнаты и отделением этажа.
+     */
+    private static final String EXCLUSIVE_NOISE_UPSERT_SQL = "WITH exclusive AS (" +
+            "SELECT 1 FROM building_floor bf " +
+            "JOIN space s ON s.floor_id = bf.floor_id " +
+            "JOIN room r ON r.space_id = s.id AND r.id = ? " +
+            "WHERE bf.building_id = ? AND bf.floor_id = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM building_floor o " +
+            "WHERE o.floor_id = bf.floor_id AND o.building_id <> bf.building_id)), " +
+            "invalidated AS (UPDATE floor SET content_hash = NULL " +
+            "WHERE id = ? AND content_hash IS NOT NULL AND EXISTS (SELECT 1 FROM exclusive)) " +
+            "INSERT INTO noise_settings (room_id, " + NOISE_COLUMNS + ") " +
+            "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ? FROM exclusive " +
+            "ON CONFLICT (room_id) DO UPDATE SET " +
+            "measure=EXCLUDED.measure, lift=EXCLUDED.lift, vent=EXCLUDED.vent, " +
+            "heat_curtain=EXCLUDED.heat_curtain, itp=EXCLUDED.itp, pns=EXCLUDED.pns, " +
+            "electrical=EXCLUDED.electrical, auto_src=EXCLUDED.auto_src, zum=EXCLUDED.zum";
+
+    private static void bindExclusiveNoise(PreparedStatement ps, int buildingId, RoomIdIndex.RoomRef ref,
+                                           NoiseValue v) throws SQLException {
+        ps.setInt(1, ref.roomId());
+        ps.setInt(2, buildingId);
+        ps.setInt(3, ref.floorId());
+        ps.setInt(4, ref.floorId());
+        ps.setInt(5, ref.roomId());
+        setNoiseValue(ps, 6, v);
+    }
+
+    /** Запоминает соответствие ключей комнат строкам room после загрузки, сохранения или отделения этажа. */
+    private static void rememberRoomIds(Building building) {
+        if (building != null && building.getId() > 0) {
+            roomIdIndexes.put(building.getId(), RoomIdIndex.of(building));
+        }
+    }
+
+    private static RoomIdIndex roomIdIndex(Building building) {
+        if (building == null || building.getId() <= 0) {
+            return RoomIdIndex.EMPTY;
+        }
+        return roomIdIndexes.computeIfAbsent(building.getId(), id -> RoomIdIndex.of(building));
+    }
+
+    static final String NOISE_BY_KEY_SQL = "SELECT f.section_index, f.number, s.identifier, r.name, " +
+            " n.measure, n.lift, n.vent, n.heat_curtain, n.itp, n.pns, n.electrical, n.auto_src, n.zum " +
+            "FROM room r " +
+            "JOIN space s ON r.space_id = s.id " +
+            "JOIN floor f ON s.floor_id = f.id " +
+            "JOIN building_floor bf ON bf.floor_id = f.id " +
+            "LEFT JOIN noise_settings n ON n.room_id = r.id " +
+            "WHERE bf.building_id = ?";
+
     // Прочитать noise_settings в карту по ключу (section|floor|space|room) для buildingId
     public static Map<String, NoiseValue> loadNoiseSelectionsByKey(int buildingId) throws SQLException {
-        Map<String, NoiseValue> res = new HashMap<>();
-        String sql = "SELECT f.section_index, f.number, s.identifier, r.name, " +
-                " n.measure, n.lift, n.vent, n.heat_curtain, n.itp, n.pns, n.electrical, n.auto_src, n.zum " +
-                "FROM room r " +
-                "JOIN space s ON r.space_id = s.id " +
-                "JOIN floor f ON s.floor_id = f.id " +
-                "LEFT JOIN noise_settings n ON n.room_id = r.id " +
-                "WHERE f.building_id = ?";
+        return withConnection(() -> {
+            Map<String, NoiseValue> res = new HashMap<>();
+            try (PreparedStatement ps = connection().prepareStatement(NOISE_BY_KEY_SQL)) {
+                ps.setInt(1, buildingId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String key = rs.getInt(1) + "|" + ns(rs.getString(2)) + "|" + ns(rs.getString(3)) + "|" + ns(rs.getString(4));
+                        NoiseValue nv = new NoiseValue();
+                        nv.measure     = rs.getBoolean(5);
+                        nv.lift        = rs.getBoolean(6);
+                        nv.vent        = rs.getBoolean(7);
+                        nv.heatCurtain = rs.getBoolean(8);
+                        nv.itp         = rs.getBoolean(9);
+                        nv.pns         = rs.getBoolean(10);
+                        nv.electrical  = rs.getBoolean(11);
+                        nv.autoSrc     = rs.getBoolean(12);
+                        nv.zum         = rs.getBoolean(13);
+                        res.put(key, nv);
+                    }
+                }
+            }
+            return res;
+        });
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, buildingId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String key = rs.getInt(1) + "|" + ns(rs.getString(2)) + "|" + ns(rs.getString(3)) + "|" + ns(rs.getString(4));
-                    NoiseValue nv = new NoiseValue();
-                    nv.measure     = rs.getBoolean(5);
-                    nv.lift        = rs.getBoolean(6);
-                    nv.vent        = rs.getBoolean(7);
-                    nv.heatCurtain = rs.getBoolean(8);
-                    nv.itp         = rs.getBoolean(9);
-                    nv.pns         = rs.getBoolean(10);
-                    nv.electrical  = rs.getBoolean(11);
-                    nv.autoSrc     = rs.getBoolean(12);
-                    nv.zum         = rs.getBoolean(13);
-                    res.put(key, nv);
+    /**
+     * Прочитать сохранённые пороги шумов по building_id. Возвращает карту key -> {EqMin, EqMax, MaxMin, MaxMax},
+     * где отсутствующие значения представлены Double.NaN.
+     */
+    public static Map<String, double[]> loadNoiseThresholds(int buildingId) throws SQLException {
+        return withConnection(() -> {
+            Map<String, double[]> res = new LinkedHashMap<>();
+            if (buildingId <= 0) return res;
+
+            String sql = "SELECT threshold_key, eq_min, eq_max, m_min, m_max FROM noise_thresholds WHERE building_id = ?";
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                ps.setInt(1, buildingId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String key = rs.getString(1);
+                        double eqMin = readDoubleOrNaN(rs, 2);
+                        double eqMax = readDoubleOrNaN(rs, 3);
+                        double mMin  = readDoubleOrNaN(rs, 4);
+                        double mMax  = readDoubleOrNaN(rs, 5);
+                        res.put(key, new double[]{ eqMin, eqMax, mMin, mMax });
+                    }
+                }
+            }
+            return res;
+        });
+    }
+    /**
+     * Пачка изменений шумов (ключ → значение) одной транзакцией: комнаты из индекса ревизии
+     * уходят одним пакетом JDBC, остальные (общий этаж, устаревший индекс) — поиском по ключу.
+     * Ошибка не глотается: очередь отложенной записи сама решает, повторять ли пачку.
+     * <p>
+     * Вызывается из фонового потока, поэтому модель здания не принимает и не меняет: новые id
+     * отделённых этажей возвращаются, вызывающий переносит их на модель в EDT (IdRemap.applyTo).
+     */
+    public static IdRemap updateNoiseValuesByKey(int buildingId, Map<String, NoiseValue> values) throws SQLException {
+        if (values == null || values.isEmpty()) return IdRemap.EMPTY;
+        if (buildingId <= 0) {
+            throw new SQLException("Запись шумов без сохранённой ревизии здания");
+        }
+
+        IdRemap remap = inTransaction(() -> {
+            IdRemap detached = IdRemap.EMPTY;
+            List<String> slow = new ArrayList<>();
+            List<String> batched = new ArrayList<>();
+            // Только готовый индекс (после загрузки/сохранения): строить его по живой модели здесь нельзя
+            RoomIdIndex rooms = roomIdIndexes.getOrDefault(buildingId, RoomIdIndex.EMPTY);
+            try (PreparedStatement ps = connection().prepareStatement(EXCLUSIVE_NOISE_UPSERT_SQL)) {
+                for (Map.Entry<String, NoiseValue> e : values.entrySet()) {
+                    RoomIdIndex.RoomRef ref = rooms.byKey(e.getKey());
+                    if (ref == null || e.getValue() == null) {
+                        slow.add(e.getKey());
+                        continue;
+                    }
+                    bindExclusiveNoise(ps, buildingId, ref, e.getValue());
+                    ps.addBatch();
+                    batched.add(e.getKey());
+                }
+                if (!batched.isEmpty()) {
+                    int[] counts = ps.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            slow.add(batched.get(i));
+                        }
+                    }
                 }
             }
-        }
-        return res;
+            for (String key : slow) {
+                NoiseValue v = values.get(key);
+                if (key != null && v != null) {
+                    detached = detached.merge(upsertNoiseByLookup(buildingId, key, v));
+                }
+            }
+            return detached;
+        });
+        remapRoomIds(buildingId, remap);
+        return remap;
     }
 
     /**
-     * Прочитать сохранённые пороги шумов по building_id. Возвращает карту key -> {EqMin, EqMax, MaxMin, MaxMax},
-     * где отсутствующие значения представлены Double.NaN.
+     * Медленный путь: поиск комнаты по ключу в ревизии buildingId, отделение общего этажа и запись.
+     * Вызывается внутри транзакции; возвращает новые id отделённого этажа.
      */
-    public static Map<String, double[]> loadNoiseThresholds(int buildingId) throws SQLException {
-        Map<String, double[]> res = new LinkedHashMap<>();
-        if (buildingId <= 0) return res;
-
-        String sql = "SELECT threshold_key, eq_min, eq_max, m_min, m_max FROM noise_thresholds WHERE building_id = ?";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setInt(1, buildingId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String key = rs.getString(1);
-                    double eqMin = readDoubleOrNaN(rs, 2);
-                    double eqMax = readDoubleOrNaN(rs, 3);
-                    double mMin  = readDoubleOrNaN(rs, 4);
-                    double mMax  = readDoubleOrNaN(rs, 5);
-                    res.put(key, new double[]{ eqMin, eqMax, mMin, mMax });
-                }
-            }
+    private static IdRemap upsertNoiseByLookup(int buildingId, String key, NoiseValue v)
+            throws SQLException {
+        // Без ревизии ключ совпал бы с комнатой любого проекта, в том числе с общей строкой чужой ревизии
+        if (buildingId <= 0) {
+            throw new SQLException("Запись шумов по ключу '" + key + "' без сохранённой ревизии здания");
         }
-        return res;
-    }
-    /** Обновить/вставить настройки шума по ключу "sectionIndex|floorNumber|spaceIdentifier|roomName" в рамках здания. */
-    public static void updateNoiseValueByKey(Building building, String key, NoiseValue v) {
-        if (key == null || v == null) return;
-        int buildingId = (building != null) ? building.getId() : 0;
-
         // Парсим ключ безопасно
-        String[] parts = (key == null) ? new String[0] : key.split("\\|", -1);
+        String[] parts = key.split("\\|", -1);
         String sIdxStr   = (parts.length > 0) ? parts[0].trim() : "0";
         String floorNum  = (parts.length > 1) ? ns(parts[1])    : "";
         String spaceId   = (parts.length > 2) ? ns(parts[2])    : "";
         String roomName  = (parts.length > 3) ? ns(parts[3])    : "";
-        int sectionIndex = 0;
+        int sectionIndex;
         try { sectionIndex = Integer.parseInt(sIdxStr); } catch (NumberFormatException ignore) { sectionIndex = 0; }
 
-        try {
-            // Находим room.id по ключу (с фильтром по building_id, если он известен)
-            String sql = "SELECT r.id " +
-                    "FROM room r " +
-                    "JOIN space s ON r.space_id = s.id " +
-                    "JOIN floor f ON s.floor_id = f.id " +
-                    (buildingId > 0 ? "WHERE f.building_id = ? AND " : "WHERE ") +
-                    "f.section_index = ? AND COALESCE(f.number,'') = ? AND " +
-                    "COALESCE(s.identifier,'') = ? AND COALESCE(r.name,'') = ? " +
-                    "LIMIT 1";
-
-            try (PreparedStatement ps = connection.prepareStatement(sql)) {
-                int idx = 1;
-                if (buildingId > 0) ps.setInt(idx++, buildingId);
-                ps.setInt(idx++, sectionIndex);
-                ps.setString(idx++, floorNum);
-                ps.setString(idx++, spaceId);
-                ps.setString(idx++, roomName);
+        // Находим room.id по ключу среди этажей ревизии
+        String sql = "SELECT r.id, f.id " +
+                "FROM room r " +
+                "JOIN space s ON r.space_id = s.id " +
+                "JOIN floor f ON s.floor_id = f.id " +
+                "JOIN building_floor bf ON bf.floor_id = f.id WHERE bf.building_id = ? AND " +
+                "f.section_index = ? AND COALESCE(f.number,'') = ? AND " +
+                "COALESCE(s.identifier,'') = ? AND COALESCE(r.name,'') = ? " +
+                "LIMIT 1";
+
+        int roomId;
+        int floorId;
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
+            ps.setInt(1, buildingId);
+            ps.setInt(2, sectionIndex);
+            ps.setString(3, floorNum);
+            ps.setString(4, spaceId);
+            ps.setString(5, roomName);
 
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) {
-                        logger.warn("updateNoiseValueByKey: не найден room по ключу '{}'", key);
-                        return;
-                    }
-                    int roomId = rs.getInt(1);
-
-                    String merge = "INSERT INTO noise_settings " +
-                            "(room_id, measure, lift, vent, heat_curtain, itp, pns, electrical, auto_src, zum) " +
-                            "VALUES (?,?,?,?,?,?,?,?,?,?) ON CONFLICT (room_id) DO UPDATE SET " +
-                            "measure=EXCLUDED.measure, lift=EXCLUDED.lift, vent=EXCLUDED.vent, " +
-                            "heat_curtain=EXCLUDED.heat_curtain, itp=EXCLUDED.itp, pns=EXCLUDED.pns, " +
-                            "electrical=EXCLUDED.electrical, auto_src=EXCLUDED.auto_src, zum=EXCLUDED.zum";
-
-                    try (PreparedStatement pm = connection.prepareStatement(merge)) {
-                        pm.setInt(1, roomId);
-                        pm.setBoolean(2, v.measure);
-                        pm.setBoolean(3, v.lift);
-                        pm.setBoolean(4, v.vent);
-                        pm.setBoolean(5, v.heatCurtain);
-                        pm.setBoolean(6, v.itp);
-                        pm.setBoolean(7, v.pns);
-                        pm.setBoolean(8, v.electrical);
-                        pm.setBoolean(9, v.autoSrc);
-                        pm.setBoolean(10, v.zum);
-                        pm.executeUpdate();
-                    }
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    logger.warn("upsertNoiseByLookup: не найден room по ключу '{}'", key);
+                    return IdRemap.EMPTY;
                 }
+                roomId = rs.getInt(1);
+                floorId = rs.getInt(2);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(null,
-                    "Ошибка обновления шумов: " + e.getMessage(),
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
         }
+
+        // Этаж общий с другими ревизиями — сначала отделяем его (copy-on-write),
+        // иначе сбрасываем отпечаток: строки меняются вне сохранения ревизии
+        IdRemap remap = IdRemap.EMPTY;
+        if (isFloorShared(floorId)) {
+            remap = detachSharedFloor(buildingId, floorId);
+            roomId = remap.room(roomId);
+        } else {
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "UPDATE floor SET content_hash = NULL WHERE id = ?")) {
+                ps.setInt(1, floorId);
+                ps.executeUpdate();
+            }
+        }
+
+        String merge = "INSERT INTO noise_settings " +
+                "(room_id, " + NOISE_COLUMNS + ") " +
+                "VALUES (?,?,?,?,?,?,?,?,?,?) ON CONFLICT (room_id) DO UPDATE SET " +
+                "measure=EXCLUDED.measure, lift=EXCLUDED.lift, vent=EXCLUDED.vent, " +
+                "heat_curtain=EXCLUDED.heat_curtain, itp=EXCLUDED.itp, pns=EXCLUDED.pns, " +
+                "electrical=EXCLUDED.electrical, auto_src=EXCLUDED.auto_src, zum=EXCLUDED.zum";
+
+        try (PreparedStatement pm = connection().prepareStatement(merge)) {
+            pm.setInt(1, roomId);
+            setNoiseValue(pm, 2, v);
+            pm.executeUpdate();
+        }
+        return remap;
     }
 
     /** Полностью перезаписать пороги шумов для building. */
     public static void updateNoiseThresholds(Building building, Map<String, double[]> thresholds) throws SQLException {
-        if (building == null || building.getId() <= 0) return;
-        int buildingId = building.getId();
+        inTransaction(() -> {
+            if (building == null || building.getId() <= 0) return;
+            writeNoiseThresholds(building.getId(), thresholds);
+        });
+    }
 
-        try (PreparedStatement del = connection.prepareStatement(
+    private static void writeNoiseThresholds(int buildingId, Map<String, double[]> thresholds) throws SQLException {
+        try (PreparedStatement del = connection().prepareStatement(
                 "DELETE FROM noise_thresholds WHERE building_id = ?")) {
             del.setInt(1, buildingId);
             del.executeUpdate();
@@ -1699,7 +3016,7 @@ public class DatabaseManager {
                 "ON CONFLICT (building_id, threshold_key) DO UPDATE SET " +
                 "eq_min=EXCLUDED.eq_min, eq_max=EXCLUDED.eq_max, " +
                 "m_min=EXCLUDED.m_min, m_max=EXCLUDED.m_max";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        try (PreparedStatement ps = connection().prepareStatement(sql)) {
             for (Map.Entry<String, double[]> e : thresholds.entrySet()) {
                 String key = e.getKey();
                 if (key == null) continue;
@@ -1720,12 +3037,11 @@ public class DatabaseManager {
     public static ProjectLockInfo acquireProjectLock(String projectType, int projectId,
                                                      int userId, String sessionId) throws SQLException {
         validateProjectLockArguments(projectType, projectId, sessionId);
-        boolean autoCommit = connection.getAutoCommit();
-        connection.setAutoCommit(false);
-        try {
+        return inTransaction(() -> {
+            lockProjectRevision(projectType, projectId);
             deleteStaleProjectLock(projectType, projectId);
             int inserted;
-            try (PreparedStatement stmt = connection.prepareStatement(
+            try (PreparedStatement stmt = connection().prepareStatement(
                     "INSERT INTO project_edit_lock " +
                             "(project_type, project_id, user_id, session_id, acquired_at, heartbeat_at) " +
                             "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
@@ -1748,64 +3064,122 @@ public class DatabaseManager {
                     lockInfo = lockInfo.asEditable();
                 }
             }
-            connection.commit();
             return lockInfo == null
                     ? new ProjectLockInfo(false, projectType, projectId, 0, "", "", null)
                     : lockInfo;
+        });
+    }
+
+    public static void refreshProjectLocks(String sessionId) throws SQLException {
+        withConnection(() -> {
+            if (sessionId == null || sessionId.isBlank()) {
+                return;
+            }
+            try (PreparedStatement stmt = connection().prepareStatement(
+                    "UPDATE project_edit_lock SET heartbeat_at=CURRENT_TIMESTAMP WHERE session_id=?")) {
+                stmt.setString(1, sessionId);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    /** Действующая блокировка проекта — строка таблицы блокировок ProjectLockService. */
+    record ActiveProjectLock(String projectType, int projectId, String sessionId, String ownerLabel) {
+    }
+
+    /**
+     * Выделенное долгоживущее соединение вне пула, подписанное на канал {@value #PROJECT_LOCK_CHANNEL}.
+     * Подписка LISTEN привязана к соединению, поэтому пул для неё не подходит.
+     */
+    static Connection openProjectLockConnection() throws SQLException {
+        Properties prop = connectionProperties;
+        Connection c = DriverManager.getConnection(
+                prop.getProperty("db.url"), prop.getProperty("db.user"), prop.getProperty("db.password"));
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("LISTEN " + PROJECT_LOCK_CHANNEL);
         } catch (SQLException e) {
-            connection.rollback();
+            c.close();
             throw e;
-        } finally {
-            connection.setAutoCommit(autoCommit);
         }
+        return c;
     }
 
-    public static void refreshProjectLocks(String sessionId) throws SQLException {
-        if (sessionId == null || sessionId.isBlank()) {
-            return;
-        }
-        try (Connection heartbeatConnection = openAdditionalConnection();
-             PreparedStatement stmt = heartbeatConnection.prepareStatement(
-                     "UPDATE project_edit_lock SET heartbeat_at=CURRENT_TIMESTAMP WHERE session_id=?")) {
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
-        }
+    /** Снимок действующих блокировок. {@code c} — соединение службы блокировок; null — соединение из пула. */
+    static List<ActiveProjectLock> loadActiveProjectLocks(Connection c) throws SQLException {
+        return onConnection(c, () -> {
+            List<ActiveProjectLock> locks = new ArrayList<>();
+            try (Statement stmt = connection().createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                         "SELECT project_lock.project_type, project_lock.project_id, project_lock.session_id, " +
+                                 "COALESCE(NULLIF(app_user.display_name, ''), app_user.windows_login) AS owner " +
+                                 "FROM project_edit_lock project_lock " +
+                                 "LEFT JOIN app_user ON app_user.id=project_lock.user_id " +
+                                 "WHERE project_lock.heartbeat_at >= CURRENT_TIMESTAMP - INTERVAL '3 minutes'")) {
+                while (rs.next()) {
+                    locks.add(new ActiveProjectLock(rs.getString("project_type"), rs.getInt("project_id"),
+                            rs.getString("session_id"), rs.getString("owner")));
+                }
+            }
+            return locks;
+        });
     }
 
-    public static void releaseProjectLock(String projectType, int projectId, String sessionId) throws SQLException {
-        if (projectId <= 0 || sessionId == null || sessionId.isBlank()) {
-            return;
-        }
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "DELETE FROM project_edit_lock WHERE project_type=? AND project_id=? AND session_id=?")) {
-            stmt.setString(1, projectType);
-            stmt.setInt(2, projectId);
-            stmt.setString(3, sessionId);
-            stmt.executeUpdate();
-        }
+    static void refreshProjectLocks(Connection c, String sessionId) throws SQLException {
+        onConnection(c, () -> {
+            refreshProjectLocks(sessionId);
+            return null;
+        });
     }
 
-    public static void releaseAllProjectLocks(String sessionId) throws SQLException {
-        if (sessionId == null || sessionId.isBlank()) {
-            return;
+    /** Удаляет просроченные блокировки всех сеансов; триггер разошлёт их снятие. */
+    static int expireStaleProjectLocks(Connection c) throws SQLException {
+        return onConnection(c, () -> {
+            try (Statement stmt = connection().createStatement()) {
+                return stmt.executeUpdate("DELETE FROM project_edit_lock " +
+                        "WHERE heartbeat_at < CURRENT_TIMESTAMP - INTERVAL '3 minutes'");
+            }
+        });
+    }
+
+    /** Выполняет работу на переданном соединении (autocommit) или, если оно null, на соединении из пула. */
+    private static <T> T onConnection(Connection c, SqlWork<T> work) throws SQLException {
+        if (c == null || boundConnection.get() != null) {
+            return withConnection(work);
         }
-        try (Connection releaseConnection = openAdditionalConnection();
-             PreparedStatement stmt = releaseConnection.prepareStatement(
-                     "DELETE FROM project_edit_lock WHERE session_id=?")) {
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
+        boundConnection.set(c);
+        try {
+            return work.run();
+        } finally {
+            boundConnection.remove();
         }
     }
 
-    private static Connection openAdditionalConnection() throws SQLException {
-        if (databaseProperties == null) {
-            throw new SQLException("Параметры подключения к базе данных не загружены");
-        }
-        return DriverManager.getConnection(
-                databaseProperties.getProperty("db.url"),
-                databaseProperties.getProperty("db.user"),
-                databaseProperties.getProperty("db.password")
-        );
+    public static void releaseProjectLock(String projectType, int projectId, String sessionId) throws SQLException {
+        withConnection(() -> {
+            if (projectId <= 0 || sessionId == null || sessionId.isBlank()) {
+                return;
+            }
+            try (PreparedStatement stmt = connection().prepareStatement(
+                    "DELETE FROM project_edit_lock WHERE project_type=? AND project_id=? AND session_id=?")) {
+                stmt.setString(1, projectType);
+                stmt.setInt(2, projectId);
+                stmt.setString(3, sessionId);
+                stmt.executeUpdate();
+            }
+        });
+    }
+
+    public static void releaseAllProjectLocks(String sessionId) throws SQLException {
+        withConnection(() -> {
+            if (sessionId == null || sessionId.isBlank()) {
+                return;
+            }
+            try (PreparedStatement stmt = connection().prepareStatement(
+                    "DELETE FROM project_edit_lock WHERE session_id=?")) {
+                stmt.setString(1, sessionId);
+                stmt.executeUpdate();
+            }
+        });
     }
 
     private static int prepareProjectVersion(String projectType, String tableName, int sourceProjectId,
@@ -1819,7 +3193,7 @@ public class DatabaseManager {
             throw new SQLException("Проект открыт для редактирования " + owner + ". Сохранение отменено.");
         }
         String sql = "SELECT revision FROM " + tableName + " WHERE id=? FOR UPDATE";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = connection().prepareStatement(sql)) {
             stmt.setInt(1, sourceProjectId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (!rs.next()) {
@@ -1855,7 +3229,7 @@ public class DatabaseManager {
     }
 
     private static void deleteStaleProjectLock(String projectType, int projectId) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement(
+        try (PreparedStatement stmt = connection().prepareStatement(
                 "DELETE FROM project_edit_lock WHERE project_type=? AND project_id=? " +
                         "AND heartbeat_at < CURRENT_TIMESTAMP - INTERVAL '3 minutes'")) {
             stmt.setString(1, projectType);
@@ -1872,7 +3246,7 @@ public class DatabaseManager {
                 "LEFT JOIN app_user ON app_user.id=project_lock.user_id " +
                 "WHERE project_lock.project_type=? AND project_lock.project_id=?" +
                 (forUpdate ? " FOR UPDATE OF project_lock" : "");
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = connection().prepareStatement(sql)) {
             stmt.setString(1, projectType);
             stmt.setInt(2, projectId);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -1888,7 +3262,7 @@ public class DatabaseManager {
 
     private static void touchProjectLock(String projectType, int projectId,
                                          String sessionId) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement(
+        try (PreparedStatement stmt = connection().prepareStatement(
                 "UPDATE project_edit_lock SET heartbeat_at=CURRENT_TIMESTAMP " +
                         "WHERE project_type=? AND project_id=? AND session_id=?")) {
             stmt.setString(1, projectType);
@@ -1903,7 +3277,7 @@ public class DatabaseManager {
         if (userId == null || sessionId == null || sessionId.isBlank()) {
             return;
         }
-        try (PreparedStatement stmt = connection.prepareStatement(
+        try (PreparedStatement stmt = connection().prepareStatement(
                 "INSERT INTO project_edit_lock " +
                         "(project_type, project_id, user_id, session_id, acquired_at, heartbeat_at) " +
                         "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)")) {
@@ -1969,72 +3343,78 @@ public class DatabaseManager {
     }
 
     public static AppUserRecord registerCurrentWindowsUser() throws SQLException {
-        String windowsLogin = currentWindowsLogin();
-        String userName = System.getProperty("user.name", "").trim();
-        AppUserRecord.Role initialRole = getAppUserCount() < 2
-                ? AppUserRecord.Role.ADMIN
-                : AppUserRecord.Role.EMPLOYEE;
-        String sql = "INSERT INTO app_user " +
-                "(windows_login, display_name, role, active, created_at, last_login_at) " +
-                "VALUES (?, ?, ?, TRUE, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
-                "ON CONFLICT (windows_login) DO UPDATE SET last_login_at=CURRENT_TIMESTAMP " +
-                "RETURNING id, windows_login, display_name, role, active, created_at, last_login_at";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, windowsLogin);
-            stmt.setString(2, userName.isBlank() ? windowsLogin : userName);
-            stmt.setString(3, initialRole.name());
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    throw new SQLException("Не удалось зарегистрировать пользователя программы");
-                }
-                AppUserRecord user = readAppUser(rs);
-                if (!user.isActive()) {
-                    throw new SQLException("Пользователь " + user.getWindowsLogin() + " отключён администратором");
+        return withConnection(() -> {
+            String windowsLogin = currentWindowsLogin();
+            String userName = System.getProperty("user.name", "").trim();
+            AppUserRecord.Role initialRole = getAppUserCount() < 2
+                    ? AppUserRecord.Role.ADMIN
+                    : AppUserRecord.Role.EMPLOYEE;
+            String sql = "INSERT INTO app_user " +
+                    "(windows_login, display_name, role, active, created_at, last_login_at) " +
+                    "VALUES (?, ?, ?, TRUE, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP) " +
+                    "ON CONFLICT (windows_login) DO UPDATE SET last_login_at=CURRENT_TIMESTAMP " +
+                    "RETURNING id, windows_login, display_name, role, active, created_at, last_login_at";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setString(1, windowsLogin);
+                stmt.setString(2, userName.isBlank() ? windowsLogin : userName);
+                stmt.setString(3, initialRole.name());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Не удалось зарегистрировать пользователя программы");
+                    }
+                    AppUserRecord user = readAppUser(rs);
+                    if (!user.isActive()) {
+                        throw new SQLException("Пользователь " + user.getWindowsLogin() + " отключён администратором");
+                    }
+                    currentAppUser = user;
+                    return user;
                 }
-                currentAppUser = user;
-                return user;
             }
-        }
+        });
     }
 
     public static List<AppUserRecord> getAllAppUsers() throws SQLException {
-        List<AppUserRecord> users = new ArrayList<>();
-        String sql = "SELECT id, windows_login, display_name, role, active, created_at, last_login_at " +
-                "FROM app_user ORDER BY CASE WHEN role='ADMIN' THEN 0 ELSE 1 END, display_name, windows_login";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                users.add(readAppUser(rs));
+        return withConnection(() -> {
+            List<AppUserRecord> users = new ArrayList<>();
+            String sql = "SELECT id, windows_login, display_name, role, active, created_at, last_login_at " +
+                    "FROM app_user ORDER BY CASE WHEN role='ADMIN' THEN 0 ELSE 1 END, display_name, windows_login";
+            try (Statement stmt = connection().createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    users.add(readAppUser(rs));
+                }
             }
-        }
-        return users;
+            return users;
+        });
     }
 
     public static AppUserRecord addAppUser(String windowsLogin, String displayName,
                                            AppUserRecord.Role role, boolean active) throws SQLException {
-        String normalizedLogin = normalizeWindowsLogin(windowsLogin);
-        String normalizedName = displayName == null ? "" : displayName.trim();
-        if (normalizedName.isBlank()) {
-            int separator = normalizedLogin.lastIndexOf('\\');
-            normalizedName = separator >= 0 ? normalizedLogin.substring(separator + 1) : normalizedLogin;
-        }
-        AppUserRecord.Role effectiveRole = role == null ? AppUserRecord.Role.EMPLOYEE : role;
-        String sql = "INSERT INTO app_user " +
-                "(windows_login, display_name, role, active, created_at) " +
-                "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP) " +
-                "RETURNING id, windows_login, display_name, role, active, created_at, last_login_at";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, normalizedLogin);
-            stmt.setString(2, normalizedName);
-            stmt.setString(3, effectiveRole.name());
-            stmt.setBoolean(4, active);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return readAppUser(rs);
+        return withConnection(() -> {
+            String normalizedLogin = normalizeWindowsLogin(windowsLogin);
+            String normalizedName = displayName == null ? "" : displayName.trim();
+            if (normalizedName.isBlank()) {
+                int separator = normalizedLogin.lastIndexOf('\\');
+                normalizedName = separator >= 0 ? normalizedLogin.substring(separator + 1) : normalizedLogin;
+            }
+            AppUserRecord.Role effectiveRole = role == null ? AppUserRecord.Role.EMPLOYEE : role;
+            String sql = "INSERT INTO app_user " +
+                    "(windows_login, display_name, role, active, created_at) " +
+                    "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+                    "RETURNING id, windows_login, display_name, role, active, created_at, last_login_at";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setString(1, normalizedLogin);
+                stmt.setString(2, normalizedName);
+                stmt.setString(3, effectiveRole.name());
+                stmt.setBoolean(4, active);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return readAppUser(rs);
+                    }
                 }
             }
-        }
-        throw new SQLException("Не удалось добавить пользователя программы");
+            throw new SQLException("Не удалось добавить пользователя программы");
+        });
     }
 
     public static void updateAppUser(int id, String displayName, AppUserRecord.Role role,
@@ -2044,9 +3424,7 @@ public class DatabaseManager {
             throw new SQLException("Укажите имя сотрудника");
         }
         AppUserRecord.Role effectiveRole = role == null ? AppUserRecord.Role.EMPLOYEE : role;
-        boolean autoCommit = connection.getAutoCommit();
-        connection.setAutoCommit(false);
-        try {
+        inTransaction(() -> {
             List<AppUserRecord> lockedUsers = loadAppUsersForUpdate();
             AppUserRecord existing = null;
             int activeAdministrators = 0;
@@ -2066,7 +3444,7 @@ public class DatabaseManager {
                     && activeAdministrators <= 1) {
                 throw new SQLException("В программе должен остаться хотя бы один активный администратор");
             }
-            try (PreparedStatement stmt = connection.prepareStatement(
+            try (PreparedStatement stmt = connection().prepareStatement(
                     "UPDATE app_user SET display_name=?, role=?, active=? WHERE id=?")) {
                 stmt.setString(1, normalizedName);
                 stmt.setString(2, effectiveRole.name());
@@ -2074,17 +3452,11 @@ public class DatabaseManager {
                 stmt.setInt(4, id);
                 stmt.executeUpdate();
             }
-            connection.commit();
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
-        } finally {
-            connection.setAutoCommit(autoCommit);
-        }
+        });
     }
 
     private static int getAppUserCount() throws SQLException {
-        try (Statement stmt = connection.createStatement();
+        try (Statement stmt = connection().createStatement();
              ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM app_user")) {
             return rs.next() ? rs.getInt(1) : 0;
         }
@@ -2094,7 +3466,7 @@ public class DatabaseManager {
         List<AppUserRecord> users = new ArrayList<>();
         String sql = "SELECT id, windows_login, display_name, role, active, created_at, last_login_at " +
                 "FROM app_user ORDER BY id FOR UPDATE";
-        try (Statement stmt = connection.createStatement();
+        try (Statement stmt = connection().createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
                 users.add(readAppUser(rs));
@@ -2141,182 +3513,439 @@ public class DatabaseManager {
     }
 
 
+    /** Весь персонал вместе с датами отсутствия — одним запросом. */
     public static List<PersonnelRecord> getAllPersonnel() throws SQLException {
-        List<PersonnelRecord> result = new ArrayList<>();
-        String sql = "SELECT id, first_name, last_name, middle_name FROM personnel ORDER BY last_name, first_name, middle_name";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                PersonnelRecord p = new PersonnelRecord();
-                p.setId(rs.getInt("id"));
-                p.setFirstName(rs.getString("first_name"));
-                p.setLastName(rs.getString("last_name"));
-                p.setMiddleName(rs.getString("middle_name"));
-                p.getUnavailabilityDates().addAll(getUnavailabilityForPerson(p.getId()));
-                result.add(p);
+        return getAllPersonnel(null, null);
+    }
+
+    /**
+     * Весь персонал с отсутствиями только в диапазоне {@code from}–{@code to} включительно
+     * (null — без ограничения с этой стороны).
+     */
+    public static List<PersonnelRecord> getAllPersonnel(java.time.LocalDate from, java.time.LocalDate to)
+            throws SQLException {
+        return withConnection(() -> {
+            Map<Integer, PersonnelRecord> result = new LinkedHashMap<>();
+            String sql = "SELECT p.id, p.first_name, p.last_name, p.middle_name, " +
+                    "u.id AS unavailability_id, u.unavailable_date, u.reason " +
+                    "FROM personnel p " +
+                    "LEFT JOIN personnel_unavailability u ON u.personnel_id = p.id " +
+                    (from != null ? "AND u.unavailable_date >= ? " : "") +
+                    (to != null ? "AND u.unavailable_date <= ? " : "") +
+                    "ORDER BY p.last_name, p.first_name, p.middle_name, p.id, u.unavailable_date, u.id";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                int idx = 1;
+                if (from != null) stmt.setObject(idx++, from);
+                if (to != null) stmt.setObject(idx, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt("id");
+                        PersonnelRecord p = result.get(id);
+                        if (p == null) {
+                            p = new PersonnelRecord();
+                            p.setId(id);
+                            p.setFirstName(rs.getString("first_name"));
+                            p.setLastName(rs.getString("last_name"));
+                            p.setMiddleName(rs.getString("middle_name"));
+                            result.put(id, p);
+                        }
+                        int unavailabilityId = rs.getInt("unavailability_id");
+                        if (!rs.wasNull()) {
+                            PersonnelRecord.UnavailabilityRecord rec = new PersonnelRecord.UnavailabilityRecord();
+                            rec.setId(unavailabilityId);
+                            rec.setUnavailableDate(rs.getObject("unavailable_date", java.time.LocalDate.class));
+                            rec.setReason(rs.getString("reason"));
+                            p.getUnavailabilityDates().add(rec);
+                        }
+                    }
+                }
             }
-        }
-        return result;
+            return new ArrayList<>(result.values());
+        });
     }
 
     public static PersonnelRecord addPersonnel(String firstName, String lastName, String middleName) throws SQLException {
-        String sql = "INSERT INTO personnel (first_name, last_name, middle_name) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, firstName);
-            stmt.setString(2, lastName);
-            stmt.setString(3, middleName);
-            stmt.executeUpdate();
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    PersonnelRecord person = new PersonnelRecord();
-                    person.setId(rs.getInt(1));
-                    person.setFirstName(firstName);
-                    person.setLastName(lastName);
-                    person.setMiddleName(middleName);
-                    return person;
+        return withConnection(() -> {
+            String sql = "INSERT INTO personnel (first_name, last_name, middle_name) VALUES (?, ?, ?)";
+            try (PreparedStatement stmt = connection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, firstName);
+                stmt.setString(2, lastName);
+                stmt.setString(3, middleName);
+                stmt.executeUpdate();
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        PersonnelRecord person = new PersonnelRecord();
+                        person.setId(rs.getInt(1));
+                        person.setFirstName(firstName);
+                        person.setLastName(lastName);
+                        person.setMiddleName(middleName);
+                        return person;
+                    }
                 }
             }
-        }
-        throw new SQLException("Не удалось создать запись сотрудника");
+            throw new SQLException("Не удалось создать запись сотрудника");
+        });
     }
 
     public static void updatePersonnel(int id, String firstName, String lastName, String middleName) throws SQLException {
-        String sql = "UPDATE personnel SET first_name = ?, last_name = ?, middle_name = ? WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, firstName);
-            stmt.setString(2, lastName);
-            stmt.setString(3, middleName);
-            stmt.setInt(4, id);
-            stmt.executeUpdate();
-        }
+        withConnection(() -> {
+            String sql = "UPDATE personnel SET first_name = ?, last_name = ?, middle_name = ? WHERE id = ?";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setString(1, firstName);
+                stmt.setString(2, lastName);
+                stmt.setString(3, middleName);
+                stmt.setInt(4, id);
+                stmt.executeUpdate();
+            }
+        });
     }
 
     public static void deletePersonnel(int id) throws SQLException {
-        try (PreparedStatement delDates = connection.prepareStatement("DELETE FROM personnel_unavailability WHERE personnel_id = ?")) {
-            delDates.setInt(1, id);
-            delDates.executeUpdate();
-        }
-        try (PreparedStatement delPerson = connection.prepareStatement("DELETE FROM personnel WHERE id = ?")) {
-            delPerson.setInt(1, id);
-            delPerson.executeUpdate();
-        }
-    }
-
-    public static void addPersonnelUnavailability(int personnelId, String unavailableDate, String reason) throws SQLException {
-        String sql = "INSERT INTO personnel_unavailability (personnel_id, unavailable_date, reason) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, personnelId);
-            stmt.setString(2, unavailableDate);
-            stmt.setString(3, reason);
-            stmt.executeUpdate();
-        }
+        inTransaction(() -> {
+            try (PreparedStatement delDates = connection().prepareStatement("DELETE FROM personnel_unavailability WHERE personnel_id = ?")) {
+                delDates.setInt(1, id);
+                delDates.executeUpdate();
+            }
+            try (PreparedStatement delPerson = connection().prepareStatement("DELETE FROM personnel WHERE id = ?")) {
+                delPerson.setInt(1, id);
+                delPerson.executeUpdate();
+            }
+        });
+    }
+
+    /** Отмечает сотрудника отсутствующим каждый день периода {@code from}–{@code to} включительно. */
+    public static void addPersonnelUnavailability(int personnelId, java.time.LocalDate from,
+                                                  java.time.LocalDate to, String reason) throws SQLException {
+        withConnection(() -> {
+            String sql = "INSERT INTO personnel_unavailability (personnel_id, unavailable_date, reason) " +
+                    "SELECT ?, day::date, ? FROM generate_series(?::date, ?::date, INTERVAL '1 day') AS day";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                stmt.setInt(1, personnelId);
+                stmt.setString(2, reason);
+                stmt.setObject(3, from);
+                stmt.setObject(4, to);
+                stmt.executeUpdate();
+            }
+        });
     }
 
     public static void deletePersonnelUnavailability(int unavailabilityId) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM personnel_unavailability WHERE id = ?")) {
-            stmt.setInt(1, unavailabilityId);
-            stmt.executeUpdate();
-        }
+        withConnection(() -> {
+            try (PreparedStatement stmt = connection().prepareStatement("DELETE FROM personnel_unavailability WHERE id = ?")) {
+                stmt.setInt(1, unavailabilityId);
+                stmt.executeUpdate();
+            }
+        });
     }
 
     public static List<VlkDateRecord> getAllVlkDates() throws SQLException {
-        List<VlkDateRecord> result = new ArrayList<>();
-        String sql = "SELECT id, vlk_date, responsible, event_name FROM vlk_dates ORDER BY vlk_date, id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                VlkDateRecord record = new VlkDateRecord();
-                record.setId(rs.getInt("id"));
-                record.setVlkDate(rs.getString("vlk_date"));
-                record.setResponsible(rs.getString("responsible"));
-                record.setEventName(rs.getString("event_name"));
-                result.add(record);
+        return getVlkDates(null, null);
+    }
+
+    /** Даты ВЛК в диапазоне {@code from}–{@code to} включительно (null — без ограничения). */
+    public static List<VlkDateRecord> getVlkDates(java.time.LocalDate from, java.time.LocalDate to)
+            throws SQLException {
+        return withConnection(() -> {
+            List<VlkDateRecord> result = new ArrayList<>();
+            String sql = "SELECT id, vlk_date, responsible, event_name FROM vlk_dates WHERE TRUE " +
+                    (from != null ? "AND vlk_date >= ? " : "") +
+                    (to != null ? "AND vlk_date <= ? " : "") +
+                    "ORDER BY vlk_date, id";
+            try (PreparedStatement stmt = connection().prepareStatement(sql)) {
+                int idx = 1;
+                if (from != null) stmt.setObject(idx++, from);
+                if (to != null) stmt.setObject(idx, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        VlkDateRecord record = new VlkDateRecord();
+                        record.setId(rs.getInt("id"));
+                        record.setVlkDate(rs.getObject("vlk_date", java.time.LocalDate.class));
+                        record.setResponsible(rs.getString("responsible"));
+                        record.setEventName(rs.getString("event_name"));
+                        result.add(record);
+                    }
+                }
             }
-        }
-        return result;
+            return result;
+        });
     }
 
     public static void replaceVlkDates(List<VlkDateRecord> records) throws SQLException {
-        try (PreparedStatement deleteStmt = connection.prepareStatement("DELETE FROM vlk_dates")) {
-            deleteStmt.executeUpdate();
-        }
+        inTransaction(() -> {
+            try (PreparedStatement deleteStmt = connection().prepareStatement("DELETE FROM vlk_dates")) {
+                deleteStmt.executeUpdate();
+            }
 
-        if (records == null || records.isEmpty()) {
-            return;
-        }
+            if (records == null || records.isEmpty()) {
+                return;
+            }
 
-        String sql = "INSERT INTO vlk_dates (vlk_date, responsible, event_name) VALUES (?, ?, ?)";
-        try (PreparedStatement insertStmt = connection.prepareStatement(sql)) {
-            for (VlkDateRecord record : records) {
-                insertStmt.setString(1, record.getVlkDate());
-                insertStmt.setString(2, record.getResponsible());
-                insertStmt.setString(3, record.getEventName());
-                insertStmt.addBatch();
+            String sql = "INSERT INTO vlk_dates (vlk_date, responsible, event_name) VALUES (?, ?, ?)";
+            try (PreparedStatement insertStmt = connection().prepareStatement(sql)) {
+                for (VlkDateRecord record : records) {
+                    insertStmt.setObject(1, record.getVlkDate());
+                    insertStmt.setString(2, record.getResponsible());
+                    insertStmt.setString(3, record.getEventName());
+                    insertStmt.addBatch();
+                }
+                insertStmt.executeBatch();
             }
-            insertStmt.executeBatch();
-        }
+        });
     }
 
     public static void deleteVlkDate(int id) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM vlk_dates WHERE id = ?")) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
-        }
+        withConnection(() -> {
+            try (PreparedStatement stmt = connection().prepareStatement("DELETE FROM vlk_dates WHERE id = ?")) {
+                stmt.setInt(1, id);
+                stmt.executeUpdate();
+            }
+        });
     }
 
     public static int addVlkDatesIfMissing(List<VlkDateRecord> records) throws SQLException {
-        if (records == null || records.isEmpty()) {
-            return 0;
-        }
+        return inTransaction(() -> {
+            if (records == null || records.isEmpty()) {
+                return 0;
+            }
+
+            String existsSql = "SELECT 1 FROM vlk_dates WHERE vlk_date = ? AND event_name = ? LIMIT 1";
+            String insertSql = "INSERT INTO vlk_dates (vlk_date, responsible, event_name) VALUES (?, ?, ?)";
+
+            int inserted = 0;
+            try (PreparedStatement existsStmt = connection().prepareStatement(existsSql);
+                 PreparedStatement insertStmt = connection().prepareStatement(insertSql)) {
+                for (VlkDateRecord record : records) {
+                    if (record == null || record.getVlkDate() == null) {
+                        continue;
+                    }
 
-        String existsSql = "SELECT 1 FROM vlk_dates WHERE vlk_date = ? AND event_name = ? LIMIT 1";
-        String insertSql = "INSERT INTO vlk_dates (vlk_date, responsible, event_name) VALUES (?, ?, ?)";
+                    existsStmt.setObject(1, record.getVlkDate());
+                    existsStmt.setString(2, record.getEventName());
+                    try (ResultSet rs = existsStmt.executeQuery()) {
+                        if (rs.next()) {
+                            continue;
+                        }
+                    }
 
-        int inserted = 0;
-        try (PreparedStatement existsStmt = connection.prepareStatement(existsSql);
-             PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
-            for (VlkDateRecord record : records) {
-                if (record == null || record.getVlkDate() == null || record.getVlkDate().isBlank()) {
-                    continue;
+                    insertStmt.setObject(1, record.getVlkDate());
+                    insertStmt.setString(2, record.getResponsible());
+                    insertStmt.setString(3, record.getEventName());
+                    insertStmt.addBatch();
+                    inserted++;
                 }
+                if (inserted > 0) {
+                    insertStmt.executeBatch();
+                }
+            }
+            return inserted;
+        });
+    }
 
-                existsStmt.setString(1, record.getVlkDate());
-                existsStmt.setString(2, record.getEventName());
-                try (ResultSet rs = existsStmt.executeQuery()) {
+    /**
+     * Записывает хеш только что загруженного документа оборудования и, если в хранилище уже есть файл
+     * с тем же SHA-256 и размером, переводит документ на него. Возвращает путь загруженной копии,
+     * которая стала лишней и которую нужно удалить из хранилища, или null, если копия остаётся.
+     */
+    public static String reuseEquipmentFile(String relativePath, String sha256, long sizeBytes) throws SQLException {
+        return inTransaction(() -> {
+            lockEquipmentFiles();
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "UPDATE equipment_contract SET sha256 = ?, size_bytes = ? WHERE relative_path = ?")) {
+                ps.setString(1, sha256);
+                ps.setLong(2, sizeBytes);
+                ps.setString(3, relativePath);
+                if (ps.executeUpdate() == 0) {
+                    throw new SQLException("Документ оборудования не найден: " + relativePath);
+                }
+            }
+            String existing = null;
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT relative_path FROM equipment_contract " +
+                            "WHERE sha256 = ? AND size_bytes = ? AND relative_path <> ? ORDER BY id LIMIT 1")) {
+                ps.setString(1, sha256);
+                ps.setLong(2, sizeBytes);
+                ps.setString(3, relativePath);
+                try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
-                        continue;
+                        existing = rs.getString(1);
                     }
                 }
+            }
+            if (existing == null) {
+                return null;
+            }
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "UPDATE equipment_contract SET relative_path = ? WHERE relative_path = ?")) {
+                ps.setString(1, existing);
+                ps.setString(2, relativePath);
+                ps.executeUpdate();
+            }
+            return relativePath;
+        });
+    }
 
-                insertStmt.setString(1, record.getVlkDate());
-                insertStmt.setString(2, record.getResponsible());
-                insertStmt.setString(3, record.getEventName());
-                insertStmt.addBatch();
-                inserted++;
+    /**
+     * Добавляет документ оборудования, не копируя файл, если такой же (SHA-256 и размер) уже хранится
+     * в том же разделе: договоры — document_type 'CONTRACT', документы собственности — остальные типы,
+     * тип берётся у найденного документа. Возвращает false, если файла нет и его нужно загрузить.
+     */
+    public static boolean addEquipmentDocumentWithStoredFile(int equipmentId, boolean contract, String originalFileName,
+                                                             String sha256, long sizeBytes, Integer userId)
+            throws SQLException {
+        return inTransaction(() -> {
+            lockEquipmentFiles();
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "INSERT INTO equipment_contract (equipment_id, document_type, original_file_name, " +
+                            "relative_path, size_bytes, sha256, uploaded_by_user_id) " +
+                            "SELECT ?, document_type, ?, relative_path, size_bytes, sha256, ? " +
+                            "FROM equipment_contract WHERE sha256 = ? AND size_bytes = ? " +
+                            "AND (document_type = 'CONTRACT') = ? ORDER BY id LIMIT 1")) {
+                ps.setInt(1, equipmentId);
+                ps.setString(2, originalFileName);
+                ps.setObject(3, userId, Types.INTEGER);
+                ps.setString(4, sha256);
+                ps.setLong(5, sizeBytes);
+                ps.setBoolean(6, contract);
+                return ps.executeUpdate() > 0;
             }
-            if (inserted > 0) {
-                insertStmt.executeBatch();
+        });
+    }
+
+    /**
+     * Заменяет файл документа оборудования уже хранящимся файлом с тем же SHA-256 и размером, без копирования.
+     * Возвращает false, если такого файла нет и его нужно загрузить. Прежний файл документа вызывающий
+     * удаляет сам, если на него больше никто не ссылается (см. isEquipmentFileReferenced).
+     */
+    public static boolean replaceEquipmentDocumentWithStoredFile(int documentId, String originalFileName,
+                                                                String sha256, long sizeBytes, Integer userId)
+            throws SQLException {
+        return inTransaction(() -> {
+            lockEquipmentFiles();
+            String existing = null;
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT relative_path FROM equipment_contract " +
+                            "WHERE sha256 = ? AND size_bytes = ? ORDER BY id LIMIT 1")) {
+                ps.setString(1, sha256);
+                ps.setLong(2, sizeBytes);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        existing = rs.getString(1);
+                    }
+                }
+            }
+            if (existing == null) {
+                return false;
+            }
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "UPDATE equipment_contract SET original_file_name = ?, relative_path = ?, size_bytes = ?, " +
+                            "sha256 = ?, uploaded_by_user_id = ?, uploaded_at = CURRENT_TIMESTAMP WHERE id = ?")) {
+                ps.setString(1, originalFileName);
+                ps.setString(2, existing);
+                ps.setLong(3, sizeBytes);
+                ps.setString(4, sha256);
+                ps.setObject(5, userId, Types.INTEGER);
+                ps.setInt(6, documentId);
+                if (ps.executeUpdate() == 0) {
+                    throw new SQLException("Документ оборудования не найден: " + documentId);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Ссылается ли ещё какой-нибудь документ оборудования на файл: общий файл (см. reuseEquipmentFile)
+     * удаляется из хранилища только вместе с последним документом.
+     */
+    public static boolean isEquipmentFileReferenced(String relativePath) throws SQLException {
+        return inTransaction(() -> {
+            lockEquipmentFiles();
+            try (PreparedStatement ps = connection().prepareStatement(
+                    "SELECT 1 FROM equipment_contract WHERE relative_path = ? LIMIT 1")) {
+                ps.setString(1, relativePath);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        });
+    }
+
+    /** Вид срока оборудования в календаре. */
+    public enum EquipmentDueKind {
+        /** Окончание поверки/аттестации (control_valid_until). */
+        VERIFICATION,
+        /** Ближайшее плановое техническое обслуживание. */
+        MAINTENANCE
+    }
+
+    /** Срок действующего оборудования по его текущей ревизии. */
+    public record EquipmentDueDate(int equipmentId, EquipmentDueKind kind, java.time.LocalDate date,
+                                   String nameType, String factoryNumber) {
+        /** Первая дата графика start, start + period, start + 2·period… (в месяцах) не раньше {@code today}. */
+        static java.time.LocalDate nextMaintenanceDate(java.time.LocalDate start, int periodMonths,
+                                                       java.time.LocalDate today) {
+            if (!start.isBefore(today)) {
+                return start;
+            }
+            long steps = java.time.temporal.ChronoUnit.MONTHS.between(start, today) / periodMonths;
+            java.time.LocalDate next = start.plusMonths(steps * periodMonths);
+            while (next.isBefore(today)) {
+                steps++;
+                next = start.plusMonths(steps * periodMonths);
             }
+            return next;
         }
-        return inserted;
     }
 
-    private static List<PersonnelRecord.UnavailabilityRecord> getUnavailabilityForPerson(int personnelId) throws SQLException {
-        List<PersonnelRecord.UnavailabilityRecord> dates = new ArrayList<>();
-        String sql = "SELECT id, unavailable_date, reason FROM personnel_unavailability WHERE personnel_id = ? ORDER BY unavailable_date";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, personnelId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    PersonnelRecord.UnavailabilityRecord rec = new PersonnelRecord.UnavailabilityRecord();
-                    rec.setId(rs.getInt("id"));
-                    rec.setUnavailableDate(rs.getString("unavailable_date"));
-                    rec.setReason(rs.getString("reason"));
-                    dates.add(rec);
+    /**
+     * Сроки поверки и ближайшего ТО не раньше {@code today} по текущим ревизиям (вид equipment_current).
+     * {@code equipmentIds} — только это оборудование (для точечного обновления), null — всё.
+     * Начало графика ТО — maintenance_start_date, а если её нет — первый день квартала
+     * maintenance_start_quarter в году вступления ревизии в силу.
+     */
+    public static List<EquipmentDueDate> getEquipmentDueDates(java.time.LocalDate today,
+                                                              Collection<Integer> equipmentIds) throws SQLException {
+        String sql = "SELECT c.equipment_id, a.category, c.name_type, c.factory_number, c.control_valid_until, " +
+                "c.maintenance_required, c.maintenance_period_months, " +
+                "COALESCE(c.maintenance_start_date, CASE WHEN c.maintenance_start_quarter BETWEEN 1 AND 4 " +
+                "THEN make_date(EXTRACT(YEAR FROM c.effective_date)::int, c.maintenance_start_quarter * 3 - 2, 1) " +
+                "END) AS maintenance_start " +
+                "FROM equipment_current c JOIN equipment_asset a ON a.id = c.equipment_id " +
+                "WHERE c.active" + (equipmentIds == null ? "" : " AND c.equipment_id = ANY(?)");
+        return withConnection(() -> {
+            List<EquipmentDueDate> result = new ArrayList<>();
+            try (PreparedStatement ps = connection().prepareStatement(sql)) {
+                if (equipmentIds != null) {
+                    ps.setArray(1, connection().createArrayOf("integer", equipmentIds.toArray()));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int equipmentId = rs.getInt("equipment_id");
+                        String nameType = rs.getString("name_type");
+                        String factoryNumber = rs.getString("factory_number");
+                        java.time.LocalDate validUntil = rs.getObject("control_valid_until", java.time.LocalDate.class);
+                        if (validUntil != null && !"AUXILIARY".equals(rs.getString("category"))) {
+                            result.add(new EquipmentDueDate(equipmentId, EquipmentDueKind.VERIFICATION,
+                                    validUntil, nameType, factoryNumber));
+                        }
+                        int periodMonths = rs.getInt("maintenance_period_months");
+                        java.time.LocalDate start = rs.getObject("maintenance_start", java.time.LocalDate.class);
+                        if (rs.getBoolean("maintenance_required") && periodMonths > 0 && start != null) {
+                            result.add(new EquipmentDueDate(equipmentId, EquipmentDueKind.MAINTENANCE,
+                                    EquipmentDueDate.nextMaintenanceDate(start, periodMonths, today), nameType, factoryNumber));
+                        }
+                    }
                 }
             }
+            return result;
+        });
+    }
+
+    /** Проверка ссылок не пропускает перевод документа на файл, который в это время удаляется. */
+    private static void lockEquipmentFiles() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("SELECT pg_advisory_xact_lock(" + EQUIPMENT_FILE_LOCK_ID + ")");
         }
-        return dates;
     }
 
     private static void setDoubleOrNull(PreparedStatement ps, int idx, double[] arr, int arrIndex) throws SQLException {
@@ -0,0 +1,121 @@
+package ru.citlab24.protokol.db;
+
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Отпечаток содержимого этажа (этаж + помещения + комнаты + значения вкладок по комнатам).
+ * Совпадение отпечатка с этажом предыдущей ревизии означает, что строки можно не копировать,
+ * а сослаться на уже сохранённые.
+ */
+final class FloorFingerprint {
+    private static final Comparator<Space> SPACE_ORDER = Comparator.comparingInt(Space::getPosition);
+    private static final Comparator<Room> ROOM_ORDER = Comparator.comparingInt(Room::getPosition);
+
+    private FloorFingerprint() {}
+
+    static String of(Floor floor,
+                     Map<String, Boolean> artificialByKey,
+                     Map<String, Double[]> streetByKey,
+                     Map<String, DatabaseManager.NoiseValue> noiseByKey) {
+        StringBuilder sb = new StringBuilder(256);
+        field(sb, floor.getNumber());
+        field(sb, floor.getType() == null ? null : floor.getType().name());
+        field(sb, floor.getSectionIndex());
+        field(sb, floor.getPosition());
+        for (Space space : orderedSpaces(floor)) {
+            sb.append("\nS");
+            field(sb, space.getIdentifier());
+            Space.SpaceType type = effectiveSpaceType(floor, space);
+            field(sb, type == null ? null : type.name());
+            field(sb, space.getPosition());
+            for (Room room : orderedRooms(space)) {
+                sb.append("\nR");
+                field(sb, room.getName());
+                field(sb, room.getVolume());
+                field(sb, room.getVentilationChannels());
+                field(sb, room.getVentilationSectionArea());
+                field(sb, room.getVentilationDuctShape());
+                field(sb, room.getVentilationWidth());
+                field(sb, room.isSelected());
+                field(sb, room.getExternalWallsCount());
+                field(sb, room.isMicroclimateSelected());
+                field(sb, room.isRadiationSelected());
+                field(sb, room.getPosition());
+
+                String key = DatabaseManager.makeKey(floor, space, room);
+                field(sb, artificialByKey != null && Boolean.TRUE.equals(artificialByKey.get(key)));
+                Double[] street = streetByKey == null ? null
+                        : streetByKey.get(DatabaseManager.makeStableRoomKey(floor, space, room));
+                for (int i = 0; i < 4; i++) {
+                    field(sb, street != null && street.length > i ? street[i] : null);
+                }
+                DatabaseManager.NoiseValue nv = noiseByKey == null ? null : noiseByKey.get(key);
+                if (nv != null) {
+                    field(sb, nv.measure);
+                    field(sb, nv.lift);
+                    field(sb, nv.vent);
+                    field(sb, nv.heatCurtain);
+                    field(sb, nv.itp);
+                    field(sb, nv.pns);
+                    field(sb, nv.electrical);
+                    field(sb, nv.autoSrc);
+                    field(sb, nv.zum);
+                } else {
+                    sb.append("|noise:none");
+                }
+            }
+        }
+        return sha256(sb.toString());
+    }
+
+    /** Помещения в порядке, в котором их вернёт загрузка из БД (position, затем порядок вставки). */
+    static List<Space> orderedSpaces(Floor floor) {
+        List<Space> spaces = new ArrayList<>(floor.getSpaces());
+        spaces.sort(SPACE_ORDER);
+        return spaces;
+    }
+
+    static List<Room> orderedRooms(Space space) {
+        List<Room> rooms = new ArrayList<>(space.getRooms());
+        rooms.sort(ROOM_ORDER);
+        return rooms;
+    }
+
+    static Space.SpaceType effectiveSpaceType(Floor floor, Space space) {
+        if (floor.getType() == Floor.FloorType.STREET) {
+            return Space.SpaceType.OUTDOOR;
+        }
+        return space.getType();
+    }
+
+    private static void field(StringBuilder sb, Object value) {
+        sb.append('|');
+        if (value == null) {
+            sb.append('\u0000');
+        } else {
+            String text = Objects.toString(value);
+            sb.append(text.length()).append(':').append(text);
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.citlab24.protokol.db;
+
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Новые идентификаторы строк, отделённых от общих ревизий (copy-on-write этажа): старый id → новый.
+ * БД модель не трогает — remap возвращается вызывающему, и тот переносит его на модель в своём потоке
+ * (для вкладок — в EDT), только после успешного commit.
+ */
+public final class IdRemap {
+    public static final IdRemap EMPTY = new IdRemap(Map.of(), Map.of(), Map.of());
+
+    private final Map<Integer, Integer> floors;
+    private final Map<Integer, Integer> spaces;
+    private final Map<Integer, Integer> rooms;
+
+    private IdRemap(Map<Integer, Integer> floors, Map<Integer, Integer> spaces, Map<Integer, Integer> rooms) {
+        this.floors = floors;
+        this.spaces = spaces;
+        this.rooms = rooms;
+    }
+
+    IdRemap(int oldFloorId, int newFloorId, Map<Integer, Integer> spaces, Map<Integer, Integer> rooms) {
+        this(Map.of(oldFloorId, newFloorId), Map.copyOf(spaces), Map.copyOf(rooms));
+    }
+
+    public boolean isEmpty() {
+        return floors.isEmpty();
+    }
+
+    public int floor(int id) {
+        return floors.getOrDefault(id, id);
+    }
+
+    public int space(int id) {
+        return spaces.getOrDefault(id, id);
+    }
+
+    public int room(int id) {
+        return rooms.getOrDefault(id, id);
+    }
+
+    /** Объединение: более поздний remap (other) применяется после этого. */
+    public IdRemap merge(IdRemap other) {
+        if (other == null || other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        return new IdRemap(chain(floors, other.floors), chain(spaces, other.spaces), chain(rooms, other.rooms));
+    }
+
+    private static Map<Integer, Integer> chain(Map<Integer, Integer> first, Map<Integer, Integer> then) {
+        Map<Integer, Integer> result = new HashMap<>(then);
+        first.forEach((from, to) -> result.put(from, then.getOrDefault(to, to)));
+        return Map.copyOf(result);
+    }
+
+    /**
+     * Переносит новые id на модель. Вызывать в потоке-владельце модели (для вкладок — в EDT):
+     * Room.setId/Space.setId обновляют индекс иерархии здания, он не потокобезопасен.
+     */
+    public void applyTo(Building building) {
+        if (building == null || isEmpty()) return;
+        for (Floor f : building.getFloors()) {
+            if (!floors.containsKey(f.getId())) continue;
+            f.setId(floor(f.getId()));
+            for (Space s : f.getSpaces()) {
+                s.setId(space(s.getId()));
+                for (Room r : s.getRooms()) {
+                    r.setId(room(r.getId()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.citlab24.protokol.db;
+
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Индекс занятости персонала по дням: для каждого сотрудника — битовая карта дней отсутствия
+ * (бит = номер дня от самой ранней даты), плюс их объединение «кто-нибудь отсутствует».
+ * Строится один раз из {@link DatabaseManager#getAllPersonnel()} и отвечает на вопросы
+ * «кто свободен в день D» и «какие дни диапазона свободны» без разбора дат и обращений к БД.
+ * Неизменяемый; после изменения отсутствий нужно построить новый.
+ */
+public final class PersonnelAvailability {
+    private final Map<Integer, PersonnelRecord> people;
+    private final Map<Integer, BitSet> absences;
+    private final BitSet anyAbsent = new BitSet();
+    private final long baseDay;
+
+    private PersonnelAvailability(List<PersonnelRecord> personnel) {
+        long minDay = Long.MAX_VALUE;
+        for (PersonnelRecord person : personnel) {
+            for (PersonnelRecord.UnavailabilityRecord rec : person.getUnavailabilityDates()) {
+                if (rec.getUnavailableDate() != null) {
+                    minDay = Math.min(minDay, rec.getUnavailableDate().toEpochDay());
+                }
+            }
+        }
+        this.baseDay = minDay == Long.MAX_VALUE ? 0 : minDay;
+
+        Map<Integer, PersonnelRecord> peopleById = new LinkedHashMap<>();
+        Map<Integer, BitSet> absencesById = new LinkedHashMap<>();
+        for (PersonnelRecord person : personnel) {
+            BitSet days = new BitSet();
+            for (PersonnelRecord.UnavailabilityRecord rec : person.getUnavailabilityDates()) {
+                int bit = bit(rec.getUnavailableDate());
+                if (bit >= 0) {
+                    days.set(bit);
+                }
+            }
+            anyAbsent.or(days);
+            peopleById.put(person.getId(), person);
+            absencesById.put(person.getId(), days);
+        }
+        this.people = Collections.unmodifiableMap(peopleById);
+        this.absences = absencesById;
+    }
+
+    /** Загружает персонал с отсутствиями одним запросом и строит индекс. */
+    public static PersonnelAvailability load() throws SQLException {
+        return of(DatabaseManager.getAllPersonnel());
+    }
+
+    public static PersonnelAvailability of(List<PersonnelRecord> personnel) {
+        return new PersonnelAvailability(personnel == null ? List.of() : personnel);
+    }
+
+    /** Сотрудники в порядке загрузки (по ФИО). */
+    public List<PersonnelRecord> getPersonnel() {
+        return new ArrayList<>(people.values());
+    }
+
+    public boolean isAbsent(int personnelId, LocalDate day) {
+        BitSet days = absences.get(personnelId);
+        int bit = bit(day);
+        return days != null && bit >= 0 && days.get(bit);
+    }
+
+    /** Отсутствует ли в этот день хотя бы один сотрудник. */
+    public boolean isAnyoneAbsent(LocalDate day) {
+        int bit = bit(day);
+        return bit >= 0 && anyAbsent.get(bit);
+    }
+
+    /** Кто свободен в день {@code day}. */
+    public List<PersonnelRecord> freeOn(LocalDate day) {
+        int bit = bit(day);
+        List<PersonnelRecord> free = new ArrayList<>();
+        for (Map.Entry<Integer, BitSet> entry : absences.entrySet()) {
+            if (bit < 0 || !entry.getValue().get(bit)) {
+                free.add(people.get(entry.getKey()));
+            }
+        }
+        return free;
+    }
+
+    /** Рабочие (пн–пт) дни диапазона включительно, в которые никто из сотрудников не отсутствует. */
+    public List<LocalDate> freeWorkdays(LocalDate from, LocalDate to) {
+        return freeWorkdays(anyAbsent, from, to);
+    }
+
+    /** Рабочие дни диапазона включительно, в которые свободен сотрудник {@code personnelId}. */
+    public List<LocalDate> freeWorkdays(int personnelId, LocalDate from, LocalDate to) {
+        return freeWorkdays(absences.getOrDefault(personnelId, new BitSet()), from, to);
+    }
+
+    private List<LocalDate> freeWorkdays(BitSet busy, LocalDate from, LocalDate to) {
+        List<LocalDate> result = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            DayOfWeek dayOfWeek = date.getDayOfWeek();
+            if (dayOfWeek == DayOfWeek.SATURDAY || dayOfWeek == DayOfWeek.SUNDAY) {
+                continue;
+            }
+            int bit = bit(date);
+            if (bit < 0 || !busy.get(bit)) {
+                result.add(date);
+            }
+        }
+        return result;
+    }
+
+    /** Номер бита дня; -1 — день раньше самого раннего отсутствия (там никто не отсутствует). */
+    private int bit(LocalDate day) {
+        if (day == null) {
+            return -1;
+        }
+        long offset = day.toEpochDay() - baseDay;
+        return offset < 0 || offset > Integer.MAX_VALUE ? -1 : (int) offset;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.citlab24.protokol.db;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,7 +57,7 @@ public class PersonnelRecord {
 
     public static class UnavailabilityRecord {
         private int id;
-        private String unavailableDate;
+        private LocalDate unavailableDate;
         private String reason;
 
         public int getId() {
@@ -67,11 +68,11 @@ public class PersonnelRecord {
             this.id = id;
         }
 
-        public String getUnavailableDate() {
+        public LocalDate getUnavailableDate() {
             return unavailableDate;
         }
 
-        public void setUnavailableDate(String unavailableDate) {
+        public void setUnavailableDate(LocalDate unavailableDate) {
             this.unavailableDate = unavailableDate;
         }
 
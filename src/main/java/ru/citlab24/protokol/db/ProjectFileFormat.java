@@ -0,0 +1,592 @@
+package ru.citlab24.protokol.db;
+
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Section;
+import ru.citlab24.protokol.tabs.models.Space;
+import ru.citlab24.protokol.tabs.models.TitlePageData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Файл проекта .protokol, версия 2.
+ * <p>
+ * Сигнатура «PRTK», байт версии и последовательность блоков:
+ * тип (1 байт), длина данных, длина сжатых данных, CRC32 данных и сами данные, сжатые deflate.
+ * Заголовок, секции, каждый этаж с помещениями и комнатами и значения вкладок (порциями) —
+ * отдельные блоки, так что файл пишется и читается потоком, а повреждение обнаруживается
+ * по контрольной сумме конкретного блока. Завершающий блок хранит итоговые счётчики.
+ * Блоки неизвестного типа пропускаются — их могут добавить будущие версии.
+ */
+final class ProjectFileFormat {
+    static final byte[] MAGIC = {'P', 'R', 'T', 'K'};
+    static final int CURRENT_VERSION = 2;
+
+    private static final int CHUNK_END = 0;
+    private static final int CHUNK_HEADER = 1;
+    private static final int CHUNK_SECTIONS = 2;
+    private static final int CHUNK_FLOOR = 3;
+    private static final int CHUNK_STREET = 4;
+    private static final int CHUNK_NOISE = 5;
+    private static final int CHUNK_THRESHOLDS = 6;
+
+    /** Значений вкладок в одном блоке. */
+    private static final int ENTRIES_PER_CHUNK = 512;
+    /** Предел размера блока: защищает от выделения памяти по испорченной длине. */
+    private static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    private ProjectFileFormat() {
+    }
+
+    /** Получатель прочитанных элементов; при проверке файла элементы сразу отбрасываются. */
+    interface Sink {
+        void header(Building building);
+
+        void section(Section section);
+
+        void floor(Floor floor);
+
+        void street(String key, Double[] values);
+
+        void noise(String key, DatabaseManager.NoiseValue value);
+
+        void threshold(String key, double[] values);
+    }
+
+    /** Итоговые счётчики файла. */
+    record Summary(int floors, int rooms, int values) {
+    }
+
+    /** Проверяет, что поток начинается с сигнатуры версии 2 (поток должен поддерживать mark). */
+    static boolean matches(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] head = in.readNBytes(MAGIC.length);
+        in.reset();
+        return Arrays.equals(head, MAGIC);
+    }
+
+    /** Потоковая запись: блоки уходят в выходной поток по мере добавления. */
+    static final class Writer {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(64 * 1024);
+        private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final CRC32 crc = new CRC32();
+        private byte[] packed = new byte[64 * 1024];
+        private int floors;
+        private int rooms;
+        private int values;
+
+        Writer(OutputStream target) throws IOException {
+            this.out = new DataOutputStream(target);
+            out.write(MAGIC);
+            out.write(CURRENT_VERSION);
+        }
+
+        void writeHeader(Building building) throws IOException {
+            writeString(chunk, building.getName());
+            chunk.writeInt(building.getRevision());
+            chunk.writeInt(building.getSourceProjectId());
+            TitlePageData title = building.getTitlePageData();
+            writeString(chunk, title.getProtocolDate());
+            writeString(chunk, title.getCustomerNameAndContacts());
+            writeString(chunk, title.getCustomerLegalAddress());
+            writeString(chunk, title.getCustomerActualAddress());
+            writeString(chunk, title.getObjectName());
+            writeString(chunk, title.getObjectAddress());
+            writeString(chunk, title.getContractNumber());
+            writeString(chunk, title.getContractDate());
+            writeString(chunk, title.getApplicationNumber());
+            writeString(chunk, title.getApplicationDate());
+            writeString(chunk, title.getRepresentative());
+            chunk.writeInt(title.getMeasurements().size());
+            for (TitlePageData.Measurement m : title.getMeasurements()) {
+                writeString(chunk, m == null ? null : m.getDate());
+                writeString(chunk, m == null ? null : m.getTempInsideStart());
+                writeString(chunk, m == null ? null : m.getTempInsideEnd());
+                writeString(chunk, m == null ? null : m.getTempOutsideStart());
+                writeString(chunk, m == null ? null : m.getTempOutsideEnd());
+            }
+            flushChunk(CHUNK_HEADER);
+
+            chunk.writeInt(building.getSections().size());
+            for (Section section : building.getSections()) {
+                writeString(chunk, section == null ? null : section.getName());
+                chunk.writeInt(section == null ? 0 : section.getPosition());
+            }
+            flushChunk(CHUNK_SECTIONS);
+        }
+
+        void writeFloor(Floor floor) throws IOException {
+            chunk.writeInt(floor.getId());
+            writeString(chunk, floor.getNumber());
+            writeString(chunk, floor.getName());
+            writeString(chunk, floor.getType() == null ? null : floor.getType().name());
+            chunk.writeInt(floor.getSectionIndex());
+            chunk.writeInt(floor.getPosition());
+            chunk.writeInt(floor.getSpaces().size());
+            for (Space space : floor.getSpaces()) {
+                chunk.writeInt(space.getId());
+                writeString(chunk, space.getIdentifier());
+                writeString(chunk, space.getType() == null ? null : space.getType().name());
+                chunk.writeInt(space.getPosition());
+                chunk.writeInt(space.getRooms().size());
+                for (Room room : space.getRooms()) {
+                    writeRoom(room);
+                    rooms++;
+                }
+            }
+            floors++;
+            flushChunk(CHUNK_FLOOR);
+        }
+
+        void writeStreetValues(Map<String, Double[]> street) throws IOException {
+            int inChunk = 0;
+            for (Map.Entry<String, Double[]> e : street.entrySet()) {
+                writeString(chunk, e.getKey());
+                Double[] v = e.getValue();
+                chunk.writeInt(v == null ? -1 : v.length);
+                if (v != null) {
+                    for (Double d : v) {
+                        writeNullableDouble(chunk, d);
+                    }
+                }
+                inChunk = countEntry(inChunk, CHUNK_STREET);
+            }
+            finishEntries(inChunk, CHUNK_STREET);
+        }
+
+        void writeNoiseValues(Map<String, DatabaseManager.NoiseValue> noise) throws IOException {
+            int inChunk = 0;
+            for (Map.Entry<String, DatabaseManager.NoiseValue> e : noise.entrySet()) {
+                if (e.getValue() == null) continue;
+                writeString(chunk, e.getKey());
+                chunk.writeShort(noiseBits(e.getValue()));
+                inChunk = countEntry(inChunk, CHUNK_NOISE);
+            }
+            finishEntries(inChunk, CHUNK_NOISE);
+        }
+
+        void writeThresholds(Map<String, double[]> thresholds) throws IOException {
+            int inChunk = 0;
+            for (Map.Entry<String, double[]> e : thresholds.entrySet()) {
+                if (e.getValue() == null) continue;
+                writeString(chunk, e.getKey());
+                chunk.writeInt(e.getValue().length);
+                for (double d : e.getValue()) {
+                    chunk.writeDouble(d);
+                }
+                inChunk = countEntry(inChunk, CHUNK_THRESHOLDS);
+            }
+            finishEntries(inChunk, CHUNK_THRESHOLDS);
+        }
+
+        /** Пишет завершающий блок со счётчиками; поток не закрывает. */
+        void finish() throws IOException {
+            chunk.writeInt(floors);
+            chunk.writeInt(rooms);
+            chunk.writeInt(values);
+            flushChunk(CHUNK_END);
+            out.flush();
+            deflater.end();
+        }
+
+        private void writeRoom(Room room) throws IOException {
+            chunk.writeInt(room.getId());
+            writeNullableInt(chunk, room.getOriginalRoomId());
+            writeString(chunk, room.getName());
+            writeNullableDouble(chunk, room.getVolume());
+            chunk.writeInt(room.getVentilationChannels());
+            chunk.writeDouble(room.getVentilationSectionArea());
+            writeString(chunk, room.getVentilationDuctShape());
+            writeNullableDouble(chunk, room.getVentilationWidth());
+            writeNullableInt(chunk, room.getExternalWallsCount());
+            chunk.writeInt(room.getPosition());
+            chunk.writeByte((room.isSelected() ? 1 : 0)
+                    | (room.isMicroclimateSelected() ? 2 : 0)
+                    | (room.isRadiationSelected() ? 4 : 0));
+        }
+
+        private int countEntry(int inChunk, int type) throws IOException {
+            values++;
+            if (++inChunk < ENTRIES_PER_CHUNK) {
+                return inChunk;
+            }
+            chunk.writeInt(-1);
+            flushChunk(type);
+            return 0;
+        }
+
+        private void finishEntries(int inChunk, int type) throws IOException {
+            if (inChunk > 0) {
+                chunk.writeInt(-1);
+                flushChunk(type);
+            }
+        }
+
+        private void flushChunk(int type) throws IOException {
+            chunk.flush();
+            byte[] raw = chunkBytes.toByteArray();
+            chunkBytes.reset();
+            crc.reset();
+            crc.update(raw);
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int packedLength = 0;
+            while (!deflater.finished()) {
+                if (packedLength == packed.length) {
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                }
+                packedLength += deflater.deflate(packed, packedLength, packed.length - packedLength);
+            }
+            out.writeByte(type);
+            out.writeInt(raw.length);
+            out.writeInt(packedLength);
+            out.writeInt((int) crc.getValue());
+            out.write(packed, 0, packedLength);
+        }
+    }
+
+    /**
+     * Читает файл версии 2 поблочно, передавая элементы в sink. В памяти одновременно находится
+     * только текущий блок. Ошибка контрольной суммы, обрыв файла или расхождение итоговых счётчиков —
+     * IOException.
+     */
+    static Summary read(InputStream source, Sink sink) throws IOException {
+        DataInputStream in = new DataInputStream(source);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Файл не является проектом protokol.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != CURRENT_VERSION) {
+            throw new IOException("Неподдерживаемая версия файла проекта: " + version + ". Обновите программу.");
+        }
+
+        Inflater inflater = new Inflater();
+        CRC32 crc = new CRC32();
+        int floors = 0;
+        int rooms = 0;
+        int values = 0;
+        boolean headerSeen = false;
+        try {
+            for (int index = 0; ; index++) {
+                int type;
+                try {
+                    type = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    throw new IOException("Файл проекта обрезан: нет завершающего блока.");
+                }
+                int rawLength = in.readInt();
+                int packedLength = in.readInt();
+                int expectedCrc = in.readInt();
+                if (rawLength < 0 || rawLength > MAX_CHUNK_BYTES || packedLength < 0 || packedLength > MAX_CHUNK_BYTES) {
+                    throw new IOException("Файл проекта повреждён: неверный размер блока " + index);
+                }
+                byte[] packed = new byte[packedLength];
+                in.readFully(packed);
+                byte[] raw = inflate(inflater, packed, rawLength, index);
+                crc.reset();
+                crc.update(raw);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("Файл проекта повреждён: контрольная сумма блока " + index + " не совпадает.");
+                }
+
+                DataInputStream chunk = new DataInputStream(new ByteArrayInputStream(raw));
+                if (type != CHUNK_END && type != CHUNK_HEADER && !headerSeen && type <= CHUNK_THRESHOLDS) {
+                    throw new IOException("Файл проекта повреждён: данные до заголовка.");
+                }
+                switch (type) {
+                    case CHUNK_HEADER -> {
+                        sink.header(readHeader(chunk));
+                        headerSeen = true;
+                    }
+                    case CHUNK_SECTIONS -> {
+                        int count = readCount(chunk);
+                        for (int i = 0; i < count; i++) {
+                            sink.section(new Section(readString(chunk), chunk.readInt()));
+                        }
+                    }
+                    case CHUNK_FLOOR -> {
+                        Floor floor = readFloor(chunk);
+                        floors++;
+                        for (Space space : floor.getSpaces()) {
+                            rooms += space.getRooms().size();
+                        }
+                        sink.floor(floor);
+                    }
+                    case CHUNK_STREET -> {
+                        for (String key = readKey(chunk); key != null; key = readKey(chunk)) {
+                            int length = chunk.readInt();
+                            Double[] v = null;
+                            if (length >= 0) {
+                                v = new Double[checkCount(length)];
+                                for (int i = 0; i < length; i++) {
+                                    v[i] = readNullableDouble(chunk);
+                                }
+                            }
+                            sink.street(key, v);
+                            values++;
+                        }
+                    }
+                    case CHUNK_NOISE -> {
+                        for (String key = readKey(chunk); key != null; key = readKey(chunk)) {
+                            sink.noise(key, noiseValue(chunk.readShort()));
+                            values++;
+                        }
+                    }
+                    case CHUNK_THRESHOLDS -> {
+                        for (String key = readKey(chunk); key != null; key = readKey(chunk)) {
+                            double[] v = new double[readCount(chunk)];
+                            for (int i = 0; i < v.length; i++) {
+                                v[i] = chunk.readDouble();
+                            }
+                            sink.threshold(key, v);
+                            values++;
+                        }
+                    }
+                    case CHUNK_END -> {
+                        if (!headerSeen) {
+                            throw new IOException("Файл проекта повреждён: нет заголовка.");
+                        }
+                        if (chunk.readInt() != floors || chunk.readInt() != rooms || chunk.readInt() != values) {
+                            throw new IOException("Файл проекта повреждён: не совпадает число этажей, комнат или значений.");
+                        }
+                        return new Summary(floors, rooms, values);
+                    }
+                    default -> {
+                        // блок будущей версии — пропускаем
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Файл проекта повреждён: блок обрывается раньше времени.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] packed, int rawLength, int index) throws IOException {
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(packed);
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IOException("Файл проекта повреждён: блок " + index + " короче заявленного.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Файл проекта повреждён: блок " + index + " не распаковывается.", e);
+        }
+        return raw;
+    }
+
+    private static Building readHeader(DataInputStream in) throws IOException {
+        Building building = new Building();
+        building.setName(readString(in));
+        building.setRevision(in.readInt());
+        building.setSourceProjectId(in.readInt());
+        TitlePageData title = new TitlePageData();
+        title.setProtocolDate(readString(in));
+        title.setCustomerNameAndContacts(readString(in));
+        title.setCustomerLegalAddress(readString(in));
+        title.setCustomerActualAddress(readString(in));
+        title.setObjectName(readString(in));
+        title.setObjectAddress(readString(in));
+        title.setContractNumber(readString(in));
+        title.setContractDate(readString(in));
+        title.setApplicationNumber(readString(in));
+        title.setApplicationDate(readString(in));
+        title.setRepresentative(readString(in));
+        int measurements = readCount(in);
+        for (int i = 0; i < measurements; i++) {
+            TitlePageData.Measurement m = new TitlePageData.Measurement();
+            m.setDate(readString(in));
+            m.setTempInsideStart(readString(in));
+            m.setTempInsideEnd(readString(in));
+            m.setTempOutsideStart(readString(in));
+            m.setTempOutsideEnd(readString(in));
+            title.getMeasurements().add(m);
+        }
+        building.setTitlePageData(title);
+        return building;
+    }
+
+    private static Floor readFloor(DataInputStream in) throws IOException {
+        Floor floor = new Floor();
+        floor.setId(in.readInt());
+        floor.setNumber(readString(in));
+        floor.setName(readString(in));
+        floor.setType(readEnum(in, Floor.FloorType.class));
+        floor.setSectionIndex(in.readInt());
+        floor.setPosition(in.readInt());
+        int spaces = readCount(in);
+        for (int s = 0; s < spaces; s++) {
+            Space space = new Space();
+            space.setId(in.readInt());
+            space.setIdentifier(readString(in));
+            space.setType(readEnum(in, Space.SpaceType.class));
+            space.setPosition(in.readInt());
+            int roomCount = readCount(in);
+            for (int r = 0; r < roomCount; r++) {
+                space.addRoom(readRoom(in));
+            }
+            floor.addSpace(space);
+        }
+        return floor;
+    }
+
+    private static Room readRoom(DataInputStream in) throws IOException {
+        Room room = new Room();
+        room.setId(in.readInt());
+        room.setOriginalRoomId(readNullableInt(in));
+        room.setName(readString(in));
+        room.setVolume(readNullableDouble(in));
+        room.setVentilationChannels(in.readInt());
+        room.setVentilationSectionArea(in.readDouble());
+        room.setVentilationDuctShape(readString(in));
+        room.setVentilationWidth(readNullableDouble(in));
+        room.setExternalWallsCount(readNullableInt(in));
+        room.setPosition(in.readInt());
+        int flags = in.readUnsignedByte();
+        room.setSelected((flags & 1) != 0);
+        room.setMicroclimateSelected((flags & 2) != 0);
+        room.setRadiationSelected((flags & 4) != 0);
+        return room;
+    }
+
+    private static int noiseBits(DatabaseManager.NoiseValue v) {
+        return (v.measure ? 1 : 0)
+                | (v.lift ? 1 << 1 : 0)
+                | (v.vent ? 1 << 2 : 0)
+                | (v.heatCurtain ? 1 << 3 : 0)
+                | (v.itp ? 1 << 4 : 0)
+                | (v.pns ? 1 << 5 : 0)
+                | (v.electrical ? 1 << 6 : 0)
+                | (v.autoSrc ? 1 << 7 : 0)
+                | (v.zum ? 1 << 8 : 0);
+    }
+
+    private static DatabaseManager.NoiseValue noiseValue(int bits) {
+        DatabaseManager.NoiseValue v = new DatabaseManager.NoiseValue();
+        v.measure = (bits & 1) != 0;
+        v.lift = (bits & 1 << 1) != 0;
+        v.vent = (bits & 1 << 2) != 0;
+        v.heatCurtain = (bits & 1 << 3) != 0;
+        v.itp = (bits & 1 << 4) != 0;
+        v.pns = (bits & 1 << 5) != 0;
+        v.electrical = (bits & 1 << 6) != 0;
+        v.autoSrc = (bits & 1 << 7) != 0;
+        v.zum = (bits & 1 << 8) != 0;
+        return v;
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> type) throws IOException {
+        String name = readString(in);
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Файл проекта повреждён: неизвестное значение " + name, e);
+        }
+    }
+
+    /** Ключ значения вкладки; длина -1 без строки завершает порцию. */
+    private static String readKey(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        String key = readStringBody(in, length);
+        if (key == null) {
+            throw new IOException("Файл проекта повреждён: пустой ключ значения.");
+        }
+        return key;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        return checkCount(in.readInt());
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0 || count > 1_000_000) {
+            throw new IOException("Файл проекта повреждён: неверное число элементов " + count);
+        }
+        return count;
+    }
+
+    private static void writeNullableInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeNullableDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readNullableDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    /** Длина в байтах UTF-8 и байты; -2 — null (-1 в блоках значений завершает порцию). */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-2);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return readStringBody(in, in.readInt());
+    }
+
+    private static String readStringBody(DataInputStream in, int length) throws IOException {
+        if (length == -2) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Файл проекта повреждён: неверная длина строки " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -11,12 +11,16 @@ import ru.citlab24.protokol.tabs.models.Space;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Сервис для обмена проектами через файл.
+ * Пишется формат версии 2 ({@link ProjectFileFormat}); файлы старого формата (Java-сериализация) читаются.
  */
 public final class ProjectFileService {
     private static final Logger logger = LoggerFactory.getLogger(ProjectFileService.class);
@@ -53,10 +57,7 @@ public final class ProjectFileService {
 
         File target = ensureExtension(chooser.getSelectedFile());
         ProjectSnapshot snapshot = buildSnapshot(buildingId);
-
-        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
-            oos.writeObject(snapshot);
-        }
+        writeProjectFile(target, snapshot);
 
         logger.info("Проект {} (id={}) экспортирован в {}", projectName, buildingId, target.getAbsolutePath());
 
@@ -81,10 +82,7 @@ public final class ProjectFileService {
 
         File source = chooser.getSelectedFile();
         logger.info("Импорт проекта из файла {}", source.getAbsolutePath());
-        ProjectSnapshot snapshot;
-        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(source)))) {
-            snapshot = (ProjectSnapshot) ois.readObject();
-        }
+        ProjectSnapshot snapshot = readProjectFile(source);
 
         if (snapshot == null || snapshot.building == null) {
             JOptionPane.showMessageDialog(parent,
@@ -99,6 +97,66 @@ public final class ProjectFileService {
         return saved;
     }
 
+    /** Пишет во временный файл рядом и переносит на место: прерванный экспорт не портит прежний файл. */
+    static void writeProjectFile(File target, ProjectSnapshot snapshot) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("protokol-export", ".tmp", dir);
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024)) {
+                ProjectFileFormat.Writer writer = new ProjectFileFormat.Writer(out);
+                writer.writeHeader(snapshot.building);
+                for (Floor floor : snapshot.building.getFloors()) {
+                    if (floor != null) {
+                        writer.writeFloor(floor);
+                    }
+                }
+                writer.writeStreetValues(snapshot.streetLightingValues);
+                writer.writeNoiseValues(snapshot.noiseSelections);
+                writer.writeThresholds(snapshot.noiseThresholds);
+                writer.finish();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Читает файл любой версии. Файл версии 2 сначала проверяется целиком потоком, и только затем
+     * собирается модель — повреждённый файл не доходит до записи в БД.
+     */
+    static ProjectSnapshot readProjectFile(File source) throws IOException, ClassNotFoundException {
+        boolean version2;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+            version2 = ProjectFileFormat.matches(in);
+            if (version2) {
+                ProjectFileFormat.Summary summary = ProjectFileFormat.read(in, new CountingSink());
+                logger.info("Файл проекта проверен: этажей {}, комнат {}, значений {}",
+                        summary.floors(), summary.rooms(), summary.values());
+            }
+        }
+        if (!version2) {
+            return readLegacyFile(source);
+        }
+        CollectingSink sink = new CollectingSink();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source), 64 * 1024)) {
+            ProjectFileFormat.read(in, sink);
+        }
+        return new ProjectSnapshot(sink.building, sink.street, sink.noise, sink.thresholds);
+    }
+
+    private static ProjectSnapshot readLegacyFile(File source) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+            Object object = ois.readObject();
+            if (!(object instanceof ProjectSnapshot snapshot) || snapshot.building == null) {
+                throw new IOException("Файл не является проектом protokol.");
+            }
+            return snapshot;
+        } catch (StreamCorruptedException e) {
+            throw new IOException("Файл не является проектом protokol.", e);
+        }
+    }
+
     private static ProjectSnapshot buildSnapshot(int buildingId) throws SQLException {
         Building building = DatabaseManager.loadBuilding(buildingId);
         Map<String, Double[]> streetLighting = DatabaseManager.loadStreetLightingValuesByKey(buildingId);
@@ -110,17 +168,11 @@ public final class ProjectFileService {
     private static Building persistSnapshot(ProjectSnapshot snapshot) throws SQLException {
         Building building = snapshot.building;
         normalizeIds(building);
-        DatabaseManager.saveBuilding(building);
-
-        if (!snapshot.streetLightingValues.isEmpty()) {
-            DatabaseManager.updateStreetLightingValues(building, snapshot.streetLightingValues);
-        }
-        if (!snapshot.noiseSelections.isEmpty()) {
-            DatabaseManager.updateNoiseSelections(building, snapshot.noiseSelections);
-        }
-        if (!snapshot.noiseThresholds.isEmpty()) {
-            DatabaseManager.updateNoiseThresholds(building, snapshot.noiseThresholds);
-        }
+        DatabaseManager.saveBuildingVersion(building, 0, 0, null,
+                java.util.Collections.emptyMap(),
+                snapshot.streetLightingValues,
+                snapshot.noiseSelections,
+                snapshot.noiseThresholds);
 
         return DatabaseManager.loadBuilding(building.getId());
     }
@@ -167,14 +219,40 @@ public final class ProjectFileService {
         return new File(file.getParentFile(), name + "." + DEFAULT_EXTENSION);
     }
 
-    private static final class ProjectSnapshot implements Serializable {
+    /** Только считает элементы — для проверки файла без сборки модели. */
+    private static final class CountingSink implements ProjectFileFormat.Sink {
+        @Override public void header(Building building) { }
+        @Override public void section(Section section) { }
+        @Override public void floor(Floor floor) { }
+        @Override public void street(String key, Double[] values) { }
+        @Override public void noise(String key, DatabaseManager.NoiseValue value) { }
+        @Override public void threshold(String key, double[] values) { }
+    }
+
+    /** Собирает здание и значения вкладок из блоков файла. */
+    private static final class CollectingSink implements ProjectFileFormat.Sink {
+        private Building building;
+        private final Map<String, Double[]> street = new LinkedHashMap<>();
+        private final Map<String, DatabaseManager.NoiseValue> noise = new LinkedHashMap<>();
+        private final Map<String, double[]> thresholds = new LinkedHashMap<>();
+
+        @Override public void header(Building header) { building = header; }
+        @Override public void section(Section section) { building.addSection(section); }
+        @Override public void floor(Floor floor) { building.addFloor(floor); }
+        @Override public void street(String key, Double[] values) { street.put(key, values); }
+        @Override public void noise(String key, DatabaseManager.NoiseValue value) { noise.put(key, value); }
+        @Override public void threshold(String key, double[] values) { thresholds.put(key, values); }
+    }
+
+    /** Содержимое файла проекта; имя и поля класса — часть старого формата (Java-сериализация). */
+    static final class ProjectSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
-        private final Building building;
-        private final Map<String, Double[]> streetLightingValues;
-        private final Map<String, DatabaseManager.NoiseValue> noiseSelections;
-        private final Map<String, double[]> noiseThresholds;
+        final Building building;
+        final Map<String, Double[]> streetLightingValues;
+        final Map<String, DatabaseManager.NoiseValue> noiseSelections;
+        final Map<String, double[]> noiseThresholds;
 
-        private ProjectSnapshot(Building building,
+        ProjectSnapshot(Building building,
                                 Map<String, Double[]> streetLightingValues,
                                 Map<String, DatabaseManager.NoiseValue> noiseSelections,
                                 Map<String, double[]> noiseThresholds) {
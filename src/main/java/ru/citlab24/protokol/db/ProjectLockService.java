@@ -0,0 +1,200 @@
+package ru.citlab24.protokol.db;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Блокировки редактирования проектов без опроса БД.
+ * <p>
+ * Одно долгоживущее соединение подписано на канал project_lock: триггер на project_edit_lock
+ * сообщает о каждой установке и снятии блокировки, и таблица блокировок в памяти обновляется сразу.
+ * На этом же соединении продлеваются блокировки своего сеанса и удаляются просроченные
+ * (их снятие тоже приходит уведомлением всем клиентам). Списки проектов берут владельца блокировки
+ * отсюда; открытые диалоги подписываются через {@link #addListener} и перерисовываются в EDT.
+ * При обрыве соединения таблица перечитывается после переподключения.
+ */
+public final class ProjectLockService {
+    private static final Logger logger = LoggerFactory.getLogger(ProjectLockService.class);
+    private static final int POLL_MS = 1_000;
+    private static final long HEARTBEAT_MS = 30_000;
+    private static final long EXPIRY_SWEEP_MS = 60_000;
+    private static final long RECONNECT_DELAY_MS = 15_000;
+
+    private record LockKey(String projectType, int projectId) {
+    }
+
+    private static final Map<LockKey, DatabaseManager.ActiveProjectLock> locks = new ConcurrentHashMap<>();
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean repaintQueued = new AtomicBoolean();
+    private static volatile Thread worker;
+    private static volatile String sessionId;
+
+    private ProjectLockService() {
+    }
+
+    /** Запускает службу для сеанса редактирования этого окна. */
+    public static synchronized void start(String editSessionId) {
+        if (worker != null) {
+            return;
+        }
+        sessionId = editSessionId;
+        Thread thread = new Thread(ProjectLockService::runLoop, "project-lock-listener");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    public static synchronized void stop() {
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(POLL_MS * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        locks.clear();
+    }
+
+    /** Кто сейчас редактирует проект; null — проект свободен. */
+    public static String ownerLabel(String projectType, int projectId) {
+        DatabaseManager.ActiveProjectLock lock = locks.get(new LockKey(projectType, projectId));
+        if (lock == null) {
+            return null;
+        }
+        String owner = lock.ownerLabel();
+        return owner == null || owner.isBlank() ? "другой пользователь" : owner;
+    }
+
+    /** Слушатель изменений таблицы блокировок; вызывается в EDT. */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static void runLoop() {
+        Connection connection = null;
+        long nextHeartbeat = 0;
+        long nextSweep = 0;
+        while (worker == Thread.currentThread()) {
+            try {
+                if (connection == null) {
+                    connection = DatabaseManager.openProjectLockConnection();
+                    // Подписка уже действует — изменения, случившиеся во время чтения, не потеряются
+                    replaceAll(DatabaseManager.loadActiveProjectLocks(connection));
+                    logger.info("Служба блокировок проектов подключена: {} активных", locks.size());
+                }
+                PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications(POLL_MS);
+                if (notifications != null && notifications.length > 0) {
+                    for (PGNotification notification : notifications) {
+                        apply(notification.getParameter());
+                    }
+                    fireChanged();
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextHeartbeat) {
+                    DatabaseManager.refreshProjectLocks(connection, sessionId);
+                    nextHeartbeat = now + HEARTBEAT_MS;
+                }
+                if (now >= nextSweep) {
+                    DatabaseManager.expireStaleProjectLocks(connection);
+                    nextSweep = now + EXPIRY_SWEEP_MS;
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (worker != Thread.currentThread()) {
+                    break;
+                }
+                logger.warn("Служба блокировок проектов: соединение потеряно, повтор через {} с",
+                        RECONNECT_DELAY_MS / 1000, e);
+                closeQuietly(connection);
+                connection = null;
+                nextHeartbeat = 0;
+                nextSweep = 0;
+                reloadThroughPool();
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    /** Пока выделенное соединение недоступно, таблица хотя бы не устаревает дольше паузы переподключения. */
+    private static void reloadThroughPool() {
+        try {
+            DatabaseManager.refreshProjectLocks(null, sessionId);
+            replaceAll(DatabaseManager.loadActiveProjectLocks(null));
+        } catch (SQLException | RuntimeException e) {
+            logger.debug("Служба блокировок проектов: БД недоступна", e);
+        }
+    }
+
+    /** Полезная нагрузка: «INSERT|DELETE|тип|id|сеанс|владелец». */
+    private static void apply(String payload) {
+        String[] parts = payload == null ? new String[0] : payload.split("\\|", 5);
+        if (parts.length < 5) {
+            logger.warn("Служба блокировок проектов: неизвестное уведомление «{}»", payload);
+            return;
+        }
+        LockKey key;
+        try {
+            key = new LockKey(parts[1], Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            logger.warn("Служба блокировок проектов: неизвестное уведомление «{}»", payload);
+            return;
+        }
+        if ("INSERT".equals(parts[0])) {
+            locks.put(key, new DatabaseManager.ActiveProjectLock(key.projectType(), key.projectId(), parts[3], parts[4]));
+        } else if ("DELETE".equals(parts[0])) {
+            // Удаляем только ту блокировку, о снятии которой пришло уведомление
+            locks.computeIfPresent(key, (k, lock) -> parts[3].equals(lock.sessionId()) ? null : lock);
+        }
+    }
+
+    private static void replaceAll(List<DatabaseManager.ActiveProjectLock> snapshot) {
+        locks.clear();
+        for (DatabaseManager.ActiveProjectLock lock : snapshot) {
+            locks.put(new LockKey(lock.projectType(), lock.projectId()), lock);
+        }
+        fireChanged();
+    }
+
+    /** Пачка уведомлений даёт одну перерисовку. */
+    private static void fireChanged() {
+        if (listeners.isEmpty() || !repaintQueued.compareAndSet(false, true)) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            repaintQueued.set(false);
+            listeners.forEach(Runnable::run);
+        });
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
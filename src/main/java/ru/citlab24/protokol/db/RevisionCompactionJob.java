@@ -0,0 +1,132 @@
+package ru.citlab24.protokol.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновое сжатие ревизий проектов по политике хранения из db.properties.
+ * Удаление ревизий необратимо, поэтому по умолчанию выключено — включается явно:
+ * <pre>
+ * db.retention.enabled=true
+ * db.retention.keepLast=10          последних ревизий в каждой линии проекта
+ * db.retention.milestoneMonths=0    месяцев с ежемесячными вехами (0 — бессрочно)
+ * db.retention.minAgeDays=30        более молодые ревизии не трогаются
+ * db.retention.intervalHours=24
+ * db.retention.vacuum=true          обычный VACUUM после удаления
+ * </pre>
+ * Между клиентами сжатие согласовано advisory-блокировкой: одновременно его выполняет только один.
+ */
+public final class RevisionCompactionJob {
+    private static final Logger logger = LoggerFactory.getLogger(RevisionCompactionJob.class);
+    /** Первый запуск — не сразу при старте, чтобы не мешать загрузке программы. */
+    private static final long INITIAL_DELAY_MINUTES = 10;
+
+    private final boolean enabled;
+    private final DatabaseManager.RetentionPolicy policy;
+    private final long intervalHours;
+    private final boolean vacuum;
+    private ScheduledExecutorService executor;
+
+    private RevisionCompactionJob(boolean enabled, DatabaseManager.RetentionPolicy policy,
+                                  long intervalHours, boolean vacuum) {
+        this.enabled = enabled;
+        this.policy = policy;
+        this.intervalHours = Math.max(1, intervalHours);
+        this.vacuum = vacuum;
+    }
+
+    /** Настройки из db.properties; при ошибке чтения сжатие выключено. */
+    public static RevisionCompactionJob fromConfig() {
+        try {
+            return fromProperties(DatabaseConfig.load());
+        } catch (Exception e) {
+            logger.warn("Не удалось прочитать настройки хранения ревизий, сжатие отключено", e);
+            return new RevisionCompactionJob(false, new DatabaseManager.RetentionPolicy(1, 0, 0), 24, false);
+        }
+    }
+
+    static RevisionCompactionJob fromProperties(Properties prop) {
+        boolean enabled = Boolean.parseBoolean(prop.getProperty("db.retention.enabled", "false"));
+        DatabaseManager.RetentionPolicy policy = new DatabaseManager.RetentionPolicy(
+                Math.max(1, intProperty(prop, "db.retention.keepLast", 10)),
+                intProperty(prop, "db.retention.milestoneMonths", 0),
+                intProperty(prop, "db.retention.minAgeDays", 30));
+        return new RevisionCompactionJob(enabled, policy,
+                intProperty(prop, "db.retention.intervalHours", 24),
+                Boolean.parseBoolean(prop.getProperty("db.retention.vacuum", "true")));
+    }
+
+    public synchronized void start() {
+        if (!enabled || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "revision-compaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runSafely,
+                INITIAL_DELAY_MINUTES, TimeUnit.HOURS.toMinutes(intervalHours), TimeUnit.MINUTES);
+        logger.info("Сжатие ревизий включено: {}, раз в {} ч", policy, intervalHours);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /** Один проход сжатия по зданиям и участкам; возвращает отчёты по обоим типам проектов. */
+    public List<DatabaseManager.CompactionReport> runOnce() throws Exception {
+        List<DatabaseManager.CompactionReport> reports = new ArrayList<>(2);
+        reports.add(DatabaseManager.compactBuildingRevisions(policy));
+        reports.add(DatabaseManager.compactAreaProjectRevisions(policy));
+        long deleted = 0;
+        for (DatabaseManager.CompactionReport report : reports) {
+            if (report.skipped()) {
+                logger.info("Сжатие ревизий {}: выполняется другим клиентом, пропущено", report.projectType());
+                continue;
+            }
+            deleted += report.revisionsDeleted();
+            logger.info("Сжатие ревизий {}: удалено ревизий {}, строк {}, освобождено ~{} КБ за {} мс",
+                    report.projectType(), report.revisionsDeleted(), report.rowsDeleted(),
+                    report.bytesReclaimed() / 1024, report.elapsedMs());
+        }
+        if (vacuum && deleted > 0) {
+            long started = System.nanoTime();
+            DatabaseManager.vacuumRevisionTables();
+            logger.info("VACUUM таблиц ревизий: {} мс", (System.nanoTime() - started) / 1_000_000);
+        }
+        return reports;
+    }
+
+    private void runSafely() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            logger.warn("Сжатие ревизий не выполнено", e);
+        }
+    }
+
+    private static int intProperty(Properties prop, String key, int defaultValue) {
+        String value = prop.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Некорректное значение {}={}, используется {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.citlab24.protokol.db;
+
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Соответствие ключей комнат вкладок строкам room одной ревизии здания.
+ * Строится по модели, в которой идентификаторы уже совпадают с БД (после загрузки или сохранения),
+ * поэтому запись по ключу не требует поиска комнаты соединением четырёх таблиц.
+ */
+final class RoomIdIndex {
+    static final RoomIdIndex EMPTY = new RoomIdIndex(Map.of(), Map.of());
+
+    record RoomRef(int roomId, int floorId) {
+    }
+
+    /** Ключ makeKey: sectionIndex|floorNumber|spaceIdentifier|roomName. */
+    private final Map<String, RoomRef> byKey;
+    /** Ключ makeStableRoomKey («Осв улица»). */
+    private final Map<String, RoomRef> byStableKey;
+
+    private RoomIdIndex(Map<String, RoomRef> byKey, Map<String, RoomRef> byStableKey) {
+        this.byKey = byKey;
+        this.byStableKey = byStableKey;
+    }
+
+    static RoomIdIndex of(Building building) {
+        return building == null ? EMPTY : of(building.getFloors());
+    }
+
+    static RoomIdIndex of(List<Floor> floors) {
+        if (floors == null || floors.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, RoomRef> byKey = new HashMap<>();
+        Map<String, RoomRef> byStableKey = new HashMap<>();
+        for (Floor floor : floors) {
+            if (floor.getId() <= 0) {
+                continue;
+            }
+            for (Space space : floor.getSpaces()) {
+                for (Room room : space.getRooms()) {
+                    if (room.getId() <= 0) {
+                        continue; // комната ещё не сохранена
+                    }
+                    RoomRef ref = new RoomRef(room.getId(), floor.getId());
+                    // При совпадающих ключах побеждает первая комната — как LIMIT 1 в прежнем поиске
+                    byKey.putIfAbsent(DatabaseManager.makeKey(floor, space, room), ref);
+                    byStableKey.putIfAbsent(DatabaseManager.makeStableRoomKey(floor, space, room), ref);
+                }
+            }
+        }
+        return new RoomIdIndex(byKey, byStableKey);
+    }
+
+    /** Тот же индекс после отделения этажей: ссылки переведены на новые строки room/floor. */
+    RoomIdIndex remap(IdRemap remap) {
+        if (remap == null || remap.isEmpty() || byKey.isEmpty()) {
+            return this;
+        }
+        return new RoomIdIndex(remap(byKey, remap), remap(byStableKey, remap));
+    }
+
+    private static Map<String, RoomRef> remap(Map<String, RoomRef> refs, IdRemap remap) {
+        Map<String, RoomRef> result = new HashMap<>(refs.size());
+        refs.forEach((key, ref) -> result.put(key, new RoomRef(remap.room(ref.roomId()), remap.floor(ref.floorId()))));
+        return result;
+    }
+
+    RoomRef byKey(String key) {
+        return key == null ? null : byKey.get(key);
+    }
+
+    RoomRef byStableKey(String key) {
+        return key == null ? null : byStableKey.get(key);
+    }
+}
@@ -1,8 +1,10 @@
 package ru.citlab24.protokol.db;
 
+import java.time.LocalDate;
+
 public class VlkDateRecord {
     private int id;
-    private String vlkDate;
+    private LocalDate vlkDate;
     private String responsible;
     private String eventName;
 
@@ -14,11 +16,11 @@ public class VlkDateRecord {
         this.id = id;
     }
 
-    public String getVlkDate() {
+    public LocalDate getVlkDate() {
         return vlkDate;
     }
 
-    public void setVlkDate(String vlkDate) {
+    public void setVlkDate(LocalDate vlkDate) {
         this.vlkDate = vlkDate;
     }
 
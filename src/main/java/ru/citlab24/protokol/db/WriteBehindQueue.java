@@ -0,0 +1,233 @@
+package ru.citlab24.protokol.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Отложенная запись интерактивных изменений (щелчков по галочкам) в БД.
+ * Повторные изменения одного ключа схлопываются до последнего значения, накопленное уходит
+ * одной пачкой по короткому таймеру; при временных сбоях соединения пачка возвращается в очередь
+ * и повторяется с паузой. Если запись не удалась окончательно (постоянная ошибка или исчерпаны
+ * попытки), пачка остаётся в очереди до следующего изменения или flush(), ожидающие flush()
+ * завершаются с этой ошибкой, а слушатель ошибок получает её в EDT.
+ * Число несохранённых изменений сообщается слушателю в EDT.
+ */
+public final class WriteBehindQueue<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+
+    @FunctionalInterface
+    public interface Flusher<K, V> {
+        /** Записывает пачку; при исключении пачка целиком считается незаписанной. */
+        void flush(Map<K, V> batch) throws Exception;
+    }
+
+    private final String name;
+    private final Flusher<K, V> flusher;
+    private final long delayMs;
+    private final int maxAttempts;
+    private final ScheduledExecutorService scheduler;
+
+    /** Ожидающие записи в порядке первого изменения. Доступ — под this. */
+    private final LinkedHashMap<K, V> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduled;
+    private boolean flushing;
+    private boolean flushRequested;
+    private int attempt;
+    private int inFlight;
+    private CompletableFuture<Void> idle = CompletableFuture.completedFuture(null);
+    private volatile IntConsumer pendingListener = count -> { };
+    private volatile Consumer<Exception> failureListener = error -> { };
+
+    public WriteBehindQueue(String name, long delayMs, int maxAttempts, Flusher<K, V> flusher) {
+        this.name = name;
+        this.flusher = flusher;
+        this.delayMs = delayMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Слушатель числа несохранённых изменений; вызывается в EDT. */
+    public void setPendingListener(IntConsumer listener) {
+        this.pendingListener = listener == null ? count -> { } : listener;
+        notifyPending();
+    }
+
+    /** Слушатель окончательной ошибки записи (изменения остались в очереди); вызывается в EDT. */
+    public void setFailureListener(Consumer<Exception> listener) {
+        this.failureListener = listener == null ? error -> { } : listener;
+    }
+
+    /** Ставит значение в очередь, заменяя ещё не записанное значение того же ключа. */
+    public synchronized void submit(K key, V value) {
+        pending.put(key, value);
+        if (idle.isDone()) {
+            idle = new CompletableFuture<>();
+        }
+        schedule(delayMs);
+        notifyPending();
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size() + inFlight;
+    }
+
+    /** Запускает запись немедленно; future завершается, когда очередь опустеет. */
+    public CompletableFuture<Void> flush() {
+        synchronized (this) {
+            if (pending.isEmpty() && inFlight == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (idle.isDone()) {
+                idle = new CompletableFuture<>(); // прошлый прогон завершился ошибкой
+            }
+            attempt = 0;
+            flushRequested = true;
+            schedule(0);
+            return idle;
+        }
+    }
+
+    /**
+     * Синхронно дописывает очередь (перед сохранением ревизии или закрытием окна).
+     * Возвращает false, если за отведённое время записать всё не удалось.
+     */
+    public boolean flushAndWait(long timeoutMs) {
+        try {
+            flush().get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            logger.warn("Очередь записи «{}»: не дописаны {} изменений", name, pendingCount());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            logger.warn("Очередь записи «{}»: ошибка при дописывании", name, e);
+            return false;
+        }
+    }
+
+    private void schedule(long delay) {
+        if (flushing) {
+            return; // по окончании текущей пачки очередь перепланируется сама
+        }
+        if (scheduled != null && !scheduled.isDone()) {
+            if (delay > 0) {
+                return; // таймер уже взведён — изменения уйдут той же пачкой
+            }
+            scheduled.cancel(false);
+        }
+        scheduled = scheduler.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() {
+        Map<K, V> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            inFlight = batch.size();
+            flushing = true;
+        }
+        Exception failure = null;
+        try {
+            flusher.flush(batch);
+        } catch (Exception e) {
+            failure = e;
+        }
+        CompletableFuture<Void> completed = null;
+        Exception finalFailure = null;
+        synchronized (this) {
+            flushing = false;
+            inFlight = 0;
+            if (failure != null) {
+                // Возвращаем пачку, не затирая значения, изменённые за время записи
+                LinkedHashMap<K, V> merged = new LinkedHashMap<>(batch);
+                merged.putAll(pending);
+                pending.clear();
+                pending.putAll(merged);
+            }
+            if (failure == null) {
+                attempt = 0;
+                if (!pending.isEmpty()) {
+                    scheduled = scheduler.schedule(this::drain, flushRequested ? 0 : delayMs, TimeUnit.MILLISECONDS);
+                } else {
+                    flushRequested = false;
+                    completed = idle;
+                }
+            } else if (isTransient(failure) && ++attempt < maxAttempts) {
+                long retryDelay = Math.min(MAX_RETRY_DELAY_MS, delayMs * (1L << Math.min(attempt, 10)));
+                logger.warn("Очередь записи «{}»: временная ошибка, попытка {} через {} мс",
+                        name, attempt, retryDelay, failure);
+                scheduled = scheduler.schedule(this::drain, retryDelay, TimeUnit.MILLISECONDS);
+            } else {
+                // Окончательная ошибка: изменения остаются в очереди, новый прогон —
+                // по следующему submit() или flush()
+                logger.error("Очередь записи «{}»: {} изменений не записаны, остаются в очереди",
+                        name, pending.size(), failure);
+                attempt = 0;
+                flushRequested = false;
+                if (scheduled != null && !scheduled.isDone()) {
+                    scheduled.cancel(false);
+                }
+                completed = idle;
+                finalFailure = failure;
+            }
+        }
+        if (completed != null) {
+            if (finalFailure == null) {
+                completed.complete(null);
+            } else {
+                completed.completeExceptionally(finalFailure);
+                Exception error = finalFailure;
+                Consumer<Exception> listener = failureListener;
+                SwingUtilities.invokeLater(() -> listener.accept(error));
+            }
+        }
+        notifyPending();
+    }
+
+    private static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null) {
+                String state = sql.getSQLState();
+                // 08 — соединение, 40 — откат транзакции (сериализация, взаимоблокировка), 57P — остановка сервера
+                if (state.startsWith("08") || state.startsWith("40") || state.startsWith("57P")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void notifyPending() {
+        int count = pendingCount();
+        IntConsumer listener = pendingListener;
+        SwingUtilities.invokeLater(() -> listener.accept(count));
+    }
+}
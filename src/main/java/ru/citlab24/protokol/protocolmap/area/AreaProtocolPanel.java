@@ -6,7 +6,9 @@ import org.kordamp.ikonli.fontawesome5.FontAwesomeSolid;
 import org.kordamp.ikonli.swing.FontIcon;
 import ru.citlab24.protokol.MainFrame;
 import ru.citlab24.protokol.db.AppUserRecord;
+import ru.citlab24.protokol.db.AsyncDatabase;
 import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.db.ProjectLockService;
 import ru.citlab24.protokol.requests.ApprovedContractSelector;
 import ru.citlab24.protokol.requests.ContractTemplateType;
 import ru.citlab24.protokol.tabs.titleTab.TechnicalAssignmentImporter;
@@ -29,8 +31,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.awt.image.BufferedImage;
 import java.awt.geom.Point2D;
@@ -53,6 +53,7 @@ public class AreaProtocolPanel extends JPanel {
     private static final String CUSTOMER_PLACEHOLDER = "Название, почта, телефон";
     private static final String PREF_SKETCH_DIR = "areaProtocolSketchDir";
     private static final Preferences PREFS = Preferences.userNodeForPackage(AreaProtocolPanel.class);
+    private static final int AREA_PROJECT_PAGE_SIZE = 50;
     private static final String NOISE_METHOD_MI_LABEL = "МИ Ш.13-2021";
     private static final String NOISE_METHOD_ECOFIZIKA_LABEL = "РЭ Экофизика-110А";
     private static final String NOISE_METHOD_MI = "МИ Ш.13-2021 \"Методика измерений шума, инфразвука, воздушного\n"
@@ -108,6 +109,10 @@ public class AreaProtocolPanel extends JPanel {
     private int loadedProjectRevision;
     private boolean projectReadOnly;
     private String projectLockOwner = "";
+    // Эскиз, уже сохранённый в БД: хеш и картинка, к которой он относится (null — картинка ещё грузится)
+    private String savedSketchHash;
+    private BufferedImage savedSketchImage;
+    private AsyncDatabase.Task<BufferedImage> sketchLoadTask;
 
     private static class MeasurementRow {
         JPanel panel;
@@ -127,7 +132,7 @@ public class AreaProtocolPanel extends JPanel {
         JTextField countField;
     }
 
-    private static final class AreaProjectSnapshot implements Serializable {
+    static final class AreaProjectSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         String protocolDate;
@@ -156,7 +161,10 @@ public class AreaProtocolPanel extends JPanel {
         boolean medSelected;
         boolean pprSelected;
         String imageName;
+        /** Картинка внутри снимка — только в старом формате; в новом вместо неё sketchHash. */
         byte[] imageBytes;
+        /** SHA-256 PNG эскиза в area_sketch. */
+        String sketchHash;
         int boundaryColorRgb = Color.BLACK.getRGB();
         int gammaControlPointScale = 100;
         int pprPointScale = 100;
@@ -170,7 +178,7 @@ public class AreaProtocolPanel extends JPanel {
         List<NoisePointSnapshot> noisePoints = new ArrayList<>();
     }
 
-    private static final class MedValueSnapshot implements Serializable {
+    static final class MedValueSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         int profileNumber;
@@ -180,7 +188,7 @@ public class AreaProtocolPanel extends JPanel {
         String count;
     }
 
-    private static final class MeasurementProjectRow implements Serializable {
+    static final class MeasurementProjectRow implements Serializable {
         private static final long serialVersionUID = 1L;
 
         String date;
@@ -193,7 +201,7 @@ public class AreaProtocolPanel extends JPanel {
         boolean noiseSelected;
     }
 
-    private static final class PointSnapshot implements Serializable {
+    static final class PointSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         double x;
@@ -205,7 +213,7 @@ public class AreaProtocolPanel extends JPanel {
         }
     }
 
-    private static final class GammaProfileSnapshot implements Serializable {
+    static final class GammaProfileSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         double x;
@@ -221,7 +229,7 @@ public class AreaProtocolPanel extends JPanel {
         }
     }
 
-    private static final class GammaControlPointSnapshot implements Serializable {
+    static final class GammaControlPointSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         double x;
@@ -235,7 +243,7 @@ public class AreaProtocolPanel extends JPanel {
         }
     }
 
-    private static final class PprPointSnapshot implements Serializable {
+    static final class PprPointSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         double x;
@@ -249,7 +257,7 @@ public class AreaProtocolPanel extends JPanel {
         }
     }
 
-    private static final class NoisePointSnapshot implements Serializable {
+    static final class NoisePointSnapshot implements Serializable {
         private static final long serialVersionUID = 1L;
 
         double x;
@@ -805,6 +813,13 @@ public class AreaProtocolPanel extends JPanel {
             return image;
         }
 
+        /** Картинка эскиза, догруженная после точек: точки и масштабы не сбрасываются. */
+        void setLoadedImage(BufferedImage loadedImage) {
+            image = loadedImage;
+            revalidate();
+            repaint();
+        }
+
         Color getBoundaryColor() {
             return boundaryColor;
         }
@@ -3102,13 +3117,22 @@ public class AreaProtocolPanel extends JPanel {
 
         String savedName = generateAreaProjectVersionName(projectName);
         try {
+            AreaProjectSnapshot snapshot = createAreaProjectSnapshot(savedName);
+            BufferedImage sketchImage = sketchPreviewPanel.getImage();
+            byte[] newSketch = prepareSketchForSave(snapshot, sketchImage);
             int savedProjectId = DatabaseManager.saveAreaProjectVersion(
                     savedName,
-                    serializeAreaProjectSnapshot(createAreaProjectSnapshot(savedName)),
+                    AreaSnapshotCodec.encode(snapshot),
+                    snapshot.sketchHash,
+                    newSketch,
                     loadedProjectId,
                     loadedProjectRevision,
                     editSessionId
             );
+            if (newSketch != null) {
+                savedSketchHash = snapshot.sketchHash;
+                savedSketchImage = sketchImage;
+            }
             releasePreviousProjectLock(savedProjectId);
             loadedProjectId = savedProjectId;
             loadedProjectRevision = loadedProjectRevision > 0 ? loadedProjectRevision + 1 : 1;
@@ -3130,8 +3154,9 @@ public class AreaProtocolPanel extends JPanel {
 
     private void loadAreaProject() {
         try {
-            List<DatabaseManager.AreaProjectInfo> projects = DatabaseManager.getAllAreaProjects();
-            if (projects.isEmpty()) {
+            DatabaseManager.ProjectPage<DatabaseManager.AreaProjectInfo> projects =
+                    DatabaseManager.getLatestAreaProjects(null, 0, AREA_PROJECT_PAGE_SIZE);
+            if (projects.items().isEmpty()) {
                 JOptionPane.showMessageDialog(this,
                         "Нет сохраненных проектов участков.",
                         "Загрузить проект",
@@ -3162,7 +3187,7 @@ public class AreaProtocolPanel extends JPanel {
                 if (snapshotBytes == null || snapshotBytes.length == 0) {
                     throw new IOException("Проект участка пустой или поврежден.");
                 }
-                applyAreaProjectSnapshot(deserializeAreaProjectSnapshot(snapshotBytes), selectedProject.getName());
+                applyAreaProjectSnapshot(AreaSnapshotCodec.decode(snapshotBytes), selectedProject.getName());
             } catch (IOException | ClassNotFoundException | SQLException ex) {
                 if (!alreadyOwned && lockInfo != null && lockInfo.isEditable()) {
                     DatabaseManager.releaseProjectLock(
@@ -3221,7 +3246,6 @@ public class AreaProtocolPanel extends JPanel {
         snapshot.medSelected = medCheckBox.isSelected();
         snapshot.pprSelected = pprCheckBox.isSelected();
         snapshot.imageName = imageFile == null ? imageLabel.getText() : imageFile.getName();
-        snapshot.imageBytes = encodeSketchImage();
         snapshot.boundaryColorRgb = sketchPreviewPanel.getBoundaryColor().getRGB();
         snapshot.gammaControlPointScale = sketchPreviewPanel.getGammaControlPointScale();
         snapshot.pprPointScale = sketchPreviewPanel.getPprPointScale();
@@ -3263,7 +3287,14 @@ public class AreaProtocolPanel extends JPanel {
         pprCheckBox.setSelected(snapshot.pprSelected);
         applyMeasurementProjectRows(snapshot.measurementRows);
 
+        // Старый снимок несёт картинку в себе; в новом она догружается по хешу после формы
         BufferedImage loadedImage = decodeSketchImage(snapshot.imageBytes);
+        if (sketchLoadTask != null) {
+            sketchLoadTask.cancel();
+            sketchLoadTask = null;
+        }
+        savedSketchHash = loadedImage == null ? snapshot.sketchHash : null;
+        savedSketchImage = null;
         imageFile = null;
         imageLabel.setText(snapshot.imageName == null || snapshot.imageName.isBlank()
                 ? "Картинка не выбрана"
@@ -3280,6 +3311,53 @@ public class AreaProtocolPanel extends JPanel {
         if (noisePointSizeSlider != null) {
             noisePointSizeSlider.setValue(sketchPreviewPanel.getNoisePointScale());
         }
+        if (loadedImage == null && savedSketchHash != null) {
+            loadSketchLazily(savedSketchHash);
+        }
+    }
+
+    private void loadSketchLazily(String hash) {
+        AsyncDatabase.Task<BufferedImage> task = AsyncDatabase.supply(() -> {
+            byte[] png = DatabaseManager.loadAreaSketch(hash);
+            if (png == null) {
+                throw new IOException("Эскиз не найден в базе данных.");
+            }
+            return decodeSketchImage(png);
+        });
+        sketchLoadTask = task;
+        task.onEdt(image -> {
+            sketchLoadTask = null;
+            // Пользователь мог уже выбрать другую картинку — её не перезаписываем
+            if (image != null && sketchPreviewPanel.getImage() == null && hash.equals(savedSketchHash)) {
+                savedSketchImage = image;
+                sketchPreviewPanel.setLoadedImage(image);
+            }
+        }, ex -> {
+            sketchLoadTask = null;
+            JOptionPane.showMessageDialog(this,
+                    "Не удалось загрузить эскиз: " + ex.getMessage(),
+                    "Загрузить проект",
+                    JOptionPane.WARNING_MESSAGE);
+        });
+    }
+
+    /**
+     * Заполняет snapshot.sketchHash и возвращает PNG, если картинки ещё нет в БД.
+     * Неизменённый (или ещё не догруженный) эскиз повторно не кодируется и не пересылается.
+     */
+    private byte[] prepareSketchForSave(AreaProjectSnapshot snapshot, BufferedImage image) throws IOException {
+        if (image == null) {
+            boolean stillLoading = savedSketchHash != null && savedSketchImage == null;
+            snapshot.sketchHash = stillLoading ? savedSketchHash : null;
+            return null;
+        }
+        if (image == savedSketchImage && savedSketchHash != null) {
+            snapshot.sketchHash = savedSketchHash;
+            return null;
+        }
+        byte[] png = encodeSketchImage();
+        snapshot.sketchHash = AreaSnapshotCodec.sketchHash(png);
+        return png;
     }
 
     private void selectNoiseMethod(String method) {
@@ -3301,72 +3379,108 @@ public class AreaProtocolPanel extends JPanel {
         noiseMethodComboBox.setSelectedItem(NOISE_METHOD_MI_LABEL);
     }
 
-    private byte[] serializeAreaProjectSnapshot(AreaProjectSnapshot snapshot) throws IOException {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
-            output.writeObject(snapshot);
-        }
-        return bytes.toByteArray();
-    }
-
-    private AreaProjectSnapshot deserializeAreaProjectSnapshot(byte[] snapshotBytes)
-            throws IOException, ClassNotFoundException {
-        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(snapshotBytes))) {
-            Object object = input.readObject();
-            if (!(object instanceof AreaProjectSnapshot)) {
-                throw new IOException("Данные не являются проектом участка.");
-            }
-            return (AreaProjectSnapshot) object;
-        }
-    }
-
-    private DatabaseManager.AreaProjectInfo pickAreaProject(List<DatabaseManager.AreaProjectInfo> projects) {
+    /**
+     * Выбор проекта участка: последние ревизии страницами (подгрузка при прокрутке),
+     * поиск по имени в БД и история ревизий выбранного проекта по кнопке.
+     */
+    private DatabaseManager.AreaProjectInfo pickAreaProject(
+            DatabaseManager.ProjectPage<DatabaseManager.AreaProjectInfo> firstPage) {
         Window owner = SwingUtilities.getWindowAncestor(this);
         JDialog dialog = new JDialog(owner, "Загрузить проект участка", Dialog.ModalityType.APPLICATION_MODAL);
-        dialog.setSize(520, 420);
+        dialog.setSize(520, 460);
         dialog.setLocationRelativeTo(this);
         dialog.setLayout(new BorderLayout(10, 10));
 
         DefaultListModel<DatabaseManager.AreaProjectInfo> model = new DefaultListModel<>();
-        for (DatabaseManager.AreaProjectInfo project : projects) {
-            model.addElement(project);
-        }
         JList<DatabaseManager.AreaProjectInfo> list = new JList<>(model);
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         list.setFixedCellHeight(46);
-        list.setCellRenderer(new DefaultListCellRenderer() {
+        list.setCellRenderer(new AreaProjectRenderer(false));
+        Runnable lockListener = list::repaint;
+        ProjectLockService.addListener(lockListener);
+
+        // Курсор следующей страницы и текущий поиск
+        final int[] nextBeforeId = {0};
+        final String[] search = {""};
+        java.util.function.Consumer<DatabaseManager.ProjectPage<DatabaseManager.AreaProjectInfo>> append = page -> {
+            for (DatabaseManager.AreaProjectInfo project : page.items()) {
+                model.addElement(project);
+            }
+            nextBeforeId[0] = page.nextBeforeId();
+        };
+        java.util.function.IntConsumer loadPage = beforeId -> {
+            try {
+                append.accept(DatabaseManager.getLatestAreaProjects(search[0], beforeId, AREA_PROJECT_PAGE_SIZE));
+            } catch (SQLException ex) {
+                nextBeforeId[0] = 0;
+                JOptionPane.showMessageDialog(dialog,
+                        "Ошибка загрузки проектов: " + ex.getMessage(),
+                        "Ошибка",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        append.accept(firstPage);
+
+        JTextField searchField = new JTextField();
+        Timer searchTimer = new Timer(300, e -> {
+            String text = searchField.getText().trim();
+            if (text.equals(search[0])) {
+                return;
+            }
+            search[0] = text;
+            model.clear();
+            loadPage.accept(0);
+        });
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                          boolean isSelected, boolean cellHasFocus) {
-                Component component = super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                if (value instanceof DatabaseManager.AreaProjectInfo) {
-                    DatabaseManager.AreaProjectInfo project = (DatabaseManager.AreaProjectInfo) value;
-                    String author = project.getCreatedBy() == null || project.getCreatedBy().isBlank()
-                            ? "автор не указан"
-                            : project.getCreatedBy();
-                    String date = shortProjectDate(project.getCreatedAt());
-                    String lock = project.getLockOwner() == null || project.getLockOwner().isBlank()
-                            ? ""
-                            : " · редактирует: " + project.getLockOwner();
-                    setText("<html><b>" + escapeProjectHtml(project.getName()) + "</b><br>"
-                            + escapeProjectHtml(author + (date.isBlank() ? "" : " · " + date) + lock)
-                            + "</html>");
-                }
-                return component;
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
             }
         });
-        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+        JPanel searchPanel = new JPanel(new BorderLayout(6, 0));
+        searchPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 0, 8));
+        searchPanel.add(new JLabel("Поиск:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        dialog.add(searchPanel, BorderLayout.NORTH);
+
+        JScrollPane scroll = new JScrollPane(list);
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (!e.getValueIsAdjusting() && nextBeforeId[0] > 0
+                    && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight()) {
+                int beforeId = nextBeforeId[0];
+                nextBeforeId[0] = 0; // не запрашивать ту же страницу повторно
+                SwingUtilities.invokeLater(() -> loadPage.accept(beforeId));
+            }
+        });
+        dialog.add(scroll, BorderLayout.CENTER);
 
         final DatabaseManager.AreaProjectInfo[] selectedProject = new DatabaseManager.AreaProjectInfo[1];
+        // Удаление идёт в фоне; пока оно не завершилось, кнопка удаления выключена
+        final boolean[] deleting = new boolean[1];
+        JButton historyButton = new JButton("История...");
         JButton deleteButton = new JButton("Удалить...");
         JButton okButton = new JButton("ОК");
         JButton cancelButton = new JButton("Отмена");
+        historyButton.setEnabled(false);
         deleteButton.setEnabled(false);
         okButton.setEnabled(false);
 
         list.addListSelectionListener(e -> {
             boolean hasSelection = !list.isSelectionEmpty();
-            deleteButton.setEnabled(hasSelection);
+            historyButton.setEnabled(hasSelection);
+            deleteButton.setEnabled(hasSelection && !deleting[0]);
             okButton.setEnabled(hasSelection);
         });
         list.addMouseListener(new MouseAdapter() {
@@ -3379,7 +3493,14 @@ public class AreaProtocolPanel extends JPanel {
             }
         });
 
-        deleteButton.addActionListener(e -> deleteSelectedAreaProject(dialog, model, list));
+        historyButton.addActionListener(e -> {
+            DatabaseManager.AreaProjectInfo picked = pickAreaProjectRevision(dialog, list.getSelectedValue());
+            if (picked != null) {
+                selectedProject[0] = picked;
+                dialog.dispose();
+            }
+        });
+        deleteButton.addActionListener(e -> deleteSelectedAreaProject(dialog, model, list, deleteButton, deleting));
         okButton.addActionListener(e -> {
             selectedProject[0] = list.getSelectedValue();
             dialog.dispose();
@@ -3387,19 +3508,114 @@ public class AreaProtocolPanel extends JPanel {
         cancelButton.addActionListener(e -> dialog.dispose());
 
         JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(historyButton);
         buttons.add(deleteButton);
         buttons.add(okButton);
         buttons.add(cancelButton);
         dialog.add(buttons, BorderLayout.SOUTH);
 
         dialog.setVisible(true);
+        searchTimer.stop();
+        ProjectLockService.removeListener(lockListener);
         return selectedProject[0];
     }
 
+    /** История ревизий проекта участка (загружается только по запросу). */
+    private DatabaseManager.AreaProjectInfo pickAreaProjectRevision(JDialog owner,
+                                                                    DatabaseManager.AreaProjectInfo head) {
+        if (head == null) {
+            return null;
+        }
+        List<DatabaseManager.AreaProjectInfo> history;
+        try {
+            history = DatabaseManager.getAreaProjectHistory(head.getId());
+        } catch (SQLException ex) {
+            JOptionPane.showMessageDialog(owner,
+                    "Ошибка загрузки истории: " + ex.getMessage(),
+                    "Ошибка",
+                    JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        JDialog dialog = new JDialog(owner, "История ревизий: " + head.getName(), Dialog.ModalityType.APPLICATION_MODAL);
+        dialog.setSize(480, 380);
+        dialog.setLocationRelativeTo(owner);
+        dialog.setLayout(new BorderLayout(10, 10));
+
+        DefaultListModel<DatabaseManager.AreaProjectInfo> model = new DefaultListModel<>();
+        for (DatabaseManager.AreaProjectInfo project : history) {
+            model.addElement(project);
+        }
+        JList<DatabaseManager.AreaProjectInfo> list = new JList<>(model);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFixedCellHeight(46);
+        list.setCellRenderer(new AreaProjectRenderer(true));
+        if (!model.isEmpty()) {
+            list.setSelectedIndex(0);
+        }
+        Runnable lockListener = list::repaint;
+        ProjectLockService.addListener(lockListener);
+        dialog.add(new JScrollPane(list), BorderLayout.CENTER);
+
+        final DatabaseManager.AreaProjectInfo[] picked = new DatabaseManager.AreaProjectInfo[1];
+        JButton openButton = new JButton("Открыть");
+        JButton cancelButton = new JButton("Отмена");
+        openButton.addActionListener(e -> {
+            picked[0] = list.getSelectedValue();
+            dialog.dispose();
+        });
+        cancelButton.addActionListener(e -> dialog.dispose());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && !list.isSelectionEmpty()) {
+                    picked[0] = list.getSelectedValue();
+                    dialog.dispose();
+                }
+            }
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(openButton);
+        buttons.add(cancelButton);
+        dialog.add(buttons, BorderLayout.SOUTH);
+
+        dialog.setVisible(true);
+        ProjectLockService.removeListener(lockListener);
+        return picked[0];
+    }
+
+    private static final class AreaProjectRenderer extends DefaultListCellRenderer {
+        private final boolean showRevision;
+
+        private AreaProjectRenderer(boolean showRevision) {
+            this.showRevision = showRevision;
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            Component component = super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            if (value instanceof DatabaseManager.AreaProjectInfo) {
+                DatabaseManager.AreaProjectInfo project = (DatabaseManager.AreaProjectInfo) value;
+                String author = project.getCreatedBy() == null || project.getCreatedBy().isBlank()
+                        ? "автор не указан"
+                        : project.getCreatedBy();
+                String date = shortProjectDate(project.getCreatedAt());
+                String owner = ProjectLockService.ownerLabel(DatabaseManager.PROJECT_TYPE_AREA, project.getId());
+                String lock = owner == null ? "" : " · редактирует: " + owner;
+                String revision = showRevision ? "ревизия " + project.getRevision() + " · " : "";
+                setText("<html><b>" + escapeProjectHtml(project.getName()) + "</b><br>"
+                        + escapeProjectHtml(revision + author + (date.isBlank() ? "" : " · " + date) + lock)
+                        + "</html>");
+            }
+            return component;
+        }
+    }
+
     private void deleteSelectedAreaProject(JDialog dialog,
                                            DefaultListModel<DatabaseManager.AreaProjectInfo> model,
-                                           JList<DatabaseManager.AreaProjectInfo> list) {
-        if (list.isSelectionEmpty()) {
+                                           JList<DatabaseManager.AreaProjectInfo> list,
+                                           JButton deleteButton, boolean[] deleting) {
+        if (list.isSelectionEmpty() || deleting[0]) {
             return;
         }
         DatabaseManager.AreaProjectInfo project = list.getSelectedValue();
@@ -3413,8 +3629,16 @@ public class AreaProtocolPanel extends JPanel {
         if (answer != JOptionPane.YES_OPTION) {
             return;
         }
-        try {
-            DatabaseManager.deleteAreaProject(project.getId(), editSessionId);
+        deleting[0] = true;
+        deleteButton.setEnabled(false);
+        dialog.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        Runnable finish = () -> {
+            deleting[0] = false;
+            dialog.setCursor(Cursor.getDefaultCursor());
+            deleteButton.setEnabled(!list.isSelectionEmpty());
+        };
+        AsyncDatabase.run(() -> DatabaseManager.deleteAreaProject(project.getId(), editSessionId)).onEdt(done -> {
+            finish.run();
             if (project.getId() == loadedProjectId) {
                 loadedProjectId = 0;
                 loadedProjectRevision = 0;
@@ -3422,21 +3646,27 @@ public class AreaProtocolPanel extends JPanel {
                 projectLockOwner = "";
                 notifyProjectStatus();
             }
-            int index = list.getSelectedIndex();
-            model.remove(index);
-            if (!model.isEmpty()) {
-                list.setSelectedIndex(Math.min(index, model.getSize() - 1));
+            // Пока шло удаление, выбор мог смениться — ищем элемент по id
+            for (int index = 0; index < model.getSize(); index++) {
+                if (model.get(index).getId() == project.getId()) {
+                    model.remove(index);
+                    if (!model.isEmpty()) {
+                        list.setSelectedIndex(Math.min(index, model.getSize() - 1));
+                    }
+                    break;
+                }
             }
             JOptionPane.showMessageDialog(dialog,
                     "Проект удален.",
                     "Готово",
                     JOptionPane.INFORMATION_MESSAGE);
-        } catch (SQLException ex) {
+        }, ex -> {
+            finish.run();
             JOptionPane.showMessageDialog(dialog,
                     "Ошибка удаления: " + ex.getMessage(),
                     "Ошибка",
                     JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private static String shortProjectDate(String value) {
@@ -3469,8 +3699,8 @@ public class AreaProtocolPanel extends JPanel {
         try {
             Pattern versionPattern = Pattern.compile("^" + Pattern.quote(cleanBaseName)
                     + "(?: ред\\.(\\d+) (\\d{2}\\.\\d{2}\\.\\d{4}))?$");
-            return DatabaseManager.getAllAreaProjects().stream()
-                    .map(project -> versionPattern.matcher(project.getName()))
+            return DatabaseManager.findAreaProjectNames(cleanBaseName).stream()
+                    .map(versionPattern::matcher)
                     .filter(Matcher::find)
                     .mapToInt(matcher -> matcher.group(1) != null ? Integer.parseInt(matcher.group(1)) : 1)
                     .max()
@@ -3669,6 +3899,11 @@ public class AreaProtocolPanel extends JPanel {
             if (image == null) {
                 throw new IOException("Файл не является изображением.");
             }
+            if (sketchLoadTask != null) {
+                sketchLoadTask.cancel();
+                sketchLoadTask = null;
+            }
+            savedSketchHash = null;
             imageFile = selectedFile;
             imageLabel.setText(imageFile.getName());
             sketchPreviewPanel.setImage(image);
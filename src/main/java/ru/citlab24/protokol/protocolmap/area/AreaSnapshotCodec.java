@@ -0,0 +1,310 @@
+package ru.citlab24.protokol.protocolmap.area;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Формат снимка проекта участка в area_project.snapshot.
+ * <p>
+ * Версия 2: сигнатура «APSN», байт версии и сжатые deflate поля формы и точек эскиза.
+ * Картинка эскиза в снимок не входит — только её SHA-256; сами PNG хранятся один раз в area_sketch
+ * и общие для всех ревизий. Старые снимки (Java-сериализация с картинкой внутри) по-прежнему читаются.
+ */
+final class AreaSnapshotCodec {
+    private static final byte[] MAGIC = {'A', 'P', 'S', 'N'};
+    private static final int CURRENT_VERSION = 2;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+    private AreaSnapshotCodec() {
+    }
+
+    static byte[] encode(AreaProtocolPanel.AreaProjectSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        bytes.write(MAGIC);
+        bytes.write(CURRENT_VERSION);
+        try (DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION)))) {
+            writeString(out, snapshot.protocolDate);
+            writeString(out, snapshot.projectName);
+            writeString(out, snapshot.customerNameAndContacts);
+            writeString(out, snapshot.customerLegalAddress);
+            writeString(out, snapshot.customerActualAddress);
+            writeString(out, snapshot.objectName);
+            writeString(out, snapshot.objectAddress);
+            writeString(out, snapshot.contractNumber);
+            writeString(out, snapshot.contractDate);
+            writeString(out, snapshot.applicationNumber);
+            writeString(out, snapshot.applicationDate);
+            writeString(out, snapshot.representative);
+            writeString(out, snapshot.areaText);
+            writeString(out, snapshot.gammaMinValue);
+            writeString(out, snapshot.gammaMaxValue);
+            writeString(out, snapshot.gammaAverageValue);
+            writeString(out, snapshot.pprMinValue);
+            writeString(out, snapshot.pprMaxValue);
+            writeString(out, snapshot.noiseEquivalentMinValue);
+            writeString(out, snapshot.noiseEquivalentMaxValue);
+            writeString(out, snapshot.noiseMaxLevelMinValue);
+            writeString(out, snapshot.noiseMaxLevelMaxValue);
+            writeString(out, snapshot.noiseMethod);
+            out.writeBoolean(snapshot.medSelected);
+            out.writeBoolean(snapshot.pprSelected);
+            writeString(out, snapshot.imageName);
+            writeString(out, snapshot.sketchHash);
+            out.writeInt(snapshot.boundaryColorRgb);
+            out.writeInt(snapshot.gammaControlPointScale);
+            out.writeInt(snapshot.pprPointScale);
+            out.writeInt(snapshot.noisePointScale);
+
+            writeCount(out, snapshot.medValues);
+            if (snapshot.medValues != null) {
+                for (AreaProtocolPanel.MedValueSnapshot value : snapshot.medValues) {
+                    out.writeInt(value.profileNumber);
+                    writeString(out, value.minValue);
+                    writeString(out, value.maxValue);
+                    writeString(out, value.distance);
+                    writeString(out, value.count);
+                }
+            }
+            writeCount(out, snapshot.measurementRows);
+            if (snapshot.measurementRows != null) {
+                for (AreaProtocolPanel.MeasurementProjectRow row : snapshot.measurementRows) {
+                    writeString(out, row.date);
+                    writeString(out, row.tempInsideStart);
+                    writeString(out, row.tempInsideEnd);
+                    writeString(out, row.tempOutsideStart);
+                    writeString(out, row.tempOutsideEnd);
+                    out.writeBoolean(row.gammaSelected);
+                    out.writeBoolean(row.pprSelected);
+                    out.writeBoolean(row.noiseSelected);
+                }
+            }
+            writeCount(out, snapshot.boundaryPoints);
+            if (snapshot.boundaryPoints != null) {
+                for (AreaProtocolPanel.PointSnapshot point : snapshot.boundaryPoints) {
+                    out.writeDouble(point.x);
+                    out.writeDouble(point.y);
+                }
+            }
+            writeCount(out, snapshot.gammaProfiles);
+            if (snapshot.gammaProfiles != null) {
+                for (AreaProtocolPanel.GammaProfileSnapshot profile : snapshot.gammaProfiles) {
+                    out.writeDouble(profile.x);
+                    out.writeDouble(profile.y);
+                    out.writeDouble(profile.angle);
+                    writeString(out, profile.number);
+                }
+            }
+            writeCount(out, snapshot.gammaControlPoints);
+            if (snapshot.gammaControlPoints != null) {
+                for (AreaProtocolPanel.GammaControlPointSnapshot point : snapshot.gammaControlPoints) {
+                    writeNumberedPoint(out, point.x, point.y, point.number);
+                }
+            }
+            writeCount(out, snapshot.pprPoints);
+            if (snapshot.pprPoints != null) {
+                for (AreaProtocolPanel.PprPointSnapshot point : snapshot.pprPoints) {
+                    writeNumberedPoint(out, point.x, point.y, point.number);
+                }
+            }
+            writeCount(out, snapshot.noisePoints);
+            if (snapshot.noisePoints != null) {
+                for (AreaProtocolPanel.NoisePointSnapshot point : snapshot.noisePoints) {
+                    writeNumberedPoint(out, point.x, point.y, point.number);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Читает снимок любой версии; у старых снимков картинка остаётся в imageBytes. */
+    static AreaProtocolPanel.AreaProjectSnapshot decode(byte[] data) throws IOException, ClassNotFoundException {
+        if (data == null || data.length < MAGIC.length + 1) {
+            throw new IOException("Проект участка пустой или поврежден.");
+        }
+        if (Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            int version = data[MAGIC.length] & 0xFF;
+            if (version != CURRENT_VERSION) {
+                throw new IOException("Неподдерживаемая версия проекта участка: " + version
+                        + ". Обновите программу.");
+            }
+            InputStream body = new ByteArrayInputStream(data, MAGIC.length + 1, data.length - MAGIC.length - 1);
+            try (DataInputStream in = new DataInputStream(new InflaterInputStream(body))) {
+                return readVersion2(in);
+            }
+        }
+        if (((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) == JAVA_SERIALIZATION_MAGIC) {
+            return decodeLegacy(data);
+        }
+        throw new IOException("Данные не являются проектом участка.");
+    }
+
+    /** SHA-256 картинки эскиза — её ключ в area_sketch. */
+    static String sketchHash(byte[] png) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(png));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static AreaProtocolPanel.AreaProjectSnapshot readVersion2(DataInputStream in) throws IOException {
+        AreaProtocolPanel.AreaProjectSnapshot snapshot = new AreaProtocolPanel.AreaProjectSnapshot();
+        snapshot.protocolDate = readString(in);
+        snapshot.projectName = readString(in);
+        snapshot.customerNameAndContacts = readString(in);
+        snapshot.customerLegalAddress = readString(in);
+        snapshot.customerActualAddress = readString(in);
+        snapshot.objectName = readString(in);
+        snapshot.objectAddress = readString(in);
+        snapshot.contractNumber = readString(in);
+        snapshot.contractDate = readString(in);
+        snapshot.applicationNumber = readString(in);
+        snapshot.applicationDate = readString(in);
+        snapshot.representative = readString(in);
+        snapshot.areaText = readString(in);
+        snapshot.gammaMinValue = readString(in);
+        snapshot.gammaMaxValue = readString(in);
+        snapshot.gammaAverageValue = readString(in);
+        snapshot.pprMinValue = readString(in);
+        snapshot.pprMaxValue = readString(in);
+        snapshot.noiseEquivalentMinValue = readString(in);
+        snapshot.noiseEquivalentMaxValue = readString(in);
+        snapshot.noiseMaxLevelMinValue = readString(in);
+        snapshot.noiseMaxLevelMaxValue = readString(in);
+        snapshot.noiseMethod = readString(in);
+        snapshot.medSelected = in.readBoolean();
+        snapshot.pprSelected = in.readBoolean();
+        snapshot.imageName = readString(in);
+        snapshot.sketchHash = readString(in);
+        snapshot.boundaryColorRgb = in.readInt();
+        snapshot.gammaControlPointScale = in.readInt();
+        snapshot.pprPointScale = in.readInt();
+        snapshot.noisePointScale = in.readInt();
+
+        int count = readCount(in);
+        snapshot.medValues = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AreaProtocolPanel.MedValueSnapshot value = new AreaProtocolPanel.MedValueSnapshot();
+            value.profileNumber = in.readInt();
+            value.minValue = readString(in);
+            value.maxValue = readString(in);
+            value.distance = readString(in);
+            value.count = readString(in);
+            snapshot.medValues.add(value);
+        }
+        count = readCount(in);
+        snapshot.measurementRows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            AreaProtocolPanel.MeasurementProjectRow row = new AreaProtocolPanel.MeasurementProjectRow();
+            row.date = readString(in);
+            row.tempInsideStart = readString(in);
+            row.tempInsideEnd = readString(in);
+            row.tempOutsideStart = readString(in);
+            row.tempOutsideEnd = readString(in);
+            row.gammaSelected = in.readBoolean();
+            row.pprSelected = in.readBoolean();
+            row.noiseSelected = in.readBoolean();
+            snapshot.measurementRows.add(row);
+        }
+        count = readCount(in);
+        snapshot.boundaryPoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshot.boundaryPoints.add(new AreaProtocolPanel.PointSnapshot(in.readDouble(), in.readDouble()));
+        }
+        count = readCount(in);
+        snapshot.gammaProfiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshot.gammaProfiles.add(new AreaProtocolPanel.GammaProfileSnapshot(
+                    in.readDouble(), in.readDouble(), in.readDouble(), readString(in)));
+        }
+        count = readCount(in);
+        snapshot.gammaControlPoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshot.gammaControlPoints.add(new AreaProtocolPanel.GammaControlPointSnapshot(
+                    in.readDouble(), in.readDouble(), readString(in)));
+        }
+        count = readCount(in);
+        snapshot.pprPoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshot.pprPoints.add(new AreaProtocolPanel.PprPointSnapshot(
+                    in.readDouble(), in.readDouble(), readString(in)));
+        }
+        count = readCount(in);
+        snapshot.noisePoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshot.noisePoints.add(new AreaProtocolPanel.NoisePointSnapshot(
+                    in.readDouble(), in.readDouble(), readString(in)));
+        }
+        return snapshot;
+    }
+
+    private static AreaProtocolPanel.AreaProjectSnapshot decodeLegacy(byte[] data)
+            throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            Object object = input.readObject();
+            if (!(object instanceof AreaProtocolPanel.AreaProjectSnapshot)) {
+                throw new IOException("Данные не являются проектом участка.");
+            }
+            return (AreaProtocolPanel.AreaProjectSnapshot) object;
+        }
+    }
+
+    private static void writeNumberedPoint(DataOutputStream out, double x, double y, String number)
+            throws IOException {
+        out.writeDouble(x);
+        out.writeDouble(y);
+        writeString(out, number);
+    }
+
+    private static void writeCount(DataOutputStream out, List<?> list) throws IOException {
+        out.writeInt(list == null ? 0 : list.size());
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 1_000_000) {
+            throw new IOException("Проект участка поврежден: неверное число элементов " + count);
+        }
+        return count;
+    }
+
+    /** Длина в байтах UTF-8 и байты; -1 — null (writeUTF ограничен 64 КБ). */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > 64 * 1024 * 1024) {
+            throw new IOException("Проект участка поврежден: неверная длина строки " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
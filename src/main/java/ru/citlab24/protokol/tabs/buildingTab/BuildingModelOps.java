@@ -110,13 +110,7 @@ public final class BuildingModelOps {
     }
 
     public Floor findFloorForSpace(Space s) {
-        if (s == null) return null;
-        for (Floor f : building.getFloors()) {
-            for (Space each : f.getSpaces()) {
-                if (each == s) return f;
-            }
-        }
-        return null;
+        return building.getHierarchy().floorOf(s);
     }
 
     public boolean isApartmentSpace(Space s) {
@@ -339,6 +333,30 @@ public final class BuildingModelOps {
         return copy;
     }
 
+    /** Копия всего здания для новой редакции: этажи с сохранением id и отметок (см. createFloorCopyPreserve). */
+    public Building createBuildingCopy() {
+        Building copy = new Building();
+        copy.setName(building.getName());
+        copy.setTitlePageData(building.getTitlePageData().copy());
+
+        // копируем секции
+        List<Section> copiedSections = new ArrayList<>();
+        for (Section s : building.getSections()) {
+            Section cs = new Section();
+            cs.setName(s.getName());
+            cs.setPosition(s.getPosition());
+            copiedSections.add(cs);
+        }
+        copy.setSections(copiedSections);
+
+        // этажи — с сохранением selected и id
+        for (Floor originalFloor : building.getFloors()) {
+            Floor floorCopy = createFloorCopyPreserve(originalFloor);
+            copy.addFloor(floorCopy);
+        }
+        return copy;
+    }
+
     public void updateSpaceIdentifiers(Floor floor, String newFloorDigits) {
         for (Space space : floor.getSpaces()) {
             String newId = updateIdentifier(space.getIdentifier(), newFloorDigits);
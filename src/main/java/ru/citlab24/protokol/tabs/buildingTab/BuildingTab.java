@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.citlab24.protokol.MainFrame;
 import ru.citlab24.protokol.db.AppUserRecord;
+import ru.citlab24.protokol.db.AsyncDatabase;
 import ru.citlab24.protokol.db.DatabaseManager;
 import ru.citlab24.protokol.db.ProjectFileService;
 import ru.citlab24.protokol.export.AllExcelExporter;
@@ -56,6 +57,8 @@ public class BuildingTab extends JPanel {
     private static final Font HEADER_FONT =
             UIManager.getFont("Label.font").deriveFont(Font.PLAIN, 15f);
     private static final Dimension BUTTON_PANEL_SIZE = new Dimension(5, 5);
+    /** Сколько ждать дописывания отложенных изменений вкладок перед сохранением ревизии. */
+    private static final long PENDING_WRITES_TIMEOUT_MS = 10_000;
 
     private Building building;
     private BuildingModelOps ops;
@@ -65,6 +68,8 @@ public class BuildingTab extends JPanel {
     private int loadedProjectRevision;
     private boolean projectReadOnly;
     private String projectLockOwner = "";
+    /** Идёт фоновая загрузка или сохранение проекта. */
+    private boolean projectTaskRunning;
     private final DefaultListModel<Floor> floorListModel = new DefaultListModel<>();
     private final DefaultListModel<Space> spaceListModel = new DefaultListModel<>();
     private final DefaultListModel<Room> roomListModel = new DefaultListModel<>();
@@ -605,8 +610,7 @@ public class BuildingTab extends JPanel {
 
     private void applyImportedBuildingStructure(Building structure) {
         building.setSections(new ArrayList<>(structure.getSections()));
-        building.getFloors().clear();
-        building.getFloors().addAll(structure.getFloors());
+        building.setFloors(structure.getFloors());
         ops.setBuilding(building);
 
         refreshAllLists();
@@ -1009,12 +1013,116 @@ public class BuildingTab extends JPanel {
                 || editSessionId == null || editSessionId.isBlank()) {
             return;
         }
-        try {
-            DatabaseManager.releaseProjectLock(
-                    DatabaseManager.PROJECT_TYPE_BUILDING, loadedProjectId, editSessionId);
-        } catch (SQLException ex) {
-            logger.warn("Не удалось освободить блокировку проекта дома {}", loadedProjectId, ex);
+        int previousProjectId = loadedProjectId;
+        AsyncDatabase.run(() -> DatabaseManager.releaseProjectLock(
+                        DatabaseManager.PROJECT_TYPE_BUILDING, previousProjectId, editSessionId))
+                .onEdt(null, ex -> logger.warn(
+                        "Не удалось освободить блокировку проекта дома {}", previousProjectId, ex));
+    }
+
+    /**
+     * Выполняет обращение к БД в фоне; окно остаётся отзывчивым, а повторный запуск
+     * загрузки/сохранения до завершения текущей операции блокируется.
+     */
+    private <T> void runProjectTask(AsyncDatabase.Call<T> call,
+                                    java.util.function.Consumer<T> onSuccess,
+                                    java.util.function.Consumer<Throwable> onError) {
+        setProjectTaskRunning(true);
+        AsyncDatabase.supply(call).onEdt(value -> {
+            setProjectTaskRunning(false);
+            onSuccess.accept(value);
+        }, error -> {
+            setProjectTaskRunning(false);
+            onError.accept(error);
+        });
+    }
+
+    /**
+     * Как runProjectTask, но на время операции окно не принимает ввод (перерисовка продолжается):
+     * по её окончании модель заменяется сохранённой копией, и правки, сделанные в это время, пропали бы.
+     */
+    private <T> void runBlockingProjectTask(String message, AsyncDatabase.Call<T> call,
+                                            java.util.function.Consumer<T> onSuccess,
+                                            java.util.function.Consumer<Throwable> onError) {
+        InputBlocker blocker = InputBlocker.install(SwingUtilities.getRootPane(this), message);
+        runProjectTask(call, value -> {
+            blocker.remove();
+            onSuccess.accept(value);
+        }, error -> {
+            blocker.remove();
+            onError.accept(error);
+        });
+    }
+
+    /** Стеклянная панель окна, поглощающая мышь и клавиатуру, с подписью текущей операции. */
+    private static final class InputBlocker extends JComponent {
+        private final JRootPane rootPane;
+        private final Component previousGlassPane;
+        private final Component previousFocus;
+
+        private InputBlocker(JRootPane rootPane, String message) {
+            this.rootPane = rootPane;
+            this.previousGlassPane = rootPane == null ? null : rootPane.getGlassPane();
+            this.previousFocus = KeyboardFocusManager.getCurrentKeyboardFocusManager().getFocusOwner();
+            setLayout(new GridBagLayout());
+            JLabel label = new JLabel(message);
+            label.setOpaque(true);
+            label.setBorder(BorderFactory.createEmptyBorder(10, 18, 10, 18));
+            add(label);
+            MouseAdapter swallow = new MouseAdapter() { };
+            addMouseListener(swallow);
+            addMouseMotionListener(swallow);
+            addMouseWheelListener(swallow);
+            addKeyListener(new KeyAdapter() {
+                @Override public void keyPressed(KeyEvent e) { e.consume(); }
+                @Override public void keyTyped(KeyEvent e) { e.consume(); }
+                @Override public void keyReleased(KeyEvent e) { e.consume(); }
+            });
+            setFocusTraversalKeysEnabled(false);
+            setFocusable(true);
+            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
         }
+
+        static InputBlocker install(JRootPane rootPane, String message) {
+            InputBlocker blocker = new InputBlocker(rootPane, message);
+            if (rootPane != null) {
+                rootPane.setGlassPane(blocker);
+                blocker.setVisible(true);
+                blocker.requestFocusInWindow();
+            }
+            return blocker;
+        }
+
+        void remove() {
+            if (rootPane == null) return;
+            setVisible(false);
+            if (previousGlassPane != null) {
+                rootPane.setGlassPane(previousGlassPane);
+            }
+            if (previousFocus != null) {
+                previousFocus.requestFocusInWindow();
+            }
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(new Color(255, 255, 255, 96));
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    private void setProjectTaskRunning(boolean running) {
+        projectTaskRunning = running;
+        setCursor(Cursor.getPredefinedCursor(running ? Cursor.WAIT_CURSOR : Cursor.DEFAULT_CURSOR));
+    }
+
+    private boolean rejectWhileProjectTaskRunning() {
+        if (!projectTaskRunning) {
+            return false;
+        }
+        showMessage("Дождитесь завершения текущей операции с проектом", "Подождите",
+                JOptionPane.INFORMATION_MESSAGE);
+        return true;
     }
 
     private void notifyProjectStatus() {
@@ -1025,9 +1133,11 @@ public class BuildingTab extends JPanel {
     }
 
     private void loadProject(ActionEvent e) {
-        try {
-            List<Building> projects = DatabaseManager.getAllBuildings();
-            if (projects.isEmpty()) {
+        if (rejectWhileProjectTaskRunning()) {
+            return;
+        }
+        runProjectTask(() -> DatabaseManager.getLatestBuildings(null, 0, LoadProjectDialog.PAGE_SIZE), projects -> {
+            if (projects.items().isEmpty()) {
                 showMessage("Нет сохраненных проектов", "Информация", JOptionPane.INFORMATION_MESSAGE);
                 return;
             }
@@ -1040,9 +1150,7 @@ public class BuildingTab extends JPanel {
             if (selectedProject != null) {
                 loadSelectedProject(selectedProject);
             }
-        } catch (SQLException ex) {
-            handleError("Ошибка загрузки проектов: " + ex.getMessage(), "Ошибка");
-        }
+        }, ex -> handleError("Ошибка загрузки проектов: " + ex.getMessage(), "Ошибка"));
     }
 
     private void exportProject(ActionEvent e) {
@@ -1056,6 +1164,9 @@ public class BuildingTab extends JPanel {
     }
 
     private void importProject(ActionEvent e) {
+        if (rejectWhileProjectTaskRunning()) {
+            return;
+        }
         try {
             Building imported = ProjectFileService.importProject(this);
             if (imported != null) {
@@ -1066,34 +1177,90 @@ public class BuildingTab extends JPanel {
         }
     }
 
-    private void loadSelectedProject(Building selectedProject) throws SQLException {
+    /** Данные проекта, прочитанные из БД в фоновом потоке. */
+    private record LoadedProject(Building building,
+                                 Map<String, Boolean> artificial,
+                                 Map<String, Double[]> street,
+                                 Map<String, DatabaseManager.NoiseValue> noise,
+                                 Map<String, double[]> noiseThresholds,
+                                 List<String> warnings) {
+    }
+
+    private void loadSelectedProject(Building selectedProject) {
         boolean alreadyOwned = selectedProject.getId() == loadedProjectId && !projectReadOnly;
-        DatabaseManager.ProjectLockInfo lockInfo = acquireProjectLock(selectedProject.getId());
-        if (lockInfo != null && !lockInfo.isEditable()) {
-            int answer = JOptionPane.showConfirmDialog(
-                    this,
-                    "Проект сейчас редактирует " + lockInfo.getOwnerLabel()
-                            + ".\nОткрыть проект только для просмотра?",
-                    "Проект занят",
-                    JOptionPane.YES_NO_OPTION,
-                    JOptionPane.INFORMATION_MESSAGE
-            );
-            if (answer != JOptionPane.YES_OPTION) {
-                return;
+        int projectId = selectedProject.getId();
+        runProjectTask(() -> acquireProjectLock(projectId), lockInfo -> {
+            if (lockInfo != null && !lockInfo.isEditable()) {
+                int answer = JOptionPane.showConfirmDialog(
+                        this,
+                        "Проект сейчас редактирует " + lockInfo.getOwnerLabel()
+                                + ".\nОткрыть проект только для просмотра?",
+                        "Проект занят",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.INFORMATION_MESSAGE
+                );
+                if (answer != JOptionPane.YES_OPTION) {
+                    return;
+                }
             }
-        }
+            boolean withArtificial = getArtificialLightingTab() != null;
+            boolean withNoise = getNoiseTab() != null;
+            runProjectTask(
+                    () -> readProject(projectId, lockInfo, alreadyOwned, withArtificial, withNoise),
+                    loaded -> applyLoadedProject(loaded, lockInfo),
+                    ex -> handleError("Ошибка загрузки проекта: " + ex.getMessage(), "Ошибка"));
+        }, ex -> handleError("Ошибка загрузки проекта: " + ex.getMessage(), "Ошибка"));
+    }
 
+    /** Фоновая часть загрузки: здание и значения вкладок по ключам. Компоненты не трогает. */
+    private LoadedProject readProject(int projectId, DatabaseManager.ProjectLockInfo lockInfo,
+                                      boolean alreadyOwned, boolean withArtificial,
+                                      boolean withNoise) throws SQLException {
         Building loadedBuilding;
         try {
-            loadedBuilding = DatabaseManager.loadBuilding(selectedProject.getId());
+            loadedBuilding = DatabaseManager.loadBuilding(projectId);
         } catch (SQLException ex) {
             if (!alreadyOwned && lockInfo != null && lockInfo.isEditable()) {
                 DatabaseManager.releaseProjectLock(
-                        DatabaseManager.PROJECT_TYPE_BUILDING, selectedProject.getId(), editSessionId);
+                        DatabaseManager.PROJECT_TYPE_BUILDING, projectId, editSessionId);
             }
             throw ex;
         }
-        releasePreviousProjectLock(selectedProject.getId());
+
+        List<String> warnings = new ArrayList<>();
+        Map<String, Boolean> artificial = null;
+        if (withArtificial) {
+            try {
+                artificial = DatabaseManager.loadArtificialSelectionsByKey(loadedBuilding.getId());
+            } catch (SQLException ex) {
+                warnings.add("Не удалось загрузить галочки искусственного освещения: " + ex.getMessage());
+            }
+        }
+
+        Map<String, Double[]> street = null;
+        try {
+            street = DatabaseManager.loadStreetLightingValuesByKey(loadedBuilding.getId());
+        } catch (SQLException ex) {
+            warnings.add("Не удалось загрузить значения 'Осв улица': " + ex.getMessage());
+        }
+
+        Map<String, DatabaseManager.NoiseValue> noise = null;
+        Map<String, double[]> thresholds = null;
+        if (withNoise) {
+            try {
+                noise = DatabaseManager.loadNoiseSelectionsByKey(loadedBuilding.getId());
+                thresholds = DatabaseManager.loadNoiseThresholds(loadedBuilding.getId());
+            } catch (SQLException ex) {
+                noise = null;
+                warnings.add("Не удалось загрузить настройки 'Шумы': " + ex.getMessage());
+            }
+        }
+        return new LoadedProject(loadedBuilding, artificial, street, noise, thresholds, warnings);
+    }
+
+    private void applyLoadedProject(LoadedProject loaded, DatabaseManager.ProjectLockInfo lockInfo) {
+        Building loadedBuilding = loaded.building();
+        releasePreviousProjectLock(loadedBuilding.getId());
         loadedProjectId = loadedBuilding.getId();
         loadedProjectRevision = loadedBuilding.getRevision();
         projectReadOnly = lockInfo != null && !lockInfo.isEditable();
@@ -1116,46 +1283,30 @@ public class BuildingTab extends JPanel {
 
         // Искусственное освещение — галочки из БД
         ArtificialLightingTab alt = getArtificialLightingTab();
-        if (alt != null) {
-            try {
-                Map<String, Boolean> fromDb =
-                        DatabaseManager.loadArtificialSelectionsByKey(loadedBuilding.getId());
-                alt.applySelectionsByKey(loadedBuilding, fromDb);
-                alt.refreshData();
-            } catch (SQLException ex) {
-                handleError("Не удалось загрузить галочки искусственного освещения: " + ex.getMessage(), "Ошибка");
-            }
+        if (alt != null && loaded.artificial() != null) {
+            alt.applySelectionsByKey(loadedBuilding, loaded.artificial());
+            alt.refreshData();
         }
 
         // Осв улица — значения из БД
-        try {
-            java.util.Map<String, Double[]> streetVals =
-                    DatabaseManager.loadStreetLightingValuesByKey(loadedBuilding.getId());
-            StreetLightingTab street = getStreetLightingTab();
-            if (street != null) {
-                street.setBuilding(loadedBuilding);
-                street.refreshData();
-                street.applyValuesByKey(streetVals);
-            }
-        } catch (SQLException ex) {
-            handleError("Не удалось загрузить значения 'Осв улица': " + ex.getMessage(), "Ошибка");
+        StreetLightingTab street = getStreetLightingTab();
+        if (street != null && loaded.street() != null) {
+            street.setBuilding(loadedBuilding);
+            street.refreshData();
+            street.applyValuesByKey(loaded.street());
         }
 
         // НОВОЕ: «Шумы» — применить сохранённые настройки
-        try {
-            ru.citlab24.protokol.tabs.modules.noise.NoiseTab noise = getNoiseTab();
-            if (noise != null) {
-                java.util.Map<String, DatabaseManager.NoiseValue> nv =
-                        DatabaseManager.loadNoiseSelectionsByKey(loadedBuilding.getId());
-                java.util.Map<String, double[]> th =
-                        DatabaseManager.loadNoiseThresholds(loadedBuilding.getId());
-                noise.setBuilding(loadedBuilding);
-                noise.applySelectionsByKey(nv);
-                noise.applyThresholds(th);
-                noise.refreshData();
-            }
-        } catch (SQLException ex) {
-            handleError("Не удалось загрузить настройки 'Шумы': " + ex.getMessage(), "Ошибка");
+        ru.citlab24.protokol.tabs.modules.noise.NoiseTab noise = getNoiseTab();
+        if (noise != null && loaded.noise() != null) {
+            noise.setBuilding(loadedBuilding);
+            noise.applySelectionsByKey(loaded.noise());
+            noise.applyThresholds(loaded.noiseThresholds());
+            noise.refreshData();
+        }
+
+        for (String warning : loaded.warnings()) {
+            handleError(warning, "Ошибка");
         }
 
         notifyProjectStatus();
@@ -1168,6 +1319,9 @@ public class BuildingTab extends JPanel {
 
     private void saveProject(ActionEvent e) {
         logger.info("BuildingTab.saveProject() - Начало сохранения проекта");
+        if (rejectWhileProjectTaskRunning()) {
+            return;
+        }
         if (projectReadOnly) {
             showMessage("Проект редактирует " + projectLockOwner
                             + ". В режиме просмотра сохранение недоступно.",
@@ -1244,48 +1398,40 @@ public class BuildingTab extends JPanel {
 
         // 3) Копия проекта
         Building newProject = createBuildingCopy();
-        newProject.setName(generateProjectVersionName(baseName));
 
         // 3.1) Применяем снимок КЕО к копии до сохранения
         restoreKeoSelections(newProject, snapKeo);
 
-        // 4) Сохранение в БД
-        try {
+        // 4) Сохранение в БД в фоне: иерархия, галочки искусственного, «Осв улица» и «Шумы» — одной транзакцией.
+        // Неизменённые этажи новая ревизия делит с исходной. Копия и снимки в EDT больше не меняются.
+        int sourceProjectId = loadedProjectId;
+        int expectedRevision = loadedProjectRevision;
+        Map<String, Boolean> savedArtificial = snapArtificial;
+        Map<String, Double[]> savedStreet = snapStreet;
+        Map<String, DatabaseManager.NoiseValue> savedNoise = snapNoise;
+        Map<String, double[]> savedNoiseThresholds = snapNoiseThresholds;
+        // Окно не принимает ввод до конца сохранения: по его окончании модель заменяется сохранённой копией
+        runBlockingProjectTask("Сохранение проекта…", () -> {
+            // Дописываем отложенные щелчки «Шумов» в исходную ревизию до создания новой
+            if (noise != null && !noise.flushPendingWrites(PENDING_WRITES_TIMEOUT_MS)) {
+                logger.warn("Сохранение проекта: не все отложенные изменения шумов записаны в исходную ревизию");
+            }
+            newProject.setName(generateProjectVersionName(baseName));
             DatabaseManager.saveBuildingVersion(
-                    newProject, loadedProjectId, loadedProjectRevision, editSessionId);
-        } catch (SQLException ex) {
-            handleError("Ошибка сохранения: " + ex.getMessage(), "Ошибка");
-            return;
-        }
-
-        // 4.1) Искусственное — записать галочки в новые room.id
-        try {
-            DatabaseManager.updateArtificialSelections(newProject, snapArtificial);
-        } catch (SQLException ex) {
-            handleError("Не удалось сохранить галочки искусственного освещения: " + ex.getMessage(), "Ошибка");
-        }
-
-        // 4.2) Осв улица — записать 4 значения
-        try {
-            DatabaseManager.updateStreetLightingValues(newProject, snapStreet);
-        } catch (SQLException ex) {
-            handleError("Не удалось сохранить значения 'Осв улица': " + ex.getMessage(), "Ошибка");
-        }
-
-        // 4.3) НОВОЕ: Шумы — записать состояния/источники
-        try {
-            DatabaseManager.updateNoiseSelections(newProject, snapNoise);
-        } catch (SQLException ex) {
-            handleError("Не удалось сохранить настройки 'Шумы': " + ex.getMessage(), "Ошибка");
-        }
-
-        try {
-            DatabaseManager.updateNoiseThresholds(newProject, snapNoiseThresholds);
-        } catch (SQLException ex) {
-            handleError("Не удалось сохранить пороги 'Шумы': " + ex.getMessage(), "Ошибка");
-        }
-
+                    newProject, sourceProjectId, expectedRevision, editSessionId,
+                    savedArtificial, savedStreet, savedNoise, savedNoiseThresholds);
+            return newProject;
+        }, saved -> applySavedProject(saved, savedArtificial, savedStreet, savedNoise, savedNoiseThresholds),
+                ex -> handleError("Ошибка сохранения: " + ex.getMessage(), "Ошибка"));
+    }
+
+    private void applySavedProject(Building newProject,
+                                   Map<String, Boolean> snapArtificial,
+                                   Map<String, Double[]> snapStreet,
+                                   Map<String, DatabaseManager.NoiseValue> snapNoise,
+                                   Map<String, double[]> snapNoiseThresholds) {
         // 4.4) Синхронизация состояния UI
+        TitlePageTab titleTab = getTitlePageTab();
         this.building = newProject;
         this.ops.setBuilding(this.building);
         projectNameField.setText(extractBaseName(newProject.getName()));
@@ -1316,6 +1462,7 @@ public class BuildingTab extends JPanel {
         }
 
         // 5.3) НОВОЕ: Шумы — вернуть состояния
+        ru.citlab24.protokol.tabs.modules.noise.NoiseTab noise = getNoiseTab();
         if (noise != null) {
             noise.setBuilding(newProject);
             noise.applySelectionsByKey(snapNoise);
@@ -1347,11 +1494,11 @@ public class BuildingTab extends JPanel {
 
     private int calculateNextVersion(String cleanBaseName) {
         try {
-            List<Building> existingProjects = DatabaseManager.getAllBuildings();
+            List<String> existingNames = DatabaseManager.findBuildingNames(cleanBaseName);
             Pattern versionPattern = Pattern.compile("^" + Pattern.quote(cleanBaseName) + "(?: ред\\.(\\d+) (\\d{2}\\.\\d{2}\\.\\d{4}))?$");
 
-            int maxVersion = existingProjects.stream()
-                    .map(project -> versionPattern.matcher(project.getName()))
+            int maxVersion = existingNames.stream()
+                    .map(versionPattern::matcher)
                     .filter(Matcher::find)
                     .mapToInt(matcher -> matcher.group(1) != null ? Integer.parseInt(matcher.group(1)) : 1)
                     .max()
@@ -1359,7 +1506,10 @@ public class BuildingTab extends JPanel {
 
             return maxVersion + 1;
         } catch (SQLException e) {
-            handleError("Ошибка получения списка проектов: " + e.getMessage(), "Ошибка");
+            // Вызывается из фонового сохранения — сообщение показываем в EDT
+            logger.warn("Не удалось получить список проектов для номера редакции", e);
+            SwingUtilities.invokeLater(() ->
+                    handleError("Ошибка получения списка проектов: " + e.getMessage(), "Ошибка"));
             return 1;
         }
     }
@@ -1370,28 +1520,7 @@ public class BuildingTab extends JPanel {
         return matcher.find() ? matcher.group(1).trim() : name;
     }
 
-    private Building createBuildingCopy() {
-        Building copy = new Building();
-        copy.setName(building.getName());
-        copy.setTitlePageData(building.getTitlePageData().copy());
-
-        // копируем секции
-        List<Section> copiedSections = new ArrayList<>();
-        for (Section s : building.getSections()) {
-            Section cs = new Section();
-            cs.setName(s.getName());
-            cs.setPosition(s.getPosition());
-            copiedSections.add(cs);
-        }
-        copy.setSections(copiedSections);
-
-        // этажи — с сохранением selected и id
-        for (Floor originalFloor : building.getFloors()) {
-            Floor floorCopy = createFloorCopyPreserve(originalFloor);
-            copy.addFloor(floorCopy);
-        }
-        return copy;
-    }
+    private Building createBuildingCopy() { return ops.createBuildingCopy(); }
 
     @SuppressWarnings("serial")
     private abstract class ReorderHandler<T> extends TransferHandler {
@@ -1519,7 +1648,7 @@ public class BuildingTab extends JPanel {
                 rt.applyDefaultsForSpace(copiedSpace);
             }
 
-            int newIndex = selectedFloor.getSpaces().indexOf(copiedSpace);
+            int newIndex = building.getHierarchy().indexOf(copiedSpace);
             if (newIndex >= 0) rt.selectSpaceByIndex(newIndex);
         }
     }
@@ -1777,7 +1906,7 @@ public class BuildingTab extends JPanel {
             if (!confirmDeleteFloor(floor)) {
                 return;
             }
-            building.getFloors().remove(index);
+            building.removeFloor(floor);
             floorListModel.remove(index);
         }
 
@@ -1914,7 +2043,7 @@ public class BuildingTab extends JPanel {
             if (!confirmDeleteSpace(space)) {
                 return;
             }
-            floor.getSpaces().remove(index);
+            floor.removeSpace(space);
             spaceListModel.remove(index);
         }
 
@@ -2206,7 +2335,7 @@ public class BuildingTab extends JPanel {
             if (!confirmDeleteRoom(room)) {
                 return;
             }
-            space.getRooms().remove(index);
+            space.removeRoom(room);
             roomListModel.remove(index);
         }
 
@@ -1,57 +1,73 @@
 package ru.citlab24.protokol.tabs.dialogs;
 
+import ru.citlab24.protokol.db.AsyncDatabase;
+import ru.citlab24.protokol.db.ProjectLockService;
 import ru.citlab24.protokol.tabs.models.Building;
 import ru.citlab24.protokol.db.DatabaseManager;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.sql.SQLException;
 import java.util.List;
 
+/**
+ * Выбор проекта-здания. Показывает только последние ревизии проектов, подгружая список страницами
+ * при прокрутке; поиск по имени выполняется в БД, история ревизий — по кнопке для выбранного проекта.
+ * Отметка «редактирует» обновляется сразу по уведомлениям {@link ProjectLockService}.
+ */
 public class LoadProjectDialog extends JDialog {
+    public static final int PAGE_SIZE = 50;
+    private static final int SEARCH_DELAY_MS = 300;
+
     private final DefaultListModel<Building> model = new DefaultListModel<>();
     private final JList<Building> list = new JList<>(model);
+    private final JTextField searchField = new JTextField();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final Timer searchTimer;
+    private final Runnable lockListener = list::repaint;
     private final String sessionId;
+    private final JButton deleteBtn = new JButton("Удалить…");
     private Building selectedProject;
+    /** Проект, который сейчас удаляется в фоне; кнопка удаления до конца операции выключена. */
+    private Building deleting;
 
-    public LoadProjectDialog(JFrame parent, List<Building> projects) {
-        this(parent, projects, null);
-    }
+    // Состояние постраничной загрузки; меняется только в EDT
+    private String search = "";
+    private int nextBeforeId;
+    private AsyncDatabase.Task<DatabaseManager.ProjectPage<Building>> pageTask;
 
-    public LoadProjectDialog(JFrame parent, List<Building> projects, String sessionId) {
+    /** @param firstPage первая страница без фильтра (уже загружена вызывающим) */
+    public LoadProjectDialog(JFrame parent, DatabaseManager.ProjectPage<Building> firstPage, String sessionId) {
         super(parent, "Загрузить проект", true);
         this.sessionId = sessionId;
-        setSize(520, 420);
+        setSize(520, 460);
         setLocationRelativeTo(parent);
         setLayout(new BorderLayout(10, 10));
 
+        // Поиск по имени (в БД, с задержкой после ввода)
+        JPanel searchPanel = new JPanel(new BorderLayout(6, 0));
+        searchPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 0, 8));
+        searchPanel.add(new JLabel("Поиск:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        add(searchPanel, BorderLayout.NORTH);
+        searchTimer = new Timer(SEARCH_DELAY_MS, e -> restartSearch());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { searchTimer.restart(); }
+            @Override public void removeUpdate(DocumentEvent e) { searchTimer.restart(); }
+            @Override public void changedUpdate(DocumentEvent e) { searchTimer.restart(); }
+        });
+
         // Список проектов
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         list.setFixedCellHeight(46);
-        list.setCellRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                          boolean isSelected, boolean cellHasFocus) {
-                Component c = super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                if (value instanceof Building) {
-                    Building building = (Building) value;
-                    String author = building.getCreatedBy() == null || building.getCreatedBy().isBlank()
-                            ? "автор не указан"
-                            : building.getCreatedBy();
-                    String date = shortDate(building.getCreatedAt());
-                    String lock = building.getLockOwner() == null || building.getLockOwner().isBlank()
-                            ? ""
-                            : " · редактирует: " + building.getLockOwner();
-                    setText("<html><b>" + escapeHtml(building.getName()) + "</b><br>"
-                            + escapeHtml(author + (date.isBlank() ? "" : " · " + date) + lock) + "</html>");
-                }
-                return c;
-            }
-        });
+        list.setCellRenderer(new ProjectRenderer(false));
 
-        for (Building p : projects) model.addElement(p);
+        appendPage(firstPage);
+        ProjectLockService.addListener(lockListener);
 
         // Двойной клик = ОК
         list.addMouseListener(new MouseAdapter() {
@@ -62,34 +78,108 @@ public class LoadProjectDialog extends JDialog {
             }
         });
 
-        add(new JScrollPane(list), BorderLayout.CENTER);
+        JScrollPane scroll = new JScrollPane(list);
+        // Следующая страница — когда прокрутка подошла к концу списка
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (!e.getValueIsAdjusting()
+                    && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight()) {
+                loadNextPage();
+            }
+        });
+        add(scroll, BorderLayout.CENTER);
 
-        // Кнопки: Удалить / ОК / Отмена
-        JButton deleteBtn = new JButton("Удалить…");
+        // Кнопки: История / Удалить / ОК / Отмена
+        JButton historyBtn = new JButton("История…");
         JButton okBtn     = new JButton("ОК");
         JButton cancelBtn = new JButton("Отмена");
 
+        historyBtn.addActionListener(e -> onHistory());
         deleteBtn.addActionListener(e -> onDelete());
         okBtn.addActionListener(e -> onOk());
         cancelBtn.addActionListener(e -> dispose());
 
+        JPanel south = new JPanel(new BorderLayout());
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+        south.add(statusLabel, BorderLayout.WEST);
         JPanel btns = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btns.add(historyBtn);
         btns.add(deleteBtn);
         btns.add(okBtn);
         btns.add(cancelBtn);
-        add(btns, BorderLayout.SOUTH);
+        south.add(btns, BorderLayout.EAST);
+        add(south, BorderLayout.SOUTH);
 
         // Состояние кнопок
         list.addListSelectionListener(e -> {
             boolean hasSel = !list.isSelectionEmpty();
-            deleteBtn.setEnabled(hasSel);
+            historyBtn.setEnabled(hasSel);
+            deleteBtn.setEnabled(hasSel && deleting == null);
             okBtn.setEnabled(hasSel);
         });
         boolean hasSel = !list.isSelectionEmpty();
+        historyBtn.setEnabled(hasSel);
         deleteBtn.setEnabled(hasSel);
         okBtn.setEnabled(hasSel);
     }
 
+    @Override
+    public void dispose() {
+        ProjectLockService.removeListener(lockListener);
+        searchTimer.stop();
+        if (pageTask != null) {
+            pageTask.cancel();
+        }
+        super.dispose();
+    }
+
+    private void restartSearch() {
+        String text = searchField.getText().trim();
+        if (text.equals(search) && pageTask == null) {
+            return;
+        }
+        search = text;
+        if (pageTask != null) {
+            pageTask.cancel();
+        }
+        model.clear();
+        nextBeforeId = 0;
+        requestPage(0);
+    }
+
+    private void loadNextPage() {
+        if (pageTask == null && nextBeforeId > 0) {
+            requestPage(nextBeforeId);
+        }
+    }
+
+    private void requestPage(int beforeId) {
+        String query = search;
+        statusLabel.setText("Загрузка…");
+        AsyncDatabase.Task<DatabaseManager.ProjectPage<Building>> task =
+                AsyncDatabase.supply(() -> DatabaseManager.getLatestBuildings(query, beforeId, PAGE_SIZE));
+        pageTask = task;
+        task.onEdt(page -> {
+            pageTask = null;
+            appendPage(page);
+        }, ex -> {
+            pageTask = null;
+            statusLabel.setText("Ошибка загрузки");
+            JOptionPane.showMessageDialog(this, "Ошибка загрузки проектов: " + ex.getMessage(),
+                    "Ошибка", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void appendPage(DatabaseManager.ProjectPage<Building> page) {
+        for (Building p : page.items()) model.addElement(p);
+        nextBeforeId = page.nextBeforeId();
+        if (model.isEmpty()) {
+            statusLabel.setText(search.isEmpty() ? "Нет сохранённых проектов" : "Ничего не найдено");
+        } else {
+            statusLabel.setText("Проектов: " + model.getSize() + (page.hasMore() ? "+" : ""));
+        }
+    }
+
     private void onOk() {
         if (!list.isSelectionEmpty()) {
             selectedProject = list.getSelectedValue();
@@ -97,8 +187,70 @@ public class LoadProjectDialog extends JDialog {
         }
     }
 
-    private void onDelete() {
+    /** Все ревизии выбранного проекта; загружаются только по запросу. */
+    private void onHistory() {
         if (list.isSelectionEmpty()) return;
+        Building head = list.getSelectedValue();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        AsyncDatabase.supply(() -> DatabaseManager.getBuildingHistory(head.getId())).onEdt(history -> {
+            setCursor(Cursor.getDefaultCursor());
+            Building picked = pickRevision(head, history);
+            if (picked != null) {
+                selectedProject = picked;
+                dispose();
+            }
+        }, ex -> {
+            setCursor(Cursor.getDefaultCursor());
+            JOptionPane.showMessageDialog(this, "Ошибка загрузки истории: " + ex.getMessage(),
+                    "Ошибка", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private Building pickRevision(Building head, List<Building> history) {
+        JDialog dialog = new JDialog(this, "История ревизий: " + head.getName(), true);
+        dialog.setSize(480, 380);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout(10, 10));
+
+        DefaultListModel<Building> historyModel = new DefaultListModel<>();
+        for (Building b : history) historyModel.addElement(b);
+        JList<Building> historyList = new JList<>(historyModel);
+        historyList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        historyList.setFixedCellHeight(46);
+        historyList.setCellRenderer(new ProjectRenderer(true));
+        if (!historyModel.isEmpty()) historyList.setSelectedIndex(0);
+        Runnable historyLockListener = historyList::repaint;
+        ProjectLockService.addListener(historyLockListener);
+        dialog.add(new JScrollPane(historyList), BorderLayout.CENTER);
+
+        final Building[] picked = new Building[1];
+        JButton okBtn = new JButton("Открыть");
+        JButton cancelBtn = new JButton("Отмена");
+        okBtn.addActionListener(e -> {
+            picked[0] = historyList.getSelectedValue();
+            dialog.dispose();
+        });
+        cancelBtn.addActionListener(e -> dialog.dispose());
+        historyList.addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && !historyList.isSelectionEmpty()) {
+                    picked[0] = historyList.getSelectedValue();
+                    dialog.dispose();
+                }
+            }
+        });
+        JPanel btns = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btns.add(okBtn);
+        btns.add(cancelBtn);
+        dialog.add(btns, BorderLayout.SOUTH);
+
+        dialog.setVisible(true);
+        ProjectLockService.removeListener(historyLockListener);
+        return picked[0];
+    }
+
+    private void onDelete() {
+        if (list.isSelectionEmpty() || deleting != null) return;
         Building b = list.getSelectedValue();
         String name = (b.getName() != null ? b.getName() : ("ID " + b.getId()));
         String confirmMessage = String.format(
@@ -115,26 +267,75 @@ public class LoadProjectDialog extends JDialog {
         );
         if (ans != JOptionPane.YES_OPTION) return;
 
-        try {
-            DatabaseManager.deleteBuilding(b.getId(), sessionId);
-            // Убираем удалённый элемент из списка
-            int idx = list.getSelectedIndex();
-            model.remove(idx);
-            if (!model.isEmpty()) {
-                list.setSelectedIndex(Math.min(idx, model.getSize() - 1));
+        deleting = b;
+        deleteBtn.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        statusLabel.setText("Удаление…");
+        AsyncDatabase.run(() -> DatabaseManager.deleteBuilding(b.getId(), sessionId)).onEdt(done -> {
+            finishDelete();
+            // Пока шло удаление, список мог перезагрузиться — ищем элемент по id, а не по индексу выбора
+            int idx = indexOfProject(b.getId());
+            if (idx >= 0) {
+                model.remove(idx);
+                if (!model.isEmpty()) {
+                    list.setSelectedIndex(Math.min(idx, model.getSize() - 1));
+                }
             }
-            // Сообщение об успехе (по желанию)
+            statusLabel.setText(model.isEmpty() ? "Нет сохранённых проектов" : "Проектов: " + model.getSize());
             JOptionPane.showMessageDialog(this, "Проект удалён.", "Готово", JOptionPane.INFORMATION_MESSAGE);
-        } catch (SQLException ex) {
+        }, ex -> {
+            finishDelete();
+            statusLabel.setText("Ошибка удаления");
             JOptionPane.showMessageDialog(this, "Ошибка удаления: " + ex.getMessage(),
                     "Ошибка", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private int indexOfProject(int id) {
+        for (int i = 0; i < model.getSize(); i++) {
+            if (model.get(i).getId() == id) return i;
         }
+        return -1;
+    }
+
+    private void finishDelete() {
+        deleting = null;
+        setCursor(Cursor.getDefaultCursor());
+        deleteBtn.setEnabled(!list.isSelectionEmpty());
     }
 
     public Building getSelectedProject() {
         return selectedProject;
     }
 
+    private static final class ProjectRenderer extends DefaultListCellRenderer {
+        private final boolean showRevision;
+
+        ProjectRenderer(boolean showRevision) {
+            this.showRevision = showRevision;
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            Component c = super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            if (value instanceof Building) {
+                Building building = (Building) value;
+                String author = building.getCreatedBy() == null || building.getCreatedBy().isBlank()
+                        ? "автор не указан"
+                        : building.getCreatedBy();
+                String date = shortDate(building.getCreatedAt());
+                String owner = ProjectLockService.ownerLabel(
+                        DatabaseManager.PROJECT_TYPE_BUILDING, building.getId());
+                String lock = owner == null ? "" : " · редактирует: " + owner;
+                String revision = showRevision ? "ревизия " + building.getRevision() + " · " : "";
+                setText("<html><b>" + escapeHtml(building.getName()) + "</b><br>"
+                        + escapeHtml(revision + author + (date.isBlank() ? "" : " · " + date) + lock) + "</html>");
+            }
+            return c;
+        }
+    }
+
     private static String shortDate(String value) {
         if (value == null || value.isBlank()) {
             return "";
@@ -1,5 +1,7 @@
 package ru.citlab24.protokol.tabs.models;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,6 +21,8 @@ public class Building implements Serializable {
     private TitlePageData titlePageData = new TitlePageData();
     private final List<Section> sections = new ArrayList<>(); // <-- секции
     private final List<Floor> floors = new ArrayList<>();
+    /** Строится при первом обращении (см. getHierarchy). */
+    private transient BuildingHierarchy hierarchy;
 
     public int getId() { return id; }
     public void setId(int id) { this.id = id; }
@@ -48,7 +52,42 @@ public class Building implements Serializable {
     public void setLockOwner(String lockOwner) { this.lockOwner = lockOwner; }
 
     public List<Floor> getFloors() { return floors; }
-    public void addFloor(Floor floor) { floors.add(floor); }
+    public void addFloor(Floor floor) {
+        floors.add(floor);
+        floor.building = this;
+        if (hierarchy != null) hierarchy.floorAdded(floor, floors.size() - 1);
+    }
+    public boolean removeFloor(Floor floor) {
+        int index = floors.indexOf(floor);
+        if (index < 0) return false;
+        removeFloor(index);
+        return true;
+    }
+    public Floor removeFloor(int index) {
+        Floor floor = floors.remove(index);
+        if (floor.building == this) floor.building = null;
+        if (hierarchy != null) hierarchy.floorRemoved(floor, index);
+        return floor;
+    }
+    /** Заменяет все этажи (например, структурой из импорта). */
+    public void setFloors(List<Floor> newFloors) {
+        List<Floor> copy = (newFloors == null) ? List.of() : new ArrayList<>(newFloors);
+        for (Floor floor : floors) {
+            if (floor.building == this) floor.building = null;
+        }
+        floors.clear();
+        hierarchy = null;
+        for (Floor floor : copy) addFloor(floor);
+    }
+
+    /** Индекс иерархии: родители, позиции, поиск по id — без обхода всего здания. */
+    public BuildingHierarchy getHierarchy() {
+        if (hierarchy == null) hierarchy = new BuildingHierarchy(this);
+        return hierarchy;
+    }
+
+    /** Индекс, если он уже построен, иначе null — для поддержки из Floor/Space/Room. */
+    BuildingHierarchy builtHierarchy() { return hierarchy; }
 
 
     // секции
@@ -69,4 +108,9 @@ public class Building implements Serializable {
     public void setTitlePageData(TitlePageData titlePageData) {
         this.titlePageData = (titlePageData == null) ? new TitlePageData() : titlePageData;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Floor floor : floors) floor.building = this;
+    }
 }
@@ -0,0 +1,322 @@
+package ru.citlab24.protokol.tabs.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Индекс иерархии здания: родитель и порядковый номер (позиция в списке родителя) каждого этажа,
+ * помещения и комнаты, помещения и комнаты по id, комнаты по originalRoomId.
+ * <p>
+ * Поддерживается методами модели: Building.addFloor/removeFloor, Floor.addSpace/removeSpace,
+ * Space.addRoom/removeRoom и сменой id, поэтому поиск родителя — O(1) вместо обхода всего здания.
+ * <p>
+ * Списки getFloors()/getSpaces()/getRooms() можно менять и напрямую: найденный элемент сверяется
+ * со списками модели, а при промахе (элемента нет в индексе или он стоит не там) индекс перестраивается
+ * и запрос повторяется один раз. Поэтому промах стоит полного обхода, как поиск без индекса.
+ * Ограничения прямых правок: при совпадающих id «первый по порядку здания» гарантирован только для
+ * методов модели, а комната, добавленная в обход addRoom, попадёт в roomsByOriginalId сразу лишь тогда,
+ * когда других комнат с тем же originalRoomId в индексе нет. Как и сама модель, не потокобезопасен.
+ */
+public final class BuildingHierarchy {
+    private final Building building;
+    private final Map<Floor, Integer> floorIndex = new IdentityHashMap<>();
+    private final Map<Space, Integer> spaceIndex = new IdentityHashMap<>();
+    private final Map<Room, Integer> roomIndex = new IdentityHashMap<>();
+    private final Map<Integer, Space> spacesById = new HashMap<>();
+    private final Map<Integer, Room> roomsById = new HashMap<>();
+    private final Map<Integer, List<Room>> roomsByOriginalId = new HashMap<>();
+    /** false — id совпал с уже проиндексированным, и первым по порядку здания может быть не тот, что в карте. */
+    private boolean idsInOrder;
+
+    BuildingHierarchy(Building building) {
+        this.building = building;
+        rebuild();
+    }
+
+    /* ===================== ЗАПРОСЫ ===================== */
+
+    /** Этаж помещения; null — помещение не входит в здание. */
+    public Floor floorOf(Space space) {
+        return locate(space) ? space.floor : null;
+    }
+
+    /** Помещение комнаты; null — комната не входит в здание. */
+    public Space spaceOf(Room room) {
+        return locate(room) ? room.space : null;
+    }
+
+    /** Этаж комнаты; null — комната не входит в здание. */
+    public Floor floorOf(Room room) {
+        return locate(room) ? room.space.floor : null;
+    }
+
+    /** Позиция этажа в Building.getFloors(); -1 — не найден. */
+    public int indexOf(Floor floor) {
+        return locate(floor) ? floorIndex.get(floor) : -1;
+    }
+
+    /** Позиция помещения в Floor.getSpaces() своего этажа; -1 — не найдено. */
+    public int indexOf(Space space) {
+        return locate(space) ? spaceIndex.get(space) : -1;
+    }
+
+    /** Позиция комнаты в Space.getRooms() своего помещения; -1 — не найдена. */
+    public int indexOf(Room room) {
+        return locate(room) ? roomIndex.get(room) : -1;
+    }
+
+    /** Помещение с этим id; при совпадающих id — первое по порядку здания. */
+    public Space spaceById(int id) {
+        if (!idsInOrder) {
+            rebuild();
+        }
+        Space space = spacesById.get(id);
+        if (space != null && space.getId() == id && located(space)) {
+            return space;
+        }
+        // Промах: id освободился после удаления или элемент добавлен в обход модели
+        rebuild();
+        return spacesById.get(id);
+    }
+
+    /** Комната с этим id; при совпадающих id — первая по порядку здания. */
+    public Room roomById(int id) {
+        if (!idsInOrder) {
+            rebuild();
+        }
+        Room room = roomsById.get(id);
+        if (room != null && room.getId() == id && located(room)) {
+            return room;
+        }
+        rebuild();
+        return roomsById.get(id);
+    }
+
+    /** Комнаты с этим originalRoomId (после разбиения их может быть несколько). */
+    public List<Room> roomsByOriginalId(int originalRoomId) {
+        List<Room> rooms = roomsByOriginalId.getOrDefault(originalRoomId, List.of());
+        boolean stale = rooms.isEmpty();
+        for (Room room : rooms) {
+            if (!Integer.valueOf(originalRoomId).equals(room.getOriginalRoomId()) || !located(room)) {
+                stale = true;
+                break;
+            }
+        }
+        if (stale) {
+            rebuild();
+            rooms = roomsByOriginalId.getOrDefault(originalRoomId, List.of());
+        }
+        return List.copyOf(rooms);
+    }
+
+    /* ===================== ПОДДЕРЖКА ИЗ МОДЕЛИ ===================== */
+
+    void floorAdded(Floor floor, int index) {
+        if (index != building.getFloors().size() - 1) {
+            rebuild();
+            return;
+        }
+        indexFloor(floor, index);
+    }
+
+    void floorRemoved(Floor floor, int index) {
+        if (floorIndex.get(floor) == null) {
+            return;
+        }
+        unindexFloor(floor);
+        List<Floor> floors = building.getFloors();
+        for (int i = index; i < floors.size(); i++) {
+            floorIndex.put(floors.get(i), i);
+        }
+    }
+
+    void spaceAdded(Floor floor, Space space, int index) {
+        if (!floorIndex.containsKey(floor)) {
+            return; // этаж не проиндексирован — попадёт в индекс при перестройке
+        }
+        indexSpace(floor, space, index);
+    }
+
+    void spaceRemoved(Floor floor, Space space, int index) {
+        if (spaceIndex.get(space) == null) {
+            return;
+        }
+        unindexSpace(space);
+        List<Space> spaces = floor.getSpaces();
+        for (int i = index; i < spaces.size(); i++) {
+            spaceIndex.put(spaces.get(i), i);
+        }
+    }
+
+    void roomAdded(Space space, Room room, int index) {
+        if (!spaceIndex.containsKey(space)) {
+            return;
+        }
+        indexRoom(space, room, index);
+    }
+
+    void roomRemoved(Space space, Room room, int index) {
+        if (roomIndex.get(room) == null) {
+            return;
+        }
+        unindexRoom(room);
+        List<Room> rooms = space.getRooms();
+        for (int i = index; i < rooms.size(); i++) {
+            roomIndex.put(rooms.get(i), i);
+        }
+    }
+
+    void spaceIdChanged(Space space, int oldId) {
+        spacesById.remove(oldId, space);
+        indexSpaceId(space);
+    }
+
+    void roomIdChanged(Room room, int oldId) {
+        roomsById.remove(oldId, room);
+        indexRoomId(room);
+    }
+
+    void originalRoomIdChanged(Room room, Integer oldOriginalId) {
+        removeByOriginalId(room, oldOriginalId);
+        addByOriginalId(room);
+    }
+
+    /* ===================== ВНУТРЕННЕЕ ===================== */
+
+    private void rebuild() {
+        floorIndex.clear();
+        spaceIndex.clear();
+        roomIndex.clear();
+        spacesById.clear();
+        roomsById.clear();
+        roomsByOriginalId.clear();
+        List<Floor> floors = building.getFloors();
+        for (int i = 0; i < floors.size(); i++) {
+            indexFloor(floors.get(i), i);
+        }
+        idsInOrder = true;
+    }
+
+    private boolean locate(Floor floor) {
+        if (floor == null) return false;
+        if (located(floor)) return true;
+        rebuild();
+        return located(floor);
+    }
+
+    private boolean locate(Space space) {
+        if (space == null) return false;
+        if (located(space)) return true;
+        rebuild();
+        return located(space);
+    }
+
+    private boolean locate(Room room) {
+        if (room == null) return false;
+        if (located(room)) return true;
+        rebuild();
+        return located(room);
+    }
+
+    private boolean located(Floor floor) {
+        Integer index = floorIndex.get(floor);
+        return index != null && floor.building == building && at(building.getFloors(), index, floor);
+    }
+
+    private boolean located(Space space) {
+        Integer index = spaceIndex.get(space);
+        return index != null && space.floor != null
+                && at(space.floor.getSpaces(), index, space) && located(space.floor);
+    }
+
+    private boolean located(Room room) {
+        Integer index = roomIndex.get(room);
+        return index != null && room.space != null
+                && at(room.space.getRooms(), index, room) && located(room.space);
+    }
+
+    private static <T> boolean at(List<T> list, int index, T item) {
+        return index < list.size() && list.get(index) == item;
+    }
+
+    private void indexFloor(Floor floor, int index) {
+        floor.building = building;
+        floorIndex.put(floor, index);
+        List<Space> spaces = floor.getSpaces();
+        for (int i = 0; i < spaces.size(); i++) {
+            indexSpace(floor, spaces.get(i), i);
+        }
+    }
+
+    private void indexSpace(Floor floor, Space space, int index) {
+        space.floor = floor;
+        spaceIndex.put(space, index);
+        indexSpaceId(space);
+        List<Room> rooms = space.getRooms();
+        for (int i = 0; i < rooms.size(); i++) {
+            indexRoom(space, rooms.get(i), i);
+        }
+    }
+
+    private void indexRoom(Space space, Room room, int index) {
+        room.space = space;
+        roomIndex.put(room, index);
+        indexRoomId(room);
+        addByOriginalId(room);
+    }
+
+    private void indexSpaceId(Space space) {
+        Space taken = spacesById.putIfAbsent(space.getId(), space);
+        if (taken != null && taken != space) {
+            idsInOrder = false;
+        }
+    }
+
+    private void indexRoomId(Room room) {
+        Room taken = roomsById.putIfAbsent(room.getId(), room);
+        if (taken != null && taken != room) {
+            idsInOrder = false;
+        }
+    }
+
+    private void unindexFloor(Floor floor) {
+        floorIndex.remove(floor);
+        for (Space space : floor.getSpaces()) {
+            unindexSpace(space);
+        }
+    }
+
+    private void unindexSpace(Space space) {
+        spaceIndex.remove(space);
+        spacesById.remove(space.getId(), space);
+        for (Room room : space.getRooms()) {
+            unindexRoom(room);
+        }
+    }
+
+    private void unindexRoom(Room room) {
+        roomIndex.remove(room);
+        roomsById.remove(room.getId(), room);
+        removeByOriginalId(room, room.getOriginalRoomId());
+    }
+
+    private void addByOriginalId(Room room) {
+        if (room.getOriginalRoomId() != null) {
+            roomsByOriginalId.computeIfAbsent(room.getOriginalRoomId(), id -> new ArrayList<>()).add(room);
+        }
+    }
+
+    private void removeByOriginalId(Room room, Integer originalId) {
+        if (originalId == null) return;
+        List<Room> rooms = roomsByOriginalId.get(originalId);
+        if (rooms != null) {
+            rooms.removeIf(each -> each == room);
+            if (rooms.isEmpty()) {
+                roomsByOriginalId.remove(originalId);
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ru.citlab24.protokol.tabs.models;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,6 +19,8 @@ public class Floor implements Serializable {
     public void setPosition(int position) { this.position = Math.max(0, position); }
 
     private List<Space> spaces = new ArrayList<>();
+    /** Здание, в которое добавлен этаж; поддерживается Building и BuildingHierarchy. */
+    transient Building building;
 
     public enum FloorType {
         RESIDENTIAL("жилой"),
@@ -47,5 +51,32 @@ public class Floor implements Serializable {
 
     public List<Space> getSpaces() { return spaces; }
 
-    public void addSpace(Space space) { spaces.add(space); }
+    public void addSpace(Space space) {
+        spaces.add(space);
+        space.floor = this;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.spaceAdded(this, space, spaces.size() - 1);
+    }
+    public boolean removeSpace(Space space) {
+        int index = spaces.indexOf(space);
+        if (index < 0) return false;
+        removeSpace(index);
+        return true;
+    }
+    public Space removeSpace(int index) {
+        Space space = spaces.remove(index);
+        if (space.floor == this) space.floor = null;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.spaceRemoved(this, space, index);
+        return space;
+    }
+
+    BuildingHierarchy hierarchy() {
+        return (building == null) ? null : building.builtHierarchy();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Space space : spaces) space.floor = this;
+    }
 }
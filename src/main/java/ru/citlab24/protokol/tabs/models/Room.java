@@ -15,6 +15,8 @@ public class Room implements Serializable {
     private String ventilationDuctShape = "SQUARE";
     private Double ventilationWidth = 0.100;
     private Integer externalWallsCount = null; // Микроклимат: 0..4, null = не задано (проставим по умолчанию)
+    /** Помещение, в которое добавлена комната; поддерживается Space и BuildingHierarchy. */
+    transient Space space;
 
     private int position = 0;
     public int getPosition() { return position; }
@@ -30,13 +32,19 @@ public class Room implements Serializable {
     }
 
     public void setOriginalRoomId(Integer originalRoomId) {
+        Integer oldOriginalId = this.originalRoomId;
         this.originalRoomId = originalRoomId;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.originalRoomIdChanged(this, oldOriginalId);
     }
     public int getId() {
         return id;
     }
     public void setId(int id) {
+        int oldId = this.id;
         this.id = id;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.roomIdChanged(this, oldId);
     }
     public int getVentilationChannels() {
         return ventilationChannels;
@@ -111,4 +119,7 @@ public class Room implements Serializable {
         this.externalWallsCount = v;
     }
 
+    private BuildingHierarchy hierarchy() {
+        return (space == null) ? null : space.hierarchy();
+    }
 }
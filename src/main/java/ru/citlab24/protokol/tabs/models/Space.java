@@ -1,5 +1,7 @@
 package ru.citlab24.protokol.tabs.models;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -12,6 +14,8 @@ public class Space implements Serializable {
     private String identifier;
     private SpaceType type;
     private List<Room> rooms = new ArrayList<>();
+    /** Этаж, на который добавлено помещение; поддерживается Floor и BuildingHierarchy. */
+    transient Floor floor;
     private int position = 0;
     public int getPosition() { return position; }
     public void setPosition(int position) { this.position = Math.max(0, position); }
@@ -39,14 +43,46 @@ public class Space implements Serializable {
     }
 
     public int getId() { return id; }
-    public void setId(int id) { this.id = id; } // оставим, если где-то явно задаёшь
+    public void setId(int id) { // оставим, если где-то явно задаёшь
+        int oldId = this.id;
+        this.id = id;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.spaceIdChanged(this, oldId);
+    }
     @Override
     public String toString() { return identifier + " (" + type + ")"; }
 
-    public void addRoom(Room room) { rooms.add(room); }
+    public void addRoom(Room room) {
+        rooms.add(room);
+        room.space = this;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.roomAdded(this, room, rooms.size() - 1);
+    }
+    public boolean removeRoom(Room room) {
+        int index = rooms.indexOf(room);
+        if (index < 0) return false;
+        removeRoom(index);
+        return true;
+    }
+    public Room removeRoom(int index) {
+        Room room = rooms.remove(index);
+        if (room.space == this) room.space = null;
+        BuildingHierarchy hierarchy = hierarchy();
+        if (hierarchy != null) hierarchy.roomRemoved(this, room, index);
+        return room;
+    }
     public String getIdentifier() { return identifier; }
     public void setIdentifier(String identifier) { this.identifier = identifier; }
     public SpaceType getType() { return type; }
     public void setType(SpaceType type) { this.type = type; }
     public List<Room> getRooms() { return rooms; }
+
+    BuildingHierarchy hierarchy() {
+        return (floor == null) ? null : floor.hierarchy();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Room room : rooms) room.space = this;
+    }
 }
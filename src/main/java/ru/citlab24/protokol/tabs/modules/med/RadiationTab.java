@@ -309,7 +309,7 @@ public class RadiationTab extends JPanel {
         // Сохраняем состояние выбранности оригинала
         boolean wasSelected = globalRoomSelectionMap.getOrDefault(selectedRoom.getId(), false);
 
-        space.getRooms().remove(selectedRoom);
+        space.removeRoom(selectedRoom);
         globalRoomSelectionMap.remove(selectedRoom.getId());
 
         for (String suffix : suffixes) {
@@ -794,26 +794,12 @@ public class RadiationTab extends JPanel {
     // Вспомогательные методы для поиска
     public Space findParentSpace(Room room) {
         if (currentBuilding == null) return null;
-
-        for (Floor floor : currentBuilding.getFloors()) {
-            for (Space space : floor.getSpaces()) {
-                if (space.getRooms().contains(room)) {
-                    return space;
-                }
-            }
-        }
-        return null;
+        return currentBuilding.getHierarchy().spaceOf(room);
     }
 
     private Floor findParentFloor(Space space) {
         if (currentBuilding == null) return null;
-
-        for (Floor floor : currentBuilding.getFloors()) {
-            if (floor.getSpaces().contains(space)) {
-                return floor;
-            }
-        }
-        return null;
+        return currentBuilding.getHierarchy().floorOf(space);
     }
 
     private List<Room> getAllRooms() {
@@ -831,13 +817,7 @@ public class RadiationTab extends JPanel {
     // Добавленный метод для поиска комнаты по ID
     private Room findRoomById(Integer roomId) {
         if (roomId == null || currentBuilding == null) return null;
-
-        for (Room room : getAllRooms()) {
-            if (roomId.equals(room.getId())) {
-                return room;
-            }
-        }
-        return null;
+        return currentBuilding.getHierarchy().roomById(roomId);
     }
 
     private static class SpaceTableModel extends AbstractTableModel {
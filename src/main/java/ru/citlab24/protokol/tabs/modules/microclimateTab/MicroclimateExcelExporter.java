@@ -222,7 +222,7 @@ public final class MicroclimateExcelExporter {
                 // сгруппировать по помещению
                 Map<Space, List<Room>> bySpace = new LinkedHashMap<>();
                 for (Room r : byFloor.get(f)) {
-                    Space sp = findRoomSpace(f, r);
+                    Space sp = building.getHierarchy().spaceOf(r);
                     if (sp == null) continue;
                     bySpace.computeIfAbsent(sp, k -> new ArrayList<>()).add(r);
                 }
@@ -485,10 +485,6 @@ public final class MicroclimateExcelExporter {
         String id = (s.getIdentifier() != null) ? s.getIdentifier().trim() : "";
         return id.isBlank() ? "Помещение" : id;
     }
-    private static Space findRoomSpace(Floor f, Room r) {
-        for (Space s : f.getSpaces()) if (s.getRooms().contains(r)) return s;
-        return null;
-    }
     private static int parseFloorNumSafe(Floor f) {
         try {
             String s = (f.getNumber() != null) ? f.getNumber() : f.getName();
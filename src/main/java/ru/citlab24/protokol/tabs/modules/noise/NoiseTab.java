@@ -1,6 +1,10 @@
 package ru.citlab24.protokol.tabs.modules.noise;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.db.IdRemap;
+import ru.citlab24.protokol.db.WriteBehindQueue;
 import ru.citlab24.protokol.tabs.models.*;
 import ru.citlab24.protokol.tabs.renderers.FloorListRenderer;
 import ru.citlab24.protokol.tabs.renderers.SpaceListRenderer;
@@ -27,7 +31,9 @@ import java.util.stream.Collectors;
  *   sectionIndex|floorNumber|spaceIdentifier|roomName
  */
 public class NoiseTab extends JPanel {
-
+    private static final Logger logger = LoggerFactory.getLogger(NoiseTab.class);
+    private static final long PERSIST_DELAY_MS = 400;
+    private static final int PERSIST_MAX_ATTEMPTS = 5;
 
     private Building building;
 
@@ -54,6 +60,13 @@ public class NoiseTab extends JPanel {
     // Снимок состояний по ключу (совместим с DatabaseManager)
     // Ключ: sectionIndex|этаж|помещение|комната
     private final Map<String, DatabaseManager.NoiseValue> byKey = new LinkedHashMap<>();
+    /** Отложенная запись точечных изменений «Шумов»: быстрые щелчки схлопываются и уходят пачкой. */
+    private final WriteBehindQueue<PendingKey, DatabaseManager.NoiseValue> persistQueue =
+            new WriteBehindQueue<>("noise", PERSIST_DELAY_MS, PERSIST_MAX_ATTEMPTS, this::persistBatch);
+    private JLabel pendingLabel;
+
+    /** Ключ очереди записи: ревизия + ключ комнаты (щелчки до смены ревизии пишутся в свою). */
+    private record PendingKey(int buildingId, String key) {}
 
     // Периоды измерений для шума (лифт день/ночь)
     private final java.util.Map<NoiseTestKind, NoisePeriod> periods = new java.util.EnumMap<>(NoiseTestKind.class);
@@ -340,6 +353,29 @@ public class NoiseTab extends JPanel {
         thresholdsMenu.addActionListener(e -> showThresholdsDialog(thresholdsMenu));
         p.add(thresholdsMenu);
 
+        // Индикатор изменений, ещё не записанных в БД
+        pendingLabel = new JLabel();
+        pendingLabel.setForeground(new Color(0xB26A00));
+        pendingLabel.setToolTipText("Изменения ещё записываются в базу данных");
+        p.add(Box.createHorizontalStrut(8));
+        p.add(pendingLabel);
+        persistQueue.setPendingListener(count -> {
+            pendingLabel.setText(count > 0 ? "Не сохранено: " + count : "");
+            if (count == 0) {
+                pendingLabel.setForeground(new Color(0xB26A00));
+                pendingLabel.setToolTipText("Изменения ещё записываются в базу данных");
+            }
+        });
+        persistQueue.setFailureListener(error -> {
+            pendingLabel.setForeground(new Color(0xC62828));
+            pendingLabel.setToolTipText("Изменения не записаны в базу данных и будут повторены "
+                    + "при следующем изменении или сохранении: " + error.getMessage());
+            JOptionPane.showMessageDialog(this,
+                    "Не удалось записать отметки «Шумов» в базу данных:\n" + error.getMessage()
+                            + "\n\nИзменения сохранены во вкладке и будут записаны повторно.",
+                    "Ошибка записи", JOptionPane.ERROR_MESSAGE);
+        });
+
         return p;
     }
 
@@ -664,19 +700,51 @@ public class NoiseTab extends JPanel {
     }
 
 
-    /** Применяет изменение к byKey и сразу сохраняет его в БД. */
-    /** Применяет изменение к byKey и сразу сохраняет его в БД. */
+    /** Применяет изменение к byKey и ставит его в очередь отложенной записи в БД. */
     private void applyAndPersist(String key, java.util.function.Consumer<DatabaseManager.NoiseValue> change) {
         // 1) Сохраняем в оперативную карту вкладки
         DatabaseManager.NoiseValue nv = byKey.computeIfAbsent(key, k -> new DatabaseManager.NoiseValue());
         change.accept(nv);
         refreshNoiseSummaryWindow();
 
-        // 2) Точечный апсерт одной записи (устойчиво к быстрым переключениям)
-        try {
-            DatabaseManager.updateNoiseValueByKey(building, key, nv);
-        } catch (Exception ignore) {
-            // мягкая деградация: в памяти вкладки состояние всё равно уже сохранено
+        // 2) В очередь уходит копия значения и id ревизии — модель здания фоновому потоку не передаётся.
+        // Повторные щелчки по той же комнате до записи заменяют значение в очереди.
+        // Несохранённое здание пишется в БД целиком при сохранении ревизии.
+        if (building.getId() > 0) {
+            persistQueue.submit(new PendingKey(building.getId(), key), nv.copy());
+        }
+    }
+
+    /**
+     * Дописывает очередь изменений в БД и ждёт её (перед сохранением ревизии и закрытием окна).
+     * Потокобезопасен; возвращает false, если за отведённое время записать всё не удалось.
+     */
+    public boolean flushPendingWrites(long timeoutMs) {
+        return persistQueue.flushAndWait(timeoutMs);
+    }
+
+    /**
+     * Записывает пачку в потоке очереди: по одной транзакции на ревизию. Работает только со снимком
+     * (id ревизии, ключ, копия значения); новые id отделённых этажей переносятся на модель в EDT.
+     */
+    private void persistBatch(Map<PendingKey, DatabaseManager.NoiseValue> batch) throws java.sql.SQLException {
+        Map<Integer, Map<String, DatabaseManager.NoiseValue>> byBuilding = new LinkedHashMap<>();
+        for (Map.Entry<PendingKey, DatabaseManager.NoiseValue> e : batch.entrySet()) {
+            byBuilding.computeIfAbsent(e.getKey().buildingId(), id -> new LinkedHashMap<>())
+                    .put(e.getKey().key(), e.getValue());
+        }
+        for (Map.Entry<Integer, Map<String, DatabaseManager.NoiseValue>> e : byBuilding.entrySet()) {
+            int buildingId = e.getKey();
+            IdRemap remap = DatabaseManager.updateNoiseValuesByKey(buildingId, e.getValue());
+            logger.debug("Шумы: записано {} изменений ревизии {}", e.getValue().size(), buildingId);
+            if (!remap.isEmpty()) {
+                SwingUtilities.invokeLater(() -> {
+                    // Вкладка могла уже переключиться на другую ревизию — её строки не отделялись
+                    if (building.getId() == buildingId) {
+                        remap.applyTo(building);
+                    }
+                });
+            }
         }
     }
 
@@ -1263,6 +1331,12 @@ public class NoiseTab extends JPanel {
         return (idx < 0) ? 0 : idx;
     }
     private java.util.Map<NoiseTestKind, Integer> buildPointsCountByKind() {
+        return buildPointsCountByKind(building, byKey);
+    }
+
+    /** Число точек по видам испытаний для отмеченных источников шума; без состояния вкладки. */
+    static java.util.Map<NoiseTestKind, Integer> buildPointsCountByKind(
+            Building building, java.util.Map<String, DatabaseManager.NoiseValue> byKey) {
         java.util.EnumMap<NoiseTestKind, Integer> counts = new java.util.EnumMap<>(NoiseTestKind.class);
         for (NoiseTestKind kind : NoiseTestKind.values()) {
             counts.put(kind, 0);
@@ -11,7 +11,6 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.LinkedHashSet;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,7 +20,6 @@ import java.util.regex.Pattern;
 
 public class ShewhartMapTab extends JPanel {
 
-    private static final DateTimeFormatter DB_DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
     private static final Pattern FILE_DATE_PATTERN = Pattern.compile("(?<!\\d)(\\d{2})\\.(\\d{2})\\.(\\d{2}|\\d{4})(?!\\d)");
     private static final String SHEWHART_VLK_EVENT = "влк карта Шухарата по ЗИ";
     private static final String SHEWHART_VLK_MARK = "✓";
@@ -238,7 +236,7 @@ public class ShewhartMapTab extends JPanel {
         List<VlkDateRecord> records = new ArrayList<>();
         for (LocalDate date : dates) {
             VlkDateRecord record = new VlkDateRecord();
-            record.setVlkDate(date.format(DB_DATE_FORMAT));
+            record.setVlkDate(date);
             record.setResponsible(SHEWHART_VLK_MARK);
             record.setEventName(SHEWHART_VLK_EVENT);
             records.add(record);
@@ -1,7 +1,8 @@
 package ru.citlab24.protokol.tabs.qms;
 
+import ru.citlab24.protokol.db.AsyncDatabase;
 import ru.citlab24.protokol.db.DatabaseManager;
-import ru.citlab24.protokol.db.PersonnelRecord;
+import ru.citlab24.protokol.db.PersonnelAvailability;
 import ru.citlab24.protokol.db.VlkDateRecord;
 
 import javax.swing.*;
@@ -12,13 +13,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
-import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.Year;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +50,6 @@ public class VlkTab extends JPanel {
             "Наименование мероприятия"
     };
 
-    private static final DateTimeFormatter DB_DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
     private static final DateTimeFormatter UI_DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
 
     private final CardLayout cardLayout = new CardLayout();
@@ -80,6 +78,7 @@ public class VlkTab extends JPanel {
 
     private final JTable vlkDatesTable = new JTable(vlkDatesModel);
     private final List<VlkDateRecord> vlkDateRecords = new ArrayList<>();
+    private AsyncDatabase.Task<?> reloadTask;
     private final Runnable onVlkDatesChanged;
 
     public VlkTab() {
@@ -352,7 +351,7 @@ public class VlkTab extends JPanel {
             VlkEquipmentIssuanceWordExporter.export(vlkDir.resolve(issuanceFileName).toFile(), row);
 
             VlkDateRecord record = new VlkDateRecord();
-            record.setVlkDate(assignedDate.format(DB_DATE_FORMAT));
+            record.setVlkDate(assignedDate);
             record.setResponsible(row.responsible());
             record.setEventName(row.event());
             generatedRecords.add(record);
@@ -392,7 +391,7 @@ public class VlkTab extends JPanel {
     }
 
     private List<LocalDate> generateQuarterlyFreeDates(int year) throws SQLException {
-        Set<LocalDate> unavailableDates = loadAllUnavailableDates();
+        PersonnelAvailability availability = PersonnelAvailability.load();
         List<LocalDate> dates = new ArrayList<>();
 
         int[][] quarters = {
@@ -406,17 +405,7 @@ public class VlkTab extends JPanel {
         for (int[] quarter : quarters) {
             LocalDate start = LocalDate.of(year, quarter[0], 1);
             LocalDate end = LocalDate.of(year, quarter[1], LocalDate.of(year, quarter[1], 1).lengthOfMonth());
-            List<LocalDate> availableInQuarter = new ArrayList<>();
-
-            for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
-                if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
-                    continue;
-                }
-                if (unavailableDates.contains(date)) {
-                    continue;
-                }
-                availableInQuarter.add(date);
-            }
+            List<LocalDate> availableInQuarter = availability.freeWorkdays(start, end);
 
             if (availableInQuarter.isEmpty()) {
                 throw new SQLException("Не найдена свободная рабочая дата в квартале " + quarter[0] + "-" + quarter[1] + " для журнала МИ М.08-2021.");
@@ -449,18 +438,7 @@ public class VlkTab extends JPanel {
         LocalDate from = LocalDate.of(year, 4, 15);
         LocalDate to = LocalDate.of(year, 8, 15);
 
-        Set<LocalDate> unavailableDates = loadAllUnavailableDates();
-        List<LocalDate> available = new ArrayList<>();
-
-        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
-            if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
-                continue;
-            }
-            if (unavailableDates.contains(date)) {
-                continue;
-            }
-            available.add(date);
-        }
+        List<LocalDate> available = PersonnelAvailability.load().freeWorkdays(from, to);
 
         if (available.isEmpty()) {
             throw new SQLException("Нет доступных дат ВЛК в периоде 15.04-15.08 (все даты заняты/выходные).");
@@ -474,24 +452,6 @@ public class VlkTab extends JPanel {
         return new ArrayList<>(available.subList(0, count));
     }
 
-    private Set<LocalDate> loadAllUnavailableDates() throws SQLException {
-        Set<LocalDate> result = new HashSet<>();
-        for (PersonnelRecord person : DatabaseManager.getAllPersonnel()) {
-            for (PersonnelRecord.UnavailabilityRecord rec : person.getUnavailabilityDates()) {
-                String raw = rec.getUnavailableDate();
-                if (raw == null || raw.isBlank()) {
-                    continue;
-                }
-                try {
-                    result.add(LocalDate.parse(raw.trim()));
-                } catch (Exception ignored) {
-                    // Пропускаем даты в некорректном формате
-                }
-            }
-        }
-        return result;
-    }
-
     private List<VlkWordExporter.PlanRow> collectExtraRows() {
         List<VlkWordExporter.PlanRow> rows = new ArrayList<>();
         for (int i = 0; i < extraRowsModel.getRowCount(); i++) {
@@ -515,23 +475,25 @@ public class VlkTab extends JPanel {
     }
 
     private void reloadVlkDates() {
-        vlkDateRecords.clear();
-        try {
-            vlkDateRecords.addAll(DatabaseManager.getAllVlkDates());
-            vlkDatesModel.setRowCount(0);
-            for (VlkDateRecord record : vlkDateRecords) {
-                vlkDatesModel.addRow(new Object[]{
-                        formatUiDate(record.getVlkDate()),
-                        record.getResponsible(),
-                        record.getEventName()
-                });
-            }
-        } catch (SQLException ex) {
-            JOptionPane.showMessageDialog(this,
-                    "Не удалось загрузить даты ВЛК: " + ex.getMessage(),
-                    "Ошибка",
-                    JOptionPane.ERROR_MESSAGE);
+        if (reloadTask != null) {
+            reloadTask.cancel();
         }
+        reloadTask = AsyncDatabase.supply(DatabaseManager::getAllVlkDates)
+                .onEdt(records -> {
+                    vlkDateRecords.clear();
+                    vlkDateRecords.addAll(records);
+                    vlkDatesModel.setRowCount(0);
+                    for (VlkDateRecord record : vlkDateRecords) {
+                        vlkDatesModel.addRow(new Object[]{
+                                formatUiDate(record.getVlkDate()),
+                                record.getResponsible(),
+                                record.getEventName()
+                        });
+                    }
+                }, ex -> JOptionPane.showMessageDialog(this,
+                        "Не удалось загрузить даты ВЛК: " + ex.getMessage(),
+                        "Ошибка",
+                        JOptionPane.ERROR_MESSAGE));
     }
 
     private void deleteSelectedVlkDate() {
@@ -564,14 +526,7 @@ public class VlkTab extends JPanel {
         }
     }
 
-    private String formatUiDate(String rawDate) {
-        if (rawDate == null || rawDate.isBlank()) {
-            return "";
-        }
-        try {
-            return LocalDate.parse(rawDate).format(UI_DATE_FORMAT);
-        } catch (Exception ex) {
-            return rawDate;
-        }
+    private String formatUiDate(LocalDate date) {
+        return date == null ? "" : date.format(UI_DATE_FORMAT);
     }
 }
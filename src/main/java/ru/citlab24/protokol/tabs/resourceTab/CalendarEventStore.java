@@ -0,0 +1,194 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * События календаря, разложенные по дням.
+ * <p>
+ * Каждый день — корзина со своими событиями и битовой маской аспектов (бит = позиция аспекта
+ * в списке, переданном в конструктор), поэтому ячейка календаря получает события одним поиском
+ * по дате, а фильтр по аспектам — это одно «И» масок. Хранилище помнит, какой непрерывный диапазон
+ * дат загружен, и умеет заменить события одного источника в диапазоне, не трогая остальные.
+ * Используется только из EDT.
+ */
+final class CalendarEventStore {
+    /** Больше этого диапазона не держим: при уходе дальше хранилище начинается заново. */
+    private static final long MAX_LOADED_DAYS = 3 * 366;
+
+    /** Откуда пришло событие; события каждого источника обновляются независимо. */
+    enum Source {
+        ABSENCE, VLK, SITE_VISIT, EQUIPMENT
+    }
+
+    record Event(LocalDate date, String aspect, Source source, String title, String details) {
+    }
+
+    /** Диапазон дат включительно. */
+    record Range(LocalDate from, LocalDate to) {
+        boolean contains(LocalDate date) {
+            return !date.isBefore(from) && !date.isAfter(to);
+        }
+    }
+
+    private static final class DayBucket {
+        private final List<Event> events = new ArrayList<>();
+        private int aspectMask;
+    }
+
+    private final List<String> aspects;
+    private final NavigableMap<LocalDate, DayBucket> days = new TreeMap<>();
+    private Range loaded;
+
+    CalendarEventStore(List<String> aspects) {
+        if (aspects.size() > Integer.SIZE - 1) {
+            throw new IllegalArgumentException("Слишком много аспектов календаря: " + aspects.size());
+        }
+        this.aspects = List.copyOf(aspects);
+    }
+
+    /** Бит аспекта; 0 — аспект неизвестен. */
+    int aspectBit(String aspect) {
+        int index = aspects.indexOf(aspect);
+        return index < 0 ? 0 : 1 << index;
+    }
+
+    int allAspects() {
+        return (1 << aspects.size()) - 1;
+    }
+
+    /** Аспекты, заданные маской, в порядке конструктора. */
+    List<String> aspectsOf(int mask) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < aspects.size(); i++) {
+            if ((mask & (1 << i)) != 0) {
+                result.add(aspects.get(i));
+            }
+        }
+        return result;
+    }
+
+    /** Загруженный диапазон; null — ничего не загружено. */
+    Range loaded() {
+        return loaded;
+    }
+
+    /**
+     * Что нужно догрузить, чтобы покрыть {@code wanted}; null — уже покрыт.
+     * Дозагрузка примыкает к загруженному диапазону, иначе возвращается весь {@code wanted}.
+     */
+    Range missing(Range wanted) {
+        if (loaded == null || !touches(wanted) || tooWide(wanted)) {
+            return wanted;
+        }
+        boolean left = wanted.from().isBefore(loaded.from());
+        boolean right = wanted.to().isAfter(loaded.to());
+        if (left && right) {
+            return wanted;
+        }
+        if (left) {
+            return new Range(wanted.from(), loaded.from().minusDays(1));
+        }
+        if (right) {
+            return new Range(loaded.to().plusDays(1), wanted.to());
+        }
+        return null;
+    }
+
+    /**
+     * Заменяет события источников {@code sources} в диапазоне {@code range} на {@code events}
+     * (события вне диапазона отбрасываются). Если загружены все источники, диапазон считается загруженным.
+     */
+    void put(Set<Source> sources, Range range, List<Event> events) {
+        if (loaded != null && (!touches(range) || tooWide(range))) {
+            clear();
+        }
+        List<LocalDate> emptied = new ArrayList<>();
+        for (var entry : days.subMap(range.from(), true, range.to(), true).entrySet()) {
+            DayBucket bucket = entry.getValue();
+            if (bucket.events.removeIf(event -> sources.contains(event.source()))) {
+                if (bucket.events.isEmpty()) {
+                    emptied.add(entry.getKey());
+                } else {
+                    bucket.aspectMask = maskOf(bucket.events);
+                }
+            }
+        }
+        emptied.forEach(days::remove);
+
+        Set<LocalDate> touched = new HashSet<>();
+        for (Event event : events) {
+            if (!range.contains(event.date()) || !sources.contains(event.source())) {
+                continue;
+            }
+            DayBucket bucket = days.computeIfAbsent(event.date(), day -> new DayBucket());
+            bucket.events.add(event);
+            bucket.aspectMask |= aspectBit(event.aspect());
+            touched.add(event.date());
+        }
+        for (LocalDate day : touched) {
+            days.get(day).events.sort(Comparator.comparing(Event::title));
+        }
+
+        if (sources.containsAll(Set.of(Source.values()))) {
+            loaded = loaded == null ? range : new Range(
+                    range.from().isBefore(loaded.from()) ? range.from() : loaded.from(),
+                    range.to().isAfter(loaded.to()) ? range.to() : loaded.to());
+        }
+    }
+
+    /** События дня, аспекты которых входят в {@code mask}; отсортированы по заголовку. */
+    List<Event> eventsOn(LocalDate day, int mask) {
+        DayBucket bucket = days.get(day);
+        if (bucket == null || (bucket.aspectMask & mask) == 0) {
+            return List.of();
+        }
+        if ((bucket.aspectMask & ~mask) == 0) {
+            return List.copyOf(bucket.events);
+        }
+        List<Event> result = new ArrayList<>();
+        for (Event event : bucket.events) {
+            if ((aspectBit(event.aspect()) & mask) != 0) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /** Маска аспектов, которые есть в этот день. */
+    int aspectsOn(LocalDate day) {
+        DayBucket bucket = days.get(day);
+        return bucket == null ? 0 : bucket.aspectMask;
+    }
+
+    void clear() {
+        days.clear();
+        loaded = null;
+    }
+
+    private int maskOf(List<Event> events) {
+        int mask = 0;
+        for (Event event : events) {
+            mask |= aspectBit(event.aspect());
+        }
+        return mask;
+    }
+
+    /** Пересекается с загруженным диапазоном или примыкает к нему. */
+    private boolean touches(Range range) {
+        return !range.to().isBefore(loaded.from().minusDays(1)) && !range.from().isAfter(loaded.to().plusDays(1));
+    }
+
+    private boolean tooWide(Range range) {
+        LocalDate from = range.from().isBefore(loaded.from()) ? range.from() : loaded.from();
+        LocalDate to = range.to().isAfter(loaded.to()) ? range.to() : loaded.to();
+        return ChronoUnit.DAYS.between(from, to) > MAX_LOADED_DAYS;
+    }
+}
@@ -0,0 +1,470 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Сетка календаря одним компонентом: месяц (6×7 дней с событиями) или год (12 мини-сеток с метками аспектов).
+ * <p>
+ * Дни не являются компонентами — всё рисуется в {@link #paintComponent}, день под курсором
+ * вычисляется по координатам. Раскладка (прямоугольники месяцев и границы строк/столбцов)
+ * считается один раз на размер и период; смена выбранного дня и догрузка событий перерисовывают
+ * только затронутые ячейки, смена фильтра — один проход отрисовки без создания компонентов.
+ */
+final class CalendarGrid extends JComponent implements Scrollable {
+    private static final String[] WEEK_DAYS = {"Пн", "Вт", "Ср", "Чт", "Пт", "Сб", "Вс"};
+    private static final DateTimeFormatter MONTH_NAME = DateTimeFormatter.ofPattern("LLLL", new Locale("ru"));
+    private static final Color WEEKEND_COLOR = new Color(200, 79, 79);
+    private static final Color OUTSIDE_MONTH_BACKGROUND = new Color(249, 250, 251);
+    private static final Color OUTSIDE_MONTH_TEXT = new Color(177, 182, 189);
+    private static final int MONTH_EVENT_LIMIT = 3;
+    private static final int YEAR_MARKER_LIMIT = 3;
+    private static final Dimension YEAR_PREFERRED_SIZE = new Dimension(3 * 230 + 2 * 8 + 28, 4 * 210 + 3 * 8 + 26);
+    private static final Dimension MONTH_PREFERRED_SIZE = new Dimension(720, 560);
+
+    private final CalendarEventStore store;
+    private final Function<String, Color> aspectColors;
+
+    private boolean yearMode;
+    private YearMonth month = YearMonth.now();
+    private LocalDate selectedDate = LocalDate.now();
+    private LocalDate today = LocalDate.now();
+    private int aspectMask;
+
+    private Layout layout;
+    private Fonts fonts;
+
+    CalendarGrid(CalendarEventStore store, Function<String, Color> aspectColors, Consumer<LocalDate> onDayClicked) {
+        this.store = store;
+        this.aspectColors = aspectColors;
+        this.aspectMask = store.allAspects();
+        setOpaque(true);
+        setFont(UIManager.getFont("Label.font"));
+        setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                LocalDate date = dateAt(e.getPoint());
+                if (date != null) {
+                    onDayClicked.accept(date);
+                }
+            }
+        });
+    }
+
+    /** Показать месяц {@code month} или весь его год; раскладка пересчитывается только при смене периода. */
+    void showPeriod(YearMonth month, boolean yearMode) {
+        boolean periodChanged = yearMode != this.yearMode
+                || (yearMode ? month.getYear() != this.month.getYear() : !month.equals(this.month));
+        boolean modeChanged = yearMode != this.yearMode;
+        this.month = month;
+        this.yearMode = yearMode;
+        today = LocalDate.now();
+        if (periodChanged) {
+            layout = null;
+            if (modeChanged) {
+                revalidate();
+            }
+            repaint();
+        }
+    }
+
+    void setSelectedDate(LocalDate date) {
+        LocalDate previous = selectedDate;
+        selectedDate = date;
+        repaintDay(previous);
+        repaintDay(date);
+    }
+
+    void setAspectMask(int mask) {
+        if (mask != aspectMask) {
+            aspectMask = mask;
+            repaint();
+        }
+    }
+
+    /** Перерисовать ячейки дней диапазона (после догрузки событий). */
+    void repaintDays(CalendarEventStore.Range range) {
+        Layout current = cachedLayout();
+        for (MonthGrid grid : current.grids) {
+            for (int i = 0; i < 42; i++) {
+                if (range.contains(grid.start.plusDays(i))) {
+                    repaint(grid.cell(i));
+                }
+            }
+        }
+    }
+
+    /** День под точкой; null — точка вне сетки дней. */
+    LocalDate dateAt(Point point) {
+        for (MonthGrid grid : cachedLayout().grids) {
+            int index = grid.indexAt(point);
+            if (index >= 0) {
+                return grid.start.plusDays(index);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        LocalDate date = dateAt(event.getPoint());
+        if (date == null) {
+            return null;
+        }
+        List<CalendarEventStore.Event> events = store.eventsOn(date, aspectMask);
+        return events.isEmpty()
+                ? "Нет событий"
+                : events.stream().map(CalendarEventStore.Event::title).collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        return new Dimension(yearMode ? YEAR_PREFERRED_SIZE : MONTH_PREFERRED_SIZE);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 32;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 128;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    /** Месяц всегда вписывается в окно; год прокручивается, если окно ниже его естественной высоты. */
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return !yearMode || (getParent() instanceof JViewport viewport
+                && viewport.getHeight() >= YEAR_PREFERRED_SIZE.height);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            Rectangle clip = g2.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g2.setColor(CalendarTab.CALENDAR_BACKGROUND);
+            g2.fill(clip);
+
+            for (MonthGrid grid : cachedLayout().grids) {
+                if (!grid.bounds.intersects(clip)) {
+                    continue;
+                }
+                paintMonth(g2, grid, clip);
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private void paintMonth(Graphics2D g2, MonthGrid grid, Rectangle clip) {
+        if (yearMode) {
+            g2.setColor(CalendarTab.SURFACE_COLOR);
+            g2.fill(grid.bounds);
+            g2.setColor(CalendarTab.GRID_COLOR);
+            g2.drawRect(grid.bounds.x, grid.bounds.y, grid.bounds.width - 1, grid.bounds.height - 1);
+
+            g2.setFont(fonts().title());
+            g2.setColor(Color.DARK_GRAY);
+            FontMetrics fm = g2.getFontMetrics();
+            g2.drawString(capitalize(grid.month.format(MONTH_NAME)), grid.title.x + 2, grid.title.y + fm.getAscent());
+        }
+
+        g2.setFont(yearMode ? fonts().compactHeader() : fonts().header());
+        FontMetrics fm = g2.getFontMetrics();
+        for (int col = 0; col < 7; col++) {
+            int x0 = grid.colX[col];
+            int width = grid.colX[col + 1] - x0;
+            g2.setColor(col >= 5 ? WEEKEND_COLOR : CalendarTab.MUTED_TEXT_COLOR);
+            int textX = x0 + (width - fm.stringWidth(WEEK_DAYS[col])) / 2;
+            int textY = grid.header.y + (grid.header.height - fm.getHeight()) / 2 + fm.getAscent();
+            g2.drawString(WEEK_DAYS[col], textX, textY);
+        }
+
+        g2.setColor(CalendarTab.GRID_COLOR);
+        g2.fill(grid.days);
+        for (int i = 0; i < 42; i++) {
+            Rectangle cell = grid.cell(i);
+            if (cell.intersects(clip)) {
+                paintDay(g2, grid, grid.start.plusDays(i), cell);
+            }
+        }
+    }
+
+    private void paintDay(Graphics2D g2, MonthGrid grid, LocalDate date, Rectangle cell) {
+        boolean compact = yearMode;
+        boolean outsideMonth = !YearMonth.from(date).equals(grid.month);
+        boolean selected = date.equals(selectedDate);
+
+        g2.setColor(selected ? CalendarTab.SELECTED_DAY_COLOR
+                : outsideMonth ? OUTSIDE_MONTH_BACKGROUND : CalendarTab.SURFACE_COLOR);
+        g2.fill(cell);
+        if (selected) {
+            int thickness = compact ? 1 : 2;
+            g2.setColor(CalendarTab.PRIMARY_COLOR);
+            g2.fillRect(cell.x, cell.y, cell.width, thickness);
+            g2.fillRect(cell.x, cell.y + cell.height - thickness, cell.width, thickness);
+            g2.fillRect(cell.x, cell.y, thickness, cell.height);
+            g2.fillRect(cell.x + cell.width - thickness, cell.y, thickness, cell.height);
+        }
+
+        Graphics2D cellGraphics = (Graphics2D) g2.create();
+        try {
+            cellGraphics.clip(cell);
+            int numberBottom = paintDayNumber(cellGraphics, date, cell, compact, outsideMonth);
+            if (compact) {
+                paintAspectMarkers(cellGraphics, date, cell);
+            } else {
+                paintEventChips(cellGraphics, date, cell, numberBottom + 3);
+            }
+        } finally {
+            cellGraphics.dispose();
+        }
+    }
+
+    /** Рисует номер дня в правом верхнем углу; возвращает нижнюю границу строки номера. */
+    private int paintDayNumber(Graphics2D g2, LocalDate date, Rectangle cell, boolean compact, boolean outsideMonth) {
+        g2.setFont(compact ? fonts().compactNumber() : fonts().number());
+        FontMetrics fm = g2.getFontMetrics();
+        String text = String.valueOf(date.getDayOfMonth());
+        int padding = compact ? 2 : 7;
+        int textWidth = fm.stringWidth(text);
+        int textX = cell.x + cell.width - padding - textWidth;
+        int textY = cell.y + (compact ? 1 : 5) + fm.getAscent();
+        if (date.equals(today)) {
+            g2.setColor(CalendarTab.PRIMARY_COLOR);
+            g2.fillRect(textX - 4, textY - fm.getAscent() - 1, textWidth + 8, fm.getHeight() + 2);
+            g2.setColor(Color.WHITE);
+        } else {
+            g2.setColor(outsideMonth ? OUTSIDE_MONTH_TEXT : Color.DARK_GRAY);
+        }
+        g2.drawString(text, textX, textY);
+        return textY + fm.getDescent();
+    }
+
+    private void paintEventChips(Graphics2D g2, LocalDate date, Rectangle cell, int top) {
+        List<CalendarEventStore.Event> events = store.eventsOn(date, aspectMask);
+        if (events.isEmpty()) {
+            return;
+        }
+        g2.setFont(fonts().chip());
+        FontMetrics fm = g2.getFontMetrics();
+        int chipHeight = fm.getHeight() + 4;
+        int x = cell.x + 5;
+        int width = cell.width - 10;
+        int fitting = Math.max(0, (cell.y + cell.height - top + 2) / (chipHeight + 2));
+        int shown = Math.min(events.size(), Math.min(MONTH_EVENT_LIMIT, fitting));
+        if (shown < events.size() && shown == fitting && shown > 0) {
+            shown--; // место под «Ещё N»
+        }
+        int y = top;
+        for (CalendarEventStore.Event event : events.subList(0, shown)) {
+            Color aspectColor = aspectColors.apply(event.aspect());
+            g2.setColor(CalendarTab.tint(aspectColor));
+            g2.fillRect(x, y, width, chipHeight);
+            g2.setColor(aspectColor);
+            g2.fillRect(x, y, 4, chipHeight);
+            g2.setColor(CalendarTab.darken(aspectColor));
+            g2.drawString(fit(event.title(), fm, width - 13), x + 9, y + 2 + fm.getAscent());
+            y += chipHeight + 2;
+        }
+        if (shown < events.size()) {
+            g2.setFont(fonts().more());
+            g2.setColor(CalendarTab.PRIMARY_COLOR);
+            g2.drawString("Ещё " + (events.size() - shown), x + 5, y + g2.getFontMetrics().getAscent());
+        }
+    }
+
+    private void paintAspectMarkers(Graphics2D g2, LocalDate date, Rectangle cell) {
+        List<String> aspects = store.aspectsOf(store.aspectsOn(date) & aspectMask);
+        int count = Math.min(aspects.size(), YEAR_MARKER_LIMIT);
+        if (count == 0) {
+            return;
+        }
+        int stripHeight = 4;
+        int y = cell.y + cell.height - stripHeight - 1;
+        int gaps = count - 1;
+        for (int i = 0; i < count; i++) {
+            int x0 = cell.x + 1 + (cell.width - 2 - gaps) * i / count + i;
+            int x1 = cell.x + 1 + (cell.width - 2 - gaps) * (i + 1) / count + i;
+            g2.setColor(aspectColors.apply(aspects.get(i)));
+            g2.fillRect(x0, y, Math.max(1, x1 - x0), stripHeight);
+        }
+    }
+
+    private void repaintDay(LocalDate date) {
+        if (date == null || layout == null) {
+            return;
+        }
+        for (MonthGrid grid : layout.grids) {
+            long index = date.toEpochDay() - grid.start.toEpochDay();
+            if (index >= 0 && index < 42) {
+                repaint(grid.cell((int) index));
+            }
+        }
+    }
+
+    /** Производные шрифты пересоздаются только при смене шрифта компонента. */
+    private Fonts fonts() {
+        Font base = getFont();
+        if (fonts == null || fonts.base() != base) {
+            fonts = new Fonts(base,
+                    base.deriveFont(Font.BOLD, 13f),
+                    base.deriveFont(Font.BOLD, 12f),
+                    base.deriveFont(Font.BOLD, 9f),
+                    base.deriveFont(Font.PLAIN, 12f),
+                    base.deriveFont(Font.PLAIN, 9f),
+                    base.deriveFont(Font.PLAIN, 10f),
+                    base.deriveFont(Font.ITALIC, 10f));
+            layout = null;
+        }
+        return fonts;
+    }
+
+    private Layout cachedLayout() {
+        if (layout == null || layout.width != getWidth() || layout.height != getHeight()) {
+            layout = yearMode ? yearLayout() : monthLayout();
+        }
+        return layout;
+    }
+
+    private Layout monthLayout() {
+        Rectangle area = new Rectangle(14, 12, Math.max(0, getWidth() - 28), Math.max(0, getHeight() - 26));
+        int headerHeight = getFontMetrics(fonts().header()).getHeight() + 4;
+        MonthGrid grid = new MonthGrid(month, area, null, headerHeight, 8);
+        return new Layout(getWidth(), getHeight(), new MonthGrid[]{grid});
+    }
+
+    private Layout yearLayout() {
+        int left = 14;
+        int top = 12;
+        int gap = 8;
+        int width = Math.max(0, getWidth() - 28);
+        int height = Math.max(0, getHeight() - 26);
+        int titleHeight = getFontMetrics(fonts().title()).getHeight();
+        int headerHeight = getFontMetrics(fonts().compactHeader()).getHeight();
+        MonthGrid[] grids = new MonthGrid[12];
+        for (int m = 0; m < 12; m++) {
+            int col = m % 3;
+            int row = m / 3;
+            int x0 = left + (width - 2 * gap) * col / 3 + col * gap;
+            int x1 = left + (width - 2 * gap) * (col + 1) / 3 + col * gap;
+            int y0 = top + (height - 3 * gap) * row / 4 + row * gap;
+            int y1 = top + (height - 3 * gap) * (row + 1) / 4 + row * gap;
+            Rectangle box = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+            Rectangle inner = new Rectangle(box.x + 9, box.y + 9, Math.max(0, box.width - 18), Math.max(0, box.height - 18));
+            Rectangle title = new Rectangle(inner.x, inner.y, inner.width, titleHeight);
+            Rectangle body = new Rectangle(inner.x, inner.y + titleHeight + 6,
+                    inner.width, Math.max(0, inner.height - titleHeight - 6));
+            grids[m] = new MonthGrid(YearMonth.of(month.getYear(), m + 1), body, title, headerHeight, 2);
+            grids[m].bounds.setBounds(box);
+        }
+        return new Layout(getWidth(), getHeight(), grids);
+    }
+
+    private static String fit(String text, FontMetrics fm, int width) {
+        if (text == null || fm.stringWidth(text) <= width) {
+            return text == null ? "" : text;
+        }
+        String ellipsis = "…";
+        int end = text.length();
+        while (end > 0 && fm.stringWidth(text.substring(0, end)) + fm.stringWidth(ellipsis) > width) {
+            end--;
+        }
+        return text.substring(0, end) + ellipsis;
+    }
+
+    private static String capitalize(String text) {
+        return text.isEmpty() ? text : Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+
+    private record Fonts(Font base, Font title, Font header, Font compactHeader,
+                         Font number, Font compactNumber, Font chip, Font more) {
+    }
+
+    /** Раскладка для одного размера компонента. */
+    private record Layout(int width, int height, MonthGrid[] grids) {
+    }
+
+    /** Сетка одного месяца: заголовок дней недели и 6×7 ячеек, границы столбцов и строк посчитаны заранее. */
+    private static final class MonthGrid {
+        private final YearMonth month;
+        private final LocalDate start;
+        private final Rectangle bounds;
+        private final Rectangle title;
+        private final Rectangle header;
+        private final Rectangle days;
+        /** Левые границы столбцов (+ правая граница последнего); ячейка начинается на 1 px правее. */
+        private final int[] colX = new int[8];
+        private final int[] rowY = new int[7];
+
+        private MonthGrid(YearMonth month, Rectangle area, Rectangle title, int headerHeight, int headerGap) {
+            this.month = month;
+            this.start = CalendarTab.gridStart(month);
+            this.bounds = new Rectangle(area);
+            this.title = title;
+            this.header = new Rectangle(area.x, area.y, area.width, headerHeight);
+            int daysTop = area.y + headerHeight + headerGap;
+            this.days = new Rectangle(area.x, daysTop, area.width, Math.max(0, area.y + area.height - daysTop));
+            for (int i = 0; i <= 7; i++) {
+                colX[i] = days.x + (days.width - 1) * i / 7;
+            }
+            for (int i = 0; i <= 6; i++) {
+                rowY[i] = days.y + (days.height - 1) * i / 6;
+            }
+        }
+
+        private Rectangle cell(int index) {
+            int col = index % 7;
+            int row = index / 7;
+            return new Rectangle(colX[col] + 1, rowY[row] + 1,
+                    Math.max(0, colX[col + 1] - colX[col] - 1), Math.max(0, rowY[row + 1] - rowY[row] - 1));
+        }
+
+        /** Номер ячейки под точкой; -1 — вне сетки дней. */
+        private int indexAt(Point point) {
+            if (!days.contains(point)) {
+                return -1;
+            }
+            int col = 0;
+            while (col < 6 && point.x >= colX[col + 1]) {
+                col++;
+            }
+            int row = 0;
+            while (row < 5 && point.y >= rowY[row + 1]) {
+                row++;
+            }
+            return row * 7 + col;
+        }
+    }
+}
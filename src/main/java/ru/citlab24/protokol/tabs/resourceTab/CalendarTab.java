@@ -1,6 +1,8 @@
 package ru.citlab24.protokol.tabs.resourceTab;
 
+import ru.citlab24.protokol.db.AsyncDatabase;
 import ru.citlab24.protokol.db.DatabaseManager;
+import ru.citlab24.protokol.db.PersonnelAvailability;
 import ru.citlab24.protokol.db.PersonnelRecord;
 import ru.citlab24.protokol.db.VlkDateRecord;
 import ru.citlab24.protokol.visits.SiteVisitRecord;
@@ -15,13 +17,13 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -31,16 +33,14 @@ import java.util.stream.Collectors;
 public class CalendarTab extends JPanel {
     private static final DateTimeFormatter MONTH_LABEL = DateTimeFormatter.ofPattern("LLLL yyyy", new Locale("ru"));
     private static final DateTimeFormatter DAY_LABEL = DateTimeFormatter.ofPattern("EEEE, dd MMMM yyyy", new Locale("ru"));
-    private static final DateTimeFormatter DOTTED_DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
-    private static final DateTimeFormatter DASHED_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
     private static final DateTimeFormatter TIME_LABEL = DateTimeFormatter.ofPattern("HH:mm");
 
-    private static final Color CALENDAR_BACKGROUND = new Color(245, 247, 250);
-    private static final Color SURFACE_COLOR = Color.WHITE;
-    private static final Color GRID_COLOR = new Color(224, 228, 233);
-    private static final Color MUTED_TEXT_COLOR = new Color(125, 133, 143);
-    private static final Color PRIMARY_COLOR = new Color(45, 124, 231);
-    private static final Color SELECTED_DAY_COLOR = new Color(232, 242, 255);
+    static final Color CALENDAR_BACKGROUND = new Color(245, 247, 250);
+    static final Color SURFACE_COLOR = Color.WHITE;
+    static final Color GRID_COLOR = new Color(224, 228, 233);
+    static final Color MUTED_TEXT_COLOR = new Color(125, 133, 143);
+    static final Color PRIMARY_COLOR = new Color(45, 124, 231);
+    static final Color SELECTED_DAY_COLOR = new Color(232, 242, 255);
 
     private static final String ASPECT_VACATION = "Отпуск";
     private static final String ASPECT_AUDIT = "Аудит";
@@ -48,6 +48,9 @@ public class CalendarTab extends JPanel {
     private static final String ASPECT_MSI = "МСИ";
     private static final String ASPECT_VERIFICATION = "Поверка оборудования";
     private static final String ASPECT_VLK = "ВЛК";
+    private static final String ASPECT_EQUIPMENT_EXPIRY = "Окончание поверки";
+    private static final String ASPECT_MAINTENANCE = "Техобслуживание";
+    private static final DateTimeFormatter DATE_LABEL = DateTimeFormatter.ofPattern("dd.MM.yyyy");
 
     private static final Map<String, Color> ASPECT_COLORS = Map.of(
             ASPECT_VACATION, new Color(66, 133, 244),
@@ -55,8 +58,14 @@ public class CalendarTab extends JPanel {
             ASPECT_TESTS, new Color(52, 168, 83),
             ASPECT_MSI, new Color(156, 39, 176),
             ASPECT_VERIFICATION, new Color(0, 172, 193),
-            ASPECT_VLK, new Color(255, 112, 67)
+            ASPECT_VLK, new Color(255, 112, 67),
+            ASPECT_EQUIPMENT_EXPIRY, new Color(229, 57, 53),
+            ASPECT_MAINTENANCE, new Color(121, 85, 72)
     );
+    /** Порядок аспектов задаёт их биты в масках {@link CalendarEventStore}. */
+    private static final List<String> ASPECTS = List.of(
+            ASPECT_VACATION, ASPECT_AUDIT, ASPECT_TESTS, ASPECT_MSI, ASPECT_VERIFICATION, ASPECT_VLK,
+            ASPECT_EQUIPMENT_EXPIRY, ASPECT_MAINTENANCE);
 
     private final JCheckBox showAllCheck = new JCheckBox("Показать все");
     private final Map<String, JCheckBox> aspectFilters = new HashMap<>();
@@ -73,14 +82,31 @@ public class CalendarTab extends JPanel {
 
     private YearMonth currentMonth = YearMonth.now();
     private LocalDate selectedDate = LocalDate.now();
-    private final List<CalendarEvent> allEvents = new ArrayList<>();
+    private final CalendarEventStore store = new CalendarEventStore(ASPECTS);
+    private final CalendarGrid calendarGrid = new CalendarGrid(store, this::colorForAspect, this::selectDate);
+    private int aspectMask = store.allAspects();
+    /** Персонал с отсутствиями в загруженном диапазоне — для подсчёта свободных. */
+    private Map<Integer, PersonnelRecord> personnel = new LinkedHashMap<>();
+    private PersonnelAvailability availability = PersonnelAvailability.of(List.of());
+    private AsyncDatabase.Task<?> reloadTask;
+    private CalendarEventStore.Range pendingRange;
+    /** Идущее перечитывание источников; запросы, пришедшие за это время, копятся в queued*. */
+    private AsyncDatabase.Task<?> refreshTask;
+    private final Set<CalendarEventStore.Source> queuedSources = EnumSet.noneOf(CalendarEventStore.Source.class);
+    private boolean queuedReplaceAll;
+    /**
+     * Сроки поверки и ТО читаются один раз и переиспользуются при листании; null — перечитать всё,
+     * changedEquipment — перечитать только это оборудование. Доступ под expiryLock: загрузки идут в фоне.
+     */
+    private EquipmentExpiryIndex expiryIndex;
+    private final Set<Integer> changedEquipment = new HashSet<>();
+    private final Object expiryLock = new Object();
 
     public CalendarTab() {
         super(new BorderLayout());
         setBackground(CALENDAR_BACKGROUND);
         add(createToolbar(), BorderLayout.NORTH);
         add(createCenterContent(), BorderLayout.CENTER);
-        reloadEvents();
         renderCalendar();
     }
 
@@ -116,9 +142,8 @@ public class CalendarTab extends JPanel {
         });
         todayButton.addActionListener(e -> {
             currentMonth = YearMonth.now();
-            selectedDate = LocalDate.now();
+            selectDate(LocalDate.now());
             renderCalendar();
-            showSelectedDayDetails();
         });
         yearScaleToggle.addActionListener(e -> renderCalendar());
 
@@ -156,7 +181,7 @@ public class CalendarTab extends JPanel {
             for (JCheckBox box : aspectFilters.values()) {
                 box.setEnabled(enabled);
             }
-            renderCalendar();
+            updateAspectMask();
             showSelectedDayDetails();
         });
         panel.add(showAllCheck);
@@ -168,6 +193,8 @@ public class CalendarTab extends JPanel {
         addAspectCheckbox(panel, ASPECT_MSI);
         addAspectCheckbox(panel, ASPECT_VERIFICATION);
         addAspectCheckbox(panel, ASPECT_VLK);
+        addAspectCheckbox(panel, ASPECT_EQUIPMENT_EXPIRY);
+        addAspectCheckbox(panel, ASPECT_MAINTENANCE);
 
         for (JCheckBox box : aspectFilters.values()) {
             box.setEnabled(false);
@@ -180,7 +207,7 @@ public class CalendarTab extends JPanel {
         JCheckBox box = new JCheckBox(aspect, true);
         box.setOpaque(false);
         box.addActionListener(e -> {
-            renderCalendar();
+            updateAspectMask();
             showSelectedDayDetails();
         });
         aspectFilters.put(aspect, box);
@@ -201,6 +228,10 @@ public class CalendarTab extends JPanel {
 
     private JComponent createCenterContent() {
         calendarContainer.setBackground(CALENDAR_BACKGROUND);
+        JScrollPane calendarScroll = new JScrollPane(calendarGrid);
+        calendarScroll.setBorder(null);
+        calendarScroll.getViewport().setBackground(CALENDAR_BACKGROUND);
+        calendarContainer.add(calendarScroll, BorderLayout.CENTER);
 
         detailsEventsPanel.setLayout(new BoxLayout(detailsEventsPanel, BoxLayout.Y_AXIS));
         detailsEventsPanel.setBackground(SURFACE_COLOR);
@@ -235,12 +266,130 @@ public class CalendarTab extends JPanel {
         return content;
     }
 
-    private void reloadEvents() {
-        allEvents.clear();
-        try {
-            for (PersonnelRecord person : DatabaseManager.getAllPersonnel()) {
+    /** Догружает недостающую часть видимого диапазона; ячейки перерисуются, когда данные придут. */
+    private void ensureVisibleRangeLoaded() {
+        CalendarEventStore.Range missing = store.missing(visibleRange());
+        if (missing == null || missing.equals(pendingRange)) {
+            return;
+        }
+        if (reloadTask != null) {
+            reloadTask.cancel();
+        }
+        pendingRange = missing;
+        reloadTask = AsyncDatabase.supply(() -> loadEvents(EnumSet.allOf(CalendarEventStore.Source.class), missing))
+                .onEdt(loaded -> {
+                    pendingRange = null;
+                    apply(loaded, false);
+                }, ex -> {
+                    pendingRange = null;
+                    showLoadError(ex);
+                });
+    }
+
+    /**
+     * Перечитывает события источников {@code sources} в уже загруженном диапазоне;
+     * {@code replaceAll} — сначала забыть всё, что было загружено раньше.
+     * Идущее перечитывание не отменяется: новые источники объединяются и читаются сразу после него.
+     */
+    private void refreshSources(Set<CalendarEventStore.Source> sources, boolean replaceAll) {
+        queuedSources.addAll(sources);
+        queuedReplaceAll |= replaceAll;
+        if (replaceAll && reloadTask != null) {
+            reloadTask.cancel();
+            pendingRange = null;
+        }
+        if (refreshTask == null) {
+            startQueuedRefresh();
+        }
+    }
+
+    private void startQueuedRefresh() {
+        Set<CalendarEventStore.Source> sources = EnumSet.copyOf(queuedSources);
+        boolean replaceAll = queuedReplaceAll;
+        queuedSources.clear();
+        queuedReplaceAll = false;
+        CalendarEventStore.Range range = replaceAll || store.loaded() == null ? visibleRange() : store.loaded();
+        refreshTask = AsyncDatabase.supply(() -> loadEvents(sources, range))
+                .onEdt(loaded -> {
+                    apply(loaded, replaceAll);
+                    refreshFinished();
+                }, ex -> {
+                    refreshFinished();
+                    showLoadError(ex);
+                });
+    }
+
+    private void refreshFinished() {
+        refreshTask = null;
+        if (!queuedSources.isEmpty()) {
+            startQueuedRefresh();
+        }
+    }
+
+    private void apply(LoadedCalendar loaded, boolean replaceAll) {
+        if (replaceAll) {
+            store.clear();
+            personnel = new LinkedHashMap<>();
+        }
+        store.put(loaded.sources(), loaded.range(), loaded.events());
+        if (loaded.personnel() != null) {
+            mergePersonnel(loaded.range(), loaded.personnel());
+        }
+        if (replaceAll) {
+            calendarGrid.repaint();
+        } else {
+            calendarGrid.repaintDays(loaded.range());
+        }
+        showSelectedDayDetails();
+        ensureVisibleRangeLoaded();
+    }
+
+    /** Отсутствия вне перечитанного диапазона остаются от прошлых загрузок. */
+    private void mergePersonnel(CalendarEventStore.Range range, List<PersonnelRecord> loaded) {
+        Map<Integer, PersonnelRecord> merged = new LinkedHashMap<>();
+        for (PersonnelRecord person : loaded) {
+            PersonnelRecord previous = personnel.get(person.getId());
+            if (previous != null) {
+                for (PersonnelRecord.UnavailabilityRecord rec : previous.getUnavailabilityDates()) {
+                    if (rec.getUnavailableDate() != null && !range.contains(rec.getUnavailableDate())) {
+                        person.getUnavailabilityDates().add(rec);
+                    }
+                }
+            }
+            merged.put(person.getId(), person);
+        }
+        personnel = merged;
+        availability = PersonnelAvailability.of(new ArrayList<>(merged.values()));
+    }
+
+    private void showLoadError(Throwable ex) {
+        JOptionPane.showMessageDialog(this,
+                "Не удалось загрузить календарь: " + ex.getMessage(),
+                "Ошибка БД",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
+    /** Дни, которые видны на экране: сетка месяца или все двенадцать сеток года. */
+    private CalendarEventStore.Range visibleRange() {
+        YearMonth first = yearScaleToggle.isSelected() ? YearMonth.of(currentMonth.getYear(), 1) : currentMonth;
+        YearMonth last = yearScaleToggle.isSelected() ? YearMonth.of(currentMonth.getYear(), 12) : currentMonth;
+        return new CalendarEventStore.Range(gridStart(first), gridStart(last).plusDays(41));
+    }
+
+    static LocalDate gridStart(YearMonth month) {
+        return month.atDay(1).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    /** Собирает события календаря из БД за диапазон; выполняется в фоновом потоке и не трогает компоненты. */
+    private LoadedCalendar loadEvents(Set<CalendarEventStore.Source> sources, CalendarEventStore.Range range)
+            throws SQLException {
+        List<CalendarEventStore.Event> events = new ArrayList<>();
+        List<PersonnelRecord> loadedPersonnel = null;
+        if (sources.contains(CalendarEventStore.Source.ABSENCE)) {
+            loadedPersonnel = DatabaseManager.getAllPersonnel(range.from(), range.to());
+            for (PersonnelRecord person : loadedPersonnel) {
                 for (PersonnelRecord.UnavailabilityRecord rec : person.getUnavailabilityDates()) {
-                    LocalDate day = parseDate(rec.getUnavailableDate());
+                    LocalDate day = rec.getUnavailableDate();
                     if (day == null) {
                         continue;
                     }
@@ -249,45 +398,85 @@ public class CalendarTab extends JPanel {
                     String title = aspect.equals(ASPECT_VACATION)
                             ? "Отпуск " + shortName
                             : aspect + " " + shortName;
-                    allEvents.add(new CalendarEvent(day, aspect, title, person.getFullName()));
+                    events.add(new CalendarEventStore.Event(
+                            day, aspect, CalendarEventStore.Source.ABSENCE, title, person.getFullName()));
                 }
             }
+        }
 
-            for (VlkDateRecord vlkDate : DatabaseManager.getAllVlkDates()) {
-                LocalDate day = parseDate(vlkDate.getVlkDate());
+        if (sources.contains(CalendarEventStore.Source.VLK)) {
+            for (VlkDateRecord vlkDate : DatabaseManager.getVlkDates(range.from(), range.to())) {
+                LocalDate day = vlkDate.getVlkDate();
                 if (day == null) {
                     continue;
                 }
                 String responsible = vlkDate.getResponsible() == null ? "" : vlkDate.getResponsible();
                 String event = vlkDate.getEventName() == null ? "" : vlkDate.getEventName();
-                allEvents.add(new CalendarEvent(
+                events.add(new CalendarEventStore.Event(
                         day,
                         ASPECT_VLK,
+                        CalendarEventStore.Source.VLK,
                         "ВЛК: " + responsible,
                         event
                 ));
             }
+        }
 
+        if (sources.contains(CalendarEventStore.Source.SITE_VISIT)) {
+            // Репозиторий выездов отдаёт выезды по годам: читаем только годы, попавшие в диапазон
             SiteVisitRepository visitRepository = new SiteVisitRepository();
             Set<Integer> loadedVisitIds = new HashSet<>();
             for (int year : visitRepository.getAvailableYears()) {
+                if (year < range.from().getYear() || year > range.to().getYear()) {
+                    continue;
+                }
                 for (SiteVisitRecord visit : visitRepository.getVisitsForYear(year)) {
                     if (visit.status() == SiteVisitStatus.CANCELLED || !loadedVisitIds.add(visit.id())) {
                         continue;
                     }
-                    addSiteVisitEvents(visit);
+                    addSiteVisitEvents(events, visit);
                 }
             }
-            allEvents.sort(Comparator.comparing(CalendarEvent::date).thenComparing(CalendarEvent::title));
-        } catch (SQLException ex) {
-            JOptionPane.showMessageDialog(this,
-                    "Не удалось загрузить календарь: " + ex.getMessage(),
-                    "Ошибка БД",
-                    JOptionPane.ERROR_MESSAGE);
+        }
+        if (sources.contains(CalendarEventStore.Source.EQUIPMENT)) {
+            for (DatabaseManager.EquipmentDueDate due : currentExpiryIndex().dueBetween(range.from(), range.to())) {
+                String name = valueOrEmpty(due.nameType()).replaceAll("\\s+", " ").trim();
+                String factoryNumber = valueOrEmpty(due.factoryNumber()).replaceAll("\\s+", " ").trim();
+                String serial = factoryNumber.isEmpty() ? "" : "Зав. № " + factoryNumber + "\n";
+                if (due.kind() == DatabaseManager.EquipmentDueKind.MAINTENANCE) {
+                    events.add(new CalendarEventStore.Event(due.date(), ASPECT_MAINTENANCE,
+                            CalendarEventStore.Source.EQUIPMENT, "ТО: " + name,
+                            serial + "Плановое ТО " + due.date().format(DATE_LABEL)));
+                } else {
+                    events.add(new CalendarEventStore.Event(due.date(), ASPECT_EQUIPMENT_EXPIRY,
+                            CalendarEventStore.Source.EQUIPMENT, "Истекает: " + name,
+                            serial + "Действует до " + due.date().format(DATE_LABEL)));
+                }
+            }
+        }
+        return new LoadedCalendar(sources, range, events, loadedPersonnel);
+    }
+
+    /**
+     * Индекс сроков оборудования: строится целиком при первом обращении, после refreshEvents и со сменой дня
+     * (ближайшие ТО считаются от сегодняшнего дня), а после правки карточек перечитывает только их сроки.
+     */
+    private EquipmentExpiryIndex currentExpiryIndex() throws SQLException {
+        synchronized (expiryLock) {
+            LocalDate today = LocalDate.now();
+            if (expiryIndex == null || !expiryIndex.builtOn().equals(today)) {
+                changedEquipment.clear();
+                expiryIndex = new EquipmentExpiryIndex(today, DatabaseManager.getEquipmentDueDates(today, null));
+            } else if (!changedEquipment.isEmpty()) {
+                List<Integer> ids = new ArrayList<>(changedEquipment);
+                expiryIndex = expiryIndex.withChanges(ids, DatabaseManager.getEquipmentDueDates(today, ids));
+                changedEquipment.clear();
+            }
+            return expiryIndex;
         }
     }
 
-    private void addSiteVisitEvents(SiteVisitRecord visit) {
+    private static void addSiteVisitEvents(List<CalendarEventStore.Event> events, SiteVisitRecord visit) {
         if (visit.startAt() == null || visit.endAt() == null) {
             return;
         }
@@ -318,7 +507,8 @@ public class CalendarTab extends JPanel {
         String eventDetails = String.join("\n", details);
 
         for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
-            allEvents.add(new CalendarEvent(day, ASPECT_TESTS, title, eventDetails));
+            events.add(new CalendarEventStore.Event(
+                    day, ASPECT_TESTS, CalendarEventStore.Source.SITE_VISIT, title, eventDetails));
         }
     }
 
@@ -326,200 +516,77 @@ public class CalendarTab extends JPanel {
         return value == null ? "" : value;
     }
 
+    /**
+     * Перечитывает видимый период целиком (при открытии календаря). Выезды редактируются
+     * только на своей карточке, поэтому отдельного обновления для них нет — они перечитываются здесь.
+     */
     public void refreshEvents() {
-        reloadEvents();
-        renderCalendar();
-        showSelectedDayDetails();
+        synchronized (expiryLock) {
+            expiryIndex = null;
+        }
+        refreshSources(EnumSet.allOf(CalendarEventStore.Source.class), true);
+    }
+
+    /** Перечитывает только даты ВЛК в загруженном периоде. */
+    public void refreshVlkDates() {
+        refreshSources(EnumSet.of(CalendarEventStore.Source.VLK), false);
+    }
+
+    /** Перечитывает только отсутствия персонала в загруженном периоде. */
+    public void refreshAbsences() {
+        refreshSources(EnumSet.of(CalendarEventStore.Source.ABSENCE), false);
+    }
+
+    /** Перечитывает все сроки поверки и ТО оборудования в загруженном периоде. */
+    public void refreshEquipment() {
+        refreshEquipment(null);
+    }
+
+    /**
+     * Перечитывает сроки поверки и ТО оборудования {@code equipmentIds} (null — всего реестра,
+     * например после импорта форм) и показывает их в загруженном периоде.
+     */
+    public void refreshEquipment(Collection<Integer> equipmentIds) {
+        synchronized (expiryLock) {
+            if (equipmentIds == null) {
+                expiryIndex = null;
+            } else {
+                changedEquipment.addAll(equipmentIds);
+            }
+        }
+        refreshSources(EnumSet.of(CalendarEventStore.Source.EQUIPMENT), false);
     }
 
     private void renderCalendar() {
-        calendarContainer.removeAll();
         monthTitle.setText(yearScaleToggle.isSelected()
                 ? String.valueOf(currentMonth.getYear())
                 : capitalize(currentMonth.format(MONTH_LABEL)));
+        calendarGrid.showPeriod(currentMonth, yearScaleToggle.isSelected());
+        showSelectedDayDetails();
+        ensureVisibleRangeLoaded();
+    }
 
+    private void selectDate(LocalDate date) {
+        selectedDate = date;
         if (yearScaleToggle.isSelected()) {
-            calendarContainer.add(createYearView(currentMonth.getYear()), BorderLayout.CENTER);
-        } else {
-            calendarContainer.add(createMonthView(currentMonth), BorderLayout.CENTER);
+            currentMonth = YearMonth.from(date);
         }
-
-        calendarContainer.revalidate();
-        calendarContainer.repaint();
+        calendarGrid.setSelectedDate(date);
         showSelectedDayDetails();
     }
 
-    private JComponent createMonthView(YearMonth month) {
-        JPanel root = new JPanel(new BorderLayout(0, 8));
-        root.setBackground(CALENDAR_BACKGROUND);
-        root.setBorder(new EmptyBorder(12, 14, 14, 14));
-        root.add(createWeekHeader(), BorderLayout.NORTH);
-
-        JPanel grid = new JPanel(new GridLayout(6, 7, 1, 1));
-        grid.setBackground(GRID_COLOR);
-        grid.setBorder(BorderFactory.createLineBorder(GRID_COLOR));
-
-        LocalDate firstDay = month.atDay(1);
-        LocalDate start = firstDay.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
-        for (int i = 0; i < 42; i++) {
-            grid.add(createDayCell(start.plusDays(i), month, false));
-        }
-
-        root.add(grid, BorderLayout.CENTER);
-        return root;
-    }
-
-    private JComponent createYearView(int year) {
-        JPanel monthsGrid = new JPanel(new GridLayout(4, 3, 8, 8));
-        monthsGrid.setBackground(CALENDAR_BACKGROUND);
-        monthsGrid.setBorder(new EmptyBorder(12, 14, 14, 14));
-        for (int m = 1; m <= 12; m++) {
-            YearMonth ym = YearMonth.of(year, m);
-            JPanel panel = new JPanel(new BorderLayout(0, 6));
-            panel.setBackground(SURFACE_COLOR);
-            JLabel label = new JLabel(capitalize(ym.format(DateTimeFormatter.ofPattern("LLLL", new Locale("ru")))), SwingConstants.LEFT);
-            label.setFont(label.getFont().deriveFont(Font.BOLD, 13f));
-            label.setBorder(new EmptyBorder(0, 2, 0, 0));
-            panel.add(label, BorderLayout.NORTH);
-
-            JPanel monthBody = new JPanel(new BorderLayout(0, 2));
-            monthBody.setBackground(SURFACE_COLOR);
-            monthBody.add(createWeekHeader(1, 1, 9f), BorderLayout.NORTH);
-
-            JPanel mini = new JPanel(new GridLayout(6, 7, 1, 1));
-            mini.setBackground(GRID_COLOR);
-            LocalDate firstDay = ym.atDay(1);
-            LocalDate start = firstDay.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
-            for (int i = 0; i < 42; i++) {
-                mini.add(createDayCell(start.plusDays(i), ym, true));
-            }
-
-            monthBody.add(mini, BorderLayout.CENTER);
-            panel.add(monthBody, BorderLayout.CENTER);
-            panel.setBorder(BorderFactory.createCompoundBorder(
-                    BorderFactory.createLineBorder(GRID_COLOR),
-                    new EmptyBorder(8, 8, 8, 8)
-            ));
-            monthsGrid.add(panel);
-        }
-        JScrollPane yearScroll = new JScrollPane(monthsGrid);
-        yearScroll.setBorder(null);
-        yearScroll.getViewport().setBackground(CALENDAR_BACKGROUND);
-        yearScroll.getVerticalScrollBar().setUnitIncrement(32);
-        yearScroll.getVerticalScrollBar().setBlockIncrement(128);
-        return yearScroll;
-    }
-
-    private JComponent createWeekHeader() {
-        return createWeekHeader(1, 0, 12f);
-    }
-
-    private JComponent createWeekHeader(int hGap, int vGap, float fontSize) {
-        JPanel header = new JPanel(new GridLayout(1, 7, hGap, vGap));
-        header.setOpaque(false);
-        String[] days = {"Пн", "Вт", "Ср", "Чт", "Пт", "Сб", "Вс"};
-        for (int i = 0; i < days.length; i++) {
-            String day = days[i];
-            JLabel label = new JLabel(day, SwingConstants.CENTER);
-            label.setFont(label.getFont().deriveFont(Font.BOLD, fontSize));
-            label.setForeground(i >= 5 ? new Color(200, 79, 79) : MUTED_TEXT_COLOR);
-            header.add(label);
-        }
-        return header;
-    }
-
-    private JComponent createDayCell(LocalDate date, YearMonth visibleMonth, boolean compact) {
-        List<CalendarEvent> events = eventsForDate(date);
-
-        JPanel cell = new JPanel(new BorderLayout(0, compact ? 0 : 3));
-        cell.setBorder(new EmptyBorder(1, 1, 1, 1));
-        cell.setBackground(SURFACE_COLOR);
-        cell.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-
-        boolean outsideMonth = !YearMonth.from(date).equals(visibleMonth);
-        if (outsideMonth) {
-            cell.setBackground(new Color(249, 250, 251));
-        }
-        if (date.equals(selectedDate)) {
-            cell.setBackground(SELECTED_DAY_COLOR);
-            cell.setBorder(BorderFactory.createLineBorder(PRIMARY_COLOR, compact ? 1 : 2));
-        }
-
-        JLabel dayNumber = new JLabel(String.valueOf(date.getDayOfMonth()));
-        dayNumber.setHorizontalAlignment(SwingConstants.CENTER);
-        dayNumber.setFont(dayNumber.getFont().deriveFont(compact ? 9f : 12f));
-        dayNumber.setForeground(outsideMonth ? new Color(177, 182, 189) : Color.DARK_GRAY);
-        dayNumber.setPreferredSize(new Dimension(compact ? 18 : 25, compact ? 17 : 25));
-        if (date.equals(LocalDate.now())) {
-            dayNumber.setOpaque(true);
-            dayNumber.setBackground(PRIMARY_COLOR);
-            dayNumber.setForeground(Color.WHITE);
-            dayNumber.setBorder(new EmptyBorder(1, 4, 1, 4));
-        }
-
-        JPanel dayHeader = new JPanel(new FlowLayout(FlowLayout.RIGHT, compact ? 1 : 4, compact ? 0 : 3));
-        dayHeader.setOpaque(false);
-        dayHeader.add(dayNumber);
-        cell.add(dayHeader, BorderLayout.NORTH);
-
-        if (!compact) {
-            JPanel eventsPanel = new JPanel();
-            eventsPanel.setLayout(new BoxLayout(eventsPanel, BoxLayout.Y_AXIS));
-            eventsPanel.setOpaque(false);
-            eventsPanel.setBorder(new EmptyBorder(0, 4, 3, 4));
-
-            int limit = 3;
-            for (int i = 0; i < Math.min(limit, events.size()); i++) {
-                CalendarEvent event = events.get(i);
-                Color aspectColor = colorForAspect(event.aspect());
-                JLabel eLabel = new JLabel(event.title());
-                eLabel.setFont(eLabel.getFont().deriveFont(10f));
-                eLabel.setForeground(darken(aspectColor));
-                eLabel.setOpaque(true);
-                eLabel.setBackground(tint(aspectColor));
-                eLabel.setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createMatteBorder(0, 4, 0, 0, aspectColor),
-                        new EmptyBorder(2, 5, 2, 4)
-                ));
-                eLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
-                eLabel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 22));
-                eLabel.setToolTipText(event.title());
-                eventsPanel.add(eLabel);
-                eventsPanel.add(Box.createVerticalStrut(2));
-            }
-            if (events.size() > limit) {
-                JLabel more = new JLabel("Ещё " + (events.size() - limit));
-                more.setFont(more.getFont().deriveFont(Font.ITALIC, 10f));
-                more.setForeground(PRIMARY_COLOR);
-                more.setBorder(new EmptyBorder(1, 5, 0, 0));
-                eventsPanel.add(more);
-            }
-            cell.add(eventsPanel, BorderLayout.CENTER);
-        } else if (!events.isEmpty()) {
-            JPanel marker = createEventMarkerPanel(events, compact);
-            cell.add(marker, BorderLayout.SOUTH);
-        }
-
-        cell.setToolTipText(events.isEmpty() ? "Нет событий" : events.stream().map(CalendarEvent::title).collect(Collectors.joining(", ")));
-        cell.addMouseListener(new java.awt.event.MouseAdapter() {
-            @Override
-            public void mouseClicked(java.awt.event.MouseEvent e) {
-                selectedDate = date;
-                if (yearScaleToggle.isSelected()) {
-                    currentMonth = YearMonth.from(date);
-                }
-                renderCalendar();
-                showSelectedDayDetails();
-            }
-        });
-
-        return cell;
-    }
-
     private void showSelectedDayDetails() {
         selectedDateLabel.setText(capitalize(selectedDate.format(DAY_LABEL)));
         detailsEventsPanel.removeAll();
-        List<CalendarEvent> events = eventsForDate(selectedDate);
+        int staff = availability.getPersonnel().size();
+        if (staff > 0) {
+            JLabel freeLabel = new JLabel("Свободны: " + availability.freeOn(selectedDate).size() + " из " + staff);
+            freeLabel.setForeground(MUTED_TEXT_COLOR);
+            freeLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+            detailsEventsPanel.add(freeLabel);
+            detailsEventsPanel.add(Box.createVerticalStrut(8));
+        }
+        List<CalendarEventStore.Event> events = eventsForDate(selectedDate);
         if (events.isEmpty()) {
             JLabel emptyLabel = new JLabel("<html>На выбранную дату<br>событий нет</html>");
             emptyLabel.setForeground(MUTED_TEXT_COLOR);
@@ -530,7 +597,7 @@ public class CalendarTab extends JPanel {
             return;
         }
 
-        for (CalendarEvent event : events) {
+        for (CalendarEventStore.Event event : events) {
             detailsEventsPanel.add(createEventDetailsCard(event));
             detailsEventsPanel.add(Box.createVerticalStrut(8));
         }
@@ -539,7 +606,7 @@ public class CalendarTab extends JPanel {
         detailsEventsPanel.repaint();
     }
 
-    private JComponent createEventDetailsCard(CalendarEvent event) {
+    private JComponent createEventDetailsCard(CalendarEventStore.Event event) {
         Color aspectColor = colorForAspect(event.aspect());
         Color background = tint(aspectColor);
 
@@ -587,52 +654,31 @@ public class CalendarTab extends JPanel {
         return area;
     }
 
-    private List<CalendarEvent> eventsForDate(LocalDate date) {
-        Set<String> selectedAspects = selectedAspects();
-        return allEvents.stream()
-                .filter(e -> e.date().equals(date))
-                .filter(e -> selectedAspects.contains(e.aspect()))
-                .toList();
+    private List<CalendarEventStore.Event> eventsForDate(LocalDate date) {
+        return store.eventsOn(date, aspectMask);
     }
 
-    private Set<String> selectedAspects() {
+    /** Маска выбранных аспектов пересчитывается только при смене фильтров. */
+    private void updateAspectMask() {
+        int mask = 0;
         if (showAllCheck.isSelected()) {
-            return aspectFilters.keySet();
-        }
-        return aspectFilters.entrySet().stream()
-                .filter(entry -> entry.getValue().isSelected())
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
-    }
-
-    private JPanel createEventMarkerPanel(List<CalendarEvent> events, boolean compact) {
-        JPanel marker = new JPanel(new GridLayout(1, 0, 1, 0));
-        marker.setOpaque(false);
-
-        int limit = compact ? 3 : 4;
-        Set<String> uniqueAspects = events.stream()
-                .map(CalendarEvent::aspect)
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        int count = 0;
-        for (String aspect : uniqueAspects) {
-            if (count++ >= limit) {
-                break;
+            mask = store.allAspects();
+        } else {
+            for (Map.Entry<String, JCheckBox> entry : aspectFilters.entrySet()) {
+                if (entry.getValue().isSelected()) {
+                    mask |= store.aspectBit(entry.getKey());
+                }
             }
-            JPanel strip = new JPanel();
-            strip.setOpaque(true);
-            strip.setBackground(colorForAspect(aspect));
-            strip.setPreferredSize(new Dimension(8, compact ? 4 : 6));
-            marker.add(strip);
         }
-        return marker;
+        aspectMask = mask;
+        calendarGrid.setAspectMask(mask);
     }
 
     private Color colorForAspect(String aspect) {
         return ASPECT_COLORS.getOrDefault(aspect, new Color(120, 144, 156));
     }
 
-    private static Color tint(Color color) {
+    static Color tint(Color color) {
         return new Color(
                 (color.getRed() + 255 * 6) / 7,
                 (color.getGreen() + 255 * 6) / 7,
@@ -640,7 +686,7 @@ public class CalendarTab extends JPanel {
         );
     }
 
-    private static Color darken(Color color) {
+    static Color darken(Color color) {
         return new Color(
                 Math.max(0, color.getRed() * 2 / 3),
                 Math.max(0, color.getGreen() * 2 / 3),
@@ -648,35 +694,6 @@ public class CalendarTab extends JPanel {
         );
     }
 
-    private static LocalDate parseDate(String value) {
-        if (value == null || value.isBlank()) {
-            return null;
-        }
-        String trimmed = value.trim();
-
-        if (trimmed.length() >= 10) {
-            try {
-                return LocalDate.parse(trimmed.substring(0, 10));
-            } catch (DateTimeParseException ignored) {
-                // Пробуем альтернативные форматы ниже.
-            }
-        }
-
-        try {
-            return LocalDate.parse(trimmed);
-        } catch (DateTimeParseException ignored) {
-            try {
-                return LocalDate.parse(trimmed, DOTTED_DATE_FORMAT);
-            } catch (DateTimeParseException ignoredAgain) {
-                try {
-                    return LocalDate.parse(trimmed, DASHED_DATE_FORMAT);
-                } catch (DateTimeParseException ignoredThird) {
-                    return null;
-                }
-            }
-        }
-    }
-
     private String normalizeAspect(String rawReason) {
         String reason = rawReason == null ? "" : rawReason.trim().toLowerCase(new Locale("ru"));
         if (reason.isBlank() || reason.contains("отпуск")) {
@@ -704,6 +721,10 @@ public class CalendarTab extends JPanel {
         return Character.toUpperCase(text.charAt(0)) + text.substring(1);
     }
 
-    private record CalendarEvent(LocalDate date, String aspect, String title, String details) {
+    /** События за диапазон, прочитанные в фоновом потоке; personnel == null — отсутствия не читались. */
+    private record LoadedCalendar(Set<CalendarEventStore.Source> sources,
+                                  CalendarEventStore.Range range,
+                                  List<CalendarEventStore.Event> events,
+                                  List<PersonnelRecord> personnel) {
     }
 }
@@ -0,0 +1,97 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import ru.citlab24.protokol.db.DatabaseManager.EquipmentDueDate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Сроки оборудования — окончание поверки/аттестации и ближайшее ТО, — упорядоченные по дате.
+ * <p>
+ * Вопрос «что наступает в ближайшие N дней» — два двоичных поиска и срез массива,
+ * без перебора реестра и арифметики дат на каждую запись. Неизменяемый: после правки карточек
+ * {@link #withChanges} строит новый индекс слиянием, перечитав сроки только изменившегося оборудования.
+ */
+final class EquipmentExpiryIndex {
+    private static final Comparator<EquipmentDueDate> BY_DATE = Comparator.comparing(EquipmentDueDate::date);
+
+    /** День, от которого считались ближайшие ТО; на следующий день индекс нужно перечитать. */
+    private final LocalDate builtOn;
+    private final EquipmentDueDate[] byDate;
+
+    EquipmentExpiryIndex(LocalDate builtOn, List<EquipmentDueDate> dueDates) {
+        this.builtOn = builtOn;
+        this.byDate = dueDates.toArray(new EquipmentDueDate[0]);
+        Arrays.sort(byDate, BY_DATE);
+    }
+
+    private EquipmentExpiryIndex(LocalDate builtOn, EquipmentDueDate[] byDate) {
+        this.builtOn = builtOn;
+        this.byDate = byDate;
+    }
+
+    LocalDate builtOn() {
+        return builtOn;
+    }
+
+    int size() {
+        return byDate.length;
+    }
+
+    /**
+     * Индекс, в котором сроки оборудования {@code equipmentIds} заменены на {@code fresh}
+     * (удалённое или выведенное из эксплуатации оборудование просто пропадает).
+     */
+    EquipmentExpiryIndex withChanges(Collection<Integer> equipmentIds, List<EquipmentDueDate> fresh) {
+        Set<Integer> changed = new HashSet<>(equipmentIds);
+        List<EquipmentDueDate> added = new ArrayList<>(fresh);
+        added.sort(BY_DATE);
+        List<EquipmentDueDate> merged = new ArrayList<>(byDate.length + added.size());
+        int next = 0;
+        for (EquipmentDueDate due : byDate) {
+            if (changed.contains(due.equipmentId())) {
+                continue;
+            }
+            while (next < added.size() && added.get(next).date().isBefore(due.date())) {
+                merged.add(added.get(next++));
+            }
+            merged.add(due);
+        }
+        merged.addAll(added.subList(next, added.size()));
+        return new EquipmentExpiryIndex(builtOn, merged.toArray(new EquipmentDueDate[0]));
+    }
+
+    /** Сроки в диапазоне {@code from}–{@code to} включительно, по возрастанию даты. */
+    List<EquipmentDueDate> dueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            return List.of();
+        }
+        return List.of(byDate).subList(lowerBound(from), lowerBound(to.plusDays(1)));
+    }
+
+    /** Сроки, наступающие в ближайшие {@code days} дней начиная с {@code from}. */
+    List<EquipmentDueDate> expiringWithin(LocalDate from, int days) {
+        return dueBetween(from, from.plusDays(days));
+    }
+
+    /** Первая позиция со сроком не раньше {@code date}. */
+    private int lowerBound(LocalDate date) {
+        int low = 0;
+        int high = byDate.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byDate[mid].date().isBefore(date)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import ru.citlab24.protokol.equipment.EquipmentCategory;
+import ru.citlab24.protokol.equipment.EquipmentDetails;
+import ru.citlab24.protokol.equipment.EquipmentRecord;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Поисковый индекс реестра оборудования, строится один раз на загрузку.
+ * <p>
+ * Текст каждой записи собирается из полей карточки и ищется через {@link EquipmentTextIndex};
+ * номера в результате {@link #find} — позиции записей в порядке загрузки.
+ * Неизменяемый; можно строить в фоновом потоке.
+ */
+final class EquipmentSearchIndex {
+    private final List<EquipmentRecord> records;
+    private final EquipmentTextIndex texts;
+
+    EquipmentSearchIndex(List<EquipmentRecord> records) {
+        this.records = List.copyOf(records);
+        List<String> searchable = new ArrayList<>(this.records.size());
+        List<EquipmentCategory> categories = new ArrayList<>(this.records.size());
+        BitSet active = new BitSet();
+        for (int i = 0; i < this.records.size(); i++) {
+            EquipmentDetails details = this.records.get(i).details();
+            searchable.add(searchableText(details));
+            categories.add(details.category());
+            if (details.active()) {
+                active.set(i);
+            }
+        }
+        this.texts = new EquipmentTextIndex(searchable, categories, active);
+    }
+
+    static EquipmentSearchIndex empty() {
+        return new EquipmentSearchIndex(List.of());
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    EquipmentRecord get(int index) {
+        return records.get(index);
+    }
+
+    /**
+     * Номера записей, подходящих под фильтры (по возрастанию, в порядке загрузки).
+     *
+     * @param category вид; null — все виды
+     * @param activeOnly true — в эксплуатации, false — выведенные, null — все
+     */
+    BitSet find(String query, EquipmentCategory category, Boolean activeOnly) {
+        return texts.find(query, category, activeOnly);
+    }
+
+    private static String searchableText(EquipmentDetails value) {
+        return String.join(" ",
+                value.category().getTitle(), value.measuredCharacteristics(),
+                value.testedObjectGroups(), value.nameType(), value.registryNumber(),
+                value.completeness(), value.manufacturer(),
+                Objects.toString(value.commissioningYear(), ""),
+                value.factoryNumber(), Objects.toString(value.inventoryNumber(), ""),
+                value.identification(), value.controlNumber(), value.verificationPlace(),
+                value.ownershipDocument(), value.storageLocation(),
+                value.servicePlanDetails(), value.servicePlanNotes(), value.notes());
+    }
+}
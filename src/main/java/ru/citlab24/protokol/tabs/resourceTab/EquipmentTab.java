@@ -5,6 +5,8 @@ import com.github.lgooddatepicker.components.DatePickerSettings;
 import org.kordamp.ikonli.fontawesome5.FontAwesomeSolid;
 import org.kordamp.ikonli.swing.FontIcon;
 import ru.citlab24.protokol.db.AppUserRecord;
+import ru.citlab24.protokol.db.AsyncDatabase;
+import ru.citlab24.protokol.db.DatabaseManager;
 import ru.citlab24.protokol.equipment.EquipmentCategory;
 import ru.citlab24.protokol.equipment.EquipmentContractRecord;
 import ru.citlab24.protokol.equipment.EquipmentDetails;
@@ -33,18 +35,24 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 
 public class EquipmentTab extends JPanel {
@@ -52,6 +60,9 @@ public class EquipmentTab extends JPanel {
     private static final String ALL_STATUSES = "Все статусы";
     private static final String ACTIVE_STATUS = "В эксплуатации";
     private static final String RETIRED_STATUS = "Выведено";
+    private static final int SEARCH_DELAY_MS = 250;
+    private static final int SNAPSHOT_CACHE_SIZE = 8;
+    private static final long SNAPSHOT_TTL_MS = 5 * 60_000;
     private static final Preferences PREFERENCES =
             Preferences.userNodeForPackage(EquipmentTab.class);
 
@@ -96,12 +107,33 @@ public class EquipmentTab extends JPanel {
     private final JButton openOwnershipFolderButton = new JButton("Открыть папку",
             FontIcon.of(FontAwesomeSolid.FOLDER_OPEN, 14));
     private final JLabel countLabel = new JLabel();
-    private final List<EquipmentRecord> allRecords = new ArrayList<>();
+    private EquipmentSearchIndex searchIndex = EquipmentSearchIndex.empty();
+    private final Timer searchTimer = new Timer(SEARCH_DELAY_MS, event -> applyFilters());
+    private final Timer asOfTimer = new Timer(SEARCH_DELAY_MS, event -> showSnapshot());
+    /** Загруженные срезы реестра по дате «на дату» (null — текущее состояние), в порядке обращения. */
+    private final Map<LocalDate, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Snapshot> eldest) {
+            return size() > SNAPSHOT_CACHE_SIZE;
+        }
+    };
+    private AsyncDatabase.Task<?> reloadTask;
+    private int uploadsInProgress;
     private RequestStorage requestStorage;
+    /**
+     * Вызывается после сохранения карточек, удаления и импорта с id изменённого оборудования
+     * (null — неизвестно, какого): меняются сроки поверки и ТО в календаре.
+     */
+    private final Consumer<Collection<Integer>> onEquipmentChanged;
 
     public EquipmentTab(AppUserRecord currentUser) {
+        this(currentUser, ids -> {});
+    }
+
+    public EquipmentTab(AppUserRecord currentUser, Consumer<Collection<Integer>> onEquipmentChanged) {
         super(new BorderLayout(8, 8));
         this.currentUser = currentUser;
+        this.onEquipmentChanged = onEquipmentChanged == null ? ids -> {} : onEquipmentChanged;
         add(createHeader(), BorderLayout.NORTH);
         add(createContent(), BorderLayout.CENTER);
         add(countLabel, BorderLayout.SOUTH);
@@ -352,68 +384,109 @@ public class EquipmentTab extends JPanel {
                 updateOwnershipActions();
             }
         });
+        searchTimer.setRepeats(false);
         DocumentListener searchListener = new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent event) {
-                applyFilters();
+                searchTimer.restart();
             }
 
             @Override
             public void removeUpdate(DocumentEvent event) {
-                applyFilters();
+                searchTimer.restart();
             }
 
             @Override
             public void changedUpdate(DocumentEvent event) {
-                applyFilters();
+                searchTimer.restart();
             }
         };
         searchField.getDocument().addDocumentListener(searchListener);
         categoryFilter.addActionListener(event -> applyFilters());
         statusFilter.addActionListener(event -> applyFilters());
         asOfDatePicker.setEnabled(false);
+        asOfTimer.setRepeats(false);
         asOfCheck.addActionListener(event -> {
             asOfDatePicker.setEnabled(asOfCheck.isSelected());
-            reloadData();
+            showSnapshot();
         });
         asOfDatePicker.addDateChangeListener(event -> {
             if (asOfCheck.isSelected() && event.getNewDate() != null) {
-                reloadData();
+                asOfTimer.restart();
             }
         });
     }
 
+    /** Перечитывает реестр из БД; ранее загруженные срезы на другие даты сбрасываются. */
     public void reloadData() {
-        Integer selectedId = getSelectedRecord() == null ? null : getSelectedRecord().equipmentId();
-        try {
-            LocalDate asOf = asOfCheck.isSelected() ? asOfDatePicker.getDate() : null;
-            allRecords.clear();
-            allRecords.addAll(EquipmentRepository.findAll(asOf));
-            applyFilters();
-            selectEquipment(selectedId);
-        } catch (SQLException error) {
-            showError("Не удалось загрузить реестр оборудования", error);
+        reloadData(null);
+    }
+
+    /** То же, но после загрузки выделяется оборудование selectId (null — остаётся текущее выделение). */
+    private void reloadData(Integer selectId) {
+        snapshots.clear();
+        showSnapshot(selectId);
+    }
+
+    /**
+     * Показывает реестр на выбранную дату: срез берётся из кэша, если он загружен недавно,
+     * иначе читается из БД. Перебор дат в календаре не перечитывает историю на уже виденные даты.
+     */
+    private void showSnapshot() {
+        showSnapshot(null);
+    }
+
+    private void showSnapshot(Integer selectId) {
+        asOfTimer.stop();
+        Integer selectedId = selectId != null ? selectId
+                : getSelectedRecord() == null ? null : getSelectedRecord().equipmentId();
+        LocalDate asOf = asOfCheck.isSelected() ? asOfDatePicker.getDate() : null;
+        if (reloadTask != null) {
+            reloadTask.cancel();
+        }
+        Snapshot cached = snapshots.get(asOf);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt() < SNAPSHOT_TTL_MS) {
+            showIndex(cached.index(), selectedId);
+            return;
         }
+        // Индекс строится в фоновом потоке вместе с загрузкой
+        reloadTask = AsyncDatabase.supply(() -> new EquipmentSearchIndex(EquipmentRepository.findAll(asOf)))
+                .onEdt(index -> {
+                    snapshots.put(asOf, new Snapshot(index, System.currentTimeMillis()));
+                    showIndex(index, selectedId);
+                }, error -> showError("Не удалось загрузить реестр оборудования", error));
+    }
+
+    private void showIndex(EquipmentSearchIndex index, Integer selectedId) {
+        searchIndex = index;
+        tableModel.setData(index, filteredRows(), referenceDate());
+        afterFilter();
+        selectEquipment(selectedId);
     }
 
+    /** Применяет фильтры строками: таблица получает события вставки и удаления, а не полную перестройку. */
     private void applyFilters() {
-        String query = normalize(searchField.getText());
+        searchTimer.stop();
+        tableModel.showRows(filteredRows());
+        afterFilter();
+    }
+
+    private BitSet filteredRows() {
         Object categoryValue = categoryFilter.getSelectedItem();
         String statusValue = Objects.toString(statusFilter.getSelectedItem(), ALL_STATUSES);
-        List<EquipmentRecord> filtered = allRecords.stream()
-                .filter(record -> !(categoryValue instanceof EquipmentCategory category)
-                        || record.details().category() == category)
-                .filter(record -> ALL_STATUSES.equals(statusValue)
-                        || ACTIVE_STATUS.equals(statusValue) == record.details().active())
-                .filter(record -> query.isBlank() || searchableText(record).contains(query))
-                .toList();
-        tableModel.setData(filtered, referenceDate());
-        countLabel.setText("Оборудование: " + filtered.size()
-                + (filtered.size() == allRecords.size() ? "" : " из " + allRecords.size()));
-        if (!filtered.isEmpty()) {
-            table.setRowSelectionInterval(0, 0);
-        } else {
+        return searchIndex.find(searchField.getText(),
+                categoryValue instanceof EquipmentCategory category ? category : null,
+                ALL_STATUSES.equals(statusValue) ? null : ACTIVE_STATUS.equals(statusValue));
+    }
+
+    private void afterFilter() {
+        int shown = tableModel.getRowCount();
+        countLabel.setText("Оборудование: " + shown
+                + (shown == searchIndex.size() ? "" : " из " + searchIndex.size()));
+        if (shown == 0) {
             updateDetails(null);
+        } else if (table.getSelectedRow() < 0) {
+            table.setRowSelectionInterval(0, 0);
         }
     }
 
@@ -437,29 +510,44 @@ public class EquipmentTab extends JPanel {
             PREFERENCES.put("equipment.import.directory", parent.getAbsolutePath());
         }
 
-        try {
+        // Разбор документов и запись в БД — в фоне; окно предпросмотра — в EDT между ними
+        File[] selectedFiles = files;
+        Integer userId = currentUserId();
+        countLabel.setText("Чтение форм…");
+        AsyncDatabase.supply(() -> {
             List<EquipmentFormImporter.EquipmentImport> imports = new ArrayList<>();
-            for (File file : files) {
+            for (File file : selectedFiles) {
                 imports.add(EquipmentFormImporter.read(file.toPath()));
             }
+            return imports;
+        }).onEdt(imports -> {
+            afterFilter();
             EquipmentImportPreviewDialog.ImportSelection selection =
                     EquipmentImportPreviewDialog.show(this, imports);
             if (selection == null) {
                 return;
             }
-            EquipmentRepository.ImportResult result = EquipmentRepository.importRows(
-                    selection.rows(), selection.fullRegister(), currentUserId());
-            reloadData();
-            JOptionPane.showMessageDialog(this,
-                    "Импорт завершён.\n"
-                            + "Добавлено: " + result.added() + "\n"
-                            + "Обновлено: " + result.updated() + "\n"
-                            + "Выведено из эксплуатации: " + result.retired() + "\n"
-                            + "Без изменений: " + result.unchanged(),
-                    "Оборудование", JOptionPane.INFORMATION_MESSAGE);
-        } catch (Exception error) {
+            countLabel.setText("Импорт оборудования…");
+            AsyncDatabase.supply(() -> EquipmentRepository.importRows(
+                            selection.rows(), selection.fullRegister(), userId))
+                    .onEdt(result -> {
+                        reloadData();
+                        onEquipmentChanged.accept(null);
+                        JOptionPane.showMessageDialog(this,
+                                "Импорт завершён.\n"
+                                        + "Добавлено: " + result.added() + "\n"
+                                        + "Обновлено: " + result.updated() + "\n"
+                                        + "Выведено из эксплуатации: " + result.retired() + "\n"
+                                        + "Без изменений: " + result.unchanged(),
+                                "Оборудование", JOptionPane.INFORMATION_MESSAGE);
+                    }, error -> {
+                        afterFilter();
+                        showError("Не удалось импортировать формы", error);
+                    });
+        }, error -> {
+            afterFilter();
             showError("Не удалось импортировать формы", error);
-        }
+        });
     }
 
     private void exportForms() {
@@ -511,50 +599,124 @@ public class EquipmentTab extends JPanel {
             PREFERENCES.put("equipment.import.directory", parent.getAbsolutePath());
         }
 
+        countLabel.setText("Чтение плана Ф35…");
+        AsyncDatabase.supply(() -> new ServicePlanSource(
+                        EquipmentServicePlanImporter.read(file.toPath()), EquipmentRepository.findAll(null)))
+                .onEdt(source -> {
+                    afterFilter();
+                    applyServicePlan(file, source);
+                }, error -> {
+                    afterFilter();
+                    showError("Не удалось загрузить текущий план Ф35", error);
+                });
+    }
+
+    private void applyServicePlan(File file, ServicePlanSource source) {
         try {
-            EquipmentServicePlanImporter.ServicePlanImport plan =
-                    EquipmentServicePlanImporter.read(file.toPath());
-            List<EquipmentRecord> equipment = EquipmentRepository.findAll(null);
             EquipmentServicePlanImportDialog.ImportSelection selection =
-                    EquipmentServicePlanImportDialog.show(this, plan, equipment);
+                    EquipmentServicePlanImportDialog.show(this, source.plan(), source.equipment());
             if (selection == null) {
                 return;
             }
 
+            // Сравнение с текущими карточками в памяти: в БД уходят только изменившиеся
             Map<Integer, EquipmentRepository.ServicePlanUpdate> updates =
                     new LinkedHashMap<>();
+            Map<Integer, EquipmentRecord> unchanged = new LinkedHashMap<>();
+            List<String> changes = new ArrayList<>();
             for (EquipmentServicePlanImportDialog.Assignment assignment
                     : selection.assignments()) {
                 for (EquipmentRecord record : assignment.equipment()) {
+                    if (servicePlanUnchanged(record.details(),
+                            assignment.row().serviceDetails(), assignment.row().notes())) {
+                        if (!updates.containsKey(record.equipmentId())) {
+                            unchanged.put(record.equipmentId(), record);
+                        }
+                        continue;
+                    }
+                    unchanged.remove(record.equipmentId());
                     EquipmentDetails details = record.details().toBuilder()
                             .effectiveDate(selection.effectiveDate())
                             .servicePlanRequired(true)
                             .servicePlanDetails(assignment.row().serviceDetails())
                             .servicePlanNotes(assignment.row().notes())
                             .build();
-                    updates.put(record.equipmentId(),
+                    if (updates.put(record.equipmentId(),
                             new EquipmentRepository.ServicePlanUpdate(
                                     record.equipmentId(), details,
-                                    assignment.row().sourceRow()));
+                                    assignment.row().sourceRow())) == null) {
+                        changes.add(oneLine(record.details().nameType())
+                                + " (стр. " + assignment.row().sourceRow() + ")");
+                    }
                 }
             }
 
-            EquipmentRepository.ServicePlanImportResult result =
-                    EquipmentRepository.importServicePlan(
-                            new ArrayList<>(updates.values()),
-                            file.getName(), currentUserId());
-            reloadData();
-            JOptionPane.showMessageDialog(this,
-                    "План Ф35 загружен.\n"
-                            + "Обновлено карточек: " + result.updated() + "\n"
-                            + "Без изменений: " + result.unchanged() + "\n"
-                            + "Строк без сопоставления: " + selection.skippedRows(),
-                    "Оборудование", JOptionPane.INFORMATION_MESSAGE);
+            if (!confirmServicePlanChanges(changes, unchanged.size(), selection.skippedRows())) {
+                return;
+            }
+            Integer userId = currentUserId();
+            countLabel.setText("Загрузка плана Ф35…");
+            AsyncDatabase.supply(() -> EquipmentRepository.importServicePlan(
+                            new ArrayList<>(updates.values()), file.getName(), userId))
+                    .onEdt(result -> {
+                        reloadData();
+                        onEquipmentChanged.accept(List.copyOf(updates.keySet()));
+                        JOptionPane.showMessageDialog(this,
+                                "План Ф35 загружен.\n"
+                                        + "Обновлено карточек: " + result.updated() + "\n"
+                                        + "Без изменений: " + (result.unchanged() + unchanged.size()) + "\n"
+                                        + "Строк без сопоставления: " + selection.skippedRows(),
+                                "Оборудование", JOptionPane.INFORMATION_MESSAGE);
+                    }, error -> {
+                        afterFilter();
+                        showError("Не удалось загрузить текущий план Ф35", error);
+                    });
         } catch (Exception error) {
             showError("Не удалось загрузить текущий план Ф35", error);
         }
     }
 
+    private static boolean servicePlanUnchanged(EquipmentDetails current, String serviceDetails, String notes) {
+        return current.servicePlanRequired()
+                && planText(current.servicePlanDetails()).equals(planText(serviceDetails))
+                && planText(current.servicePlanNotes()).equals(planText(notes));
+    }
+
+    /** Текст плана для сравнения: переводы строк значимы, различия CRLF/LF и пробелы по краям — нет. */
+    private static String planText(String value) {
+        return value == null ? "" : value.replace("\r\n", "\n").replace('\r', '\n').strip();
+    }
+
+    private static String oneLine(String value) {
+        return value == null ? "" : value.replaceAll("\\s+", " ").trim();
+    }
+
+    /** Отчёт «что изменится» до записи в БД; false — пользователь отказался или менять нечего. */
+    private boolean confirmServicePlanChanges(List<String> changes, int unchanged, int skippedRows) {
+        String summary = "Будет обновлено карточек: " + changes.size() + "\n"
+                + "Без изменений: " + unchanged + "\n"
+                + "Строк без сопоставления: " + skippedRows;
+        if (changes.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "План Ф35 совпадает с текущими карточками.\n" + summary,
+                    "Оборудование", JOptionPane.INFORMATION_MESSAGE);
+            return false;
+        }
+        int shown = Math.min(changes.size(), 15);
+        StringBuilder report = new StringBuilder(summary).append("\n\nИзменятся:\n");
+        for (String change : changes.subList(0, shown)) {
+            report.append("• ").append(change).append('\n');
+        }
+        if (changes.size() > shown) {
+            report.append("… и ещё ").append(changes.size() - shown).append('\n');
+        }
+        JTextArea area = new JTextArea(report.toString(), Math.min(24, shown + 6), 60);
+        area.setEditable(false);
+        return JOptionPane.showConfirmDialog(this, new JScrollPane(area),
+                "План Ф35: проверка изменений", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.QUESTION_MESSAGE) == JOptionPane.OK_OPTION;
+    }
+
     private void openEquipmentSchedules() {
         try {
             EquipmentScheduleDialog.show(this, currentUser, storage());
@@ -571,8 +733,8 @@ public class EquipmentTab extends JPanel {
         }
         try {
             int equipmentId = EquipmentRepository.save(null, details, currentUserId());
-            reloadData();
-            selectEquipment(equipmentId);
+            reloadData(equipmentId);
+            onEquipmentChanged.accept(List.of(equipmentId));
             showCreationChecklist(details);
         } catch (SQLException error) {
             showError("Не удалось добавить оборудование", error);
@@ -622,8 +784,8 @@ public class EquipmentTab extends JPanel {
         }
         try {
             EquipmentRepository.save(selected.equipmentId(), details, currentUserId());
-            reloadData();
-            selectEquipment(selected.equipmentId());
+            reloadData(selected.equipmentId());
+            onEquipmentChanged.accept(List.of(selected.equipmentId()));
         } catch (SQLException error) {
             showError("Не удалось сохранить изменения", error);
         }
@@ -674,8 +836,9 @@ public class EquipmentTab extends JPanel {
                     RequestStorage files = storage();
                     for (EquipmentContractRecord document : documents) {
                         try {
-                            files.delete(document.relativePath());
-                        } catch (IOException error) {
+                            // Файл может быть общим с документом другого оборудования
+                            deleteUnreferenced(files, document.relativePath());
+                        } catch (IOException | SQLException error) {
                             fileErrors.add(document.originalFileName());
                         }
                     }
@@ -686,6 +849,7 @@ public class EquipmentTab extends JPanel {
                 }
             }
             reloadData();
+            onEquipmentChanged.accept(selected.stream().map(EquipmentRecord::equipmentId).toList());
             if (fileErrors.isEmpty()) {
                 JOptionPane.showMessageDialog(this,
                         "Удалено оборудования: " + deleted,
@@ -782,23 +946,23 @@ public class EquipmentTab extends JPanel {
         if (source == null) {
             return;
         }
-        StoredRequestFile stored = null;
-        try {
-            RequestStorage storage = storage();
-            stored = storage.storeEquipmentContract(
+        Integer userId = currentUserId();
+        uploadInBackground(source, contractEquipmentLabel, "Не удалось добавить договор оборудования", (storage, digest) -> {
+            if (DatabaseManager.addEquipmentDocumentWithStoredFile(equipment.equipmentId(), true,
+                    source.getName(), digest.sha256(), digest.size(), userId)) {
+                return null;
+            }
+            StoredRequestFile stored = storage.storeEquipmentContract(
                     source.toPath(), equipment.equipmentId(), null, null);
-            EquipmentRepository.addContract(
-                    equipment.equipmentId(), stored, currentUserId());
-            reloadContracts(equipment);
-        } catch (Exception error) {
-            if (stored != null) {
-                try {
-                    storage().delete(stored.relativePath());
-                } catch (IOException ignored) {
-                }
+            try {
+                EquipmentRepository.addContract(equipment.equipmentId(), stored, userId);
+            } catch (Exception error) {
+                deleteQuietly(storage, stored);
+                throw error;
             }
-            showError("Не удалось добавить договор оборудования", error);
-        }
+            reuseStoredFile(storage, stored, digest);
+            return null;
+        });
     }
 
     private void openSelectedContract() {
@@ -825,35 +989,33 @@ public class EquipmentTab extends JPanel {
         if (source == null) {
             return;
         }
-        StoredRequestFile stored = null;
-        boolean databaseUpdated = false;
-        try {
-            RequestStorage storage = storage();
-            stored = storage.storeEquipmentContract(
-                    source.toPath(), equipment.equipmentId(), null, null);
-            EquipmentRepository.replaceContract(contract.id(), stored, currentUserId());
-            databaseUpdated = true;
-            try {
-                storage.delete(contract.relativePath());
-            } catch (IOException error) {
-                JOptionPane.showMessageDialog(this,
-                        "Договор заменён, но старый файл не удалось удалить:\n"
-                                + error.getMessage(),
-                        "Договоры оборудования", JOptionPane.WARNING_MESSAGE);
-            }
-            reloadContracts(equipment);
-        } catch (Exception error) {
-            if (!databaseUpdated && stored != null) {
+        Integer userId = currentUserId();
+        uploadInBackground(source, contractEquipmentLabel, "Не удалось заменить договор оборудования", (storage, digest) -> {
+            if (!DatabaseManager.replaceEquipmentDocumentWithStoredFile(contract.id(),
+                    source.getName(), digest.sha256(), digest.size(), userId)) {
+                StoredRequestFile stored = storage.storeEquipmentContract(
+                        source.toPath(), equipment.equipmentId(), null, null);
                 try {
-                    storage().delete(stored.relativePath());
-                } catch (IOException ignored) {
+                    EquipmentRepository.replaceContract(contract.id(), stored, userId);
+                } catch (Exception error) {
+                    deleteQuietly(storage, stored);
+                    throw error;
                 }
+                reuseStoredFile(storage, stored, digest);
             }
-            showError("Не удалось заменить договор оборудования", error);
-        }
+            try {
+                deleteUnreferenced(storage, contract.relativePath());
+            } catch (IOException | SQLException error) {
+                return "Договор заменён, но старый файл не удалось удалить:\n" + error.getMessage();
+            }
+            return null;
+        });
     }
 
     private void deleteSelectedContract() {
+        if (uploadsInProgress > 0) {
+            return; // загружаемый файл может оказаться общим с удаляемым
+        }
         EquipmentRecord equipment = getSelectedRecord();
         EquipmentContractRecord contract = getSelectedContract();
         if (equipment == null || contract == null) {
@@ -872,8 +1034,8 @@ public class EquipmentTab extends JPanel {
             EquipmentContractRecord removed =
                     EquipmentRepository.deleteContract(contract.id());
             try {
-                storage.delete(removed.relativePath());
-            } catch (IOException error) {
+                deleteUnreferenced(storage, removed.relativePath());
+            } catch (IOException | SQLException error) {
                 JOptionPane.showMessageDialog(this,
                         "Запись удалена, но файл не удалось удалить:\n"
                                 + error.getMessage(),
@@ -910,10 +1072,10 @@ public class EquipmentTab extends JPanel {
         boolean equipmentSelected = getSelectedRecord() != null;
         boolean contractSelected = getSelectedContract() != null;
         boolean canEdit = currentUser != null && currentUser.isAdministrator();
-        addContractButton.setEnabled(canEdit && equipmentSelected);
+        addContractButton.setEnabled(canEdit && equipmentSelected && uploadsInProgress == 0);
         openContractButton.setEnabled(contractSelected);
-        replaceContractButton.setEnabled(canEdit && contractSelected);
-        deleteContractButton.setEnabled(canEdit && contractSelected);
+        replaceContractButton.setEnabled(canEdit && contractSelected && uploadsInProgress == 0);
+        deleteContractButton.setEnabled(canEdit && contractSelected && uploadsInProgress == 0);
         openContractFolderButton.setEnabled(equipmentSelected);
     }
 
@@ -963,23 +1125,23 @@ public class EquipmentTab extends JPanel {
         if (source == null) {
             return;
         }
-        StoredRequestFile stored = null;
-        try {
-            RequestStorage storage = storage();
-            stored = storage.storeEquipmentOwnershipDocument(
+        Integer userId = currentUserId();
+        uploadInBackground(source, ownershipEquipmentLabel, "Не удалось добавить документ собственности", (storage, digest) -> {
+            if (DatabaseManager.addEquipmentDocumentWithStoredFile(equipment.equipmentId(), false,
+                    source.getName(), digest.sha256(), digest.size(), userId)) {
+                return null;
+            }
+            StoredRequestFile stored = storage.storeEquipmentOwnershipDocument(
                     source.toPath(), equipment.equipmentId(), null, null);
-            EquipmentRepository.addOwnershipDocument(
-                    equipment.equipmentId(), stored, currentUserId());
-            reloadOwnershipDocuments(equipment);
-        } catch (Exception error) {
-            if (stored != null) {
-                try {
-                    storage().delete(stored.relativePath());
-                } catch (IOException ignored) {
-                }
+            try {
+                EquipmentRepository.addOwnershipDocument(equipment.equipmentId(), stored, userId);
+            } catch (Exception error) {
+                deleteQuietly(storage, stored);
+                throw error;
             }
-            showError("Не удалось добавить документ собственности", error);
-        }
+            reuseStoredFile(storage, stored, digest);
+            return null;
+        });
     }
 
     private void openSelectedOwnershipDocument() {
@@ -1006,35 +1168,33 @@ public class EquipmentTab extends JPanel {
         if (source == null) {
             return;
         }
-        StoredRequestFile stored = null;
-        boolean databaseUpdated = false;
-        try {
-            RequestStorage storage = storage();
-            stored = storage.storeEquipmentOwnershipDocument(
-                    source.toPath(), equipment.equipmentId(), null, null);
-            EquipmentRepository.replaceContract(document.id(), stored, currentUserId());
-            databaseUpdated = true;
-            try {
-                storage.delete(document.relativePath());
-            } catch (IOException error) {
-                JOptionPane.showMessageDialog(this,
-                        "Документ заменён, но старый файл не удалось удалить:\n"
-                                + error.getMessage(),
-                        "Документы собственности", JOptionPane.WARNING_MESSAGE);
-            }
-            reloadOwnershipDocuments(equipment);
-        } catch (Exception error) {
-            if (!databaseUpdated && stored != null) {
+        Integer userId = currentUserId();
+        uploadInBackground(source, ownershipEquipmentLabel, "Не удалось заменить документ собственности", (storage, digest) -> {
+            if (!DatabaseManager.replaceEquipmentDocumentWithStoredFile(document.id(),
+                    source.getName(), digest.sha256(), digest.size(), userId)) {
+                StoredRequestFile stored = storage.storeEquipmentOwnershipDocument(
+                        source.toPath(), equipment.equipmentId(), null, null);
                 try {
-                    storage().delete(stored.relativePath());
-                } catch (IOException ignored) {
+                    EquipmentRepository.replaceContract(document.id(), stored, userId);
+                } catch (Exception error) {
+                    deleteQuietly(storage, stored);
+                    throw error;
                 }
+                reuseStoredFile(storage, stored, digest);
             }
-            showError("Не удалось заменить документ собственности", error);
-        }
+            try {
+                deleteUnreferenced(storage, document.relativePath());
+            } catch (IOException | SQLException error) {
+                return "Документ заменён, но старый файл не удалось удалить:\n" + error.getMessage();
+            }
+            return null;
+        });
     }
 
     private void deleteSelectedOwnershipDocument() {
+        if (uploadsInProgress > 0) {
+            return; // загружаемый файл может оказаться общим с удаляемым
+        }
         EquipmentRecord equipment = getSelectedRecord();
         EquipmentContractRecord document = getSelectedOwnershipDocument();
         if (equipment == null || document == null) {
@@ -1053,8 +1213,8 @@ public class EquipmentTab extends JPanel {
             EquipmentContractRecord removed =
                     EquipmentRepository.deleteContract(document.id());
             try {
-                storage.delete(removed.relativePath());
-            } catch (IOException error) {
+                deleteUnreferenced(storage, removed.relativePath());
+            } catch (IOException | SQLException error) {
                 JOptionPane.showMessageDialog(this,
                         "Запись удалена, но файл не удалось удалить:\n"
                                 + error.getMessage(),
@@ -1092,10 +1252,10 @@ public class EquipmentTab extends JPanel {
         boolean equipmentSelected = getSelectedRecord() != null;
         boolean documentSelected = getSelectedOwnershipDocument() != null;
         boolean canEdit = currentUser != null && currentUser.isAdministrator();
-        addOwnershipButton.setEnabled(canEdit && equipmentSelected);
+        addOwnershipButton.setEnabled(canEdit && equipmentSelected && uploadsInProgress == 0);
         openOwnershipButton.setEnabled(documentSelected);
-        replaceOwnershipButton.setEnabled(canEdit && documentSelected);
-        deleteOwnershipButton.setEnabled(canEdit && documentSelected);
+        replaceOwnershipButton.setEnabled(canEdit && documentSelected && uploadsInProgress == 0);
+        deleteOwnershipButton.setEnabled(canEdit && documentSelected && uploadsInProgress == 0);
         openOwnershipFolderButton.setEnabled(equipmentSelected);
     }
 
@@ -1134,6 +1294,108 @@ public class EquipmentTab extends JPanel {
         return resolveImportDirectory();
     }
 
+    /** Запись документа в БД (с копированием файла, если такого ещё нет); возвращает предупреждение для пользователя или null. */
+    @FunctionalInterface
+    private interface Upload {
+        String run(RequestStorage storage, FileDigest digest) throws Exception;
+    }
+
+    /** SHA-256 и размер загружаемого файла — по ним одинаковые документы хранятся одним файлом. */
+    private record FileDigest(String sha256, long size) {
+    }
+
+    /**
+     * Загружает документ в фоновом потоке: крупные сканы не замораживают окно.
+     * Файл сначала читается целиком для хеша — в заголовке панели показывается доля прочитанного.
+     * Если такой же файл уже хранится, документ ссылается на него и копирования нет; иначе файл
+     * копируется в хранилище. Пока идёт загрузка, кнопки загрузки и удаления недоступны;
+     * по завершении перечитываются документы выбранного к этому моменту оборудования.
+     */
+    private void uploadInBackground(File source, JLabel statusLabel, String errorTitle, Upload upload) {
+        RequestStorage storage;
+        try {
+            storage = storage();
+        } catch (IOException error) {
+            showError(errorTitle, error);
+            return;
+        }
+        uploadsInProgress++;
+        statusLabel.setText("Загрузка «" + source.getName() + "» (" + EquipmentContractTableModel.formatSize(source.length()) + ")…");
+        updateContractActions();
+        updateOwnershipActions();
+        AsyncDatabase.supply(() -> upload.run(storage, digest(source, statusLabel)))
+                .onEdt(warning -> {
+                    if (warning != null) {
+                        JOptionPane.showMessageDialog(this, warning,
+                                "Документы оборудования", JOptionPane.WARNING_MESSAGE);
+                    }
+                }, error -> showError(errorTitle, error))
+                .finallyOnEdt(() -> {
+                    uploadsInProgress--;
+                    EquipmentRecord selected = getSelectedRecord();
+                    reloadContracts(selected);
+                    reloadOwnershipDocuments(selected);
+                });
+    }
+
+    private static FileDigest digest(File source, JLabel statusLabel) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException error) {
+            throw new IOException("SHA-256 недоступен", error);
+        }
+        String name = source.getName();
+        long total = Math.max(1, source.length());
+        long read = 0;
+        int shownPercent = -1;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                sha256.update(buffer, 0, n);
+                read += n;
+                int percent = (int) Math.min(100, read * 100 / total);
+                if (percent != shownPercent) {
+                    shownPercent = percent;
+                    String text = "Загрузка «" + name + "»: чтение " + percent + "%";
+                    SwingUtilities.invokeLater(() -> statusLabel.setText(text));
+                }
+            }
+        }
+        SwingUtilities.invokeLater(() -> statusLabel.setText("Загрузка «" + name + "»: сохранение…"));
+        return new FileDigest(HexFormat.of().formatHex(sha256.digest()), read);
+    }
+
+    /**
+     * Записывает хеш загруженной копии. Если такой же файл успела сохранить параллельная загрузка,
+     * документ переводится на него, а копия удаляется. Ошибка здесь не отменяет загрузку:
+     * документ остаётся со своей копией.
+     */
+    private static void reuseStoredFile(RequestStorage storage, StoredRequestFile stored, FileDigest digest) {
+        try {
+            String redundant = DatabaseManager.reuseEquipmentFile(stored.relativePath(), digest.sha256(), digest.size());
+            if (redundant != null) {
+                storage.delete(redundant);
+            }
+        } catch (SQLException | IOException ignored) {
+        }
+    }
+
+    /** Удаляет файл из хранилища, если на него не ссылаются другие документы оборудования. */
+    private static void deleteUnreferenced(RequestStorage storage, String relativePath) throws IOException, SQLException {
+        if (!DatabaseManager.isEquipmentFileReferenced(relativePath)) {
+            storage.delete(relativePath);
+        }
+    }
+
+    private static void deleteQuietly(RequestStorage storage, StoredRequestFile stored) {
+        try {
+            storage.delete(stored.relativePath());
+        } catch (IOException ignored) {
+        }
+    }
+
     private RequestStorage storage() throws IOException {
         if (requestStorage == null) {
             requestStorage = new RequestStorage();
@@ -1178,27 +1440,7 @@ public class EquipmentTab extends JPanel {
         return selected == null ? LocalDate.now() : selected;
     }
 
-    private static String searchableText(EquipmentRecord record) {
-        EquipmentDetails value = record.details();
-        return normalize(String.join(" ",
-                value.category().getTitle(), value.measuredCharacteristics(),
-                value.testedObjectGroups(), value.nameType(), value.registryNumber(),
-                value.completeness(), value.manufacturer(),
-                Objects.toString(value.commissioningYear(), ""),
-                value.factoryNumber(), Objects.toString(value.inventoryNumber(), ""),
-                value.identification(), value.controlNumber(), value.verificationPlace(),
-                value.ownershipDocument(), value.storageLocation(),
-                value.servicePlanDetails(), value.servicePlanNotes(), value.notes()));
-    }
-
-    private static String normalize(String value) {
-        return value == null ? "" : value.toLowerCase(Locale.ROOT)
-                .replace('ё', 'е')
-                .replaceAll("\\s+", " ")
-                .trim();
-    }
-
-    private void showError(String title, Exception error) {
+    private void showError(String title, Throwable error) {
         JOptionPane.showMessageDialog(this,
                 title + ":\n" + error.getMessage(),
                 "Ошибка", JOptionPane.ERROR_MESSAGE);
@@ -1230,6 +1472,14 @@ public class EquipmentTab extends JPanel {
         return "Действует";
     }
 
+    private record Snapshot(EquipmentSearchIndex index, long loadedAt) {
+    }
+
+    /** Разобранный план Ф35 и текущие карточки, с которыми он сравнивается. */
+    private record ServicePlanSource(EquipmentServicePlanImporter.ServicePlanImport plan,
+                                     List<EquipmentRecord> equipment) {
+    }
+
     private static final class EquipmentTableModel extends AbstractTableModel {
         private static final DateTimeFormatter DATE_FORMAT =
                 DateTimeFormatter.ofPattern("dd.MM.yyyy");
@@ -1238,23 +1488,60 @@ public class EquipmentTab extends JPanel {
                 "Зав. №", "Инв. №", "Поверка / аттестация", "Дата",
                 "Действует до", "Место хранения", "Статус"
         };
-        private List<EquipmentRecord> data = List.of();
-        private LocalDate referenceDate = LocalDate.now();
-
-        void setData(List<EquipmentRecord> rows, LocalDate date) {
-            data = new ArrayList<>(rows);
-            referenceDate = date;
+        private EquipmentSearchIndex index = EquipmentSearchIndex.empty();
+        /** Номера записей индекса, видимых в таблице, по возрастанию. */
+        private final List<Integer> rows = new ArrayList<>();
+        /** Статус каждой записи индекса на дату среза — считается один раз, а не при каждой отрисовке. */
+        private String[] statuses = new String[0];
+
+        void setData(EquipmentSearchIndex index, BitSet visible, LocalDate date) {
+            this.index = index;
+            rows.clear();
+            visible.stream().forEach(rows::add);
+            statuses = new String[index.size()];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = equipmentStatus(index.get(i).details(), date);
+            }
             fireTableDataChanged();
         }
 
+        /**
+         * Переходит к новому набору видимых записей, сообщая только о вставленных и удалённых
+         * участках строк: обе последовательности упорядочены по номеру записи, поэтому хватает одного прохода.
+         */
+        void showRows(BitSet visible) {
+            int position = 0;
+            int next = visible.nextSetBit(0);
+            while (position < rows.size() || next >= 0) {
+                if (position < rows.size() && (next < 0 || rows.get(position) < next)) {
+                    int end = position;
+                    while (end < rows.size() && (next < 0 || rows.get(end) < next)) {
+                        end++;
+                    }
+                    rows.subList(position, end).clear();
+                    fireTableRowsDeleted(position, end - 1);
+                } else if (position >= rows.size() || next < rows.get(position)) {
+                    int start = position;
+                    while (next >= 0 && (position >= rows.size() || next < rows.get(position))) {
+                        rows.add(position++, next);
+                        next = visible.nextSetBit(next + 1);
+                    }
+                    fireTableRowsInserted(start, position - 1);
+                } else {
+                    position++;
+                    next = visible.nextSetBit(next + 1);
+                }
+            }
+        }
+
         EquipmentRecord getAt(int row) {
-            return data.get(row);
+            return index.get(rows.get(row));
         }
 
         int indexOf(int equipmentId) {
-            for (int index = 0; index < data.size(); index++) {
-                if (data.get(index).equipmentId() == equipmentId) {
-                    return index;
+            for (int row = 0; row < rows.size(); row++) {
+                if (getAt(row).equipmentId() == equipmentId) {
+                    return row;
                 }
             }
             return -1;
@@ -1262,7 +1549,7 @@ public class EquipmentTab extends JPanel {
 
         @Override
         public int getRowCount() {
-            return data.size();
+            return rows.size();
         }
 
         @Override
@@ -1277,7 +1564,7 @@ public class EquipmentTab extends JPanel {
 
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
-            EquipmentDetails value = data.get(rowIndex).details();
+            EquipmentDetails value = getAt(rowIndex).details();
             return switch (columnIndex) {
                 case 0 -> value.position() > 0 ? value.position() : rowIndex + 1;
                 case 1 -> value.category().getShortTitle();
@@ -1290,15 +1577,11 @@ public class EquipmentTab extends JPanel {
                 case 7 -> formatDate(value.controlDate());
                 case 8 -> formatDate(value.controlValidUntil());
                 case 9 -> oneLine(value.storageLocation());
-                case 10 -> equipmentStatus(value, referenceDate);
+                case 10 -> statuses[rows.get(rowIndex)];
                 default -> "";
             };
         }
 
-        private static String oneLine(String value) {
-            return value == null ? "" : value.replace('\n', ' ').replaceAll("\\s+", " ").trim();
-        }
-
         private static String formatDate(LocalDate value) {
             return value == null ? "" : DATE_FORMAT.format(value);
         }
@@ -0,0 +1,98 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import ru.citlab24.protokol.equipment.EquipmentCategory;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Поиск по текстам записей реестра с фильтрами вида и статуса — основа {@link EquipmentSearchIndex}.
+ * <p>
+ * Тексты нормализуются заранее; по ним строится индекс триграмм (триграмма → битовая карта записей).
+ * Запрос от трёх символов сужается пересечением карт своих триграмм и проверяется {@code contains}
+ * только на оставшихся записях — результат тот же, что у полного перебора. Вид и статус — готовые
+ * битовые карты. Неизменяемый; можно строить в фоновом потоке.
+ */
+final class EquipmentTextIndex {
+    private static final int GRAM = 3;
+
+    private final String[] texts;
+    private final Map<EquipmentCategory, BitSet> byCategory = new EnumMap<>(EquipmentCategory.class);
+    private final BitSet active = new BitSet();
+    private final Map<Long, BitSet> grams = new HashMap<>();
+
+    /** Записи по номерам: текст, вид и признак «в эксплуатации» ({@code activeRows}) i-й записи. */
+    EquipmentTextIndex(List<String> texts, List<EquipmentCategory> categories, BitSet activeRows) {
+        this.texts = new String[texts.size()];
+        for (int i = 0; i < this.texts.length; i++) {
+            String text = normalize(texts.get(i));
+            this.texts[i] = text;
+            byCategory.computeIfAbsent(categories.get(i), key -> new BitSet()).set(i);
+            if (activeRows.get(i)) {
+                active.set(i);
+            }
+            for (int pos = 0; pos + GRAM <= text.length(); pos++) {
+                grams.computeIfAbsent(gram(text, pos), key -> new BitSet()).set(i);
+            }
+        }
+    }
+
+    int size() {
+        return texts.length;
+    }
+
+    /**
+     * Номера записей, подходящих под фильтры (по возрастанию).
+     *
+     * @param category вид; null — все виды
+     * @param activeOnly true — в эксплуатации, false — выведенные, null — все
+     */
+    BitSet find(String query, EquipmentCategory category, Boolean activeOnly) {
+        BitSet result = new BitSet(texts.length);
+        result.set(0, texts.length);
+        if (category != null) {
+            result.and(byCategory.getOrDefault(category, new BitSet()));
+        }
+        if (activeOnly != null) {
+            if (activeOnly) {
+                result.and(active);
+            } else {
+                result.andNot(active);
+            }
+        }
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || result.isEmpty()) {
+            return result;
+        }
+        for (int pos = 0; pos + GRAM <= normalized.length() && !result.isEmpty(); pos++) {
+            BitSet postings = grams.get(gram(normalized, pos));
+            if (postings == null) {
+                result.clear();
+                return result;
+            }
+            result.and(postings);
+        }
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            if (!texts[i].contains(normalized)) {
+                result.clear(i);
+            }
+        }
+        return result;
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT)
+                .replace('ё', 'е')
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    /** Три символа, упакованные в одно число. */
+    private static long gram(String text, int pos) {
+        return ((long) text.charAt(pos) << 32) | ((long) text.charAt(pos + 1) << 16) | text.charAt(pos + 2);
+    }
+}
@@ -31,9 +31,15 @@ public class PersonnelTab extends JPanel {
 
     private final JTextField searchField = new JTextField();
     private final List<PersonnelRecord> allPersonnel = new ArrayList<>();
+    private final Runnable onUnavailabilityChanged;
 
     public PersonnelTab() {
+        this(() -> {});
+    }
+
+    public PersonnelTab(Runnable onUnavailabilityChanged) {
         super(new BorderLayout(8, 8));
+        this.onUnavailabilityChanged = onUnavailabilityChanged == null ? () -> {} : onUnavailabilityChanged;
         add(createToolbar(), BorderLayout.NORTH);
         add(createContent(), BorderLayout.CENTER);
 
@@ -148,7 +154,6 @@ public class PersonnelTab extends JPanel {
         if (selected != null) {
             LinkedHashSet<Integer> years = selected.getUnavailabilityDates().stream()
                     .map(PersonnelRecord.UnavailabilityRecord::getUnavailableDate)
-                    .map(PersonnelTab::parseRawDate)
                     .filter(Objects::nonNull)
                     .map(LocalDate::getYear)
                     .sorted()
@@ -171,7 +176,7 @@ public class PersonnelTab extends JPanel {
                     if (YEAR_FILTER_ALL.equals(selectedYearValue)) {
                         return true;
                     }
-                    LocalDate date = parseRawDate(rec.getUnavailableDate());
+                    LocalDate date = rec.getUnavailableDate();
                     return date != null && String.valueOf(date.getYear()).equals(selectedYearValue);
                 })
                 .collect(Collectors.toList());
@@ -180,7 +185,8 @@ public class PersonnelTab extends JPanel {
 
     private static List<GroupedUnavailabilityRecord> groupUnavailability(List<PersonnelRecord.UnavailabilityRecord> records) {
         List<PersonnelRecord.UnavailabilityRecord> sortedRecords = records.stream()
-                .sorted(Comparator.comparing(PersonnelRecord.UnavailabilityRecord::getUnavailableDate)
+                .sorted(Comparator.comparing(PersonnelRecord.UnavailabilityRecord::getUnavailableDate,
+                                Comparator.nullsLast(Comparator.naturalOrder()))
                         .thenComparing(r -> r.getReason() == null ? "" : r.getReason()))
                 .toList();
 
@@ -188,7 +194,7 @@ public class PersonnelTab extends JPanel {
         GroupedUnavailabilityRecord current = null;
 
         for (PersonnelRecord.UnavailabilityRecord record : sortedRecords) {
-            LocalDate date = parseRawDate(record.getUnavailableDate());
+            LocalDate date = record.getUnavailableDate();
             if (date == null) {
                 continue;
             }
@@ -207,22 +213,6 @@ public class PersonnelTab extends JPanel {
         return grouped;
     }
 
-    private static LocalDate parseRawDate(String rawDate) {
-        if (rawDate == null || rawDate.isBlank()) {
-            return null;
-        }
-        String trimmed = rawDate.trim();
-        try {
-            return LocalDate.parse(trimmed);
-        } catch (DateTimeParseException ignored) {
-            try {
-                return LocalDate.parse(trimmed, UI_DATE_FORMAT);
-            } catch (DateTimeParseException ignoredAgain) {
-                return null;
-            }
-        }
-    }
-
     private PersonnelRecord getSelectedPerson() {
         int viewIndex = personnelTable.getSelectedRow();
         if (viewIndex < 0) return null;
@@ -270,6 +260,7 @@ public class PersonnelTab extends JPanel {
         try {
             DatabaseManager.deletePersonnel(selected.getId());
             reloadPersonnel();
+            onUnavailabilityChanged.run();
         } catch (SQLException ex) {
             showDbError("Ошибка удаления сотрудника", ex);
         }
@@ -322,12 +313,9 @@ public class PersonnelTab extends JPanel {
         String reason = reasonField.getText().trim();
 
         try {
-            LocalDate cursor = from;
-            while (!cursor.isAfter(to)) {
-                DatabaseManager.addPersonnelUnavailability(selected.getId(), cursor.toString(), reason);
-                cursor = cursor.plusDays(1);
-            }
+            DatabaseManager.addPersonnelUnavailability(selected.getId(), from, to, reason);
             reloadPersonnel();
+            onUnavailabilityChanged.run();
         } catch (SQLException ex) {
             showDbError("Ошибка сохранения даты недоступности", ex);
         }
@@ -366,6 +354,7 @@ public class PersonnelTab extends JPanel {
                 DatabaseManager.deletePersonnelUnavailability(recordId);
             }
             reloadPersonnel();
+            onUnavailabilityChanged.run();
         } catch (SQLException ex) {
             showDbError("Ошибка удаления даты", ex);
         }
@@ -0,0 +1,173 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Таблица equipment_current_revision и вид equipment_current должны совпадать с выбором
+ * последней ревизии по истории при любых изменениях equipment_revision. Каждый тест идёт
+ * в своей транзакции и откатывается. Интеграционный: {@code -Ddb.tests=true}, локальная PostgreSQL.
+ */
+class EquipmentCurrentRevisionTest {
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private static Connection connection;
+
+    @BeforeAll
+    static void connect() throws Exception {
+        TestDatabase.requireLocal();
+        connection = TestDatabase.open();
+    }
+
+    @AfterAll
+    static void disconnect() throws Exception {
+        if (connection != null) connection.close();
+    }
+
+    @BeforeEach
+    void begin() throws SQLException {
+        connection.setAutoCommit(false);
+    }
+
+    @AfterEach
+    void rollback() throws SQLException {
+        connection.rollback();
+        connection.setAutoCommit(true);
+    }
+
+    @Test
+    void followsInsertedRevisions() throws SQLException {
+        int equipment = asset("insert");
+        int first = revision(equipment, TODAY.minusDays(30));
+        assertEquals(Integer.valueOf(first), stored(equipment));
+
+        int second = revision(equipment, TODAY.minusDays(1));
+        assertEquals(Integer.valueOf(second), stored(equipment));
+
+        revision(equipment, TODAY.minusDays(60));
+        assertEquals(Integer.valueOf(second), stored(equipment), "задним числом — не последняя ревизия");
+
+        int sameDay = revision(equipment, TODAY.minusDays(1));
+        assertEquals(Integer.valueOf(sameDay), stored(equipment), "в один день побеждает больший id");
+        assertEquals(Integer.valueOf(sameDay), current(equipment));
+    }
+
+    @Test
+    void followsUpdatedAndDeletedRevisions() throws SQLException {
+        int equipment = asset("update");
+        int older = revision(equipment, TODAY.minusDays(10));
+        int newer = revision(equipment, TODAY.minusDays(5));
+
+        execute("UPDATE equipment_revision SET effective_date = ? WHERE id = ?", TODAY.minusDays(1), older);
+        assertEquals(Integer.valueOf(older), stored(equipment));
+
+        execute("DELETE FROM equipment_revision WHERE id = ?", older);
+        assertEquals(Integer.valueOf(newer), stored(equipment));
+
+        execute("DELETE FROM equipment_revision WHERE id = ?", newer);
+        assertNull(stored(equipment), "без ревизий строка удаляется");
+        assertNull(current(equipment));
+    }
+
+    @Test
+    void revisionMovedToAnotherAssetUpdatesBoth() throws SQLException {
+        int source = asset("move-from");
+        int target = asset("move-to");
+        int kept = revision(source, TODAY.minusDays(20));
+        int moved = revision(source, TODAY.minusDays(2));
+        revision(target, TODAY.minusDays(10));
+
+        execute("UPDATE equipment_revision SET equipment_id = ? WHERE id = ?", target, moved);
+
+        assertEquals(Integer.valueOf(kept), stored(source));
+        assertEquals(Integer.valueOf(moved), stored(target));
+    }
+
+    @Test
+    void viewSkipsFutureDatedRevisions() throws SQLException {
+        int equipment = asset("future");
+        int effective = revision(equipment, TODAY.minusDays(3));
+        int planned = revision(equipment, TODAY.plusDays(7));
+
+        assertEquals(Integer.valueOf(planned), stored(equipment));
+        assertEquals(Integer.valueOf(effective), current(equipment), "ревизия будущим числом ещё не действует");
+
+        int onlyPlanned = asset("future-only");
+        revision(onlyPlanned, TODAY.plusDays(1));
+        assertNull(current(onlyPlanned), "оборудование, которое ещё не действует");
+    }
+
+    @Test
+    void deletedAssetDropsCurrentRow() throws SQLException {
+        int equipment = asset("cascade");
+        revision(equipment, TODAY.minusDays(1));
+
+        execute("DELETE FROM equipment_asset WHERE id = ?", equipment);
+
+        assertNull(stored(equipment));
+    }
+
+    private static int asset(String key) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO equipment_asset (category, identity_key) VALUES ('TEST', ?) RETURNING id")) {
+            ps.setString(1, "equipment-current-revision-test-" + key);
+            return single(ps);
+        }
+    }
+
+    private static int revision(int equipmentId, LocalDate effectiveDate) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO equipment_revision (equipment_id, effective_date, name_type, change_source) " +
+                        "VALUES (?, ?, 'Тест', 'TEST') RETURNING id")) {
+            ps.setInt(1, equipmentId);
+            ps.setDate(2, Date.valueOf(effectiveDate));
+            return single(ps);
+        }
+    }
+
+    private static Integer stored(int equipmentId) throws SQLException {
+        return lookup("SELECT revision_id FROM equipment_current_revision WHERE equipment_id = ?", equipmentId);
+    }
+
+    private static Integer current(int equipmentId) throws SQLException {
+        return lookup("SELECT id FROM equipment_current WHERE equipment_id = ?", equipmentId);
+    }
+
+    private static Integer lookup(String sql, int equipmentId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, equipmentId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    private static void execute(String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i] instanceof LocalDate date ? Date.valueOf(date) : params[i]);
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    private static int single(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
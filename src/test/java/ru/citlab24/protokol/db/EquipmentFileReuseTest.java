@@ -0,0 +1,136 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Одинаковые документы оборудования хранятся одним файлом, а файл удаляется только вместе
+ * с последним документом. Интеграционный: {@code -Ddb.tests=true}, локальная PostgreSQL.
+ */
+class EquipmentFileReuseTest {
+    private static final String HASH = "0f".repeat(32);
+    private static final String PREFIX = "equipment-file-reuse-test/";
+
+    @BeforeAll
+    static void requireDatabase() throws Exception {
+        TestDatabase.requireLocal();
+    }
+
+    @AfterEach
+    void cleanUp() throws Exception {
+        try (Connection connection = TestDatabase.open();
+             PreparedStatement ps = connection.prepareStatement(
+                     "DELETE FROM equipment_asset WHERE identity_key LIKE ?")) {
+            ps.setString(1, PREFIX + "%");
+            ps.executeUpdate();
+        }
+    }
+
+    @Test
+    void duplicateUploadIsRedirectedToStoredFile() throws Exception {
+        try (Connection connection = TestDatabase.open()) {
+            int first = asset(connection, "first");
+            int second = asset(connection, "second");
+            int original = document(connection, first, PREFIX + "a.pdf");
+            int copy = document(connection, second, PREFIX + "b.pdf");
+
+            assertNull(DatabaseManager.reuseEquipmentFile(PREFIX + "a.pdf", HASH, 100),
+                    "первый файл с таким хешем остаётся");
+            assertEquals(PREFIX + "b.pdf", DatabaseManager.reuseEquipmentFile(PREFIX + "b.pdf", HASH, 100),
+                    "копию нужно удалить из хранилища");
+
+            assertEquals(PREFIX + "a.pdf", path(connection, copy));
+            assertEquals(HASH, hash(connection, copy));
+            assertTrue(DatabaseManager.isEquipmentFileReferenced(PREFIX + "a.pdf"));
+            assertFalse(DatabaseManager.isEquipmentFileReferenced(PREFIX + "b.pdf"));
+
+            delete(connection, original);
+            assertTrue(DatabaseManager.isEquipmentFileReferenced(PREFIX + "a.pdf"),
+                    "файл нужен второму документу");
+            delete(connection, copy);
+            assertFalse(DatabaseManager.isEquipmentFileReferenced(PREFIX + "a.pdf"));
+        }
+    }
+
+    @Test
+    void sameHashWithDifferentSizeIsNotReused() throws Exception {
+        try (Connection connection = TestDatabase.open()) {
+            int equipment = asset(connection, "size");
+            document(connection, equipment, PREFIX + "c.pdf");
+            int other = document(connection, equipment, PREFIX + "d.pdf");
+
+            assertNull(DatabaseManager.reuseEquipmentFile(PREFIX + "c.pdf", HASH, 100));
+            assertNull(DatabaseManager.reuseEquipmentFile(PREFIX + "d.pdf", HASH, 101));
+            assertEquals(PREFIX + "d.pdf", path(connection, other));
+        }
+    }
+
+    @Test
+    void unknownDocumentIsRejected() {
+        assertThrows(SQLException.class,
+                () -> DatabaseManager.reuseEquipmentFile(PREFIX + "missing.pdf", HASH, 100));
+    }
+
+    private static int asset(Connection connection, String key) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO equipment_asset (category, identity_key) VALUES ('TEST', ?) RETURNING id")) {
+            ps.setString(1, PREFIX + key);
+            return single(ps);
+        }
+    }
+
+    private static int document(Connection connection, int equipmentId, String relativePath) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO equipment_contract (equipment_id, original_file_name, relative_path, size_bytes) " +
+                        "VALUES (?, 'договор.pdf', ?, 0) RETURNING id")) {
+            ps.setInt(1, equipmentId);
+            ps.setString(2, relativePath);
+            return single(ps);
+        }
+    }
+
+    private static String path(Connection connection, int documentId) throws SQLException {
+        return column(connection, "relative_path", documentId);
+    }
+
+    private static String hash(Connection connection, int documentId) throws SQLException {
+        return column(connection, "sha256", documentId);
+    }
+
+    private static String column(Connection connection, String column, int documentId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT " + column + " FROM equipment_contract WHERE id = ?")) {
+            ps.setInt(1, documentId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private static void delete(Connection connection, int documentId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM equipment_contract WHERE id = ?")) {
+            ps.setInt(1, documentId);
+            ps.executeUpdate();
+        }
+    }
+
+    private static int single(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EquipmentMaintenanceDateTest {
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 16);
+
+    @Test
+    void futureStartIsTheNextDate() {
+        assertEquals(LocalDate.of(2026, 5, 1), DatabaseManager.EquipmentDueDate.nextMaintenanceDate(LocalDate.of(2026, 5, 1), 6, TODAY));
+        assertEquals(TODAY, DatabaseManager.EquipmentDueDate.nextMaintenanceDate(TODAY, 12, TODAY), "ТО сегодня ещё не пропущено");
+    }
+
+    @Test
+    void pastStartMovesByWholePeriods() {
+        assertEquals(LocalDate.of(2026, 4, 1), DatabaseManager.EquipmentDueDate.nextMaintenanceDate(LocalDate.of(2025, 1, 1), 3, TODAY));
+        assertEquals(LocalDate.of(2026, 3, 16), DatabaseManager.EquipmentDueDate.nextMaintenanceDate(LocalDate.of(2025, 3, 16), 12, TODAY));
+        assertEquals(LocalDate.of(2027, 3, 15), DatabaseManager.EquipmentDueDate.nextMaintenanceDate(LocalDate.of(2025, 3, 15), 12, TODAY));
+        assertEquals(LocalDate.of(2026, 3, 31), DatabaseManager.EquipmentDueDate.nextMaintenanceDate(LocalDate.of(2025, 12, 31), 1, TODAY),
+                "дни считаются от начала графика, а не накапливаются");
+    }
+
+    @Test
+    void matchesStepByStepSchedule() {
+        LocalDate start = LocalDate.of(2019, 1, 31);
+        for (int period = 1; period <= 36; period++) {
+            for (LocalDate today = LocalDate.of(2025, 12, 20); today.isBefore(LocalDate.of(2026, 3, 10));
+                 today = today.plusDays(3)) {
+                LocalDate expected = start;
+                for (int step = 1; expected.isBefore(today); step++) {
+                    expected = start.plusMonths((long) step * period);
+                }
+                LocalDate next = DatabaseManager.EquipmentDueDate.nextMaintenanceDate(start, period, today);
+                assertEquals(expected, next, "период " + period + ", день " + today);
+                assertTrue(!next.isBefore(today));
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Section;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Планы запросов загрузки, поиска по ключу и удаления этажей ревизии должны идти по индексам
+ * ссылок на родителя (idx_space_floor, idx_room_space, idx_building_floor_floor и первичным ключам),
+ * а не полным просмотром таблиц иерархии. Интеграционный: {@code -Ddb.tests=true}, локальная PostgreSQL.
+ */
+class HierarchyIndexPlanTest {
+    private static final int BUILDINGS = 60;
+    private static final int FLOORS = 20;
+    private static final int SPACES = 4;
+    private static final int ROOMS = 5;
+    /** Ревизии одного здания: этажи общие, building_floor растёт быстрее самих этажей. */
+    private static final int REVISIONS = 40;
+    private static final String SESSION = "hierarchy-index-plan-test";
+
+    private static final List<String> HIERARCHY_TABLES =
+            List.of("building_floor", "floor", "space", "room", "noise_settings");
+
+    private static final List<Integer> created = new ArrayList<>();
+    private static int probeBuildingId;
+    private static Integer[] probeFloorIds;
+
+    @BeforeAll
+    static void seed() throws Exception {
+        TestDatabase.requireLocal();
+        Building probe = null;
+        for (int i = 0; i < BUILDINGS; i++) {
+            Building building = building("Тест планов " + i);
+            DatabaseManager.saveBuilding(building);
+            created.add(building.getId());
+            Map<String, DatabaseManager.NoiseValue> noise = new HashMap<>();
+            for (Floor floor : building.getFloors()) {
+                for (Space space : floor.getSpaces()) {
+                    Room room = space.getRooms().get(0);
+                    DatabaseManager.NoiseValue value = new DatabaseManager.NoiseValue();
+                    value.measure = true;
+                    noise.put(DatabaseManager.makeKey(floor, space, room), value);
+                }
+            }
+            DatabaseManager.updateNoiseSelections(building, noise);
+            probe = building;
+        }
+        for (int revision = 0; revision < REVISIONS; revision++) {
+            int sourceId = probe.getId();
+            int sourceRevision = probe.getRevision();
+            DatabaseManager.acquireProjectLock(DatabaseManager.PROJECT_TYPE_BUILDING, sourceId, 0, SESSION);
+            try {
+                probe.getFloors().get(revision % FLOORS).getSpaces().get(0).getRooms().get(0)
+                        .setName("Комната ревизии " + revision);
+                DatabaseManager.saveBuildingVersion(probe, sourceId, sourceRevision, SESSION);
+                created.add(probe.getId());
+            } finally {
+                DatabaseManager.releaseProjectLock(DatabaseManager.PROJECT_TYPE_BUILDING, sourceId, SESSION);
+            }
+        }
+        probeBuildingId = probe.getId();
+        probeFloorIds = probe.getFloors().stream().map(Floor::getId).toArray(Integer[]::new);
+        try (Connection connection = TestDatabase.open(); Statement st = connection.createStatement()) {
+            st.execute("ANALYZE building, section, building_floor, floor, space, room, noise_settings");
+        }
+    }
+
+    @AfterAll
+    static void cleanUp() throws Exception {
+        for (int i = created.size() - 1; i >= 0; i--) {
+            DatabaseManager.deleteBuilding(created.get(i));
+        }
+        created.clear();
+    }
+
+    @Test
+    void revisionLoadUsesParentIndexes() throws Exception {
+        try (Connection connection = TestDatabase.open()) {
+            String floors = TestDatabase.explain(connection, DatabaseManager.LOAD_FLOORS_SQL, probeBuildingId);
+            String spaces = TestDatabase.explain(connection, DatabaseManager.LOAD_SPACES_SQL, probeBuildingId);
+            String rooms = TestDatabase.explain(connection, DatabaseManager.LOAD_ROOMS_SQL, probeBuildingId);
+
+            assertNoHierarchySeqScan(floors);
+            assertNoHierarchySeqScan(spaces);
+            assertNoHierarchySeqScan(rooms);
+            assertUses(floors, "building_floor_pkey");
+            assertUses(spaces, "idx_space_floor");
+            assertUses(rooms, "idx_room_space");
+        }
+    }
+
+    @Test
+    void lookupByKeyUsesParentIndexes() throws Exception {
+        try (Connection connection = TestDatabase.open()) {
+            for (String sql : List.of(DatabaseManager.ARTIFICIAL_BY_KEY_SQL,
+                    DatabaseManager.STREET_LIGHTING_BY_KEY_SQL, DatabaseManager.NOISE_BY_KEY_SQL)) {
+                String plan = TestDatabase.explain(connection, sql, probeBuildingId);
+                assertNoHierarchySeqScan(plan);
+                assertUses(plan, "idx_room_space");
+            }
+            assertUses(TestDatabase.explain(connection, DatabaseManager.NOISE_BY_KEY_SQL, probeBuildingId),
+                    "noise_settings_pkey");
+        }
+    }
+
+    @Test
+    void revisionDeleteUsesIndexes() throws Exception {
+        try (Connection connection = TestDatabase.open()) {
+            String links = TestDatabase.explain(connection,
+                    "DELETE FROM building_floor WHERE building_id = ?", probeBuildingId);
+            String sections = TestDatabase.explain(connection,
+                    "DELETE FROM section WHERE building_id = ?", probeBuildingId);
+            assertNoHierarchySeqScan(links);
+            assertUses(links, "building_floor_pkey");
+            assertUses(sections, "idx_section_building");
+
+            for (DatabaseManager.LevelDelete delete : DatabaseManager.DELETE_UNREFERENCED_FLOORS) {
+                String plan = TestDatabase.explain(connection, "DELETE FROM " + delete.table() + " "
+                        + delete.alias() + " WHERE " + delete.condition(), (Object) probeFloorIds);
+                assertNoHierarchySeqScan(plan);
+                assertUses(plan, "idx_building_floor_floor");
+            }
+        }
+    }
+
+    private static Building building(String name) {
+        Building building = new Building();
+        building.setName(name);
+        building.addSection(new Section("Секция 1", 0));
+        for (int f = 0; f < FLOORS; f++) {
+            Floor floor = new Floor();
+            floor.setNumber(String.valueOf(f + 1));
+            floor.setType(Floor.FloorType.RESIDENTIAL);
+            floor.setSectionIndex(0);
+            floor.setPosition(f);
+            for (int s = 0; s < SPACES; s++) {
+                Space space = new Space();
+                space.setIdentifier("кв. " + (f * SPACES + s + 1));
+                space.setType(Space.SpaceType.APARTMENT);
+                space.setPosition(s);
+                for (int r = 0; r < ROOMS; r++) {
+                    Room room = new Room();
+                    room.setName("Комната " + (r + 1));
+                    room.setPosition(r);
+                    space.addRoom(room);
+                }
+                floor.addSpace(space);
+            }
+            building.addFloor(floor);
+        }
+        return building;
+    }
+
+    private static void assertNoHierarchySeqScan(String plan) {
+        for (String table : HIERARCHY_TABLES) {
+            assertFalse(plan.contains("Seq Scan on " + table + " "),
+                    "Полный просмотр " + table + " в плане:\n" + plan);
+        }
+    }
+
+    private static void assertUses(String plan, String index) {
+        assertTrue(plan.contains(index), "В плане нет индекса " + index + ":\n" + plan);
+    }
+}
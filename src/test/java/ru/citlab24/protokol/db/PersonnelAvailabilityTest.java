@@ -0,0 +1,168 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersonnelAvailabilityTest {
+
+    @Test
+    void absenceBoundariesAreInclusive() {
+        PersonnelRecord ivanov = person(1, "Иванов");
+        absent(ivanov, LocalDate.of(2026, 3, 10), LocalDate.of(2026, 3, 12));
+        PersonnelAvailability availability = PersonnelAvailability.of(List.of(ivanov));
+
+        assertFalse(availability.isAbsent(1, LocalDate.of(2026, 3, 9)), "день до первого отсутствия");
+        assertTrue(availability.isAbsent(1, LocalDate.of(2026, 3, 10)), "первый день отсутствия — нулевой бит");
+        assertTrue(availability.isAbsent(1, LocalDate.of(2026, 3, 12)));
+        assertFalse(availability.isAbsent(1, LocalDate.of(2026, 3, 13)));
+        assertFalse(availability.isAbsent(1, LocalDate.of(1970, 1, 1)), "задолго до базового дня");
+        assertFalse(availability.isAbsent(1, null));
+        assertFalse(availability.isAbsent(99, LocalDate.of(2026, 3, 10)), "неизвестный сотрудник");
+    }
+
+    @Test
+    void freeWorkdaysIncludeRangeEndsAndSkipWeekends() {
+        PersonnelRecord ivanov = person(1, "Иванов");
+        absent(ivanov, LocalDate.of(2026, 3, 11), LocalDate.of(2026, 3, 11));
+        PersonnelAvailability availability = PersonnelAvailability.of(List.of(ivanov));
+
+        // 09.03.2026 — понедельник, 15.03.2026 — воскресенье
+        assertEquals(List.of(LocalDate.of(2026, 3, 9), LocalDate.of(2026, 3, 10),
+                        LocalDate.of(2026, 3, 12), LocalDate.of(2026, 3, 13)),
+                availability.freeWorkdays(LocalDate.of(2026, 3, 9), LocalDate.of(2026, 3, 15)));
+        assertEquals(List.of(LocalDate.of(2026, 3, 10)),
+                availability.freeWorkdays(LocalDate.of(2026, 3, 10), LocalDate.of(2026, 3, 10)));
+        assertTrue(availability.freeWorkdays(LocalDate.of(2026, 3, 14), LocalDate.of(2026, 3, 15)).isEmpty());
+        assertTrue(availability.freeWorkdays(LocalDate.of(2026, 3, 13), LocalDate.of(2026, 3, 9)).isEmpty(),
+                "пустой диапазон");
+    }
+
+    @Test
+    void overlappingAbsencesCombine() {
+        PersonnelRecord ivanov = person(1, "Иванов");
+        PersonnelRecord petrov = person(2, "Петров");
+        PersonnelRecord sidorov = person(3, "Сидоров");
+        absent(ivanov, LocalDate.of(2026, 4, 6), LocalDate.of(2026, 4, 9));
+        // Пересекающиеся периоды одного сотрудника и повторы дней не ломают индекс
+        absent(ivanov, LocalDate.of(2026, 4, 8), LocalDate.of(2026, 4, 10));
+        absent(petrov, LocalDate.of(2026, 4, 9), LocalDate.of(2026, 4, 14));
+        PersonnelAvailability availability = PersonnelAvailability.of(List.of(ivanov, petrov, sidorov));
+
+        assertTrue(availability.isAbsent(1, LocalDate.of(2026, 4, 10)));
+        assertFalse(availability.isAbsent(1, LocalDate.of(2026, 4, 13)));
+        assertTrue(availability.isAnyoneAbsent(LocalDate.of(2026, 4, 13)));
+        assertFalse(availability.isAnyoneAbsent(LocalDate.of(2026, 4, 15)));
+
+        assertEquals(List.of(sidorov), availability.freeOn(LocalDate.of(2026, 4, 9)));
+        assertEquals(List.of(ivanov, sidorov), availability.freeOn(LocalDate.of(2026, 4, 13)));
+        assertEquals(List.of(ivanov, petrov, sidorov), availability.freeOn(LocalDate.of(2026, 4, 1)));
+
+        // 06.04.2026 — понедельник; все свободны только со среды следующей недели
+        assertEquals(List.of(LocalDate.of(2026, 4, 15), LocalDate.of(2026, 4, 16), LocalDate.of(2026, 4, 17)),
+                availability.freeWorkdays(LocalDate.of(2026, 4, 6), LocalDate.of(2026, 4, 17)));
+        assertEquals(List.of(LocalDate.of(2026, 4, 6), LocalDate.of(2026, 4, 7), LocalDate.of(2026, 4, 8),
+                        LocalDate.of(2026, 4, 15)),
+                availability.freeWorkdays(2, LocalDate.of(2026, 4, 6), LocalDate.of(2026, 4, 15)));
+    }
+
+    @Test
+    void absencesAcrossYearBoundary() {
+        PersonnelRecord ivanov = person(1, "Иванов");
+        absent(ivanov, LocalDate.of(2025, 12, 29), LocalDate.of(2026, 1, 2));
+        PersonnelRecord petrov = person(2, "Петров");
+        absent(petrov, LocalDate.of(2026, 12, 31), LocalDate.of(2027, 1, 1));
+        PersonnelAvailability availability = PersonnelAvailability.of(List.of(ivanov, petrov));
+
+        assertTrue(availability.isAbsent(1, LocalDate.of(2025, 12, 31)));
+        assertTrue(availability.isAbsent(1, LocalDate.of(2026, 1, 1)));
+        assertFalse(availability.isAbsent(1, LocalDate.of(2026, 1, 5)));
+        assertTrue(availability.isAbsent(2, LocalDate.of(2027, 1, 1)), "бит дальше года от базового дня");
+        assertFalse(availability.isAbsent(2, LocalDate.of(2025, 12, 31)));
+
+        // 26.12.2025 — пятница, 05.01.2026 — понедельник
+        assertEquals(List.of(LocalDate.of(2025, 12, 26), LocalDate.of(2026, 1, 5)),
+                availability.freeWorkdays(1, LocalDate.of(2025, 12, 26), LocalDate.of(2026, 1, 5)));
+        assertEquals(List.of(LocalDate.of(2026, 12, 30), LocalDate.of(2027, 1, 4)),
+                availability.freeWorkdays(LocalDate.of(2026, 12, 30), LocalDate.of(2027, 1, 4)));
+    }
+
+    @Test
+    void emptyPersonnelAndRecordsWithoutDate() {
+        PersonnelAvailability empty = PersonnelAvailability.of(null);
+        assertTrue(empty.getPersonnel().isEmpty());
+        assertFalse(empty.isAnyoneAbsent(LocalDate.of(2026, 1, 1)));
+        assertEquals(5, empty.freeWorkdays(LocalDate.of(2026, 3, 9), LocalDate.of(2026, 3, 15)).size());
+
+        PersonnelRecord ivanov = person(1, "Иванов");
+        PersonnelRecord.UnavailabilityRecord undated = new PersonnelRecord.UnavailabilityRecord();
+        undated.setReason("дата не распознана");
+        ivanov.getUnavailabilityDates().add(undated);
+        PersonnelAvailability availability = PersonnelAvailability.of(List.of(ivanov));
+        assertEquals(List.of(ivanov), availability.freeOn(LocalDate.of(2026, 3, 10)));
+    }
+
+    @Test
+    void matchesDirectScanOfAbsenceDates() {
+        Random random = new Random(20260315);
+        LocalDate start = LocalDate.of(2025, 11, 1);
+        List<PersonnelRecord> personnel = new ArrayList<>();
+        List<Set<LocalDate>> expected = new ArrayList<>();
+        for (int id = 1; id <= 12; id++) {
+            PersonnelRecord person = person(id, "Сотрудник " + id);
+            Set<LocalDate> days = new HashSet<>();
+            for (int period = random.nextInt(5); period > 0; period--) {
+                LocalDate from = start.plusDays(random.nextInt(120));
+                LocalDate to = from.plusDays(random.nextInt(10));
+                absent(person, from, to);
+                for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+                    days.add(d);
+                }
+            }
+            personnel.add(person);
+            expected.add(days);
+        }
+        PersonnelAvailability availability = PersonnelAvailability.of(personnel);
+
+        for (LocalDate day = start.minusDays(5); day.isBefore(start.plusDays(140)); day = day.plusDays(1)) {
+            List<PersonnelRecord> free = new ArrayList<>();
+            boolean anyoneAbsent = false;
+            for (int i = 0; i < personnel.size(); i++) {
+                boolean absent = expected.get(i).contains(day);
+                assertEquals(absent, availability.isAbsent(personnel.get(i).getId(), day), day.toString());
+                anyoneAbsent |= absent;
+                if (!absent) free.add(personnel.get(i));
+            }
+            assertEquals(anyoneAbsent, availability.isAnyoneAbsent(day), day.toString());
+            assertEquals(free, availability.freeOn(day), day.toString());
+            boolean workday = day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY;
+            assertEquals(workday && !anyoneAbsent, availability.freeWorkdays(day, day).contains(day), day.toString());
+        }
+    }
+
+    private static PersonnelRecord person(int id, String lastName) {
+        PersonnelRecord person = new PersonnelRecord();
+        person.setId(id);
+        person.setLastName(lastName);
+        return person;
+    }
+
+    /** Отсутствие по дням от from до to включительно — как в БД, по строке на день. */
+    private static void absent(PersonnelRecord person, LocalDate from, LocalDate to) {
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            PersonnelRecord.UnavailabilityRecord record = new PersonnelRecord.UnavailabilityRecord();
+            record.setUnavailableDate(day);
+            person.getUnavailabilityDates().add(record);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.Test;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Section;
+import ru.citlab24.protokol.tabs.models.Space;
+import ru.citlab24.protokol.tabs.models.TitlePageData;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectFileFormatTest {
+    /** Сигнатура и байт версии. */
+    private static final int PREAMBLE = ProjectFileFormat.MAGIC.length + 1;
+    /** Тип, длина данных, длина сжатых данных, CRC32. */
+    private static final int CHUNK_HEADER = 1 + 4 + 4 + 4;
+    /** Больше порции значений в одном блоке (512), чтобы значения легли в несколько блоков. */
+    private static final int NOISE_VALUES = 1200;
+
+    @Test
+    void roundTripKeepsBuildingAndValues() throws Exception {
+        Map<String, Double[]> street = new LinkedHashMap<>();
+        street.put("0|1|кв. 1|Кухня", new Double[]{1.5, null, 3.0, 4.25});
+        street.put("0|1|кв. 1|Двор", null);
+        Map<String, DatabaseManager.NoiseValue> noise = noiseValues(NOISE_VALUES);
+        Map<String, double[]> thresholds = new LinkedHashMap<>();
+        thresholds.put("день", new double[]{40, 55});
+
+        byte[] file = write(sampleBuilding(), street, noise, thresholds);
+        Collected read = read(file);
+
+        assertEquals(new ProjectFileFormat.Summary(2, 3, street.size() + noise.size() + thresholds.size()),
+                read.summary);
+        Building building = read.building;
+        assertEquals("Дом на Ленина", building.getName());
+        assertEquals(7, building.getRevision());
+        assertEquals(5, building.getSourceProjectId());
+        assertEquals("ООО «Заказчик»", building.getTitlePageData().getCustomerNameAndContacts());
+        assertNull(building.getTitlePageData().getObjectAddress());
+        assertEquals(1, building.getTitlePageData().getMeasurements().size());
+        assertEquals("-5", building.getTitlePageData().getMeasurements().get(0).getTempOutsideStart());
+        assertEquals(List.of("Секция 1", "Секция 2"),
+                building.getSections().stream().map(Section::getName).toList());
+
+        assertEquals(2, building.getFloors().size());
+        Floor first = building.getFloors().get(0);
+        assertEquals("1", first.getNumber());
+        assertEquals(Floor.FloorType.RESIDENTIAL, first.getType());
+        Room kitchen = first.getSpaces().get(0).getRooms().get(0);
+        assertEquals("Кухня", kitchen.getName());
+        assertEquals(Integer.valueOf(11), kitchen.getOriginalRoomId());
+        assertEquals(Double.valueOf(32.5), kitchen.getVolume());
+        assertTrue(kitchen.isSelected() && !kitchen.isMicroclimateSelected() && kitchen.isRadiationSelected());
+        assertNull(first.getSpaces().get(0).getRooms().get(1).getVolume());
+        assertEquals(Space.SpaceType.OFFICE, building.getFloors().get(1).getSpaces().get(0).getType());
+
+        assertArrayEquals(street.get("0|1|кв. 1|Кухня"), read.street.get("0|1|кв. 1|Кухня"));
+        assertTrue(read.street.containsKey("0|1|кв. 1|Двор"));
+        assertNull(read.street.get("0|1|кв. 1|Двор"));
+        assertEquals(NOISE_VALUES, read.noise.size());
+        for (Map.Entry<String, DatabaseManager.NoiseValue> e : noise.entrySet()) {
+            DatabaseManager.NoiseValue actual = read.noise.get(e.getKey());
+            assertEquals(e.getValue().measure, actual.measure, e.getKey());
+            assertEquals(e.getValue().lift, actual.lift, e.getKey());
+            assertEquals(e.getValue().zum, actual.zum, e.getKey());
+        }
+        assertArrayEquals(new double[]{40, 55}, read.thresholds.get("день"), 0.0);
+    }
+
+    @Test
+    void matchesOnlyCurrentSignature() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), Map.of(), Map.of());
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(file));
+        assertTrue(ProjectFileFormat.matches(in));
+        assertEquals('P', in.read(), "matches не сдвигает поток");
+        assertFalse(ProjectFileFormat.matches(new BufferedInputStream(
+                new ByteArrayInputStream(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}))));
+    }
+
+    @Test
+    void crcMismatchIsReported() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), Map.of(), Map.of());
+        // CRC32 первого блока (заголовка) — после типа и двух длин
+        file[PREAMBLE + 9] ^= 0x01;
+
+        IOException error = assertThrows(IOException.class, () -> read(file));
+        assertTrue(error.getMessage().contains("контрольная сумма блока 0"), error.getMessage());
+    }
+
+    @Test
+    void corruptedChunkBodyIsRejected() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), Map.of(), Map.of());
+        List<int[]> chunks = chunks(file);
+        int[] floor = chunks.get(2);
+        file[floor[0] + CHUNK_HEADER + floor[2] / 2] ^= 0x5A;
+
+        assertThrows(IOException.class, () -> read(file));
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), noiseValues(10), Map.of());
+        List<int[]> chunks = chunks(file);
+        int[] end = chunks.get(chunks.size() - 1);
+
+        // Без завершающего блока целиком
+        IOException noEnd = assertThrows(IOException.class, () -> read(Arrays.copyOf(file, end[0])));
+        assertTrue(noEnd.getMessage().contains("обрезан"), noEnd.getMessage());
+        // Обрыв посреди блока
+        assertThrows(IOException.class, () -> read(Arrays.copyOf(file, end[0] - 3)));
+        // Только сигнатура
+        assertThrows(IOException.class, () -> read(Arrays.copyOf(file, PREAMBLE)));
+    }
+
+    @Test
+    void wrongTotalsBlockIsRejected() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), noiseValues(3), Map.of());
+        int endOffset = chunks(file).get(chunks(file).size() - 1)[0];
+
+        // Блок целый (CRC верный), но этажей в нём на один больше, чем в файле
+        byte[] forged = concat(Arrays.copyOf(file, endOffset), chunk(0, ints(3, 3, 3)));
+
+        IOException error = assertThrows(IOException.class, () -> read(forged));
+        assertTrue(error.getMessage().contains("не совпадает число"), error.getMessage());
+        // Исходный файл с теми же блоками читается
+        assertEquals(new ProjectFileFormat.Summary(2, 3, 3), read(file).summary);
+    }
+
+    @Test
+    void unknownChunkTypeIsSkipped() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), noiseValues(3), Map.of());
+        int endOffset = chunks(file).get(chunks(file).size() - 1)[0];
+        byte[] withFutureChunk = concat(Arrays.copyOf(file, endOffset), chunk(42, ints(1, 2, 3)),
+                Arrays.copyOfRange(file, endOffset, file.length));
+
+        assertEquals(new ProjectFileFormat.Summary(2, 3, 3), read(withFutureChunk).summary);
+    }
+
+    @Test
+    void dataBeforeHeaderIsRejected() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), Map.of(), Map.of());
+        int[] header = chunks(file).get(0);
+        int[] sections = chunks(file).get(1);
+        byte[] sectionsChunk = Arrays.copyOfRange(file, sections[0], sections[0] + CHUNK_HEADER + sections[2]);
+        byte[] reordered = concat(Arrays.copyOf(file, PREAMBLE), sectionsChunk,
+                Arrays.copyOfRange(file, header[0], file.length));
+
+        assertThrows(IOException.class, () -> read(reordered));
+    }
+
+    @Test
+    void unsupportedVersionAndForeignFileAreRejected() throws Exception {
+        byte[] file = write(sampleBuilding(), Map.of(), Map.of(), Map.of());
+        file[ProjectFileFormat.MAGIC.length] = 9;
+        IOException version = assertThrows(IOException.class, () -> read(file));
+        assertTrue(version.getMessage().contains("версия файла проекта: 9"), version.getMessage());
+
+        assertThrows(IOException.class, () -> read("PK\u0003\u0004 архив".getBytes()));
+    }
+
+    // --- Фикстуры ---
+
+    private static Building sampleBuilding() {
+        Building building = new Building();
+        building.setName("Дом на Ленина");
+        building.setRevision(7);
+        building.setSourceProjectId(5);
+        TitlePageData title = new TitlePageData();
+        title.setCustomerNameAndContacts("ООО «Заказчик»");
+        title.setProtocolDate("01.03.2026");
+        TitlePageData.Measurement measurement = new TitlePageData.Measurement();
+        measurement.setDate("02.03.2026");
+        measurement.setTempOutsideStart("-5");
+        title.getMeasurements().add(measurement);
+        building.setTitlePageData(title);
+        building.addSection(new Section("Секция 1", 0));
+        building.addSection(new Section("Секция 2", 1));
+
+        Floor first = new Floor();
+        first.setNumber("1");
+        first.setType(Floor.FloorType.RESIDENTIAL);
+        Space flat = new Space();
+        flat.setIdentifier("кв. 1");
+        flat.setType(Space.SpaceType.APARTMENT);
+        Room kitchen = new Room();
+        kitchen.setName("Кухня");
+        kitchen.setOriginalRoomId(11);
+        kitchen.setVolume(32.5);
+        kitchen.setSelected(true);
+        kitchen.setRadiationSelected(true);
+        flat.addRoom(kitchen);
+        Room hall = new Room();
+        hall.setName("Коридор");
+        flat.addRoom(hall);
+        first.addSpace(flat);
+        building.addFloor(first);
+
+        Floor second = new Floor();
+        second.setNumber("2");
+        second.setType(Floor.FloorType.OFFICE);
+        second.setSectionIndex(1);
+        Space office = new Space();
+        office.setIdentifier("оф. 20");
+        office.setType(Space.SpaceType.OFFICE);
+        Room room = new Room();
+        room.setName("Кабинет");
+        office.addRoom(room);
+        second.addSpace(office);
+        building.addFloor(second);
+        return building;
+    }
+
+    private static Map<String, DatabaseManager.NoiseValue> noiseValues(int count) {
+        Map<String, DatabaseManager.NoiseValue> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            DatabaseManager.NoiseValue value = new DatabaseManager.NoiseValue();
+            value.measure = i % 2 == 0;
+            value.lift = i % 3 == 0;
+            value.zum = i % 5 == 0;
+            values.put("0|" + i + "|кв. " + i + "|Комната", value);
+        }
+        return values;
+    }
+
+    private static byte[] write(Building building, Map<String, Double[]> street,
+                                Map<String, DatabaseManager.NoiseValue> noise,
+                                Map<String, double[]> thresholds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProjectFileFormat.Writer writer = new ProjectFileFormat.Writer(out);
+        writer.writeHeader(building);
+        for (Floor floor : building.getFloors()) {
+            writer.writeFloor(floor);
+        }
+        writer.writeStreetValues(street);
+        writer.writeNoiseValues(noise);
+        writer.writeThresholds(thresholds);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static Collected read(byte[] file) throws IOException {
+        Collected collected = new Collected();
+        collected.summary = ProjectFileFormat.read(new ByteArrayInputStream(file), collected);
+        return collected;
+    }
+
+    /** Блоки файла: {смещение, тип, длина сжатых данных}. */
+    private static List<int[]> chunks(byte[] file) {
+        List<int[]> chunks = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int offset = PREAMBLE;
+        while (offset + CHUNK_HEADER <= file.length) {
+            int type = file[offset] & 0xFF;
+            int packedLength = buffer.getInt(offset + 5);
+            chunks.add(new int[]{offset, type, packedLength});
+            offset += CHUNK_HEADER + packedLength;
+        }
+        return chunks;
+    }
+
+    /** Целый блок с верной контрольной суммой. */
+    private static byte[] chunk(int type, byte[] raw) throws IOException {
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] packed = new byte[raw.length + 64];
+        int packedLength = deflater.deflate(packed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeInt(raw.length);
+        out.writeInt(packedLength);
+        out.writeInt((int) crc.getValue());
+        out.write(packed, 0, packedLength);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int v : values) {
+            buffer.putInt(v);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Collected implements ProjectFileFormat.Sink {
+        private Building building;
+        private ProjectFileFormat.Summary summary;
+        private final Map<String, Double[]> street = new LinkedHashMap<>();
+        private final Map<String, DatabaseManager.NoiseValue> noise = new LinkedHashMap<>();
+        private final Map<String, double[]> thresholds = new LinkedHashMap<>();
+
+        @Override public void header(Building header) { building = header; }
+        @Override public void section(Section section) { building.addSection(section); }
+        @Override public void floor(Floor floor) { building.addFloor(floor); }
+        @Override public void street(String key, Double[] values) { street.put(key, values); }
+        @Override public void noise(String key, DatabaseManager.NoiseValue value) { noise.put(key, value); }
+        @Override public void threshold(String key, double[] values) { thresholds.put(key, values); }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.citlab24.protokol.tabs.models.Building;
+import ru.citlab24.protokol.tabs.models.Floor;
+import ru.citlab24.protokol.tabs.models.Room;
+import ru.citlab24.protokol.tabs.models.Space;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectFileServiceTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void exportedFileReadsBack() throws Exception {
+        File target = dir.resolve("house.protokol").toFile();
+
+        ProjectFileService.writeProjectFile(target, snapshot());
+        ProjectFileService.ProjectSnapshot read = ProjectFileService.readProjectFile(target);
+
+        assertSameSnapshot(snapshot(), read);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count(), "временный файл экспорта не остаётся");
+        }
+    }
+
+    @Test
+    void exportReplacesExistingFile() throws Exception {
+        File target = dir.resolve("house.protokol").toFile();
+        Files.writeString(target.toPath(), "старое содержимое");
+
+        ProjectFileService.writeProjectFile(target, snapshot());
+
+        assertEquals("Дом", ProjectFileService.readProjectFile(target).building.getName());
+    }
+
+    @Test
+    void legacySerializedFileIsStillRead() throws Exception {
+        File legacy = dir.resolve("legacy.protokol").toFile();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(legacy))) {
+            out.writeObject(snapshot());
+        }
+
+        assertSameSnapshot(snapshot(), ProjectFileService.readProjectFile(legacy));
+    }
+
+    @Test
+    void corruptedFileIsRejectedBeforeModelIsBuilt() throws Exception {
+        File target = dir.resolve("house.protokol").toFile();
+        ProjectFileService.writeProjectFile(target, snapshot());
+        byte[] bytes = Files.readAllBytes(target.toPath());
+        bytes[bytes.length - 1] ^= 0x7F;
+        Files.write(target.toPath(), bytes);
+
+        assertThrows(IOException.class, () -> ProjectFileService.readProjectFile(target));
+    }
+
+    @Test
+    void foreignFileIsRejected() throws Exception {
+        File text = dir.resolve("notes.protokol").toFile();
+        Files.writeString(text.toPath(), "это не проект");
+
+        IOException error = assertThrows(IOException.class, () -> ProjectFileService.readProjectFile(text));
+        assertTrue(error.getMessage().contains("не является проектом"), error.getMessage());
+    }
+
+    private static ProjectFileService.ProjectSnapshot snapshot() {
+        Building building = new Building();
+        building.setName("Дом");
+        Floor floor = new Floor();
+        floor.setNumber("1");
+        floor.setType(Floor.FloorType.RESIDENTIAL);
+        Space space = new Space();
+        space.setIdentifier("кв. 1");
+        space.setType(Space.SpaceType.APARTMENT);
+        Room room = new Room();
+        room.setName("Кухня");
+        room.setVolume(30.0);
+        space.addRoom(room);
+        floor.addSpace(space);
+        building.addFloor(floor);
+
+        DatabaseManager.NoiseValue noise = new DatabaseManager.NoiseValue();
+        noise.measure = true;
+        noise.vent = true;
+        return new ProjectFileService.ProjectSnapshot(building,
+                Map.of("0|1|кв. 1|Кухня", new Double[]{1.0, 2.0, null, 4.0}),
+                Map.of("0|1|кв. 1|Кухня", noise),
+                Map.of("ночь", new double[]{30, 45}));
+    }
+
+    private static void assertSameSnapshot(ProjectFileService.ProjectSnapshot expected,
+                                           ProjectFileService.ProjectSnapshot actual) {
+        assertEquals(expected.building.getName(), actual.building.getName());
+        assertEquals(1, actual.building.getFloors().size());
+        Room room = actual.building.getFloors().get(0).getSpaces().get(0).getRooms().get(0);
+        assertEquals("Кухня", room.getName());
+        assertEquals(Double.valueOf(30.0), room.getVolume());
+        assertArrayEquals(expected.streetLightingValues.get("0|1|кв. 1|Кухня"),
+                actual.streetLightingValues.get("0|1|кв. 1|Кухня"));
+        DatabaseManager.NoiseValue noise = actual.noiseSelections.get("0|1|кв. 1|Кухня");
+        assertTrue(noise.measure && noise.vent && !noise.lift);
+        assertArrayEquals(new double[]{30, 45}, actual.noiseThresholds.get("ночь"), 0.0);
+    }
+}
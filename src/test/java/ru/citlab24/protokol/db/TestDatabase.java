@@ -0,0 +1,63 @@
+package ru.citlab24.protokol.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Общее для интеграционных тестов БД (как BenchmarkDatabase у бенчмарков): фикстуры пишут и удаляют
+ * данные, поэтому тесты включаются только явно — {@code mvn test -Ddb.tests=true} — и только
+ * на локальной PostgreSQL из db.properties. Без флага тесты пропускаются.
+ */
+final class TestDatabase {
+    static final String ENABLED = "db.tests";
+    /** Снимает проверку локальности: {@code -Ddb.tests.allowRemote=true}. */
+    private static final String ALLOW_REMOTE = "db.tests.allowRemote";
+
+    private TestDatabase() {
+    }
+
+    static void requireLocal() throws Exception {
+        assumeTrue(Boolean.getBoolean(ENABLED),
+                "Интеграционные тесты БД выключены, включаются -D" + ENABLED + "=true");
+        String url = DatabaseConfig.load().getProperty("db.url", "");
+        boolean local = url.contains("//localhost") || url.contains("//127.0.0.1") || url.contains("//[::1]");
+        if (!local && !Boolean.getBoolean(ALLOW_REMOTE)) {
+            throw new IllegalStateException("Тесты БД запускаются только на локальной PostgreSQL, в db.properties: "
+                    + url + " (чтобы всё же запустить: -D" + ALLOW_REMOTE + "=true)");
+        }
+        DatabaseManager.initialize(); // схема приводится к последней версии
+    }
+
+    /** Отдельное соединение вне пула — для EXPLAIN, ANALYZE и проверок состояния таблиц. */
+    static Connection open() throws Exception {
+        Properties prop = DatabaseConfig.load();
+        return DriverManager.getConnection(prop.getProperty("db.url"),
+                prop.getProperty("db.user"), prop.getProperty("db.password"));
+    }
+
+    /** Текст плана EXPLAIN для запроса с целочисленными параметрами или массивами. */
+    static String explain(Connection connection, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] instanceof Integer[] ids) {
+                    ps.setArray(i + 1, connection.createArrayOf("integer", ids));
+                } else {
+                    ps.setObject(i + 1, params[i]);
+                }
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            return plan.toString();
+        }
+    }
+}
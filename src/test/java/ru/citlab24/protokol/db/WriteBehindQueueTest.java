@@ -0,0 +1,164 @@
+package ru.citlab24.protokol.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindQueueTest {
+    private static final long DELAY_MS = 5;
+    private static final long WAIT_S = 5;
+
+    /** Записанные пачки (копии) в порядке записи. */
+    private final List<Map<String, Integer>> written = new CopyOnWriteArrayList<>();
+
+    @Test
+    void mergesRepeatedChangesOfOneKey() throws Exception {
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", 60_000, 3,
+                batch -> written.add(Map.copyOf(batch)));
+        queue.submit("a", 1);
+        queue.submit("b", 1);
+        queue.submit("a", 2);
+        queue.submit("a", 3);
+        assertEquals(2, queue.pendingCount());
+
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Map.of("a", 3, "b", 1)), written);
+        assertEquals(0, queue.pendingCount());
+    }
+
+    @Test
+    void retriesTransientFailureUntilWritten() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 5, batch -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new SQLTransientConnectionException("нет соединения");
+            }
+            written.add(Map.copyOf(batch));
+        });
+        queue.submit("a", 1);
+        queue.submit("b", 2);
+
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(3, calls.get());
+        assertEquals(List.of(Map.of("a", 1, "b", 2)), written);
+        assertEquals(0, queue.pendingCount());
+    }
+
+    @Test
+    void connectionSqlStateCountsAsTransient() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 5, batch -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new SQLException("обрыв", "08006");
+            }
+            written.add(Map.copyOf(batch));
+        });
+        queue.submit("a", 1);
+
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(2, calls.get());
+        assertEquals(List.of(Map.of("a", 1)), written);
+    }
+
+    @Test
+    void permanentFailureKeepsBatchAndFailsFlush() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 5, batch -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new SQLException("нарушено ограничение", "23505");
+            }
+            written.add(Map.copyOf(batch));
+        });
+        queue.submit("a", 1);
+        queue.submit("b", 2);
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> queue.flush().get(WAIT_S, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, failure.getCause());
+        assertEquals(1, calls.get(), "постоянная ошибка не повторяется автоматически");
+        assertEquals(2, queue.pendingCount(), "незаписанные изменения остаются в очереди");
+        assertTrue(written.isEmpty());
+
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Map.of("a", 1, "b", 2)), written);
+        assertEquals(0, queue.pendingCount());
+    }
+
+    @Test
+    void exhaustedRetriesFailFlushAndKeepBatch() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 2, batch -> {
+            calls.incrementAndGet();
+            throw new SQLTransientConnectionException("нет соединения");
+        });
+        queue.submit("a", 1);
+
+        assertThrows(ExecutionException.class, () -> queue.flush().get(WAIT_S, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(1, queue.pendingCount());
+        assertFalse(queue.flushAndWait(TimeUnit.SECONDS.toMillis(WAIT_S)));
+        assertEquals(1, queue.pendingCount());
+    }
+
+    @Test
+    void failedBatchDoesNotOverwriteNewerValues() throws Exception {
+        CountDownLatch inFlush = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 5, batch -> {
+            if (calls.incrementAndGet() == 1) {
+                inFlush.countDown();
+                release.await(WAIT_S, TimeUnit.SECONDS);
+                throw new SQLTransientConnectionException("нет соединения");
+            }
+            written.add(Map.copyOf(batch));
+        });
+        queue.submit("a", 1);
+        queue.submit("b", 1);
+        assertTrue(inFlush.await(WAIT_S, TimeUnit.SECONDS));
+
+        // Пока первая пачка пишется, значение «a» меняется ещё раз
+        queue.submit("a", 2);
+        release.countDown();
+
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Map.of("a", 2, "b", 1)), written);
+    }
+
+    @Test
+    void newChangeAfterPermanentFailureRetriesWholeQueue() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        WriteBehindQueue<String, Integer> queue = new WriteBehindQueue<>("test", DELAY_MS, 5, batch -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new SQLException("ошибка", "42P01");
+            }
+            written.add(Map.copyOf(batch));
+        });
+        queue.submit("a", 1);
+        assertThrows(ExecutionException.class, () -> queue.flush().get(WAIT_S, TimeUnit.SECONDS));
+
+        queue.submit("b", 2);
+        queue.flush().get(WAIT_S, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Map.of("a", 1, "b", 2)), written);
+    }
+}
@@ -0,0 +1,182 @@
+package ru.citlab24.protokol.protocolmap.area;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AreaSnapshotCodecTest {
+
+    @Test
+    void currentFormatRoundTrip() throws Exception {
+        AreaProtocolPanel.AreaProjectSnapshot source = sample();
+        source.sketchHash = AreaSnapshotCodec.sketchHash(new byte[]{1, 2, 3});
+
+        byte[] encoded = AreaSnapshotCodec.encode(source);
+        assertArrayEquals(new byte[]{'A', 'P', 'S', 'N', 2}, Arrays.copyOf(encoded, 5));
+
+        AreaProtocolPanel.AreaProjectSnapshot decoded = AreaSnapshotCodec.decode(encoded);
+        assertSameContent(source, decoded);
+        assertEquals(source.sketchHash, decoded.sketchHash);
+        assertNull(decoded.imageBytes, "картинка в новый формат не входит");
+    }
+
+    @Test
+    void nullAndLongStringsRoundTrip() throws Exception {
+        AreaProtocolPanel.AreaProjectSnapshot source = new AreaProtocolPanel.AreaProjectSnapshot();
+        source.projectName = null;
+        // Длиннее предела writeUTF в 64 КБ
+        source.areaText = "участок ".repeat(20_000);
+
+        AreaProtocolPanel.AreaProjectSnapshot decoded = AreaSnapshotCodec.decode(AreaSnapshotCodec.encode(source));
+
+        assertNull(decoded.projectName);
+        assertEquals(source.areaText, decoded.areaText);
+        assertTrue(decoded.medValues.isEmpty());
+        assertTrue(decoded.noisePoints.isEmpty());
+    }
+
+    @Test
+    void legacySerializedSnapshotIsStillRead() throws Exception {
+        AreaProtocolPanel.AreaProjectSnapshot source = sample();
+        source.imageBytes = new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 1, 2};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(source);
+        }
+        byte[] legacy = bytes.toByteArray();
+        assertEquals(0xAC, legacy[0] & 0xFF);
+        assertEquals(0xED, legacy[1] & 0xFF);
+
+        AreaProtocolPanel.AreaProjectSnapshot decoded = AreaSnapshotCodec.decode(legacy);
+
+        assertSameContent(source, decoded);
+        assertArrayEquals(source.imageBytes, decoded.imageBytes, "у старых снимков картинка остаётся внутри");
+        assertNull(decoded.sketchHash);
+    }
+
+    @Test
+    void legacyStreamWithOtherObjectIsRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject("не снимок");
+        }
+        assertThrows(IOException.class, () -> AreaSnapshotCodec.decode(bytes.toByteArray()));
+    }
+
+    @Test
+    void unknownVersionIsRejected() throws Exception {
+        byte[] encoded = AreaSnapshotCodec.encode(sample());
+        encoded[4] = 3;
+
+        IOException error = assertThrows(IOException.class, () -> AreaSnapshotCodec.decode(encoded));
+        assertTrue(error.getMessage().contains("версия проекта участка: 3"), error.getMessage());
+    }
+
+    @Test
+    void foreignOrEmptyDataIsRejected() {
+        assertThrows(IOException.class, () -> AreaSnapshotCodec.decode(null));
+        assertThrows(IOException.class, () -> AreaSnapshotCodec.decode(new byte[]{'A', 'P'}));
+        assertThrows(IOException.class, () -> AreaSnapshotCodec.decode("PK\u0003\u0004 zip".getBytes()));
+    }
+
+    @Test
+    void truncatedBodyIsRejected() throws Exception {
+        byte[] encoded = AreaSnapshotCodec.encode(sample());
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+
+        assertThrows(IOException.class, () -> AreaSnapshotCodec.decode(truncated));
+    }
+
+    private static AreaProtocolPanel.AreaProjectSnapshot sample() {
+        AreaProtocolPanel.AreaProjectSnapshot snapshot = new AreaProtocolPanel.AreaProjectSnapshot();
+        snapshot.protocolDate = "01.02.2026";
+        snapshot.projectName = "Участок «Северный»";
+        snapshot.customerNameAndContacts = "ООО Заказчик, +7 900 000-00-00";
+        snapshot.objectAddress = "г. Пермь, ул. Ленина, 1";
+        snapshot.areaText = "1250";
+        snapshot.gammaMinValue = "0,08";
+        snapshot.gammaMaxValue = "0,14";
+        snapshot.noiseMethod = "ГОСТ 23337-2014";
+        snapshot.medSelected = true;
+        snapshot.pprSelected = false;
+        snapshot.imageName = "эскиз.png";
+        snapshot.boundaryColorRgb = 0xFF2266AA;
+        snapshot.gammaControlPointScale = 80;
+        snapshot.pprPointScale = 120;
+        snapshot.noisePointScale = 95;
+
+        AreaProtocolPanel.MedValueSnapshot med = new AreaProtocolPanel.MedValueSnapshot();
+        med.profileNumber = 3;
+        med.minValue = "0,09";
+        med.maxValue = "0,12";
+        med.distance = "2,5";
+        med.count = "14";
+        snapshot.medValues.add(med);
+
+        AreaProtocolPanel.MeasurementProjectRow row = new AreaProtocolPanel.MeasurementProjectRow();
+        row.date = "03.02.2026";
+        row.tempOutsideStart = "-12";
+        row.gammaSelected = true;
+        row.noiseSelected = true;
+        snapshot.measurementRows.add(row);
+
+        snapshot.boundaryPoints.add(new AreaProtocolPanel.PointSnapshot(0.0, 0.0));
+        snapshot.boundaryPoints.add(new AreaProtocolPanel.PointSnapshot(120.5, -3.25));
+        snapshot.gammaProfiles.add(new AreaProtocolPanel.GammaProfileSnapshot(10, 20, Math.PI / 4, "П1"));
+        snapshot.gammaControlPoints.add(new AreaProtocolPanel.GammaControlPointSnapshot(1, 2, "К1"));
+        snapshot.pprPoints.add(new AreaProtocolPanel.PprPointSnapshot(3, 4, "Р1"));
+        snapshot.noisePoints.add(new AreaProtocolPanel.NoisePointSnapshot(5, 6, null));
+        return snapshot;
+    }
+
+    private static void assertSameContent(AreaProtocolPanel.AreaProjectSnapshot expected,
+                                          AreaProtocolPanel.AreaProjectSnapshot actual) {
+        assertEquals(expected.protocolDate, actual.protocolDate);
+        assertEquals(expected.projectName, actual.projectName);
+        assertEquals(expected.customerNameAndContacts, actual.customerNameAndContacts);
+        assertEquals(expected.customerLegalAddress, actual.customerLegalAddress);
+        assertEquals(expected.objectAddress, actual.objectAddress);
+        assertEquals(expected.areaText, actual.areaText);
+        assertEquals(expected.gammaMinValue, actual.gammaMinValue);
+        assertEquals(expected.gammaMaxValue, actual.gammaMaxValue);
+        assertEquals(expected.noiseMethod, actual.noiseMethod);
+        assertEquals(expected.medSelected, actual.medSelected);
+        assertEquals(expected.pprSelected, actual.pprSelected);
+        assertEquals(expected.imageName, actual.imageName);
+        assertEquals(expected.boundaryColorRgb, actual.boundaryColorRgb);
+        assertEquals(expected.gammaControlPointScale, actual.gammaControlPointScale);
+        assertEquals(expected.pprPointScale, actual.pprPointScale);
+        assertEquals(expected.noisePointScale, actual.noisePointScale);
+
+        assertEquals(expected.medValues.size(), actual.medValues.size());
+        AreaProtocolPanel.MedValueSnapshot med = actual.medValues.get(0);
+        assertEquals(3, med.profileNumber);
+        assertEquals("0,12", med.maxValue);
+        assertEquals("14", med.count);
+
+        assertEquals(expected.measurementRows.size(), actual.measurementRows.size());
+        AreaProtocolPanel.MeasurementProjectRow row = actual.measurementRows.get(0);
+        assertEquals("03.02.2026", row.date);
+        assertEquals("-12", row.tempOutsideStart);
+        assertNull(row.tempInsideStart);
+        assertTrue(row.gammaSelected && !row.pprSelected && row.noiseSelected);
+
+        assertEquals(2, actual.boundaryPoints.size());
+        assertEquals(120.5, actual.boundaryPoints.get(1).x);
+        assertEquals(-3.25, actual.boundaryPoints.get(1).y);
+        assertEquals(Math.PI / 4, actual.gammaProfiles.get(0).angle);
+        assertEquals("П1", actual.gammaProfiles.get(0).number);
+        assertEquals("К1", actual.gammaControlPoints.get(0).number);
+        assertEquals(4.0, actual.pprPoints.get(0).y);
+        assertNull(actual.noisePoints.get(0).number);
+    }
+}
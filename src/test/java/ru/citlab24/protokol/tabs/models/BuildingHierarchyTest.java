@@ -0,0 +1,369 @@
+package ru.citlab24.protokol.tabs.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildingHierarchyTest {
+
+    @Test
+    void modelMethodsKeepIndexUpToDate() {
+        Building building = building(3, 2, 2);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Floor middle = building.getFloors().get(1);
+        Space space = middle.getSpaces().get(1);
+        Room room = space.getRooms().get(1);
+
+        assertSame(middle, hierarchy.floorOf(space));
+        assertSame(space, hierarchy.spaceOf(room));
+        assertSame(middle, hierarchy.floorOf(room));
+        assertEquals(1, hierarchy.indexOf(middle));
+        assertEquals(1, hierarchy.indexOf(space));
+        assertEquals(1, hierarchy.indexOf(room));
+
+        building.removeFloor(0);
+        assertEquals(0, hierarchy.indexOf(middle), "позиции после удалённого этажа сдвигаются");
+        middle.removeSpace(0);
+        assertEquals(0, hierarchy.indexOf(space));
+        space.removeRoom(0);
+        assertEquals(0, hierarchy.indexOf(room));
+
+        Room added = new Room();
+        space.addRoom(added);
+        assertSame(space, hierarchy.spaceOf(added));
+        assertEquals(1, hierarchy.indexOf(added));
+        assertSame(added, hierarchy.roomById(added.getId()));
+
+        Floor floor = new Floor();
+        Space newSpace = new Space();
+        newSpace.addRoom(new Room());
+        floor.addSpace(newSpace);
+        building.addFloor(floor);
+        assertSame(floor, hierarchy.floorOf(newSpace));
+        assertSame(newSpace, hierarchy.spaceOf(newSpace.getRooms().get(0)));
+        assertSame(hierarchy, building.getHierarchy(), "индекс не перестраивается заново");
+    }
+
+    @Test
+    void removedElementsAreNotFound() {
+        Building building = building(2, 2, 2);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Floor floor = building.getFloors().get(0);
+        Space space = floor.getSpaces().get(0);
+        Room room = building.getFloors().get(1).getSpaces().get(0).getRooms().get(0);
+        int spaceId = space.getId();
+        int roomId = room.getId();
+
+        building.removeFloor(floor);
+        room.space.removeRoom(room);
+
+        assertNull(hierarchy.floorOf(space));
+        assertEquals(-1, hierarchy.indexOf(floor));
+        assertNull(hierarchy.spaceById(spaceId));
+        assertNull(hierarchy.spaceOf(room));
+        assertNull(hierarchy.roomById(roomId));
+        assertTrue(hierarchy.roomsByOriginalId(roomId).isEmpty());
+    }
+
+    @Test
+    void idChangesAreFollowed() {
+        Building building = building(1, 2, 2);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Space space = building.getFloors().get(0).getSpaces().get(0);
+        Room room = space.getRooms().get(0);
+        int oldSpaceId = space.getId();
+        int oldRoomId = room.getId();
+
+        space.setId(900_001);
+        room.setId(900_002);
+        room.setOriginalRoomId(900_003);
+
+        assertSame(space, hierarchy.spaceById(900_001));
+        assertNull(hierarchy.spaceById(oldSpaceId));
+        assertSame(room, hierarchy.roomById(900_002));
+        assertNull(hierarchy.roomById(oldRoomId));
+        assertEquals(List.of(room), hierarchy.roomsByOriginalId(900_003));
+        assertTrue(hierarchy.roomsByOriginalId(oldRoomId).isEmpty());
+    }
+
+    @Test
+    void duplicateIdsResolveToFirstInBuildingOrder() {
+        Building building = building(2, 1, 1);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Space first = building.getFloors().get(0).getSpaces().get(0);
+        Space second = building.getFloors().get(1).getSpaces().get(0);
+
+        second.setId(900_010);
+        first.setId(900_010);
+        assertSame(first, hierarchy.spaceById(900_010));
+
+        first.setId(900_011);
+        assertSame(second, hierarchy.spaceById(900_010), "id освободился — находится следующее помещение");
+
+        Space late = new Space();
+        late.setId(900_011);
+        building.getFloors().get(0).addSpace(late);
+        Space early = new Space();
+        early.setId(900_012);
+        building.getFloors().get(1).addSpace(early);
+        Room room = new Room();
+        room.setId(900_013);
+        second.addRoom(room);
+        Room earlier = new Room();
+        earlier.setId(900_013);
+        first.addRoom(earlier);
+        assertSame(first, hierarchy.spaceById(900_011));
+        assertSame(earlier, hierarchy.roomById(900_013), "комната раньше по порядку здания");
+    }
+
+    @Test
+    void directListChangesTriggerRebuild() {
+        Building building = building(2, 3, 2);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Floor floor = building.getFloors().get(0);
+        Space moved = floor.getSpaces().get(2);
+
+        // В обход addSpace/removeSpace: индекс устарел, ответы всё равно верны
+        Collections.swap(floor.getSpaces(), 0, 2);
+        assertEquals(0, hierarchy.indexOf(moved));
+
+        Space foreign = new Space();
+        foreign.addRoom(new Room());
+        building.getFloors().get(1).getSpaces().add(foreign);
+        assertSame(building.getFloors().get(1), hierarchy.floorOf(foreign));
+        assertSame(foreign, hierarchy.spaceById(foreign.getId()));
+        Room foreignRoom = foreign.getRooms().get(0);
+        assertSame(foreignRoom, hierarchy.roomById(foreignRoom.getId()));
+
+        Room removed = floor.getSpaces().get(1).getRooms().remove(0);
+        assertNull(hierarchy.roomById(removed.getId()));
+
+        Collections.reverse(building.getFloors());
+        assertEquals(1, hierarchy.indexOf(floor));
+        assertSame(floor, hierarchy.floorOf(moved));
+    }
+
+    @Test
+    void directlyAddedElementsAreFoundById() {
+        Building building = building(2, 2, 2);
+        BuildingHierarchy hierarchy = building.getHierarchy();
+        Room indexed = building.getFloors().get(0).getSpaces().get(0).getRooms().get(0);
+        indexed.setOriginalRoomId(900_021);
+        assertEquals(List.of(indexed), hierarchy.roomsByOriginalId(900_021));
+
+        // Первое обращение — сразу по id, без поиска родителя, который перестроил бы индекс
+        Space foreign = new Space();
+        foreign.setId(900_022);
+        Room foreignRoom = new Room();
+        foreignRoom.setId(900_023);
+        foreignRoom.setOriginalRoomId(900_024);
+        foreign.getRooms().add(foreignRoom);
+        building.getFloors().get(1).getSpaces().add(foreign);
+
+        assertSame(foreign, hierarchy.spaceById(900_022), "помещение, добавленное в обход addSpace");
+        assertSame(foreignRoom, hierarchy.roomById(900_023), "комната, добавленная в обход addRoom");
+        assertEquals(List.of(foreignRoom), hierarchy.roomsByOriginalId(900_024));
+        assertNull(hierarchy.roomById(900_025));
+    }
+
+    @Test
+    void deserializedBuildingRelinksParents() throws Exception {
+        Building original = building(2, 2, 2);
+        original.getHierarchy();
+
+        Building copy = deserialize(original);
+        Floor floor = copy.getFloors().get(1);
+        Space space = floor.getSpaces().get(1);
+        Room room = space.getRooms().get(1);
+
+        // Ссылки на родителя transient и восстанавливаются при чтении — без построения индекса
+        assertSame(copy, floor.building);
+        assertSame(floor, space.floor);
+        assertSame(space, room.space);
+        assertNull(copy.builtHierarchy());
+
+        Room added = new Room();
+        space.addRoom(added);
+        BuildingHierarchy hierarchy = copy.getHierarchy();
+        assertSame(floor, hierarchy.floorOf(room));
+        assertSame(space, hierarchy.spaceOf(added));
+        assertEquals(2, hierarchy.indexOf(added));
+        assertSame(room, hierarchy.roomById(room.getId()));
+
+        space.removeRoom(0);
+        assertEquals(0, hierarchy.indexOf(room), "после чтения индекс поддерживается моделью");
+    }
+
+    @Test
+    void matchesFullScanAfterRandomEdits() {
+        Random random = new Random(20260325);
+        for (int round = 0; round < 30; round++) {
+            Building building = building(1 + random.nextInt(3), 1 + random.nextInt(3), random.nextInt(3));
+            BuildingHierarchy hierarchy = building.getHierarchy();
+            List<Space> detachedSpaces = new ArrayList<>();
+            List<Room> detachedRooms = new ArrayList<>();
+            for (int step = 0; step < 200; step++) {
+                edit(random, building, detachedSpaces, detachedRooms);
+                if (random.nextInt(4) == 0) {
+                    assertMatchesScan(building, hierarchy, detachedSpaces, detachedRooms);
+                }
+            }
+            assertMatchesScan(building, hierarchy, detachedSpaces, detachedRooms);
+        }
+    }
+
+    /** Случайная правка: методы модели, смена id (с совпадениями) и изредка правка списков напрямую. */
+    private static void edit(Random random, Building building, List<Space> detachedSpaces, List<Room> detachedRooms) {
+        List<Floor> floors = building.getFloors();
+        Floor floor = floors.isEmpty() ? null : floors.get(random.nextInt(floors.size()));
+        Space space = (floor == null || floor.getSpaces().isEmpty())
+                ? null : floor.getSpaces().get(random.nextInt(floor.getSpaces().size()));
+        Room room = (space == null || space.getRooms().isEmpty())
+                ? null : space.getRooms().get(random.nextInt(space.getRooms().size()));
+        switch (random.nextInt(12)) {
+            case 0 -> building.addFloor(floor(random.nextInt(3), random.nextInt(3)));
+            case 1 -> { if (floors.size() > 1) building.removeFloor(random.nextInt(floors.size())); }
+            case 2 -> { if (floor != null) floor.addSpace(space(random.nextInt(3))); }
+            case 3 -> {
+                if (space != null) {
+                    floor.removeSpace(space);
+                    detachedSpaces.add(space);
+                }
+            }
+            case 4 -> { if (space != null) space.addRoom(new Room()); }
+            case 5 -> {
+                if (room != null) {
+                    space.removeRoom(room);
+                    detachedRooms.add(room);
+                }
+            }
+            case 6 -> { if (space != null) space.setId(random.nextInt(6)); }
+            case 7 -> { if (room != null) room.setId(random.nextInt(6)); }
+            case 8 -> { if (room != null) room.setOriginalRoomId(random.nextInt(4) == 0 ? null : random.nextInt(6)); }
+            case 9 -> { if (floor != null) Collections.shuffle(floor.getSpaces(), random); }
+            case 10 -> {
+                if (space != null && !space.getRooms().isEmpty()) {
+                    detachedRooms.add(space.getRooms().remove(random.nextInt(space.getRooms().size())));
+                }
+            }
+            default -> { if (floor != null) floor.getSpaces().add(space(random.nextInt(3))); }
+        }
+    }
+
+    private static void assertMatchesScan(Building building, BuildingHierarchy hierarchy,
+                                          List<Space> detachedSpaces, List<Room> detachedRooms) {
+        Map<Integer, Space> firstSpaces = new HashMap<>();
+        Map<Integer, Room> firstRooms = new HashMap<>();
+        Map<Integer, List<Room>> byOriginal = new HashMap<>();
+        List<Floor> floors = building.getFloors();
+        for (int f = 0; f < floors.size(); f++) {
+            Floor floor = floors.get(f);
+            assertEquals(f, hierarchy.indexOf(floor));
+            List<Space> spaces = floor.getSpaces();
+            for (int s = 0; s < spaces.size(); s++) {
+                Space space = spaces.get(s);
+                assertSame(floor, hierarchy.floorOf(space));
+                assertEquals(s, hierarchy.indexOf(space));
+                firstSpaces.putIfAbsent(space.getId(), space);
+                List<Room> rooms = space.getRooms();
+                for (int r = 0; r < rooms.size(); r++) {
+                    Room room = rooms.get(r);
+                    assertSame(space, hierarchy.spaceOf(room));
+                    assertSame(floor, hierarchy.floorOf(room));
+                    assertEquals(r, hierarchy.indexOf(room));
+                    firstRooms.putIfAbsent(room.getId(), room);
+                    if (room.getOriginalRoomId() != null) {
+                        byOriginal.computeIfAbsent(room.getOriginalRoomId(), id -> new ArrayList<>()).add(room);
+                    }
+                }
+            }
+        }
+        for (int id = 0; id < 6; id++) {
+            assertSame(firstSpaces.get(id), hierarchy.spaceById(id), "помещение с id " + id);
+            assertSame(firstRooms.get(id), hierarchy.roomById(id), "комната с id " + id);
+            assertSameRooms(byOriginal.getOrDefault(id, List.of()), hierarchy.roomsByOriginalId(id));
+        }
+        for (Space space : detachedSpaces) {
+            if (!contains(building, space)) {
+                assertNull(hierarchy.floorOf(space));
+                assertEquals(-1, hierarchy.indexOf(space));
+            }
+        }
+        for (Room room : detachedRooms) {
+            if (!contains(building, room)) {
+                assertNull(hierarchy.spaceOf(room));
+                assertEquals(-1, hierarchy.indexOf(room));
+            }
+        }
+    }
+
+    private static void assertSameRooms(List<Room> expected, List<Room> actual) {
+        Map<Room, Boolean> expectedSet = new IdentityHashMap<>();
+        expected.forEach(room -> expectedSet.put(room, Boolean.TRUE));
+        Map<Room, Boolean> actualSet = new IdentityHashMap<>();
+        actual.forEach(room -> actualSet.put(room, Boolean.TRUE));
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expectedSet.keySet(), actualSet.keySet());
+    }
+
+    private static boolean contains(Building building, Space space) {
+        return building.getFloors().stream().anyMatch(floor -> floor.getSpaces().stream().anyMatch(s -> s == space));
+    }
+
+    private static boolean contains(Building building, Room room) {
+        return building.getFloors().stream()
+                .flatMap(floor -> floor.getSpaces().stream())
+                .anyMatch(space -> space.getRooms().stream().anyMatch(r -> r == room));
+    }
+
+    private static Building building(int floors, int spaces, int rooms) {
+        Building building = new Building();
+        building.setName("Дом");
+        for (int f = 0; f < floors; f++) {
+            building.addFloor(floor(spaces, rooms));
+        }
+        return building;
+    }
+
+    private static Floor floor(int spaces, int rooms) {
+        Floor floor = new Floor();
+        for (int s = 0; s < spaces; s++) {
+            floor.addSpace(space(rooms));
+        }
+        return floor;
+    }
+
+    private static Space space(int rooms) {
+        Space space = new Space();
+        for (int r = 0; r < rooms; r++) {
+            space.addRoom(new Room());
+        }
+        return space;
+    }
+
+    private static Building deserialize(Building building) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(building);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return Objects.requireNonNull((Building) in.readObject());
+        }
+    }
+}
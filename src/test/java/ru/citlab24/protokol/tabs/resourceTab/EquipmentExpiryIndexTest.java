@@ -0,0 +1,126 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import org.junit.jupiter.api.Test;
+import ru.citlab24.protokol.db.DatabaseManager.EquipmentDueDate;
+import ru.citlab24.protokol.db.DatabaseManager.EquipmentDueKind;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EquipmentExpiryIndexTest {
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 16);
+
+    @Test
+    void dueBetweenIncludesRangeEnds() {
+        EquipmentExpiryIndex index = new EquipmentExpiryIndex(TODAY, List.of(
+                due(1, EquipmentDueKind.VERIFICATION, 2026, 3, 31),
+                due(2, EquipmentDueKind.MAINTENANCE, 2026, 3, 16),
+                due(3, EquipmentDueKind.VERIFICATION, 2026, 4, 1),
+                due(1, EquipmentDueKind.MAINTENANCE, 2026, 6, 1)));
+
+        assertEquals(List.of(2, 1), ids(index.dueBetween(TODAY, LocalDate.of(2026, 3, 31))));
+        assertEquals(List.of(2, 1, 3), ids(index.expiringWithin(TODAY, 16)));
+        assertEquals(List.of(1), ids(index.dueBetween(LocalDate.of(2026, 6, 1), LocalDate.of(2026, 6, 1))));
+        assertTrue(index.dueBetween(LocalDate.of(2026, 4, 2), LocalDate.of(2026, 5, 31)).isEmpty());
+        assertTrue(index.dueBetween(LocalDate.of(2026, 4, 1), TODAY).isEmpty(), "пустой диапазон");
+    }
+
+    @Test
+    void withChangesReplacesOnlyChangedEquipment() {
+        EquipmentExpiryIndex index = new EquipmentExpiryIndex(TODAY, List.of(
+                due(1, EquipmentDueKind.VERIFICATION, 2026, 4, 10),
+                due(1, EquipmentDueKind.MAINTENANCE, 2026, 5, 1),
+                due(2, EquipmentDueKind.VERIFICATION, 2026, 4, 20),
+                due(3, EquipmentDueKind.VERIFICATION, 2026, 7, 1)));
+
+        EquipmentExpiryIndex changed = index.withChanges(List.of(1, 3),
+                List.of(due(1, EquipmentDueKind.VERIFICATION, 2027, 4, 10)));
+
+        assertEquals(4, index.size(), "исходный индекс не меняется");
+        assertEquals(2, changed.size(), "выведенное из эксплуатации оборудование пропадает");
+        assertEquals(List.of(2, 1), ids(changed.dueBetween(TODAY, LocalDate.of(2027, 12, 31))));
+        assertEquals(TODAY, changed.builtOn());
+    }
+
+    @Test
+    void withChangesMatchesFullRebuild() {
+        Random random = new Random(20260316);
+        for (int round = 0; round < 50; round++) {
+            List<EquipmentDueDate> registry = randomDueDates(random, 1 + random.nextInt(40));
+            EquipmentExpiryIndex index = new EquipmentExpiryIndex(TODAY, registry);
+
+            Set<Integer> changedIds = new HashSet<>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                changedIds.add(random.nextInt(40));
+            }
+            List<EquipmentDueDate> fresh = new ArrayList<>();
+            for (EquipmentDueDate due : randomDueDates(random, 40)) {
+                if (changedIds.contains(due.equipmentId()) && random.nextBoolean()) {
+                    fresh.add(due);
+                }
+            }
+            List<EquipmentDueDate> expected = new ArrayList<>(fresh);
+            for (EquipmentDueDate due : registry) {
+                if (!changedIds.contains(due.equipmentId())) {
+                    expected.add(due);
+                }
+            }
+
+            EquipmentExpiryIndex rebuilt = new EquipmentExpiryIndex(TODAY, expected);
+            EquipmentExpiryIndex merged = index.withChanges(changedIds, fresh);
+            LocalDate from = TODAY.plusDays(random.nextInt(200));
+            LocalDate to = from.plusDays(random.nextInt(200));
+            assertEquals(sorted(rebuilt.dueBetween(TODAY, TODAY.plusYears(2))),
+                    sorted(merged.dueBetween(TODAY, TODAY.plusYears(2))));
+            assertEquals(sorted(rebuilt.dueBetween(from, to)), sorted(merged.dueBetween(from, to)),
+                    "диапазон " + from + "–" + to);
+            assertDatesAscending(merged.dueBetween(TODAY, TODAY.plusYears(2)));
+        }
+    }
+
+    private static List<EquipmentDueDate> randomDueDates(Random random, int count) {
+        List<EquipmentDueDate> result = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            if (random.nextBoolean()) {
+                result.add(new EquipmentDueDate(id, EquipmentDueKind.VERIFICATION,
+                        TODAY.plusDays(random.nextInt(400)), "Прибор " + id, ""));
+            }
+            if (random.nextInt(3) == 0) {
+                result.add(new EquipmentDueDate(id, EquipmentDueKind.MAINTENANCE,
+                        TODAY.plusDays(random.nextInt(400)), "Прибор " + id, ""));
+            }
+        }
+        return result;
+    }
+
+    /** Порядок записей с одной датой не задан — сравниваются отсортированные полностью. */
+    private static List<EquipmentDueDate> sorted(List<EquipmentDueDate> dueDates) {
+        List<EquipmentDueDate> result = new ArrayList<>(dueDates);
+        result.sort(Comparator.comparing(EquipmentDueDate::date)
+                .thenComparingInt(EquipmentDueDate::equipmentId)
+                .thenComparing(EquipmentDueDate::kind));
+        return result;
+    }
+
+    private static void assertDatesAscending(List<EquipmentDueDate> dueDates) {
+        for (int i = 1; i < dueDates.size(); i++) {
+            assertTrue(!dueDates.get(i).date().isBefore(dueDates.get(i - 1).date()), "сроки по возрастанию");
+        }
+    }
+
+    private static EquipmentDueDate due(int equipmentId, EquipmentDueKind kind, int year, int month, int day) {
+        return new EquipmentDueDate(equipmentId, kind, LocalDate.of(year, month, day), "Прибор " + equipmentId, "");
+    }
+
+    private static List<Integer> ids(List<EquipmentDueDate> dueDates) {
+        return dueDates.stream().map(EquipmentDueDate::equipmentId).toList();
+    }
+}
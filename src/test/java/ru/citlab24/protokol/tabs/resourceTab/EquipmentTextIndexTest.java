@@ -0,0 +1,132 @@
+package ru.citlab24.protokol.tabs.resourceTab;
+
+import org.junit.jupiter.api.Test;
+import ru.citlab24.protokol.equipment.EquipmentCategory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EquipmentTextIndexTest {
+    /** Мало разных букв — чтобы триграммы часто совпадали, а подстроки — нет. */
+    private static final String ALPHABET = "абвеёЁАБ ab\t1-";
+    private static final EquipmentCategory[] CATEGORIES = EquipmentCategory.values();
+
+    @Test
+    void matchesFullScanOnRandomRegisters() {
+        Random random = new Random(20260318);
+        for (int round = 0; round < 40; round++) {
+            int count = random.nextInt(120);
+            List<String> texts = new ArrayList<>(count);
+            List<EquipmentCategory> categories = new ArrayList<>(count);
+            BitSet active = new BitSet();
+            for (int i = 0; i < count; i++) {
+                texts.add(randomText(random, 1 + random.nextInt(40)));
+                categories.add(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                if (random.nextBoolean()) active.set(i);
+            }
+            EquipmentTextIndex index = new EquipmentTextIndex(texts, categories, active);
+            assertEquals(count, index.size());
+
+            for (int q = 0; q < 60; q++) {
+                String query = randomQuery(random, texts);
+                EquipmentCategory category = random.nextInt(3) == 0
+                        ? null : CATEGORIES[random.nextInt(CATEGORIES.length)];
+                Boolean activeOnly = switch (random.nextInt(3)) {
+                    case 0 -> null;
+                    case 1 -> Boolean.TRUE;
+                    default -> Boolean.FALSE;
+                };
+                assertEquals(fullScan(texts, categories, active, query, category, activeOnly),
+                        index.find(query, category, activeOnly),
+                        () -> "запрос «" + query + "», вид " + category + ", статус " + activeOnly);
+            }
+        }
+    }
+
+    @Test
+    void normalizesCaseYoAndWhitespaceLikeOldFilter() {
+        EquipmentTextIndex index = new EquipmentTextIndex(
+                List.of("Шумомер  ЭКОФИЗИКА-110А\tзав. № 123", "Дозиметр ДКС-96", "Счётчик ёмкости"),
+                List.of(CATEGORIES[0], CATEGORIES[0], CATEGORIES[0]),
+                bits(0, 1, 2));
+
+        assertEquals(bits(0), index.find("экофизика-110а зав", null, null));
+        assertEquals(bits(0), index.find("  ЭКОФИЗИКА-110А   ЗАВ ", null, null));
+        assertEquals(bits(2), index.find("СЧЕТЧИК", null, null));
+        assertEquals(bits(2), index.find("ёмк", null, null));
+        assertEquals(bits(1), index.find("кс", null, null), "короткий запрос — без триграмм");
+        assertEquals(bits(0, 1, 2), index.find("   ", null, null));
+        assertTrue(index.find("дкс-97", null, null).isEmpty());
+    }
+
+    @Test
+    void gramsFromDifferentPlacesDoNotMatch() {
+        // Все триграммы запроса есть в тексте, но подряд они не встречаются
+        EquipmentTextIndex index = new EquipmentTextIndex(
+                List.of("абвг xx бвгд"), List.of(CATEGORIES[0]), bits(0));
+
+        assertTrue(index.find("абвгд", null, null).isEmpty());
+        assertEquals(bits(0), index.find("бвгд", null, null));
+    }
+
+    @Test
+    void emptyRegisterFindsNothing() {
+        EquipmentSearchIndex index = EquipmentSearchIndex.empty();
+
+        assertEquals(0, index.size());
+        assertTrue(index.find("", null, null).isEmpty());
+        assertTrue(index.find("шумомер", CATEGORIES[0], true).isEmpty());
+    }
+
+    /** Прежний фильтр EquipmentTab: вид, статус и normalize(текст).contains(normalize(запрос)). */
+    private static BitSet fullScan(List<String> texts, List<EquipmentCategory> categories, BitSet active,
+                                   String query, EquipmentCategory category, Boolean activeOnly) {
+        String normalized = EquipmentTextIndex.normalize(query);
+        BitSet result = new BitSet();
+        for (int i = 0; i < texts.size(); i++) {
+            if (category != null && categories.get(i) != category) continue;
+            if (activeOnly != null && activeOnly != active.get(i)) continue;
+            if (normalized.isBlank() || EquipmentTextIndex.normalize(texts.get(i)).contains(normalized)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private static String randomQuery(Random random, List<String> texts) {
+        if (texts.isEmpty() || random.nextInt(4) == 0) {
+            return random.nextInt(10) == 0 ? "" : randomText(random, 1 + random.nextInt(6));
+        }
+        // Кусок существующего текста, иногда в другом регистре и с лишними пробелами
+        String text = texts.get(random.nextInt(texts.size()));
+        int from = random.nextInt(text.length());
+        int to = Math.min(text.length(), from + 1 + random.nextInt(8));
+        String piece = text.substring(from, to);
+        return switch (random.nextInt(4)) {
+            case 0 -> piece.toUpperCase();
+            case 1 -> " " + piece.replace(" ", "  ") + "\t";
+            default -> piece;
+        };
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int i : indexes) {
+            bits.set(i);
+        }
+        return bits;
+    }
+}